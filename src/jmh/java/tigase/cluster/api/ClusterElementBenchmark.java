@@ -0,0 +1,95 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.api;
+
+import org.openjdk.jmh.annotations.*;
+import tigase.server.Packet;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.jid.JID;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serialization of {@link ClusterElement}s sent between cluster nodes and parsing them on the receiving node.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClusterElementBenchmark {
+
+	@Param({"packet", "method-call"})
+	public String type;
+
+	private JID from;
+	private SimpleParser parser = SingletonFactory.getParserInstance();
+	private Packet packet;
+	private Map<String, String> params;
+	private char[] serialized;
+	private JID to;
+
+	@Setup
+	public void setup() {
+		from = JID.jidInstanceNS("sess-man@node1.example.com");
+		to = JID.jidInstanceNS("sess-man@node2.example.com");
+
+		Element elem = new Element("message", new String[]{"from", "to", "type", "id", "xmlns"},
+								   new String[]{"alice@example.com/mobile", "bob@example.com/desktop", "chat",
+												"msg-1", "jabber:client"});
+
+		elem.addChild(new Element("body", "Hello, how are you?"));
+		packet = Packet.packetInstance(elem, JID.jidInstanceNS("alice@example.com/mobile"),
+									   JID.jidInstanceNS("bob@example.com/desktop"));
+		params = new HashMap<>();
+		params.put("userId", "alice@example.com");
+		params.put("connectionId", "c2s@node1.example.com/127.0.0.1_5222_127.0.0.1_38412");
+		params.put("resource", "mobile");
+		serialized = serialize().toCharArray();
+	}
+
+	@Benchmark
+	public String serialize() {
+		ClusterElement clel;
+
+		if ("packet".equals(type)) {
+			clel = new ClusterElement(from, to, StanzaType.set, packet);
+		} else {
+			clel = ClusterElement.createClusterMethodCall(from, to, StanzaType.set, "user-connected", params);
+		}
+
+		return clel.getClusterElement("cl-1").toString();
+	}
+
+	@Benchmark
+	public ClusterElement parse() {
+		DomBuilderHandler handler = new DomBuilderHandler();
+
+		parser.parse(handler, serialized, 0, serialized.length);
+
+		return new ClusterElement(handler.getParsedElements().poll());
+	}
+
+}
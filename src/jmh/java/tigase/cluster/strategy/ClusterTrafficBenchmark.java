@@ -0,0 +1,217 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulation of traffic between cluster nodes caused by presence updates of users, comparing presence broadcast and
+ * packet forwarding of {@link DefaultClusteringStrategy} with the partitioned index of
+ * {@link PartitionedClusteringStrategy}.
+ * <br>
+ * Every operation is a presence update of a random online user sent to all user's contacts, and with the probability
+ * of <code>churn</code> a random user also connects or disconnects. Number of cluster messages is reported in the
+ * <code>messages</code> secondary result, so <code>messages / presence</code> is the number of cluster messages per
+ * presence update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClusterTrafficBenchmark {
+
+	private static final int USERS = 20000;
+
+	@Param({"0.1"})
+	public double churn;
+	@Param({"2", "4", "8", "16"})
+	public int nodes;
+	@Param({"0.5"})
+	public double online;
+	@Param({"50"})
+	public int rosterSize;
+	@Param({"broadcast", "partitioned"})
+	public String strategy;
+
+	// nodes which cached location of the user
+	private BitSet[] cached;
+	private int[][] hosts;
+	private int[] owners;
+	private Random random;
+	private int[][] roster;
+
+	@Setup
+	public void setup() {
+		random = new Random(1234);
+
+		List<String> names = new ArrayList<>();
+
+		for (int i = 0; i < nodes; i++) {
+			names.add("sess-man@node" + i + ".example.com");
+		}
+
+		ConsistentHashRing<String> ring = new ConsistentHashRing<>(names, 128);
+
+		owners = new int[USERS];
+		hosts = new int[USERS][];
+		roster = new int[USERS][];
+		cached = new BitSet[USERS];
+		for (int user = 0; user < USERS; user++) {
+			owners[user] = names.indexOf(ring.nodeFor("user-" + user + "@example.com"));
+			hosts[user] = random.nextDouble() < online ? connect() : new int[0];
+			roster[user] = new int[rosterSize];
+			for (int i = 0; i < rosterSize; i++) {
+				roster[user][i] = random.nextInt(USERS);
+			}
+			cached[user] = new BitSet(nodes);
+		}
+	}
+
+	@Benchmark
+	public int presence(Traffic traffic) {
+		int messages = 0;
+
+		if (random.nextDouble() < churn) {
+			messages += toggle(random.nextInt(USERS));
+		}
+
+		int user;
+
+		do {
+			user = random.nextInt(USERS);
+		} while (hosts[user].length == 0);
+
+		int origin = hosts[user][random.nextInt(hosts[user].length)];
+
+		if ("broadcast".equals(strategy)) {
+			messages += nodes - 1;
+			for (int contact : roster[user]) {
+				if (!isHost(contact, origin)) {
+					// packet visits all other nodes and returns to the first one
+					messages += nodes;
+				}
+			}
+		} else {
+			int owner = owners[user];
+
+			if (owner != origin) {
+				messages++;
+			}
+			messages += remoteHosts(user, origin, owner);
+			for (int contact : roster[user]) {
+				if (!isHost(contact, origin)) {
+					messages += forward(contact, origin);
+				}
+			}
+		}
+		traffic.messages += messages;
+
+		return messages;
+	}
+
+	private int[] connect() {
+		return random.nextInt(5) == 0 ? new int[]{random.nextInt(nodes), random.nextInt(nodes)}
+									  : new int[]{random.nextInt(nodes)};
+	}
+
+	private int forward(int contact, int origin) {
+		int owner = owners[contact];
+
+		if (owner == origin || cached[contact].get(origin)) {
+			return remoteHosts(contact, origin, origin);
+		}
+		// packet to the owner, location reply and forwarding to nodes with contact's connections
+		cached[contact].set(origin);
+
+		int forwarded = remoteHosts(contact, origin, owner);
+
+		return 2 + (hosts[contact].length == 0 ? 1 : forwarded);
+	}
+
+	private boolean isHost(int user, int node) {
+		for (int host : hosts[user]) {
+			if (host == node) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private int remoteHosts(int user, int exclude1, int exclude2) {
+		int result = 0;
+		int[] userHosts = hosts[user];
+
+		for (int i = 0; i < userHosts.length; i++) {
+			int host = userHosts[i];
+
+			if (host != exclude1 && host != exclude2 && (i == 0 || host != userHosts[0])) {
+				result++;
+			}
+		}
+
+		return result;
+	}
+
+	private int toggle(int user) {
+		int messages;
+
+		if (hosts[user].length == 0) {
+			hosts[user] = connect();
+			// resource binding is announced to all nodes by both strategies
+			messages = nodes - 1;
+		} else {
+			int origin = hosts[user][0];
+
+			if ("broadcast".equals(strategy)) {
+				messages = nodes - 1;
+			} else {
+				messages = (owners[user] != origin ? 1 : 0) + remoteHosts(user, origin, owners[user]);
+			}
+			hosts[user] = new int[0];
+		}
+		if ("partitioned".equals(strategy)) {
+			// owner invalidates locations cached by other nodes
+			messages += cached[user].cardinality();
+			cached[user].clear();
+		}
+
+		return messages;
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Traffic {
+
+		public long messages;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			messages = 0;
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures UTF-8 encoding and decoding of stanzas done by {@link IOService} when data is written to and read from a
+ * socket. Encoding is measured for the default write path (new heap buffer per write) and for the direct write path
+ * using {@link DirectEncodeBuffers}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Utf8CodecBenchmark {
+
+	@Param({"ascii", "multibyte"})
+	public String content;
+
+	@Param({"100", "2000"})
+	public int bodyLength;
+
+	private CharBuffer cb;
+	private String data;
+	private CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+	private ByteBuffer encoded;
+	private CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+	@Setup
+	public void setup() {
+		String chars = "ascii".equals(content) ? "Lorem ipsum dolor sit amet " : "zażółć gęślą jaźń ✓ ";
+		StringBuilder body = new StringBuilder(bodyLength);
+
+		while (body.length() < bodyLength) {
+			body.append(chars);
+		}
+		body.setLength(bodyLength);
+		data = "<message from='alice@example.com/mobile' to='bob@example.com' type='chat' id='msg-1'><body>" + body +
+				"</body></message>";
+		encoded = StandardCharsets.UTF_8.encode(data);
+		cb = CharBuffer.allocate(encoded.remaining());
+	}
+
+	@Benchmark
+	public ByteBuffer encodeHeap() throws CharacterCodingException {
+		encoder.reset();
+
+		ByteBuffer result = encoder.encode(CharBuffer.wrap(data));
+
+		encoder.flush(result);
+
+		return result;
+	}
+
+	@Benchmark
+	public int encodeDirect() throws CharacterCodingException {
+		DirectEncodeBuffers buffers = DirectEncodeBuffers.acquire();
+
+		try {
+			buffers.encode(encoder, data);
+			return buffers.flip()[0].remaining();
+		} finally {
+			buffers.release();
+		}
+	}
+
+	@Benchmark
+	public char[] decode() {
+		ByteBuffer input = encoded.duplicate();
+
+		cb.clear();
+		decoder.reset();
+		decoder.decode(input, cb, false);
+		cb.flip();
+
+		char[] result = new char[cb.remaining()];
+
+		cb.get(result);
+
+		return result;
+	}
+
+}
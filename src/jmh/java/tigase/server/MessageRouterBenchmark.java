@@ -0,0 +1,208 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+import org.openjdk.jmh.annotations.*;
+import tigase.vhosts.VHostItem;
+import tigase.vhosts.VHostManagerIfc;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures finding components for a packet in {@link MessageRouter#processPacket(Packet)}. Router uses stub
+ * components which drop all packets and a stub VHost manager with a single local domain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageRouterBenchmark {
+
+	private static final String DOMAIN = "example.com";
+
+	@Param({"local-user", "component", "subdomain", "remote-user"})
+	public String destination;
+
+	private Packet packet;
+	private MessageRouter router;
+
+	@Setup
+	public void setup() throws Exception {
+		StubComponent sessMan = new StubComponent("sess-man");
+		StubComponent s2s = new StubComponent("s2s");
+		StubComponent muc = new StubComponent("muc");
+
+		router = new MessageRouter();
+		router.setName("message-router");
+		router.setVHostManager(new StubVHostManager(sessMan, s2s));
+		router.addComponent(sessMan);
+		router.addComponent(s2s);
+		router.addComponent(muc);
+
+		String to;
+
+		switch (destination) {
+			case "local-user":
+				to = "bob@" + DOMAIN + "/desktop";
+				break;
+			case "component":
+				to = "muc@" + DOMAIN;
+				break;
+			case "subdomain":
+				to = "room@muc." + DOMAIN;
+				break;
+			default:
+				to = "bob@remote.net/desktop";
+				break;
+		}
+
+		Element elem = new Element("message", new String[]{"from", "to", "type", "xmlns"},
+								   new String[]{"alice@" + DOMAIN + "/mobile", to, "chat", "jabber:client"});
+
+		elem.addChild(new Element("body", "Hello"));
+		packet = Packet.packetInstance(elem);
+	}
+
+	@Benchmark
+	public void processPacket() {
+		router.processPacket(packet);
+	}
+
+	private static class StubComponent
+			implements ServerComponent {
+
+		private JID componentId;
+		private String name;
+
+		private StubComponent(String name) {
+			setName(name);
+		}
+
+		@Override
+		public void initializationCompleted() {
+		}
+
+		@Override
+		public void processPacket(Packet packet, Queue<Packet> results) {
+		}
+
+		@Override
+		public void release() {
+		}
+
+		@Override
+		public JID getComponentId() {
+			return componentId;
+		}
+
+		@Override
+		public ComponentInfo getComponentInfo() {
+			return new ComponentInfo(name, StubComponent.class);
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public void setName(String name) {
+			this.name = name;
+			this.componentId = JID.jidInstanceNS(name, DOMAIN, null);
+		}
+
+		@Override
+		public boolean isInitializationComplete() {
+			return true;
+		}
+	}
+
+	private static class StubVHostManager
+			implements VHostManagerIfc {
+
+		private final ServerComponent[] localComponents;
+		private final ServerComponent[] nonLocalComponents;
+
+		private StubVHostManager(ServerComponent localComponent, ServerComponent nonLocalComponent) {
+			this.localComponents = new ServerComponent[]{localComponent};
+			this.nonLocalComponents = new ServerComponent[]{nonLocalComponent};
+		}
+
+		@Override
+		public boolean isLocalDomain(String domain) {
+			return DOMAIN.equals(domain);
+		}
+
+		@Override
+		public boolean isLocalDomainOrComponent(String domain) {
+			return isLocalDomain(domain) || domain.endsWith("." + DOMAIN);
+		}
+
+		@Override
+		public boolean isAnonymousEnabled(String domain) {
+			return false;
+		}
+
+		@Override
+		public ServerComponent[] getComponentsForLocalDomain(String domain) {
+			return isLocalDomain(domain) ? localComponents : null;
+		}
+
+		@Override
+		public ServerComponent[] getComponentsForNonLocalDomain(String domain) {
+			return nonLocalComponents;
+		}
+
+		@Override
+		public VHostItem getVHostItem(String domain) {
+			return null;
+		}
+
+		@Override
+		public VHostItem getVHostItemDomainOrComponent(String domain) {
+			return null;
+		}
+
+		@Override
+		public void addComponentDomain(String domain) {
+		}
+
+		@Override
+		public void removeComponentDomain(String domain) {
+		}
+
+		@Override
+		public BareJID getDefVHostItem() {
+			return BareJID.bareJIDInstanceNS(DOMAIN);
+		}
+
+		@Override
+		public List<JID> getAllVHosts() {
+			return Collections.singletonList(JID.jidInstanceNS(DOMAIN));
+		}
+	}
+
+}
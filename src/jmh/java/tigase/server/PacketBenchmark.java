@@ -0,0 +1,99 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+import org.openjdk.jmh.annotations.*;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures creation of <code>Packet</code> instances for the most common stanzas. Run it with <code>-prof gc</code>
+ * to see number of bytes allocated per packet (<code>gc.alloc.rate.norm</code>).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketBenchmark {
+
+	@Param({"message", "presence", "iq"})
+	public String stanza;
+
+	private Element elem;
+	private JID from;
+	private JID to;
+
+	@Setup
+	public void setup() throws TigaseStringprepException {
+		from = JID.jidInstance("alice@example.com/mobile");
+		to = JID.jidInstance("bob@example.com/desktop");
+		switch (stanza) {
+			case "message":
+				elem = new Element("message", new String[]{"from", "to", "type", "id", "xmlns"},
+								   new String[]{from.toString(), to.toString(), "chat", "msg-1", "jabber:client"});
+				elem.addChild(new Element("body", "Hello, how are you?"));
+				break;
+			case "presence":
+				elem = new Element("presence", new String[]{"from", "to", "xmlns"},
+								   new String[]{from.toString(), to.toString(), "jabber:client"});
+				elem.addChild(new Element("priority", "5"));
+				break;
+			default:
+				elem = new Element("iq", new String[]{"from", "to", "type", "id", "xmlns"},
+								   new String[]{from.toString(), to.toString(), "get", "iq-1", "jabber:client"});
+				elem.addChild(new Element("query", new String[]{"xmlns"}, new String[]{"jabber:iq:roster"}));
+				break;
+		}
+	}
+
+	/**
+	 * Packet created from a stanza received from the network, addresses are parsed from the stanza.
+	 */
+	@Benchmark
+	public Packet packetInstance() throws TigaseStringprepException {
+		return Packet.packetInstance(elem);
+	}
+
+	/**
+	 * Packet created with already parsed addresses, ie. by a component generating a response.
+	 */
+	@Benchmark
+	public Packet packetInstanceParsed() {
+		return Packet.packetInstance(elem, from, to);
+	}
+
+	/**
+	 * Packet marked as processed and skipped by session manager processors.
+	 */
+	@Benchmark
+	public boolean packetProcessedBy() {
+		Packet packet = Packet.packetInstance(elem, from, to);
+
+		packet.processedBy("presence-state");
+		packet.processedBy("message-archive");
+		packet.notProcessedBy("jabber:iq:privacy");
+
+		return packet.wasProcessed() && packet.wasSkipped();
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.processing;
+
+import org.openjdk.jmh.annotations.*;
+import tigase.db.NonAuthUserRepository;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPException;
+import tigase.xmpp.XMPPProcessor;
+import tigase.xmpp.XMPPProcessorIfc;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.jid.JID;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures dispatching packets to session manager processors with {@link ProcessingThreads}, the same way as
+ * <code>SessionManager</code> does it. Processor does nothing, so the result shows cost of queueing a packet and
+ * handing it over to a worker thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessingThreadsBenchmark {
+
+	private static final int BATCH = 1024;
+
+	@Param({"4", "16"})
+	public int threads;
+
+	@Param({"false", "true"})
+	public boolean virtualThreads;
+
+	private final Packet[] packets = new Packet[BATCH];
+	private final AtomicLong processed = new AtomicLong();
+	private final XMPPProcessorIfc processor = new StubProcessor();
+	private ProcessingThreads<StubWorkerThread> processingThreads;
+	private long submitted = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		processingThreads = new ProcessingThreads<>(new StubWorkerThread(processed), threads, BATCH, "benchmark",
+													virtualThreads);
+		for (int i = 0; i < BATCH; i++) {
+			Element elem = new Element("message", new String[]{"to", "type", "xmlns"},
+									   new String[]{"user" + i + "@example.com", "chat", "jabber:client"});
+			Packet packet = Packet.packetInstance(elem, JID.jidInstanceNS("sender@example.com/res"),
+												  JID.jidInstanceNS("user" + i + "@example.com"));
+
+			packet.setPacketFrom(JID.jidInstanceNS("c2s@node1/" + i));
+			packets[i] = packet;
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		processingThreads.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long dispatch() {
+		for (Packet packet : packets) {
+			while (!processingThreads.addItem(processor, packet, null)) {
+				Thread.yield();
+			}
+		}
+		submitted += BATCH;
+		while (processed.get() < submitted) {
+			Thread.yield();
+		}
+
+		return submitted;
+	}
+
+	private static class StubProcessor
+			extends XMPPProcessor
+			implements XMPPProcessorIfc {
+
+		@Override
+		public String id() {
+			return "benchmark";
+		}
+
+		@Override
+		public void process(Packet packet, XMPPResourceConnection session, NonAuthUserRepository repo,
+							Queue<Packet> results, Map<String, Object> settings) throws XMPPException {
+		}
+	}
+
+	private static class StubWorkerThread
+			extends WorkerThread {
+
+		private final AtomicLong processed;
+		private final ArrayDeque<Packet> results = new ArrayDeque<>();
+
+		private StubWorkerThread(AtomicLong processed) {
+			this.processed = processed;
+		}
+
+		@Override
+		public WorkerThread getNewInstance() {
+			return new StubWorkerThread(processed);
+		}
+
+		@Override
+		public void process(QueueItem item) {
+			try {
+				item.getProcessor().process(item.getPacket(), item.getConn(), null, results, null);
+			} catch (XMPPException e) {
+				throw new RuntimeException(e);
+			}
+			results.clear();
+			processed.incrementAndGet();
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.workqueue;
+
+import org.openjdk.jmh.annotations.*;
+import tigase.server.Priority;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares implementations of {@link PriorityQueueAbstract} used as component queues. Every operation offers an
+ * element with one of the priorities and takes an element from the queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PriorityQueueBenchmark {
+
+	private static final int MAX_PRIORITY = Priority.values().length;
+
+	@Param({"tigase.util.workqueue.PriorityQueueRelaxed", "tigase.util.workqueue.PriorityQueueStrict",
+			"tigase.util.workqueue.PriorityQueueLockFree", "tigase.util.workqueue.NonpriorityQueue"})
+	public String implementation;
+
+	private PriorityQueueAbstract<Integer> queue;
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+
+		final ArrayList<Integer> batch = new ArrayList<>(16);
+		int counter = 0;
+	}
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setup() throws Exception {
+		queue = PriorityQueueAbstract.getPriorityQueue(MAX_PRIORITY, 100000,
+													   (Class<? extends PriorityQueueAbstract>) Class.forName(
+															   implementation));
+	}
+
+	@Benchmark
+	public Integer offerTake(ThreadState state) throws InterruptedException {
+		int i = state.counter++;
+
+		queue.offer(i, i % MAX_PRIORITY);
+		return queue.take();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Integer offerTakeContended(ThreadState state) throws InterruptedException {
+		int i = state.counter++;
+
+		// each thread takes only after it offered an element, so take() never blocks
+		queue.offer(i, i % MAX_PRIORITY);
+		return queue.take();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(16)
+	public int offerDrain(ThreadState state) throws InterruptedException {
+		for (int i = 0; i < 16; i++) {
+			queue.offer(i, i % MAX_PRIORITY);
+		}
+
+		int result = 0;
+
+		while (result < 16) {
+			result += queue.drainTo(state.batch, 16);
+		}
+		state.batch.clear();
+
+		return result;
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.openjdk.jmh.annotations.*;
+import tigase.xml.Element;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding of an outgoing stanza by converting it to <code>String</code> and encoding it with
+ * <code>CharsetEncoder</code> (default write path of {@link XMPPIOService}) with encoding it directly by {@link
+ * ElementSerializer}. Run it with <code>-prof gc</code> to see number of bytes allocated per stanza.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElementSerializerBenchmark {
+
+	@Param({"1", "50"})
+	public int items;
+
+	private Element elem;
+	private CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+	@Setup
+	public void setup() {
+		Element query = new Element("query", new String[]{"xmlns"}, new String[]{"jabber:iq:roster"});
+
+		for (int i = 0; i < items; i++) {
+			Element item = new Element("item", new String[]{"jid", "name", "subscription"},
+									   new String[]{"contact-" + i + "@example.com", "Contact " + i, "both"});
+
+			item.addChild(new Element("group", "Friends"));
+			query.addChild(item);
+		}
+		elem = new Element("iq", new String[]{"to", "type", "id"},
+						   new String[]{"alice@example.com/mobile", "result", "roster-1"});
+		elem.addChild(query);
+	}
+
+	@Benchmark
+	public ByteBuffer toStringAndEncode() throws CharacterCodingException {
+		encoder.reset();
+
+		ByteBuffer result = encoder.encode(CharBuffer.wrap(elem.toString()));
+
+		encoder.flush(result);
+
+		return result;
+	}
+
+	@Benchmark
+	public int serialize() {
+		ElementSerializer serializer = ElementSerializer.acquire();
+
+		try {
+			serializer.write(elem);
+			return serializer.size();
+		} finally {
+			serializer.release();
+		}
+	}
+
+}
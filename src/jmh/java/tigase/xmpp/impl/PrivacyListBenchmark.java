@@ -0,0 +1,103 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl;
+
+import org.openjdk.jmh.annotations.*;
+import tigase.xml.Element;
+import tigase.xmpp.impl.roster.RosterAbstract;
+import tigase.xmpp.impl.roster.RosterElement;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures evaluation of a privacy list with 100 items (blocked JIDs and domains, groups and subscription items) for
+ * a JID blocked by one of the last items and for a JID not matching any item.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrivacyListBenchmark {
+
+	private static final int ITEMS = 100;
+
+	private JID blocked;
+	private PrivacyList list;
+	private JID unknown;
+
+	@Setup
+	public void setup() {
+		Map<BareJID, RosterElement> roster = new HashMap<>();
+		Element listEl = new Element("list", new String[]{"name"}, new String[]{"blocking"});
+
+		for (int i = 0; i < ITEMS; i++) {
+			String type;
+			String value;
+			String action = "deny";
+
+			switch (i % 10) {
+				case 0:
+					type = "subscription";
+					value = "from";
+					action = "allow";
+					break;
+				case 1:
+					type = "group";
+					value = "Group " + i;
+					break;
+				case 2:
+					type = "jid";
+					value = "spam-" + i + ".example.com";
+					break;
+				default:
+					type = "jid";
+					value = "blocked-" + i + "@example.com";
+					break;
+			}
+			listEl.addChild(new Element("item", new String[]{"type", "value", "action", "order"},
+										new String[]{type, value, action, String.valueOf(i + 1)}));
+		}
+		for (int i = 0; i < ITEMS; i++) {
+			RosterElement elem = new RosterElement(JID.jidInstanceNS("contact-" + i + "@example.com"), null,
+												   new String[]{"Contacts"});
+
+			elem.setSubscription(RosterAbstract.SubscriptionType.both);
+			roster.put(elem.getJid().getBareJID(), elem);
+		}
+		list = PrivacyList.create(roster, listEl);
+		blocked = JID.jidInstanceNS("blocked-" + (ITEMS - 1) + "@example.com/resource");
+		unknown = JID.jidInstanceNS("contact-1@example.com/resource");
+	}
+
+	@Benchmark
+	public boolean blockedJid() {
+		return list.isAllowed(blocked, PrivacyList.Item.Type.presenceOut);
+	}
+
+	@Benchmark
+	public boolean notListedJid() {
+		return list.isAllowed(unknown, PrivacyList.Item.Type.message);
+	}
+
+}
@@ -65,6 +65,21 @@ public class BruteForceLockerBean
 	private static final String LOCK_MODE_KEY = "brute-force-mode";
 	private static final String MAP_TYPE = "brute-force-invalid-logins";
 
+	/**
+	 * Storage of invalid login attempts.
+	 */
+	public enum StorageMode {
+		/**
+		 * Every change is stored in a map replicated immediately to all cluster nodes.
+		 */
+		clusterMap,
+		/**
+		 * Entries are stored locally in striped, time bucketed map and changes are sent to other cluster nodes in
+		 * batches.
+		 */
+		bucketed
+	}
+
 	public enum Mode {
 		Ip,
 		IpJid,
@@ -92,13 +107,22 @@ public class BruteForceLockerBean
 	private final Logger log = Logger.getLogger(this.getClass().getName());
 	private final Map<String, StatHolder> otherStatHolders = new ConcurrentHashMap<>();
 	private final StatHolder statHolder = new StatHolder();
+	@ConfigField(desc = "Width of time bucket in seconds in bucketed storage mode", alias = "bucket-width")
+	private long bucketWidth = 10;
 	@ConfigField(desc = "Allows storing detailed, per IP/JID statistics of blocked attempts")
 	private boolean detailedStatistics = false;
 	@Inject
 	private EventBus eventBus;
 	private Map<Key, Value> map;
+	private long secondsToSync = 0;
 	@Inject
 	private SessionManager sessionManager;
+	@ConfigField(desc = "Storage of invalid login attempts", alias = "storage-mode")
+	private StorageMode storageMode = StorageMode.clusterMap;
+	@ConfigField(desc = "Interval in seconds of sending invalid login attempts to other cluster nodes in bucketed " +
+			"storage mode", alias = "sync-interval")
+	private long syncInterval = 1;
+	private long syncedBatches = 0;
 
 	public static String getClientIp(XMPPResourceConnection session) {
 		try {
@@ -128,8 +152,15 @@ public class BruteForceLockerBean
 		}
 
 		final Key key = createKey(session, ip, jid);
-		Value value = map.get(key);
+		// counter is updated atomically in bucketed storage mode
+		final Value value = map.compute(key, (k, current) -> updateInvalidLogin(session, ip, jid, k, current,
+																				  currentTime));
+
+		addToStatistic(value);
+	}
 
+	private Value updateInvalidLogin(XMPPResourceConnection session, String ip, BareJID jid, Key key, Value value,
+									 long currentTime) {
 		if (value == null) {
 			value = new Value(session != null ? session.getDomain().getVhost().toString() : null, ip, jid);
 			value.setBadLoginCounter(0);
@@ -166,9 +197,7 @@ public class BruteForceLockerBean
 							"== " + value.getBadLoginCounter());
 		}
 
-		map.put(key, value);
-
-		addToStatistic(value);
+		return value;
 	}
 
 	public boolean canUserBeDisabled(XMPPResourceConnection session, String ip, BareJID jid) {
@@ -213,6 +242,11 @@ public class BruteForceLockerBean
 			return;
 		}
 
+		if (map instanceof BruteForceLockerBucketedMap) {
+			((BruteForceLockerBucketedMap) map).removeExpired(currentTime);
+			return;
+		}
+
 		final HashSet<Key> toRemove = new HashSet<>();
 
 		map.forEach((key, value) -> {
@@ -227,9 +261,17 @@ public class BruteForceLockerBean
 	public void getStatistics(String compName, StatisticsList list) {
 		clearOutdated();
 		final String keyName = compName + "/BruteForceLocker";
-		ArrayList<Value> l = new ArrayList<>(this.map.values());
-		for (Value value : l) {
-			list.add(keyName, "Present locks: " + value.jid + " from " + value.ip, value.badLoginCounter, Level.FINER);
+		if (list.checkLevel(Level.FINER)) {
+			ArrayList<Value> l = new ArrayList<>(this.map.values());
+			for (Value value : l) {
+				list.add(keyName, "Present locks: " + value.jid + " from " + value.ip, value.badLoginCounter,
+						 Level.FINER);
+			}
+		}
+		if (map instanceof BruteForceLockerBucketedMap) {
+			list.add(keyName, "Entries", map.size(), Level.FINE);
+			list.add(keyName, "Time buckets", ((BruteForceLockerBucketedMap) map).bucketsCount(), Level.FINER);
+			list.add(keyName, "Synchronization batches", syncedBatches, Level.FINER);
 		}
 
 		final StatHolder tmp = new StatHolder();
@@ -253,7 +295,12 @@ public class BruteForceLockerBean
 
 	@Override
 	public void initialize() {
-		this.map = ClusterMapFactory.get().createMap(MAP_TYPE, Key.class, Value.class);
+		if (storageMode == StorageMode.bucketed) {
+			this.map = new BruteForceLockerBucketedMap(bucketWidth * 1000,
+													   Runtime.getRuntime().availableProcessors() * 4);
+		} else {
+			this.map = ClusterMapFactory.get().createMap(MAP_TYPE, Key.class, Value.class);
+		}
 		assert this.map != null : "Distributed Map is NULL!";
 		assert this.sessionManager != null : "SessionManager is NULL!";
 
@@ -276,6 +323,17 @@ public class BruteForceLockerBean
 		this.otherStatHolders.put(event.getNodeName(), event.getStatHolder());
 	}
 
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	public void handleInvalidLoginsSyncEvent(InvalidLoginsSyncEvent event) {
+		if (!(map instanceof BruteForceLockerBucketedMap) || event.getInvalidLogins() == null) {
+			return;
+		}
+
+		BruteForceLockerBucketedMap bucketedMap = (BruteForceLockerBucketedMap) map;
+
+		event.getInvalidLogins().getEntries().forEach(bucketedMap::merge);
+	}
+
 	public boolean isLoginAllowed(XMPPResourceConnection session, final String ip, final BareJID jid) {
 		return isLoginAllowed(session, ip, jid, System.currentTimeMillis());
 	}
@@ -325,13 +383,30 @@ public class BruteForceLockerBean
 
 	@Override
 	public void everySecond() {
-
+		if (map instanceof BruteForceLockerBucketedMap && ++secondsToSync >= syncInterval) {
+			secondsToSync = 0;
+			syncChanged();
+		}
 	}
 
-	void setMap(HashMap<Key, Value> map) {
+	void setMap(Map<Key, Value> map) {
 		this.map = map;
 	}
 
+	/**
+	 * Sends entries changed since last synchronization to other cluster nodes in a single event.
+	 */
+	void syncChanged() {
+		Map<Key, Value> changed = ((BruteForceLockerBucketedMap) map).drainChanged();
+
+		if (changed.isEmpty() || eventBus == null) {
+			return;
+		}
+		syncedBatches++;
+		eventBus.fire(new InvalidLoginsSyncEvent(sessionManager.getComponentId().getDomain(),
+												 new InvalidLogins(changed)));
+	}
+
 	final Key createKey(XMPPResourceConnection session, String ip, BareJID jid) {
 		BruteForceLockerVHostExtension extension = session != null ? session.getDomain().getExtension(BruteForceLockerVHostExtension.class) : null;
 		final Mode mode = extension == null ? Mode.IpJid : extension.getMode();
@@ -555,12 +630,7 @@ public class BruteForceLockerBean
 		}
 
 		private <T> int add(Map<T, Integer> map, T key, int value) {
-			synchronized (map) {
-				Integer v = map.get(key);
-				v = (v == null ? 0 : v) + value;
-				map.put(key, v);
-				return v;
-			}
+			return map.merge(key, value, Integer::sum);
 		}
 	}
 
@@ -596,6 +666,84 @@ public class BruteForceLockerBean
 		}
 	}
 
+	/**
+	 * Batch of invalid login attempts sent to other cluster nodes in bucketed storage mode.
+	 */
+	public static class InvalidLogins
+			implements TypesConverter.Parcelable {
+
+		private final Map<Key, Value> entries = new HashMap<>();
+
+		public InvalidLogins() {
+		}
+
+		public InvalidLogins(Map<Key, Value> entries) {
+			this.entries.putAll(entries);
+		}
+
+		public Map<Key, Value> getEntries() {
+			return entries;
+		}
+
+		@Override
+		public String[] encodeToStrings() {
+			String[] r = new String[entries.size() * 5];
+			int idx = 0;
+
+			for (Map.Entry<Key, Value> e : entries.entrySet()) {
+				System.arraycopy(e.getKey().encodeToStrings(), 0, r, idx, 3);
+				System.arraycopy(e.getValue().encodeToStrings(), 0, r, idx + 3, 2);
+				idx += 5;
+			}
+
+			return r;
+		}
+
+		@Override
+		public void fillFromString(String[] encoded) {
+			entries.clear();
+			for (int i = 0; i + 4 < encoded.length; i += 5) {
+				Key key = new Key();
+				Value value = new Value();
+
+				key.fillFromString(Arrays.copyOfRange(encoded, i, i + 3));
+				value.fillFromString(Arrays.copyOfRange(encoded, i + 3, i + 5));
+				entries.put(key, value);
+			}
+		}
+	}
+
+	public static class InvalidLoginsSyncEvent
+			implements Serializable {
+
+		private InvalidLogins invalidLogins;
+		private String nodeName;
+
+		public InvalidLoginsSyncEvent() {
+		}
+
+		public InvalidLoginsSyncEvent(String nodeName, InvalidLogins invalidLogins) {
+			this.nodeName = nodeName;
+			this.invalidLogins = invalidLogins;
+		}
+
+		public InvalidLogins getInvalidLogins() {
+			return invalidLogins;
+		}
+
+		public void setInvalidLogins(InvalidLogins invalidLogins) {
+			this.invalidLogins = invalidLogins;
+		}
+
+		public String getNodeName() {
+			return nodeName;
+		}
+
+		public void setNodeName(String nodeName) {
+			this.nodeName = nodeName;
+		}
+	}
+
 	public static class Value
 			implements TypesConverter.Parcelable {
 
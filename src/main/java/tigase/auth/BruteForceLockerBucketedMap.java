@@ -0,0 +1,284 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.auth;
+
+import tigase.auth.BruteForceLockerBean.Key;
+import tigase.auth.BruteForceLockerBean.Value;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Local storage of invalid login attempts used by {@link BruteForceLockerBean} in
+ * {@link BruteForceLockerBean.StorageMode#bucketed} mode.
+ * <br>
+ * Entries are split between stripes, each with its own lock, so concurrent updates of different keys do not block
+ * each other. Every stripe keeps keys in time buckets according to their expiration time, so removal of outdated
+ * entries processes only buckets which already expired instead of scanning all entries.
+ * <br>
+ * Changed entries are collected and may be taken with {@link #drainChanged()} to send them to other cluster nodes in
+ * a single batch. Many changes of the same entry within the interval are sent only once.
+ */
+class BruteForceLockerBucketedMap
+		extends AbstractMap<Key, Value> {
+
+	private final long bucketWidth;
+	private final Map<Key, Value> changed = new ConcurrentHashMap<>();
+	private final Stripe[] stripes;
+
+	/**
+	 * @param bucketWidth width of time bucket in milliseconds
+	 * @param stripesCount number of stripes, rounded up to the power of 2
+	 */
+	BruteForceLockerBucketedMap(long bucketWidth, int stripesCount) {
+		this.bucketWidth = Math.max(1, bucketWidth);
+		int size = Integer.highestOneBit(Math.max(1, stripesCount - 1)) << 1;
+		stripes = new Stripe[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	@Override
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.entries.clear();
+				stripe.buckets.clear();
+			}
+		}
+		changed.clear();
+	}
+
+	/**
+	 * Updates the entry atomically, other updates of keys from the same stripe wait until it is completed.
+	 */
+	@Override
+	public Value compute(Key key, BiFunction<? super Key, ? super Value, ? extends Value> remappingFunction) {
+		Stripe stripe = stripe(key);
+
+		synchronized (stripe) {
+			Entry entry = stripe.entries.get(key);
+			Value value = remappingFunction.apply(key, entry == null ? null : entry.value);
+
+			if (value == null) {
+				if (entry != null) {
+					stripe.entries.remove(key);
+				}
+			} else {
+				stripe.put(key, entry, value, bucket(value));
+				changed.put(key, value);
+			}
+			return value;
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public Set<Map.Entry<Key, Value>> entrySet() {
+		Map<Key, Value> snapshot = new HashMap<>();
+
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.entries.forEach((key, entry) -> snapshot.put(key, entry.value));
+			}
+		}
+
+		return Collections.unmodifiableMap(snapshot).entrySet();
+	}
+
+	@Override
+	public Value get(Object key) {
+		if (!(key instanceof Key)) {
+			return null;
+		}
+
+		Stripe stripe = stripe((Key) key);
+
+		synchronized (stripe) {
+			Entry entry = stripe.entries.get(key);
+
+			return entry == null ? null : entry.value;
+		}
+	}
+
+	@Override
+	public Value put(Key key, Value value) {
+		Stripe stripe = stripe(key);
+		Value prev;
+
+		synchronized (stripe) {
+			Entry entry = stripe.entries.get(key);
+
+			prev = entry == null ? null : entry.value;
+			stripe.put(key, entry, value, bucket(value));
+		}
+		changed.put(key, value);
+
+		return prev;
+	}
+
+	@Override
+	public Value remove(Object key) {
+		if (!(key instanceof Key)) {
+			return null;
+		}
+
+		Stripe stripe = stripe((Key) key);
+
+		synchronized (stripe) {
+			// key is left in its bucket, it will be skipped when the bucket expires
+			Entry entry = stripe.entries.remove(key);
+
+			return entry == null ? null : entry.value;
+		}
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.entries.size();
+			}
+		}
+
+		return size;
+	}
+
+	int bucketsCount() {
+		int count = 0;
+
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				count += stripe.buckets.size();
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns entries changed since the last call and forgets them.
+	 */
+	Map<Key, Value> drainChanged() {
+		if (changed.isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		Map<Key, Value> result = new HashMap<>();
+		Iterator<Map.Entry<Key, Value>> it = changed.entrySet().iterator();
+
+		while (it.hasNext()) {
+			Map.Entry<Key, Value> e = it.next();
+
+			result.put(e.getKey(), e.getValue());
+			it.remove();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Stores entry received from other cluster node, if it is newer than local one. Such entry is not reported by
+	 * {@link #drainChanged()}.
+	 */
+	void merge(Key key, Value value) {
+		Stripe stripe = stripe(key);
+
+		synchronized (stripe) {
+			Entry entry = stripe.entries.get(key);
+
+			if (entry == null || entry.value.getInvalidateAtTime() < value.getInvalidateAtTime() ||
+					entry.value.getBadLoginCounter() < value.getBadLoginCounter()) {
+				stripe.put(key, entry, value, bucket(value));
+			}
+		}
+	}
+
+	/**
+	 * Removes entries from time buckets which expired before provided time.
+	 *
+	 * @return number of removed entries
+	 */
+	int removeExpired(long currentTime) {
+		// bucket is expired if all entries in it expired
+		long lastExpired = currentTime / bucketWidth - 1;
+		int removed = 0;
+
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				while (!stripe.buckets.isEmpty() && stripe.buckets.firstKey() <= lastExpired) {
+					Map.Entry<Long, List<Key>> bucket = stripe.buckets.pollFirstEntry();
+
+					for (Key key : bucket.getValue()) {
+						Entry entry = stripe.entries.get(key);
+
+						// key could be moved to a later bucket after it was added to this one
+						if (entry != null && entry.bucket <= bucket.getKey()) {
+							stripe.entries.remove(key);
+							removed++;
+						}
+					}
+				}
+			}
+		}
+
+		return removed;
+	}
+
+	private long bucket(Value value) {
+		return value.getInvalidateAtTime() / bucketWidth;
+	}
+
+	private Stripe stripe(Key key) {
+		int h = key.hashCode();
+
+		return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+	}
+
+	private static class Entry {
+
+		private final long bucket;
+		private final Value value;
+
+		private Entry(Value value, long bucket) {
+			this.value = value;
+			this.bucket = bucket;
+		}
+	}
+
+	private static class Stripe {
+
+		private final TreeMap<Long, List<Key>> buckets = new TreeMap<>();
+		private final HashMap<Key, Entry> entries = new HashMap<>();
+
+		private void put(Key key, Entry current, Value value, long bucket) {
+			entries.put(key, new Entry(value, bucket));
+			if (current == null || current.bucket != bucket) {
+				buckets.computeIfAbsent(bucket, b -> new ArrayList<>()).add(key);
+			}
+		}
+	}
+}
@@ -26,6 +26,7 @@ import tigase.auth.mechanisms.SaslSCRAMSha256;
 import tigase.auth.mechanisms.SaslSCRAMSha256Plus;
 import tigase.db.NonAuthUserRepository;
 import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
 import tigase.xmpp.XMPPResourceConnection;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -42,6 +43,9 @@ public class CallbackHandlerFactory
 
 	private static final String CALLBACK_HANDLER_KEY = "callbackhandler";
 
+	@Inject(nullAllowed = true)
+	private ScramKeyCacheBean scramKeyCache;
+
 	@Override
 	public CallbackHandler create(String mechanismName, XMPPResourceConnection session, NonAuthUserRepository repo,
 								  Map<String, Object> settings)
@@ -79,6 +83,10 @@ public class CallbackHandlerFactory
 			((MechanismNameAware) handler).setMechanismName(mechanismName);
 		}
 
+		if (handler instanceof ScramKeyCacheAware && scramKeyCache != null) {
+			((ScramKeyCacheAware) handler).setScramKeyCache(scramKeyCache);
+		}
+
 		return handler;
 	}
 
@@ -0,0 +1,301 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.auth;
+
+import tigase.auth.credentials.entries.PlainCredentialsEntry;
+import tigase.auth.credentials.entries.ScramCredentialsEntry;
+import tigase.db.AuthRepository;
+import tigase.db.UserRepository;
+import tigase.eventbus.EventBus;
+import tigase.eventbus.HandleEvent;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.server.xmppsession.SessionManager;
+import tigase.stats.ComponentStatisticsProvider;
+import tigase.stats.StatisticsList;
+import tigase.xmpp.jid.BareJID;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded, time limited cache of SCRAM key material (salted password, <code>ClientKey</code>,
+ * <code>StoredKey</code> and <code>ServerKey</code>) used by {@link tigase.auth.impl.ScramCallbackHandler}. Thanks to
+ * that reconnecting users do not need to derive keys again, which for accounts with credentials stored only as
+ * <code>PLAIN</code> means running whole PBKDF2 loop on every authentication.
+ * <br>
+ * Every cached entry is bound to a version of the stored credentials, so entry is not used if credentials were changed.
+ * Additionally, entries of the user are dropped on all cluster nodes when {@link
+ * AuthRepository.CredentialsChangedEvent} is fired.
+ */
+@Bean(name = "scram-key-cache", parent = SessionManager.class, active = true)
+public class ScramKeyCacheBean
+		implements Initializable, UnregisterAware, ComponentStatisticsProvider {
+
+	private static final Logger log = Logger.getLogger(ScramKeyCacheBean.class.getName());
+	private static final int STRIPES = 16;
+
+	private final LongAdder expired = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	@ConfigField(desc = "Maximal number of users with cached SCRAM keys, 0 disables cache", alias = "cache-size")
+	private int cacheSize = 10000;
+	@ConfigField(desc = "Time in seconds after which cached SCRAM keys expire", alias = "cache-ttl")
+	private long cacheTtl = 300;
+	@Inject(nullAllowed = true)
+	private EventBus eventBus;
+	private Stripe[] stripes;
+
+	/**
+	 * Returns version of credentials stored as SCRAM entry.
+	 */
+	public static byte[] version(ScramCredentialsEntry entry) {
+		return digest(ByteBuffer.allocate(4).putInt(entry.getIterations()).array(), entry.getSalt(),
+					  entry.getSaltedPassword());
+	}
+
+	/**
+	 * Returns version of credentials stored as PLAIN entry. Password itself is not kept in the cache.
+	 */
+	public static byte[] version(PlainCredentialsEntry entry) {
+		return digest(entry.getPassword().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static byte[] digest(byte[]... parts) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			for (byte[] part : parts) {
+				md.update(part);
+			}
+			return md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public ScramKeyCacheBean() {
+		setCacheSize(cacheSize);
+	}
+
+	@Override
+	public void beforeUnregister() {
+		if (eventBus != null) {
+			eventBus.unregisterAll(this);
+		}
+	}
+
+	@Override
+	public void everyHour() {
+	}
+
+	@Override
+	public void everyMinute() {
+		long now = System.currentTimeMillis();
+		for (Stripe stripe : stripes) {
+			stripe.removeExpired(now);
+		}
+	}
+
+	@Override
+	public void everySecond() {
+	}
+
+	/**
+	 * Returns cached keys if they were calculated for the same version of credentials and did not expire.
+	 */
+	public CachedKeys get(BareJID user, String username, String mechanism, byte[] version) {
+		if (cacheSize <= 0) {
+			return null;
+		}
+
+		CachedKeys keys = stripe(user).get(user, entryKey(username, mechanism));
+
+		if (keys == null) {
+			misses.increment();
+			return null;
+		}
+		if (keys.expiresAt < System.currentTimeMillis() || !MessageDigest.isEqual(keys.version, version)) {
+			expired.increment();
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return keys;
+	}
+
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+		Stripe[] stripes = new Stripe[STRIPES];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe((cacheSize + STRIPES - 1) / STRIPES);
+		}
+		this.stripes = stripes;
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		final String keyName = compName + "/ScramKeyCache";
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.size();
+		}
+		list.add(keyName, "Cached users", size, Level.FINE);
+		list.add(keyName, "Hits", hits.sum(), Level.FINE);
+		list.add(keyName, "Misses", misses.sum(), Level.FINE);
+		list.add(keyName, "Outdated", expired.sum(), Level.FINER);
+		list.add(keyName, "Invalidations", invalidations.sum(), Level.FINER);
+	}
+
+	@HandleEvent
+	public void handleCredentialsChangedEvent(AuthRepository.CredentialsChangedEvent event) {
+		if (event.getJid() != null) {
+			invalidate(event.getJid());
+		}
+	}
+
+	@HandleEvent
+	public void handleUserRemovedEvent(UserRepository.UserRemovedEvent event) {
+		invalidate(event.jid);
+	}
+
+	@Override
+	public void initialize() {
+		if (eventBus != null) {
+			eventBus.registerAll(this);
+		}
+	}
+
+	/**
+	 * Removes all keys cached for the user on this cluster node.
+	 */
+	public void invalidate(BareJID user) {
+		if (stripe(user).remove(user)) {
+			invalidations.increment();
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Removed cached SCRAM keys of {0}", user);
+			}
+		}
+	}
+
+	public void put(BareJID user, String username, String mechanism, byte[] version,
+					ScramCredentialsEntry credentials, byte[][] keys) {
+		if (cacheSize <= 0) {
+			return;
+		}
+		stripe(user).put(user, entryKey(username, mechanism),
+						 new CachedKeys(version, credentials, keys, System.currentTimeMillis() + cacheTtl * 1000));
+	}
+
+	private String entryKey(String username, String mechanism) {
+		return username + "/" + mechanism;
+	}
+
+	private Stripe stripe(BareJID user) {
+		Stripe[] stripes = this.stripes;
+		return stripes[(user.hashCode() & Integer.MAX_VALUE) % stripes.length];
+	}
+
+	public static class CachedKeys {
+
+		private final ScramCredentialsEntry credentials;
+		private final long expiresAt;
+		private final byte[][] keys;
+		private final byte[] version;
+
+		CachedKeys(byte[] version, ScramCredentialsEntry credentials, byte[][] keys, long expiresAt) {
+			this.version = version;
+			this.credentials = credentials;
+			this.keys = keys;
+			this.expiresAt = expiresAt;
+		}
+
+		public ScramCredentialsEntry getCredentials() {
+			return credentials;
+		}
+
+		/**
+		 * @return client key, stored key and server key
+		 */
+		public byte[][] getKeys() {
+			return keys;
+		}
+	}
+
+	/**
+	 * Part of the cache with least recently used users removed when it is full.
+	 */
+	private static class Stripe {
+
+		private final LinkedHashMap<BareJID, Map<String, CachedKeys>> users;
+
+		private Stripe(final int maxSize) {
+			users = new LinkedHashMap<BareJID, Map<String, CachedKeys>>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<BareJID, Map<String, CachedKeys>> eldest) {
+					return size() > maxSize;
+				}
+			};
+		}
+
+		private synchronized CachedKeys get(BareJID user, String key) {
+			Map<String, CachedKeys> entries = users.get(user);
+			return entries == null ? null : entries.get(key);
+		}
+
+		private synchronized void put(BareJID user, String key, CachedKeys keys) {
+			users.computeIfAbsent(user, jid -> new HashMap<>(4)).put(key, keys);
+		}
+
+		private synchronized boolean remove(BareJID user) {
+			return users.remove(user) != null;
+		}
+
+		private synchronized void removeExpired(long now) {
+			Iterator<Map<String, CachedKeys>> it = users.values().iterator();
+			while (it.hasNext()) {
+				Map<String, CachedKeys> entries = it.next();
+				entries.values().removeIf(keys -> keys.expiresAt < now);
+				if (entries.isEmpty()) {
+					it.remove();
+				}
+			}
+		}
+
+		private synchronized int size() {
+			return users.size();
+		}
+	}
+
+}
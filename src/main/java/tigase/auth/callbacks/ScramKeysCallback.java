@@ -0,0 +1,87 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.auth.callbacks;
+
+import javax.security.auth.callback.Callback;
+
+/**
+ * Callback used by SCRAM mechanisms to retrieve <code>ClientKey</code>, <code>StoredKey</code> and
+ * <code>ServerKey</code> calculated for the salted password. Support for this callback is optional, if keys are not
+ * set, mechanism calculates them on its own.
+ */
+public class ScramKeysCallback
+		implements Callback, java.io.Serializable {
+
+	private static final long serialVersionUID = 3326810466613785164L;
+
+	private final String algorithm;
+	private final byte[] clientKeyData;
+	private final String prompt;
+	private final byte[] saltedPassword;
+	private final byte[] serverKeyData;
+	private byte[] clientKey;
+	private byte[] serverKey;
+	private byte[] storedKey;
+
+	public ScramKeysCallback(String prompt, String algorithm, byte[] saltedPassword, byte[] clientKeyData,
+							 byte[] serverKeyData) {
+		this.prompt = prompt;
+		this.algorithm = algorithm;
+		this.saltedPassword = saltedPassword;
+		this.clientKeyData = clientKeyData;
+		this.serverKeyData = serverKeyData;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public byte[] getClientKey() {
+		return clientKey;
+	}
+
+	public byte[] getClientKeyData() {
+		return clientKeyData;
+	}
+
+	public byte[] getSaltedPassword() {
+		return saltedPassword;
+	}
+
+	public byte[] getServerKey() {
+		return serverKey;
+	}
+
+	public byte[] getServerKeyData() {
+		return serverKeyData;
+	}
+
+	public byte[] getStoredKey() {
+		return storedKey;
+	}
+
+	/**
+	 * @param keys client key, stored key and server key
+	 */
+	public void setKeys(byte[][] keys) {
+		this.clientKey = keys[0];
+		this.storedKey = keys[1];
+		this.serverKey = keys[2];
+	}
+
+}
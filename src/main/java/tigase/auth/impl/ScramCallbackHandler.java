@@ -20,6 +20,8 @@ package tigase.auth.impl;
 import tigase.auth.AuthRepositoryAware;
 import tigase.auth.DomainAware;
 import tigase.auth.MechanismNameAware;
+import tigase.auth.ScramKeyCacheAware;
+import tigase.auth.ScramKeyCacheBean;
 import tigase.auth.SessionAware;
 import tigase.auth.callbacks.*;
 import tigase.auth.credentials.Credentials;
@@ -40,6 +42,7 @@ import javax.security.sasl.AuthorizeCallback;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.cert.Certificate;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,16 +53,20 @@ import static tigase.auth.credentials.Credentials.DEFAULT_USERNAME;
  * Implementation of CallbackHandler to support authentication using SASL SCRAM-* authentication mechanism.
  */
 public class ScramCallbackHandler
-		implements CallbackHandler, AuthRepositoryAware, SessionAware, DomainAware, MechanismNameAware {
+		implements CallbackHandler, AuthRepositoryAware, SessionAware, DomainAware, MechanismNameAware,
+				   ScramKeyCacheAware {
 
 	private static final Logger log = Logger.getLogger(ScramCallbackHandler.class.getCanonicalName());
 	private boolean loggingInForbidden = false;
+	private ScramKeyCacheBean.CachedKeys cachedKeys;
+	private byte[] credentialsVersion;
 	private ScramCredentialsEntry credentialsEntry;
 	private boolean credentialsFetched;
 	private String domain;
 	private BareJID jid = null;
 	private String mechanismName;
 	private AuthRepository repo;
+	private ScramKeyCacheBean scramKeyCache;
 	private XMPPResourceConnection session;
 	private String username = null;
 
@@ -91,6 +98,11 @@ public class ScramCallbackHandler
 		this.domain = domain;
 	}
 
+	@Override
+	public void setScramKeyCache(ScramKeyCacheBean scramKeyCache) {
+		this.scramKeyCache = scramKeyCache;
+	}
+
 	@Override
 	public void setSession(XMPPResourceConnection session) {
 		this.session = session;
@@ -130,6 +142,8 @@ public class ScramCallbackHandler
 			handlePBKDIterationsCallback((PBKDIterationsCallback) callback);
 		} else if (callback instanceof SaltedPasswordCallback) {
 			handleSaltedPasswordCallbackCallback((SaltedPasswordCallback) callback);
+		} else if (callback instanceof ScramKeysCallback) {
+			handleScramKeysCallback((ScramKeysCallback) callback);
 		} else if (callback instanceof NameCallback) {
 			handleNameCallback((NameCallback) callback);
 		} else if (callback instanceof AuthorizationIdCallback) {
@@ -192,6 +206,33 @@ public class ScramCallbackHandler
 		}
 	}
 
+	protected void handleScramKeysCallback(ScramKeysCallback callback) throws IOException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "ScramKeysCallback: {0}", jid);
+		}
+
+		fetchCredentials();
+		if (credentialsEntry == null ||
+				!Arrays.equals(credentialsEntry.getSaltedPassword(), callback.getSaltedPassword())) {
+			return;
+		}
+		if (cachedKeys != null && cachedKeys.getKeys() != null) {
+			callback.setKeys(cachedKeys.getKeys());
+			return;
+		}
+
+		try {
+			byte[][] keys = AbstractSaslSCRAM.keys(callback.getAlgorithm(), callback.getSaltedPassword(),
+												   callback.getClientKeyData(), callback.getServerKeyData());
+			if (scramKeyCache != null && credentialsVersion != null) {
+				scramKeyCache.put(jid, username, credentialsMechanism(), credentialsVersion, credentialsEntry, keys);
+			}
+			callback.setKeys(keys);
+		} catch (Exception ex) {
+			throw new IOException("Could not calculate SCRAM keys", ex);
+		}
+	}
+
 	private void handleAuthorizationIdCallback(AuthorizationIdCallback callback) {
 		if (!AbstractSasl.isAuthzIDIgnored() && callback.getAuthzId() != null &&
 				!callback.getAuthzId().equals(jid.toString())) {
@@ -247,8 +288,7 @@ public class ScramCallbackHandler
 			if (credentials == null) {
 				loggingInForbidden = true;
 			} else {
-				String mech = mechanismName.endsWith("-PLUS") ? mechanismName.substring(0, mechanismName.length() -
-						"-PLUS".length()) : mechanismName;
+				String mech = credentialsMechanism();
 
 				Credentials.Entry entry = credentials.getEntryForMechanism(mech);
 				if (entry == null) {
@@ -256,9 +296,20 @@ public class ScramCallbackHandler
 				}
 				if (entry instanceof ScramCredentialsEntry) {
 					credentialsEntry = (ScramCredentialsEntry) entry;
+					if (scramKeyCache != null) {
+						credentialsVersion = ScramKeyCacheBean.version(credentialsEntry);
+						cachedKeys = scramKeyCache.get(jid, username, mech, credentialsVersion);
+					}
 				} else if (entry instanceof PlainCredentialsEntry) {
-					credentialsEntry = new ScramCredentialsEntry(mech.replace("SCRAM-", ""),
-																 (PlainCredentialsEntry) entry);
+					if (scramKeyCache != null) {
+						credentialsVersion = ScramKeyCacheBean.version((PlainCredentialsEntry) entry);
+						cachedKeys = scramKeyCache.get(jid, username, mech, credentialsVersion);
+					}
+					// deriving salted password from plain password is expensive, so it is reused if cached
+					credentialsEntry = cachedKeys != null
+									   ? cachedKeys.getCredentials()
+									   : new ScramCredentialsEntry(mech.replace("SCRAM-", ""),
+																   (PlainCredentialsEntry) entry);
 				}
 
 				loggingInForbidden = !credentials.canLogin();
@@ -269,6 +320,12 @@ public class ScramCallbackHandler
 		credentialsFetched = true;
 	}
 
+	private String credentialsMechanism() {
+		// "-PLUS" variants use the same credentials and keys
+		return mechanismName.endsWith("-PLUS") ? mechanismName.substring(0, mechanismName.length() -
+				"-PLUS".length()) : mechanismName;
+	}
+
 	private void setJid(BareJID jid) {
 		this.jid = jid;
 		if (jid != null) {
@@ -25,18 +25,23 @@ import tigase.util.Base64;
 
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.security.sasl.AuthorizeCallback;
 import javax.security.sasl.SaslException;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.logging.Level;
@@ -52,6 +57,9 @@ public abstract class AbstractSaslSCRAM
 	public static final String LOCAL_CERTIFICATE_KEY = "LOCAL_CERTIFICATE_KEY";
 	protected final static byte[] DEFAULT_CLIENT_KEY = "Client Key".getBytes(CHARSET);
 	protected final static byte[] DEFAULT_SERVER_KEY = "Server Key".getBytes(CHARSET);
+	private final static byte[] INT_1 = new byte[]{0, 0, 0, 1};
+	// Mac instances are reused by the thread, as lookup of the provider is more expensive than initialization
+	private final static ThreadLocal<Map<String, Mac>> MACS = ThreadLocal.withInitial(HashMap::new);
 	private final static String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
 	private final static Pattern CLIENT_FIRST_MESSAGE = Pattern.compile(
 			"^(?<gs2Header>(?:y|n|p=(?<cbName>[a-zA-z0-9.-]+))," +
@@ -96,6 +104,7 @@ public abstract class AbstractSaslSCRAM
 	private BindType requestedBindType;
 	private byte[] saltedPassword;
 	private String sfmMessage;
+	private byte[] serverKey;
 	private String sfmNonce;
 	private Step step = Step.clientFirstMessage;
 	private byte[] storedKey;
@@ -105,35 +114,68 @@ public abstract class AbstractSaslSCRAM
 		if (algorithm.startsWith("SHA-")) {
 			algorithm = algorithm.replace("SHA-", "SHA");
 		}
-		final SecretKeySpec k = new SecretKeySpec(password, "Hmac" + algorithm);
+		final Mac mac = mac("Hmac" + algorithm);
+		mac.init(new SecretKeySpec(password, "Hmac" + algorithm));
 
-		byte[] z = new byte[salt.length + 4];
-		System.arraycopy(salt, 0, z, 0, salt.length);
-		System.arraycopy(new byte[]{0, 0, 0, 1}, 0, z, salt.length, 4);
+		mac.update(salt);
+		mac.update(INT_1);
 
-		byte[] u = hmac(k, z);
-		byte[] result = new byte[u.length];
-		System.arraycopy(u, 0, result, 0, result.length);
+		byte[] u = mac.doFinal();
+		byte[] result = u.clone();
 
-		int i = 1;
-		while (i < iterations) {
-			u = hmac(k, u);
-			for (int j = 0; j < u.length; j++) {
-				result[j] ^= u[j];
+		try {
+			// the same key is used in every iteration, so Mac is not initialized again and u is overwritten in place
+			for (int i = 1; i < iterations; i++) {
+				mac.update(u);
+				mac.doFinal(u, 0);
+				for (int j = 0; j < u.length; j++) {
+					result[j] ^= u[j];
+				}
 			}
-			++i;
+		} catch (ShortBufferException e) {
+			throw new IllegalStateException(e);
 		}
 
 		return result;
 	}
 
+	/**
+	 * Calculates <code>ClientKey</code>, <code>StoredKey</code> and <code>ServerKey</code> for the salted password.
+	 *
+	 * @return array with client key, stored key and server key
+	 */
+	public static byte[][] keys(String algorithm, byte[] saltedPassword, byte[] clientKeyData, byte[] serverKeyData)
+			throws InvalidKeyException, NoSuchAlgorithmException {
+		final SecretKey key = new SecretKeySpec(saltedPassword, hmacAlgorithm(algorithm));
+		final byte[] clientKey = hmac(key, clientKeyData);
+		final byte[] storedKey = MessageDigest.getInstance(algorithm).digest(clientKey);
+		final byte[] serverKey = hmac(key, serverKeyData);
+
+		return new byte[][]{clientKey, storedKey, serverKey};
+	}
+
 	protected static byte[] hmac(final SecretKey key, byte[] data)
 			throws NoSuchAlgorithmException, InvalidKeyException {
-		Mac mac = Mac.getInstance(key.getAlgorithm());
+		Mac mac = mac(key.getAlgorithm());
 		mac.init(key);
 		return mac.doFinal(data);
 	}
 
+	private static String hmacAlgorithm(String algorithm) {
+		return "Hmac" + (algorithm.startsWith("SHA-") ? algorithm.replace("SHA-", "SHA") : algorithm);
+	}
+
+	private static Mac mac(String hmacAlgorithm) throws NoSuchAlgorithmException {
+		Map<String, Mac> macs = MACS.get();
+		Mac mac = macs.get(hmacAlgorithm);
+
+		if (mac == null) {
+			mac = Mac.getInstance(hmacAlgorithm);
+			macs.put(hmacAlgorithm, mac);
+		}
+		return mac;
+	}
+
 	public static byte[] normalize(String str) {
 		return str.getBytes(CHARSET);
 	}
@@ -143,7 +185,7 @@ public abstract class AbstractSaslSCRAM
 		super(props, callbackHandler);
 		this.mechanismName = mechanismName;
 		this.algorithm = algorithm;
-		this.hmacAlgorithm = "Hmac" + (algorithm.startsWith("SHA-") ? algorithm.replace("SHA-", "SHA") : algorithm);
+		this.hmacAlgorithm = hmacAlgorithm(algorithm);
 		this.clientKeyData = clientKey;
 		this.serverKeyData = serverKey;
 		serverNonce = randomString();
@@ -154,7 +196,7 @@ public abstract class AbstractSaslSCRAM
 		super(props, callbackHandler);
 		this.mechanismName = mechanismName;
 		this.algorithm = algorithm;
-		this.hmacAlgorithm = "Hmac" + (algorithm.startsWith("SHA-") ? algorithm.replace("SHA-", "SHA") : algorithm);
+		this.hmacAlgorithm = hmacAlgorithm(algorithm);
 		this.clientKeyData = clientKey;
 		this.serverKeyData = serverKey;
 		this.serverNonce = serverOnce;
@@ -232,6 +274,22 @@ public abstract class AbstractSaslSCRAM
 		return new SecretKeySpec(key, hmacAlgorithm);
 	}
 
+	/**
+	 * Handles callback which is not required to be supported by the callback handler.
+	 *
+	 * @return <code>false</code> if callback is not supported
+	 */
+	protected boolean handleOptionalCallback(Callback callback) throws SaslException {
+		try {
+			callbackHandler.handle(new Callback[]{callback});
+			return true;
+		} catch (UnsupportedCallbackException e) {
+			return false;
+		} catch (IOException e) {
+			throw new SaslException(e.getMessage(), e);
+		}
+	}
+
 	protected byte[] processClientFirstMessage(byte[] data)
 			throws SaslException, InvalidKeyException, NoSuchAlgorithmException {
 		Matcher r = CLIENT_FIRST_MESSAGE.matcher(new String(data, CHARSET));
@@ -281,8 +339,18 @@ public abstract class AbstractSaslSCRAM
 		this.sfmNonce = cfmNonce + serverNonce;
 
 		this.saltedPassword = pc.getSaltedPassword();
-		this.clientKey = hmac(key(saltedPassword), clientKeyData);
-		this.storedKey = h(clientKey);
+
+		final ScramKeysCallback kc = new ScramKeysCallback("SCRAM keys", algorithm, saltedPassword, clientKeyData,
+														   serverKeyData);
+		if (handleOptionalCallback(kc) && kc.getClientKey() != null) {
+			this.clientKey = kc.getClientKey();
+			this.storedKey = kc.getStoredKey();
+			this.serverKey = kc.getServerKey();
+		} else {
+			this.clientKey = hmac(key(saltedPassword), clientKeyData);
+			this.storedKey = h(clientKey);
+			this.serverKey = hmac(key(saltedPassword), serverKeyData);
+		}
 
 		final StringBuilder serverStringMessage = new StringBuilder();
 		serverStringMessage.append("r=").append(sfmNonce).append(",");
@@ -341,7 +409,6 @@ public abstract class AbstractSaslSCRAM
 											   "SCRAM: " + cfmAuthzid + " is not authorized to act as " + cfmAuthzid);
 		}
 
-		byte[] serverKey = hmac(key(saltedPassword), serverKeyData);
 		byte[] serverSignature = hmac(key(serverKey), authMessage.getBytes(CHARSET));
 
 		final StringBuilder serverStringMessage = new StringBuilder();
@@ -0,0 +1,560 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import tigase.server.Packet;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+import tigase.xmpp.jid.JID;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Binary framing of elements sent over cluster connections used instead of XML if both cluster nodes support it.
+ * <br>
+ * Every frame starts with 4 bytes of frame length followed by frame type and encoded element. Element names and
+ * attribute names are sent only once and later are replaced by an index in the dictionary of names. The same is done
+ * for values of attributes which are repeated often (addresses, namespaces, types and names of cluster methods) and
+ * for addresses of cluster nodes and cluster method parameters. Both sides build dictionaries in the same order, so
+ * dictionaries are never sent. Dictionary which reached its size limit is cleared by both sides at the same point of
+ * the stream.
+ * <br>
+ * Elements with mixed content (character data and child elements) are sent as serialized XML, as the order of
+ * character data and children would be lost otherwise.
+ */
+public class ClusterBinaryCodec {
+
+	public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+	static final int DICTIONARY_SIZE = 4096;
+	static final int MAX_INTERNED_VALUE_LENGTH = 256;
+
+	private static final byte FRAME_ACK = 0;
+	private static final byte FRAME_ELEMENT = 1;
+	private static final byte NODE_ELEMENT = 0;
+	private static final byte NODE_XML = 1;
+	// values are encoded as: null, literal, new dictionary entry or reference to dictionary entry
+	private static final int VALUE_NULL = 0;
+	private static final int VALUE_LITERAL = 1;
+	private static final int VALUE_NEW = 2;
+	private static final int VALUE_REF = 3;
+	// names are encoded as: new dictionary entry or reference to dictionary entry
+	private static final int NAME_NEW = 0;
+	private static final int NAME_REF = 1;
+
+	private static final Set<String> INTERNED_ATTRIBUTES = new HashSet<>(
+			Arrays.asList(Packet.FROM_ATT, Packet.TO_ATT, Packet.TYPE_ATT, "name", "node"));
+	private static final Set<String> INTERNED_CDATA = new HashSet<>(
+			Arrays.asList("node-id", "first-node", "par", "val"));
+
+	private static boolean isInternedValue(boolean eligible, String value) {
+		return eligible && value.length() <= MAX_INTERNED_VALUE_LENGTH;
+	}
+
+	/**
+	 * Encodes elements into frames. Instance keeps dictionaries of a single connection, so it has to be used by a
+	 * single thread at the time and frames have to be sent in the order in which they were encoded.
+	 */
+	public static class Encoder {
+
+		private final HashMap<String, Integer> names = new HashMap<>();
+		private final HashMap<String, Integer> values = new HashMap<>();
+		private byte[] buf = new byte[4096];
+		private int pos = 0;
+
+		/**
+		 * Returns number of bytes encoded and not yet taken with {@link #flush()}.
+		 */
+		public int size() {
+			return pos;
+		}
+
+		/**
+		 * Appends acknowledgement frame which confirms that the remote side may start sending binary frames.
+		 */
+		public void writeAck() {
+			int start = startFrame(FRAME_ACK);
+
+			endFrame(start);
+		}
+
+		/**
+		 * Appends frame with encoded element.
+		 */
+		public void writeElement(Element elem) {
+			int start = startFrame(FRAME_ELEMENT);
+
+			writeNode(elem);
+			endFrame(start);
+		}
+
+		/**
+		 * Returns a new buffer with all encoded frames ready to write.
+		 */
+		public ByteBuffer flush() {
+			ByteBuffer result = ByteBuffer.wrap(Arrays.copyOf(buf, pos));
+
+			pos = 0;
+
+			return result;
+		}
+
+		private void endFrame(int start) {
+			int length = pos - start - 4;
+
+			buf[start] = (byte) (length >>> 24);
+			buf[start + 1] = (byte) (length >>> 16);
+			buf[start + 2] = (byte) (length >>> 8);
+			buf[start + 3] = (byte) length;
+		}
+
+		private void ensureCapacity(int bytes) {
+			if (pos + bytes > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + bytes));
+			}
+		}
+
+		private int startFrame(byte type) {
+			int start = pos;
+
+			ensureCapacity(5);
+			pos += 4;
+			buf[pos++] = type;
+
+			return start;
+		}
+
+		private void writeBytes(byte[] data) {
+			writeVarInt(data.length);
+			ensureCapacity(data.length);
+			System.arraycopy(data, 0, buf, pos, data.length);
+			pos += data.length;
+		}
+
+		private void writeName(String name) {
+			Integer idx = names.get(name);
+
+			if (idx != null) {
+				writeVarInt(NAME_REF + idx);
+			} else {
+				if (names.size() == DICTIONARY_SIZE) {
+					names.clear();
+				}
+				names.put(name, names.size());
+				writeVarInt(NAME_NEW);
+				writeString(name);
+			}
+		}
+
+		private void writeNode(Element elem) {
+			List<Element> children = elem.getChildren();
+			String cdata = elem.getCData();
+			boolean hasChildren = (children != null) && !children.isEmpty();
+
+			if (hasChildren && (cdata != null)) {
+				ensureCapacity(1);
+				buf[pos++] = NODE_XML;
+				writeString(elem.toString());
+
+				return;
+			}
+
+			ensureCapacity(1);
+			buf[pos++] = NODE_ELEMENT;
+
+			String name = elem.getName();
+
+			writeName(name);
+			writeValue(elem.getXMLNS(), true);
+
+			Map<String, String> attributes = elem.getAttributes();
+			int count = 0;
+
+			if (attributes != null) {
+				count = attributes.size();
+				if (attributes.containsKey("xmlns")) {
+					--count;
+				}
+			}
+			writeVarInt(count);
+			if (count > 0) {
+				for (Map.Entry<String, String> attr : attributes.entrySet()) {
+					if ("xmlns".equals(attr.getKey())) {
+						continue;
+					}
+					writeName(attr.getKey());
+					writeValue(attr.getValue(), INTERNED_ATTRIBUTES.contains(attr.getKey()));
+				}
+			}
+			writeValue(cdata, INTERNED_CDATA.contains(name));
+			writeVarInt(hasChildren ? children.size() : 0);
+			if (hasChildren) {
+				for (Element child : children) {
+					writeNode(child);
+				}
+			}
+		}
+
+		private void writeString(String value) {
+			writeBytes(value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		private void writeValue(String value, boolean interned) {
+			if (value == null) {
+				writeVarInt(VALUE_NULL);
+				return;
+			}
+
+			Integer idx = values.get(value);
+
+			if (idx != null) {
+				writeVarInt(VALUE_REF + idx);
+			} else if (isInternedValue(interned, value)) {
+				if (values.size() == DICTIONARY_SIZE) {
+					values.clear();
+				}
+				values.put(value, values.size());
+				writeVarInt(VALUE_NEW);
+				writeString(value);
+			} else {
+				writeVarInt(VALUE_LITERAL);
+				writeString(value);
+			}
+		}
+
+		private void writeVarInt(int value) {
+			ensureCapacity(5);
+			while ((value & ~0x7F) != 0) {
+				buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buf[pos++] = (byte) value;
+		}
+	}
+
+	/**
+	 * Decodes frames received from a single connection. Data may be passed in chunks of any size, frames are decoded
+	 * when all their bytes are received.
+	 */
+	public static class Decoder {
+
+		private final ArrayList<String> names = new ArrayList<>();
+		private final ArrayList<Value> values = new ArrayList<>();
+		private boolean ack = false;
+		private byte[] buf = new byte[4096];
+		private Element element = null;
+		private int end = 0;
+		private Value from = null;
+		private int frameEnd = 0;
+		private SimpleParser parser = null;
+		private int pos = 0;
+		private Value to = null;
+
+		/**
+		 * Appends received data to data waiting for decoding.
+		 */
+		public void feed(ByteBuffer data) {
+			int remaining = data.remaining();
+
+			if (pos > 0) {
+				// move data of not decoded frames to the beginning of the buffer
+				System.arraycopy(buf, pos, buf, 0, end - pos);
+				end -= pos;
+				pos = 0;
+			}
+			if (end + remaining > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, end + remaining));
+			}
+			data.get(buf, end, remaining);
+			end += remaining;
+		}
+
+		/**
+		 * Decodes next frame if all its data was received.
+		 *
+		 * @return <code>true</code> if frame was decoded
+		 *
+		 * @throws IOException if received data is not a valid frame
+		 */
+		public boolean readFrame() throws IOException {
+			element = null;
+			ack = false;
+			from = null;
+			to = null;
+			if (end - pos < 4) {
+				return false;
+			}
+
+			int length = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16) | ((buf[pos + 2] & 0xFF) << 8) |
+					(buf[pos + 3] & 0xFF);
+
+			if (length < 1 || length > MAX_FRAME_SIZE) {
+				throw new IOException("Invalid cluster frame length: " + length);
+			}
+			if (end - pos - 4 < length) {
+				return false;
+			}
+			pos += 4;
+			frameEnd = pos + length;
+			try {
+				byte type = buf[pos++];
+
+				switch (type) {
+					case FRAME_ACK:
+						ack = true;
+						break;
+					case FRAME_ELEMENT:
+						element = readNode(true);
+						break;
+					default:
+						throw new IOException("Unknown cluster frame type: " + type);
+				}
+				if (pos != frameEnd) {
+					throw new IOException("Invalid cluster frame, " + (frameEnd - pos) + " bytes left");
+				}
+			} catch (IndexOutOfBoundsException ex) {
+				throw new IOException("Invalid cluster frame", ex);
+			}
+
+			return true;
+		}
+
+		/**
+		 * Returns <code>true</code> if decoded frame was an acknowledgement frame.
+		 */
+		public boolean isAck() {
+			return ack;
+		}
+
+		/**
+		 * Returns element decoded from the last frame.
+		 */
+		public Element getElement() {
+			return element;
+		}
+
+		/**
+		 * Creates packet for the element decoded from the last frame. Addresses of the packet which were already
+		 * received before are not parsed again.
+		 *
+		 * @throws TigaseStringprepException if there is an address parsing error
+		 */
+		public Packet getPacket() throws TigaseStringprepException {
+			if ((element.getAttributeStaticStr(Packet.PRIORITY_ATT) != null) ||
+					(element.getAttributeStaticStr(Packet.PERM_ATT) != null)) {
+				return Packet.packetInstance(element);
+			}
+
+			JID stanzaFrom = (from == null) ? null : from.getJID();
+			JID stanzaTo = (to == null) ? null : to.getJID();
+
+			if (((element.getAttributeStaticStr(Packet.FROM_ATT) != null) && (stanzaFrom == null)) ||
+					((element.getAttributeStaticStr(Packet.TO_ATT) != null) && (stanzaTo == null))) {
+				return Packet.packetInstance(element);
+			}
+
+			return Packet.packetInstance(element, stanzaFrom, stanzaTo);
+		}
+
+		private String readName() throws IOException {
+			int code = readVarInt();
+
+			if (code == NAME_NEW) {
+				if (names.size() == DICTIONARY_SIZE) {
+					names.clear();
+				}
+
+				String name = readString().intern();
+
+				names.add(name);
+
+				return name;
+			}
+
+			return names.get(code - NAME_REF);
+		}
+
+		private Element readNode(boolean top) throws IOException {
+			byte type = buf[pos++];
+
+			if (type == NODE_XML) {
+				return parseXml(readString());
+			}
+			if (type != NODE_ELEMENT) {
+				throw new IOException("Unknown cluster frame node type: " + type);
+			}
+
+			String name = readName();
+			Value xmlns = readValue(true);
+			int count = readVarInt();
+			Element elem;
+
+			if (count > 0) {
+				String[] attNames = new String[count];
+				String[] attValues = new String[count];
+
+				for (int i = 0; i < count; i++) {
+					attNames[i] = readName();
+
+					Value value = readValue(INTERNED_ATTRIBUTES.contains(attNames[i]));
+
+					attValues[i] = value.value;
+					if (top) {
+						if (attNames[i] == Packet.FROM_ATT) {
+							from = value;
+						} else if (attNames[i] == Packet.TO_ATT) {
+							to = value;
+						}
+					}
+				}
+				elem = new Element(name, attNames, attValues);
+			} else {
+				elem = new Element(name);
+			}
+			if (xmlns != null) {
+				elem.setXMLNS(xmlns.value.intern());
+			}
+
+			Value cdata = readValue(INTERNED_CDATA.contains(name));
+
+			if (cdata != null) {
+				elem.setCData(cdata.value);
+			}
+
+			int children = readVarInt();
+
+			for (int i = 0; i < children; i++) {
+				elem.addChild(readNode(false));
+			}
+
+			return elem;
+		}
+
+		private String readString() throws IOException {
+			int length = readVarInt();
+
+			if (length < 0 || pos + length > frameEnd) {
+				throw new IOException("Invalid string length in cluster frame: " + length);
+			}
+
+			String result = new String(buf, pos, length, StandardCharsets.UTF_8);
+
+			pos += length;
+
+			return result;
+		}
+
+		private Value readValue(boolean interned) throws IOException {
+			int code = readVarInt();
+
+			switch (code) {
+				case VALUE_NULL:
+					return null;
+				case VALUE_LITERAL:
+					// literal values are not kept in the dictionary, so there is no cached JID for them
+					return new Value(readString(), false);
+				case VALUE_NEW:
+					if (values.size() == DICTIONARY_SIZE) {
+						values.clear();
+					}
+
+					Value value = new Value(readString(), true);
+
+					values.add(value);
+
+					return value;
+				default:
+					return values.get(code - VALUE_REF);
+			}
+		}
+
+		private int readVarInt() throws IOException {
+			int result = 0;
+
+			for (int shift = 0; shift < 32; shift += 7) {
+				if (pos >= frameEnd) {
+					throw new IOException("Truncated cluster frame");
+				}
+
+				byte b = buf[pos++];
+
+				result |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+			}
+			throw new IOException("Invalid number in cluster frame");
+		}
+
+		private Element parseXml(String data) throws IOException {
+			if (parser == null) {
+				parser = SingletonFactory.getParserInstance();
+			}
+
+			DomBuilderHandler handler = new DomBuilderHandler();
+			char[] chars = data.toCharArray();
+
+			parser.parse(handler, chars, 0, chars.length);
+
+			Element result = handler.getParsedElements().poll();
+
+			if (result == null) {
+				throw new IOException("Invalid XML in cluster frame");
+			}
+
+			return result;
+		}
+	}
+
+	private static class Value {
+
+		private final boolean cacheable;
+		private final String value;
+		private JID jid = null;
+		private boolean jidParsed = false;
+
+		private Value(String value, boolean cacheable) {
+			this.value = value;
+			this.cacheable = cacheable;
+		}
+
+		private JID getJID() {
+			if (!cacheable) {
+				return null;
+			}
+			if (!jidParsed) {
+				jidParsed = true;
+				try {
+					jid = JID.jidInstance(value);
+				} catch (TigaseStringprepException ex) {
+					// address will be parsed again when packet is created, to report the error
+					jid = null;
+				}
+			}
+
+			return jid;
+		}
+	}
+
+}
@@ -91,8 +91,14 @@ public class ClusterConnectionManager
 
 	public static final String CLUSTER_CONTR_ID_PROP_KEY = "cluster-controller-id";
 
+	public static final String BINARY_FRAMING_PROP_KEY = "binary-framing";
+
+	public static final boolean BINARY_FRAMING_PROP_VAL = false;
+
 	public static final String COMPRESS_STREAM_PROP_KEY = "compress-stream";
 
+	public static final String COMPRESS_STREAM_LEVEL_PROP_KEY = "compress-stream-level";
+
 	public static final String CONNECT_ALL_PAR = "--cluster-connect-all";
 
 	public static final String CONNECT_ALL_PROP_KEY = "connect-all";
@@ -124,9 +130,13 @@ public class ClusterConnectionManager
 
 	@Inject
 	private ClusterControllerIfc clusterController = null;
+	@ConfigField(desc = "Use binary framing if supported by remote node", alias = BINARY_FRAMING_PROP_KEY)
+	private boolean binaryFraming = BINARY_FRAMING_PROP_VAL;
 	private tigase.eventbus.EventListener<ClusterInitializedEvent> clusterEventHandler = null;
 	@ConfigField(desc = "Compress stream", alias = COMPRESS_STREAM_PROP_KEY)
 	private boolean compress_stream = COMPRESS_STREAM_PROP_VAL;
+	@ConfigField(desc = "Stream compression level", alias = COMPRESS_STREAM_LEVEL_PROP_KEY)
+	private int compressStreamLevel = Deflater.BEST_COMPRESSION;
 	@ConfigField(desc = "Connect to all nodes", alias = CONNECT_ALL_PROP_KEY)
 	private boolean connect_all = CONNECT_ALL_PROP_VAL;
 	// private long packetsSent = 0;
@@ -483,7 +493,7 @@ public class ClusterConnectionManager
 				new Object[]{serv.getRemoteAddress(), serv.connectionType().toString(), serv.getUniqueId()});
 		if (compress_stream) {
 			log.log(Level.INFO, "Starting stream compression for: {0}", serv.getUniqueId());
-			serv.startZLib(Deflater.BEST_COMPRESSION);
+			serv.startZLib(compressStreamLevel);
 		}
 		switch (serv.connectionType()) {
 			case connect:
@@ -496,9 +506,12 @@ public class ClusterConnectionManager
 						.put(PORT_ROUTING_TABLE_PROP_KEY,
 							 new String[]{remote_host, ".*@" + remote_host, ".*\\." + remote_host});
 
+				String framing = binaryFraming
+								 ? " " + ClusterIOService.FRAMING_ATT + "='" + ClusterIOService.FRAMING_BINARY + "'"
+								 : "";
 				String data = "<stream:stream" + " xmlns='" + XMLNS + "'" +
 						" xmlns:stream='http://etherx.jabber.org/streams'" + " from='" + getDefHostName() + "'" +
-						" to='" + remote_host + "'" + ">";
+						" to='" + remote_host + "'" + framing + ">";
 
 				log.log(Level.INFO, "cid: {0}, sending: {1}",
 						new Object[]{(String) serv.getSessionData().get("cid"), data});
@@ -620,6 +633,9 @@ public class ClusterConnectionManager
 				String id = attribs.get("id");
 
 				service.getSessionData().put(XMPPIOService.SESSION_ID_KEY, id);
+				if (isBinaryFramingRequested(service, attribs)) {
+					((ClusterIOService) service).binaryFramingNegotiated();
+				}
 
 				ClusterRepoItem item = repo.getItem(getDefHostName().getDomain());
 				String secret = item.getPassword();
@@ -654,9 +670,16 @@ public class ClusterConnectionManager
 				service.getSessionData().put(XMPPIOService.SESSION_ID_KEY, id);
 				updateConnectionDetails(service.getSessionData());
 
+				String framing = "";
+
+				if (isBinaryFramingRequested(service, attribs)) {
+					((ClusterIOService) service).binaryFramingNegotiated();
+					framing = " " + ClusterIOService.FRAMING_ATT + "='" + ClusterIOService.FRAMING_BINARY + "'";
+				}
+
 				return new String[] { "<stream:stream" + " xmlns='" + XMLNS + "'" +
 						" xmlns:stream='http://etherx.jabber.org/streams'" + " from='" + getDefHostName() + "'" +
-						" to='" + remote_host + "'" + " id='" + id + "'" + ">" };
+						" to='" + remote_host + "'" + " id='" + id + "'" + framing + ">" };
 			}
 
 			default:
@@ -690,6 +713,7 @@ public class ClusterConnectionManager
 		list.add(getName(), "Average compression ratio", ioStatsGetter.getAverageCompressionRatio(), Level.FINE);
 		list.add(getName(), "Average decompression ratio", ioStatsGetter.getAverageDecompressionRatio(), Level.FINE);
 		list.add(getName(), "Waiting to send", ioStatsGetter.getWaitingToSend(), Level.FINE);
+		list.add(getName(), "Binary framing connections", ioStatsGetter.getBinaryFraming(), Level.FINE);
 
 		list.add(getName(), "Max daily cluster nodes count in last month", maxNodes, Level.INFO);
 		list.add(getName(), "Max nodes count within last week", maxNodesWithinLastWeek, Level.INFO);
@@ -854,7 +878,7 @@ public class ClusterConnectionManager
 
 	@Override
 	protected XMPPIOService<Object> getXMPPIOServiceInstance() {
-		return new XMPPIOService<>();
+		return new ClusterIOService();
 	}
 
 	@Override
@@ -873,6 +897,11 @@ public class ClusterConnectionManager
 		eventBus.fire(event);
 	}
 
+	private boolean isBinaryFramingRequested(XMPPIOService<Object> service, Map<String, String> attribs) {
+		return binaryFraming && (service instanceof ClusterIOService) &&
+				ClusterIOService.FRAMING_BINARY.equals(attribs.get(ClusterIOService.FRAMING_ATT));
+	}
+
 	private void processHandshake(Packet p, XMPPIOService<Object> serv) {
 
 		if (log.isLoggable(Level.FINEST)) {
@@ -1018,6 +1047,7 @@ public class ClusterConnectionManager
 	private class IOServiceStatisticsGetter
 			implements ServiceChecker<XMPPIOService<Object>> {
 
+		private int binaryFraming = 0;
 		private int clIOQueue = 0;
 		private float compressionRatio = 0f;
 		private int counter = 0;
@@ -1031,6 +1061,9 @@ public class ClusterConnectionManager
 			decompressionRatio += list.getValue("zlibio", "Average decompression rate", -1f);
 			++counter;
 			clIOQueue += service.waitingToSendSize();
+			if ((service instanceof ClusterIOService) && ((ClusterIOService) service).isBinaryFraming()) {
+				++binaryFraming;
+			}
 		}
 
 		public void reset() {
@@ -1040,6 +1073,7 @@ public class ClusterConnectionManager
 			// any stats in case of the disconnection.
 			// bytesReceived = 0;
 			// bytesSent = 0;
+			binaryFraming = 0;
 			clIOQueue = 0;
 			counter = 0;
 			compressionRatio = 0f;
@@ -1054,6 +1088,10 @@ public class ClusterConnectionManager
 			return decompressionRatio / counter;
 		}
 
+		public int getBinaryFraming() {
+			return binaryFraming;
+		}
+
 		public int getWaitingToSend() {
 			return clIOQueue;
 		}
@@ -0,0 +1,246 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import tigase.net.ConnectionType;
+import tigase.server.Packet;
+import tigase.server.xmppclient.XMPPIOProcessor;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xmpp.XMPPIOService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cluster connection which may switch from XML to binary framing provided by {@link ClusterBinaryCodec}.
+ * <br>
+ * Node opening the connection requests binary framing by adding <code>framing='binary'</code> attribute to the stream
+ * header and remote node confirms that by adding the same attribute to its stream header. Nodes not supporting binary
+ * framing ignore this attribute and the connection uses XML.
+ * <br>
+ * After negotiation both nodes still exchange handshake elements as XML. Connecting node stops writing after sending
+ * its handshake, accepting node switches to binary framing after sending its handshake response but does not write
+ * anything until it receives an acknowledgement frame. Connecting node switches to binary framing when it receives the
+ * handshake response and sends the acknowledgement frame, so no XML data is sent after binary frames.
+ */
+public class ClusterIOService
+		extends XMPPIOService<Object> {
+
+	public static final String FRAMING_ATT = "framing";
+	public static final String FRAMING_BINARY = "binary";
+
+	private static final Logger log = Logger.getLogger(ClusterIOService.class.getName());
+	// maximal number of bytes encoded before they are written to the socket
+	private static final int MAX_BATCH_SIZE = 256 * 1024;
+	private static final String HANDSHAKE = "handshake";
+
+	private volatile boolean binaryNegotiated = false;
+	private volatile boolean binaryRead = false;
+	private volatile boolean binaryWrite = false;
+	private final ClusterBinaryCodec.Decoder decoder = new ClusterBinaryCodec.Decoder();
+	private final ClusterBinaryCodec.Encoder encoder = new ClusterBinaryCodec.Encoder();
+	private volatile boolean writePaused = false;
+
+	/**
+	 * Marks that both nodes support binary framing, so connection will switch to it after handshake.
+	 */
+	public void binaryFramingNegotiated() {
+		binaryNegotiated = true;
+		if (connectionType() == ConnectionType.connect) {
+			// nothing may be sent after our handshake until we receive handshake response
+			writePaused = true;
+		}
+	}
+
+	public boolean isBinaryFraming() {
+		return binaryRead && binaryWrite;
+	}
+
+	@Override
+	public void processWaitingPackets() throws IOException {
+		if (writePaused) {
+			return;
+		}
+		if (!binaryWrite) {
+			if (binaryNegotiated && connectionType() == ConnectionType.accept) {
+				processWaitingPacketsUntilHandshake();
+			} else {
+				super.processWaitingPackets();
+			}
+			return;
+		}
+
+		Queue<Packet> waitingPackets = getWaitingPackets();
+
+		while (!writePaused && !waitingPackets.isEmpty()) {
+			int encoded = 0;
+
+			// packets are removed from the queue only after they are written
+			for (Packet p : waitingPackets) {
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "{0}, Sending packet: {1}", new Object[]{toString(), p});
+				}
+				encoder.writeElement(p.getElement());
+				++encoded;
+				if (encoder.size() >= MAX_BATCH_SIZE) {
+					break;
+				}
+			}
+			writeBytes(encoder.flush());
+			for (int i = 0; i < encoded; i++) {
+				waitingPackets.poll();
+			}
+			flushed(encoded);
+		}
+		if (processors != null) {
+			for (XMPPIOProcessor processor : processors) {
+				processor.packetsSent(this);
+			}
+		}
+	}
+
+	@Override
+	public void writeRawData(String data) throws IOException {
+		if ((binaryWrite || writePaused) && (data != null)) {
+			if (data.trim().isEmpty()) {
+				// white space keep-alive, in binary mode replaced by acknowledgement frame which is ignored
+				if (binaryWrite && !writePaused) {
+					writeInProgress.lock();
+					try {
+						encoder.writeAck();
+						writeBytes(encoder.flush());
+					} finally {
+						writeInProgress.unlock();
+					}
+				}
+				return;
+			}
+			if (binaryWrite) {
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "{0}, Not sending XML data over binary connection: {1}",
+							new Object[]{toString(), data});
+				}
+				return;
+			}
+		}
+		super.writeRawData(data);
+	}
+
+	@Override
+	protected void addReceivedPacket(Packet packet) {
+		if (binaryNegotiated && !binaryRead && packet.getElemName() == HANDSHAKE) {
+			switch (connectionType()) {
+				case accept:
+					// connecting node sends nothing more until it receives our handshake response
+					binaryRead = true;
+					break;
+				case connect:
+					switchToBinary();
+					break;
+				default:
+					break;
+			}
+		}
+		super.addReceivedPacket(packet);
+	}
+
+	@Override
+	protected void processSocketData() throws IOException {
+		if (!binaryRead) {
+			super.processSocketData();
+			// handshake may be received in the middle of data processing
+			if (!binaryRead) {
+				return;
+			}
+		}
+
+		ByteBuffer data;
+
+		while (isConnected() && (data = readBytes()) != null) {
+			decoder.feed(data);
+			data.clear();
+			try {
+				while (decoder.readFrame()) {
+					if (decoder.isAck()) {
+						writePaused = false;
+						continue;
+					}
+					try {
+						Packet packet = decoder.getPacket();
+
+						if (log.isLoggable(Level.FINEST)) {
+							log.log(Level.FINEST, "{0}, Read packet: {1}", new Object[]{toString(), packet});
+						}
+						addReceivedPacket(packet);
+					} catch (TigaseStringprepException ex) {
+						log.log(Level.INFO,
+								toString() + ", Incorrect to/from JID format for stanza: " + decoder.getElement(), ex);
+					}
+				}
+			} catch (IOException ex) {
+				log.log(Level.INFO, toString() + ", Incorrect binary data, stopping connection", ex);
+				forceStop();
+				return;
+			}
+		}
+	}
+
+	@Override
+	protected char[] readData() throws IOException {
+		if (binaryRead) {
+			// remaining data has to be processed by the binary decoder
+			return null;
+		}
+		return super.readData();
+	}
+
+	private void processWaitingPacketsUntilHandshake() throws IOException {
+		Queue<Packet> waitingPackets = getWaitingPackets();
+		Packet packet;
+
+		while ((packet = waitingPackets.peek()) != null) {
+			writeRawData(packet.getElement().toString());
+			waitingPackets.poll();
+			if (packet.getElemName() == HANDSHAKE) {
+				// remote node switches to binary framing after receiving handshake response and confirms that
+				// with an acknowledgement frame
+				writePaused = true;
+				binaryWrite = true;
+				break;
+			}
+		}
+	}
+
+	private void switchToBinary() {
+		binaryRead = true;
+		writeInProgress.lock();
+		try {
+			binaryWrite = true;
+			encoder.writeAck();
+			writeBytes(encoder.flush());
+			writePaused = false;
+		} finally {
+			writeInProgress.unlock();
+		}
+	}
+
+}
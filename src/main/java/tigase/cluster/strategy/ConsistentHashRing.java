@@ -0,0 +1,133 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable consistent hashing ring assigning keys to nodes. Every node is placed on the ring in a number of points
+ * (virtual nodes) and a key belongs to the node owning the first point following hash of the key. Adding or removing a
+ * node moves only keys owned by this node, about <code>1/n</code> of all keys.
+ * <br>
+ * Hashes are calculated from string representations of nodes and keys and do not depend on JVM, so all cluster nodes
+ * with the same list of nodes select the same owner of the key.
+ */
+final class ConsistentHashRing<N> {
+
+	private final List<N> nodes;
+	private final N[] owners;
+	private final long[] points;
+
+	static long hash(CharSequence key) {
+		// FNV-1a followed by a MurmurHash3 finalizer for better distribution of similar keys
+		long h = 0xcbf29ce484222325L;
+
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+
+		return h;
+	}
+
+	@SuppressWarnings("unchecked")
+	ConsistentHashRing(Collection<N> nodes, int virtualNodes) {
+		if (virtualNodes < 1) {
+			throw new IllegalArgumentException("Number of virtual nodes must be positive: " + virtualNodes);
+		}
+
+		List<String> names = new ArrayList<>(nodes.size());
+		List<N> sorted = new ArrayList<>(nodes.size());
+
+		for (N node : nodes) {
+			if (!sorted.contains(node)) {
+				sorted.add(node);
+			}
+		}
+		// order of nodes has to be the same on all cluster nodes to break ties in the same way
+		sorted.sort((n1, n2) -> n1.toString().compareTo(n2.toString()));
+		for (N node : sorted) {
+			names.add(node.toString());
+		}
+
+		int size = sorted.size() * virtualNodes;
+		long[] keys = new long[size];
+		Integer[] order = new Integer[size];
+
+		for (int i = 0; i < size; i++) {
+			keys[i] = hash(names.get(i / virtualNodes) + '#' + (i % virtualNodes));
+			order[i] = i;
+		}
+		Arrays.sort(order, (i1, i2) -> {
+			int result = Long.compare(keys[i1], keys[i2]);
+
+			return result != 0 ? result : Integer.compare(i1, i2);
+		});
+
+		this.points = new long[size];
+		this.owners = (N[]) new Object[size];
+		for (int i = 0; i < size; i++) {
+			points[i] = keys[order[i]];
+			owners[i] = sorted.get(order[i] / virtualNodes);
+		}
+		this.nodes = Collections.unmodifiableList(sorted);
+	}
+
+	/**
+	 * Returns node owning the key or <code>null</code> if there are no nodes.
+	 */
+	N nodeFor(CharSequence key) {
+		if (points.length == 0) {
+			return null;
+		}
+
+		int idx = Arrays.binarySearch(points, hash(key));
+
+		if (idx < 0) {
+			idx = -idx - 1;
+			if (idx == points.length) {
+				idx = 0;
+			}
+		} else {
+			// first of the points with the same hash
+			while (idx > 0 && points[idx - 1] == points[idx]) {
+				idx--;
+			}
+		}
+
+		return owners[idx];
+	}
+
+	List<N> getNodes() {
+		return nodes;
+	}
+
+	int size() {
+		return nodes.size();
+	}
+
+}
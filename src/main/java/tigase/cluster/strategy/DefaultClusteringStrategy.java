@@ -19,6 +19,7 @@ package tigase.cluster.strategy;
 
 import tigase.cluster.SessionManagerClustered;
 import tigase.cluster.api.ClusterCommandException;
+import tigase.cluster.api.CommandListener;
 import tigase.cluster.api.CommandListenerAbstract;
 import tigase.kernel.beans.Bean;
 import tigase.server.*;
@@ -50,15 +51,18 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 	public static final String USER_ID = "userId";
 
 	public static final String XMPP_SESSION_ID = "xmppSessionId";
+	protected static final String PRESENCE_TYPE_INITIAL = "initial";
+	protected static final String PRESENCE_TYPE_KEY = "presence-type";
+	protected static final String USER_CONNECTED_CMD = "user-connected-sm-cmd";
+	protected static final String USER_PRESENCE_CMD = "user-presence-sm-cmd";
 	private static final String AUTH_TIME = "auth-time";
 	private static final String INITIAL_PRESENCE_KEY = "cluster-initial-presence";
 
 	private static final Logger log = Logger.getLogger(DefaultClusteringStrategy.class.getName());
-	private static final String PRESENCE_TYPE_INITIAL = "initial";
-	private static final String PRESENCE_TYPE_KEY = "presence-type";
 	private static final String PRESENCE_TYPE_UPDATE = "update";
-	private static final String USER_CONNECTED_CMD = "user-connected-sm-cmd";
-	private static final String USER_PRESENCE_CMD = "user-presence-sm-cmd";
+
+	protected final CommandListener userConnectedCmd = new UserConnectedCommand(USER_CONNECTED_CMD);
+	protected final CommandListener userPresenceCmd = new UserPresenceCommand(USER_PRESENCE_CMD);
 
 	// Simple random generator, we do not need a strong randomization here.
 	// Just enough to ensure better traffic distribution
@@ -67,38 +71,18 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 
 	public DefaultClusteringStrategy() {
 		super();
-		addCommandListener(new UserPresenceCommand(USER_PRESENCE_CMD));
-		addCommandListener(new UserConnectedCommand(USER_CONNECTED_CMD));
+		addCommandListener(userPresenceCmd);
+		addCommandListener(userConnectedCmd);
 	}
 	
 	@Override
 	public void handleLocalPacket(Packet packet, XMPPResourceConnection conn) {
 		if (packet.getElemName() == Presence.ELEM_NAME) {
 			try {
-				if ((packet.getStanzaFrom() != null) && !conn.isUserId(packet.getStanzaFrom().getBareJID())) {
-					return;
-				}
-
-				if (packet.getType() != null) {
-					switch (packet.getType()) {
-						case subscribe:
-						case subscribed:
-						case unsubscribe:
-						case unsubscribed:
-							return;
-						default:
-							break;
-					}
-				}
+				Map<String, String> params = preparePresenceParams(packet, conn);
 
-				boolean initPresence = conn.getSessionData(INITIAL_PRESENCE_KEY) == null;
-				Map<String, String> params = prepareConnectionParams(conn);
-
-				if (initPresence) {
-					conn.putSessionData(INITIAL_PRESENCE_KEY, INITIAL_PRESENCE_KEY);
-					params.put(PRESENCE_TYPE_KEY, PRESENCE_TYPE_INITIAL);
-				} else {
-					params.put(PRESENCE_TYPE_KEY, PRESENCE_TYPE_UPDATE);
+				if (params == null) {
+					return;
 				}
 
 				Element presence = packet.getElement();    // conn.getPresence();
@@ -139,17 +123,7 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 				return;
 			}
 
-			Element presence = conn.getPresence();
-
-			if (presence == null) {
-				presence = new Element(Presence.ELEM_NAME);
-				presence.setXMLNS(Presence.CLIENT_XMLNS);
-			} else {
-				presence = presence.clone();
-			}
-			presence.setAttribute("from", conn.getJID().toString());
-			presence.setAttribute("type", StanzaType.unavailable.name());
-
+			Element presence = prepareUnavailablePresence(conn);
 			Map<String, String> params = prepareConnectionParams(conn);
 			List<JID> cl_nodes = getNodesConnected();
 
@@ -215,6 +189,69 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 		}
 	}
 
+	/**
+	 * Prepares a Map of data sent to other cluster nodes together with the presence of a local user. Initial presence
+	 * of the connection is marked, so nodes with other user's connections reply with presences of these connections.
+	 *
+	 * @param packet presence sent by the user.
+	 * @param conn is user's XMPPResourceConnection which sent the presence.
+	 *
+	 * @return a Map structure with user's connection data or <code>null</code> if the presence should not be sent to
+	 * other cluster nodes.
+	 */
+	protected Map<String, String> preparePresenceParams(Packet packet, XMPPResourceConnection conn)
+			throws NotAuthorizedException, NoConnectionIdException {
+		if ((packet.getStanzaFrom() != null) && !conn.isUserId(packet.getStanzaFrom().getBareJID())) {
+			return null;
+		}
+
+		if (packet.getType() != null) {
+			switch (packet.getType()) {
+				case subscribe:
+				case subscribed:
+				case unsubscribe:
+				case unsubscribed:
+					return null;
+				default:
+					break;
+			}
+		}
+
+		boolean initPresence = conn.getSessionData(INITIAL_PRESENCE_KEY) == null;
+		Map<String, String> params = prepareConnectionParams(conn);
+
+		if (initPresence) {
+			conn.putSessionData(INITIAL_PRESENCE_KEY, INITIAL_PRESENCE_KEY);
+			params.put(PRESENCE_TYPE_KEY, PRESENCE_TYPE_INITIAL);
+		} else {
+			params.put(PRESENCE_TYPE_KEY, PRESENCE_TYPE_UPDATE);
+		}
+
+		return params;
+	}
+
+	/**
+	 * Creates unavailable presence of the user's connection which is being closed.
+	 *
+	 * @param conn is user's XMPPResourceConnection which is being closed.
+	 *
+	 * @return presence element with <code>unavailable</code> type.
+	 */
+	protected Element prepareUnavailablePresence(XMPPResourceConnection conn) throws NotAuthorizedException {
+		Element presence = conn.getPresence();
+
+		if (presence == null) {
+			presence = new Element(Presence.ELEM_NAME);
+			presence.setXMLNS(Presence.CLIENT_XMLNS);
+		} else {
+			presence = presence.clone();
+		}
+		presence.setAttribute("from", conn.getJID().toString());
+		presence.setAttribute("type", StanzaType.unavailable.name());
+
+		return presence;
+	}
+
 	/**
 	 * A utility method used to prepare a Map of data with user session data before it can be sent over to another
 	 * cluster node. This is supposed to contain all the user's session essential information which directly identify
@@ -262,6 +299,16 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 		return rec;
 	}
 
+	/**
+	 * Method called when the user's resource was bound on another cluster node, after the connection record was
+	 * received from this node.
+	 *
+	 * @param rec is a ConnectionRecord of the user's new connection.
+	 */
+	protected void handleRemoteResourceBind(ConnectionRecordIfc rec) {
+		// Do nothing
+	}
+
 	private List<JID> selectNodes(JID fromNode, Set<JID> visitedNodes) {
 		List<JID> result = null;
 		List<JID> cl_nodes_list = getNodesConnected();
@@ -375,6 +422,7 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 			} else {
 				fireEvent(new UserConnectedEvent(rec.getUserJid()));
 			}
+			handleRemoteResourceBind(rec);
 			if (log.isLoggable(Level.FINEST)) {
 				log.finest("User connected jid: " + rec.getUserJid() + ", fromNode: " + fromNode);
 			}
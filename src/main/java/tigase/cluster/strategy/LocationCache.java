@@ -0,0 +1,130 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of locations of users kept by other cluster nodes. Entries expire after the configured time, which protects
+ * against lost invalidations, and the owner of the user's index entry invalidates cached location as soon as it
+ * changes.
+ * <br>
+ * Reads do not lock. If the cache grows over the limit, expired entries are removed first and then arbitrary entries
+ * until the cache is back below the limit.
+ */
+final class LocationCache<K, V> {
+
+	private final ConcurrentHashMap<K, Item<V>> items = new ConcurrentHashMap<>();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final int maxSize;
+	private final LongAdder misses = new LongAdder();
+	private final long ttl;
+
+	LocationCache(int maxSize, long ttl) {
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Returns cached value or <code>null</code> if there is no value for the key or it has expired.
+	 */
+	V get(K key, long now) {
+		Item<V> item = items.get(key);
+
+		if (item == null) {
+			misses.increment();
+			return null;
+		}
+		if (item.expiresAt <= now) {
+			items.remove(key, item);
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+
+		return item.value;
+	}
+
+	void put(K key, V value, long now) {
+		items.put(key, new Item<>(value, now + ttl));
+		if (items.size() > maxSize) {
+			evict(now);
+		}
+	}
+
+	boolean invalidate(K key) {
+		return items.remove(key) != null;
+	}
+
+	void clear() {
+		items.clear();
+	}
+
+	int size() {
+		return items.size();
+	}
+
+	long getEvictions() {
+		return evictions.sum();
+	}
+
+	long getHits() {
+		return hits.sum();
+	}
+
+	long getMisses() {
+		return misses.sum();
+	}
+
+	private synchronized void evict(long now) {
+		if (items.size() <= maxSize) {
+			return;
+		}
+		items.values().removeIf(item -> item.expiresAt <= now);
+		if (items.size() <= maxSize - (maxSize >> 3)) {
+			return;
+		}
+
+		// removing 1/8 of entries at once, so eviction is not needed again after every put
+		int toRemove = items.size() - (maxSize - (maxSize >> 3));
+		Iterator<Map.Entry<K, Item<V>>> it = items.entrySet().iterator();
+
+		while (toRemove > 0 && it.hasNext()) {
+			it.next();
+			it.remove();
+			evictions.increment();
+			toRemove--;
+		}
+	}
+
+	private static final class Item<V> {
+
+		private final long expiresAt;
+		private final V value;
+
+		private Item(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+}
@@ -0,0 +1,877 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import tigase.cluster.api.ClusterCommandException;
+import tigase.cluster.api.CommandListenerAbstract;
+import tigase.cluster.strategy.cmd.PacketForwardCmd;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.server.Packet;
+import tigase.server.Presence;
+import tigase.server.Priority;
+import tigase.stats.StatisticsList;
+import tigase.xml.Element;
+import tigase.xmpp.NoConnectionIdException;
+import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.XMPPSession;
+import tigase.xmpp.impl.roster.RosterAbstract;
+import tigase.xmpp.impl.roster.RosterFactory;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static tigase.cluster.api.SessionManagerClusteredIfc.SESSION_FOUND_KEY;
+
+/**
+ * Clustering strategy which partitions index of online users between cluster nodes instead of broadcasting user's
+ * presence and forwarding packets to all cluster nodes. Every user has an owner node selected by consistent hashing of
+ * the user's bare JID and the owner keeps records of all user's connections in the cluster.
+ * <ul>
+ * <li>Presence of a local user is sent to the owner, which forwards it only to nodes with other user's connections.</li>
+ * <li>Packets for users connected to other nodes are sent directly to nodes with user's connections if the location
+ * of the user is cached. Otherwise packet is sent to the owner, which forwards it and replies with the location of
+ * the user. Packets for users who are offline in the whole cluster are processed locally.</li>
+ * <li>Owner remembers nodes which cached the location of the user and invalidates cached locations as soon as the user
+ * connects or disconnects.</li>
+ * <li>Locations of the user's roster contacts are fetched in one request per owner node when the initial presence is
+ * sent, so presences for contacts are forwarded directly to nodes with their connections.</li>
+ * </ul>
+ * Resource binding is still announced to all cluster nodes, as other nodes use it to detect resource conflicts and to
+ * invalidate cached data of the user.
+ * <br>
+ * Index is rebuilt when the cluster node connects or disconnects. Every node sends records of local connections for
+ * which owner has changed to the new owner, and all cached locations are dropped.
+ */
+public class PartitionedClusteringStrategy<E extends ConnectionRecordIfc>
+		extends DefaultClusteringStrategy<E> {
+
+	private static final String INDEX_ACTION_KEY = "index-action";
+	private static final String INDEX_INVALIDATE_CMD = "index-invalidate-sm-cmd";
+	private static final String INDEX_LOCATION_CMD = "index-location-sm-cmd";
+	private static final String INDEX_LOOKUP_CMD = "index-lookup-sm-cmd";
+	private static final String INDEX_LOOKUP_KEY = "index-lookup";
+	private static final String INDEX_OWNER_KEY = "index-owner";
+	private static final String INDEX_SYNC_CMD = "index-sync-sm-cmd";
+	private static final String INDEX_UPDATE_CMD = "index-update-sm-cmd";
+	private static final String JIDS_KEY = "jids";
+	private static final long LOOKUP_TIMEOUT = 30 * 1000;
+
+	private static final Logger log = Logger.getLogger(PartitionedClusteringStrategy.class.getName());
+
+	private final ConcurrentHashMap<BareJID, IndexEntry> index = new ConcurrentHashMap<>();
+	private final LongAdder indexedConnections = new LongAdder();
+	private final LongAdder invalidationsSent = new LongAdder();
+	@ConfigField(desc = "Maximal number of cached locations of users owned by other nodes", alias = "location-cache-size")
+	private int locationCacheSize = 100000;
+	@ConfigField(desc = "Time in milliseconds after which cached location of a user expires", alias = "location-cache-ttl")
+	private long locationCacheTtl = 10 * 60 * 1000;
+	private volatile LocationCache<BareJID, List<ConnectionRecordIfc>> locations = null;
+	private final ConcurrentHashMap<BareJID, Long> lookups = new ConcurrentHashMap<>();
+	private final LongAdder lookupsReceived = new LongAdder();
+	private final LongAdder lookupsSent = new LongAdder();
+	private final LongAdder packetsForwarded = new LongAdder();
+	private final LongAdder packetsResolved = new LongAdder();
+	@ConfigField(desc = "Fetch locations of roster contacts on initial presence", alias = "prefetch-contacts")
+	private boolean prefetchContacts = true;
+	private final LongAdder presenceRelays = new LongAdder();
+	private volatile ConsistentHashRing<JID> ring = null;
+	@ConfigField(desc = "Number of points on the hash ring for every cluster node", alias = "virtual-nodes")
+	private int virtualNodes = 128;
+
+	public PartitionedClusteringStrategy() {
+		super();
+		addCommandListener(new IndexInvalidateCommand(INDEX_INVALIDATE_CMD));
+		addCommandListener(new IndexLocationCommand(INDEX_LOCATION_CMD));
+		addCommandListener(new IndexLookupCommand(INDEX_LOOKUP_CMD));
+		addCommandListener(new IndexSyncCommand(INDEX_SYNC_CMD));
+		addCommandListener(new IndexUpdateCommand(INDEX_UPDATE_CMD));
+	}
+
+	@Override
+	public void everyMinute() {
+		super.everyMinute();
+
+		long now = System.currentTimeMillis();
+
+		lookups.values().removeIf(sent -> now - sent > LOOKUP_TIMEOUT);
+		for (BareJID user : index.keySet()) {
+			index.computeIfPresent(user, (k, entry) -> {
+				entry.watchers.values().removeIf(expiresAt -> expiresAt <= now);
+				return entry.isEmpty() ? null : entry;
+			});
+		}
+	}
+
+	@Override
+	public Set<E> getConnectionRecords(BareJID bareJID) {
+		List<ConnectionRecordIfc> records = getRecords(bareJID);
+
+		if (records == null) {
+			return null;
+		}
+
+		Set<E> result = new LinkedHashSet<>();
+
+		for (ConnectionRecordIfc rec : records) {
+			result.add((E) rec);
+		}
+
+		return result;
+	}
+
+	@Override
+	public String getInfo() {
+		return "partitioned strategy";
+	}
+
+	@Override
+	public List<JID> getNodesForPacketForward(JID fromNode, Set<JID> visitedNodes, Packet packet) {
+		if (visitedNodes == null && isIndexRouted(packet)) {
+			BareJID user = packet.getStanzaTo().getBareJID();
+			List<ConnectionRecordIfc> records = getRecords(user);
+
+			if (records == null) {
+				return Collections.singletonList(getOwner(user));
+			}
+
+			List<JID> nodes = selectHosts(records, packet);
+
+			return nodes.isEmpty() ? null : nodes;
+		}
+
+		return super.getNodesForPacketForward(fromNode, visitedNodes, packet);
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		super.getStatistics(compName, list);
+		if (list.checkLevel(Level.FINE)) {
+			LocationCache<BareJID, List<ConnectionRecordIfc>> cache = getLocations();
+
+			list.add(comp, "Partitioned index users", index.size(), Level.FINE);
+			list.add(comp, "Partitioned index connections", indexedConnections.sum(), Level.FINE);
+			list.add(comp, "Location cache size", cache.size(), Level.FINE);
+			list.add(comp, "Location cache hits", cache.getHits(), Level.FINE);
+			list.add(comp, "Location cache misses", cache.getMisses(), Level.FINE);
+			list.add(comp, "Location cache evictions", cache.getEvictions(), Level.FINE);
+			list.add(comp, "Location lookups sent", lookupsSent.sum(), Level.FINE);
+			list.add(comp, "Location lookups received", lookupsReceived.sum(), Level.FINE);
+			list.add(comp, "Location invalidations sent", invalidationsSent.sum(), Level.FINE);
+			list.add(comp, "Packets forwarded to user nodes", packetsForwarded.sum(), Level.FINE);
+			list.add(comp, "Packets resolved by owner", packetsResolved.sum(), Level.FINE);
+			list.add(comp, "Presence relays", presenceRelays.sum(), Level.FINE);
+		}
+	}
+
+	@Override
+	public void handleLocalPacket(Packet packet, XMPPResourceConnection conn) {
+		if (packet.getElemName() == Presence.ELEM_NAME) {
+			try {
+				Map<String, String> params = preparePresenceParams(packet, conn);
+
+				if (params == null) {
+					return;
+				}
+				if (prefetchContacts && PRESENCE_TYPE_INITIAL.equals(params.get(PRESENCE_TYPE_KEY))) {
+					fetchContactLocations(conn);
+				}
+				sendIndexUpdate(IndexAction.presence, params, packet.getElement());
+			} catch (Exception e) {
+				log.log(Level.WARNING, "Problem with sending user presence to index owner for: " + conn, e);
+			}
+		}
+	}
+
+	@Override
+	public void handleLocalResourceBind(XMPPResourceConnection conn) {
+		super.handleLocalResourceBind(conn);
+		try {
+			ConnectionRecordIfc rec = getConnectionRecord(sm.getComponentId(), prepareConnectionParams(conn));
+
+			if (sm.getComponentId().equals(getOwner(rec.getUserJid().getBareJID()))) {
+				addRecord(rec);
+			}
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Problem with adding user connection to index for: " + conn, e);
+		}
+	}
+
+	@Override
+	public void handleLocalUserLogout(BareJID userId, XMPPResourceConnection conn) {
+		try {
+			if (!conn.isAuthorized()) {
+				return;
+			}
+			sendIndexUpdate(IndexAction.remove, prepareConnectionParams(conn), prepareUnavailablePresence(conn));
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Problem with removing user connection from index for: " + conn, e);
+		}
+	}
+
+	@Override
+	public void nodeConnected(JID node) {
+		super.nodeConnected(node);
+		membershipChanged(null);
+	}
+
+	@Override
+	public void nodeDisconnected(JID node) {
+		super.nodeDisconnected(node);
+		membershipChanged(node);
+	}
+
+	@Override
+	public boolean processPacket(Packet packet, XMPPResourceConnection conn) {
+		if (!isIndexRouted(packet)) {
+			return super.processPacket(packet, conn);
+		}
+
+		BareJID user = packet.getStanzaTo().getBareJID();
+		List<ConnectionRecordIfc> records = getRecords(user);
+		Map<String, String> data = new LinkedHashMap<String, String>();
+		List<JID> toNodes;
+
+		if (records == null) {
+			JID owner = getOwner(user);
+
+			data.put(INDEX_OWNER_KEY, owner.toString());
+			if (startLookup(user, System.currentTimeMillis())) {
+				data.put(INDEX_LOOKUP_KEY, "true");
+			}
+			toNodes = Collections.singletonList(owner);
+		} else {
+			toNodes = selectHosts(records, packet);
+			if (toNodes.isEmpty()) {
+				// user is offline in the whole cluster or connected only to this node
+				return false;
+			}
+			packetsForwarded.increment();
+		}
+		if (conn != null) {
+			data.put(SESSION_FOUND_KEY, sm.getComponentId().toString());
+		}
+		if (packet.getPacketFrom() != null) {
+			data.put(PacketForwardCmd.PACKET_FROM_KEY, packet.getPacketFrom().toString());
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Forwarding packet {0} to nodes: {1}", new Object[]{packet, toNodes});
+		}
+		cluster.sendToNodes(PACKET_FORWARD_CMD, data, packet.getElement(), sm.getComponentId(), null,
+							toNodes.toArray(new JID[toNodes.size()]));
+
+		return true;
+	}
+
+	@Override
+	public boolean sendToNextNode(JID fromNode, Set<JID> visitedNodes, Map<String, String> data, Packet packet) {
+		if (data == null || !data.containsKey(INDEX_OWNER_KEY)) {
+			if (!isIndexRouted(packet)) {
+				return super.sendToNextNode(fromNode, visitedNodes, data, packet);
+			}
+			// packets routed with the index are sent directly to all nodes with user's connections, but location
+			// of the user may have changed after it was cached or resolved by the owner
+			return sendToFirstNode(fromNode, visitedNodes, data, packet);
+		}
+
+		Map<String, String> fwdData = new LinkedHashMap<String, String>(data);
+
+		fwdData.remove(INDEX_OWNER_KEY);
+
+		BareJID user = packet.getStanzaTo().getBareJID();
+		List<ConnectionRecordIfc> records;
+
+		if (fwdData.remove(INDEX_LOOKUP_KEY) != null) {
+			records = watch(user, fromNode);
+			sendLocations(fromNode, Collections.singletonList(user), records);
+		} else {
+			records = getIndexedRecords(user);
+		}
+
+		List<JID> nodes = selectHosts(records, packet);
+
+		if (visitedNodes != null) {
+			nodes.removeAll(visitedNodes);
+		}
+		if (nodes.isEmpty()) {
+			return sendToFirstNode(fromNode, visitedNodes, fwdData, packet);
+		}
+		packetsResolved.increment();
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Forwarding packet {0} resolved by index owner to nodes: {1}",
+					new Object[]{packet, nodes});
+		}
+		cluster.sendToNodes(PACKET_FORWARD_CMD, fwdData, packet.getElement(), fromNode, visitedNodes,
+							nodes.toArray(new JID[nodes.size()]));
+
+		return true;
+	}
+
+	@Override
+	protected void handleRemoteResourceBind(ConnectionRecordIfc rec) {
+		if (sm.getComponentId().equals(getOwner(rec.getUserJid().getBareJID()))) {
+			addRecord(rec);
+		}
+	}
+
+	protected JID getOwner(BareJID user) {
+		return getRing().nodeFor(user.toString());
+	}
+
+	/**
+	 * Returns records of all user's connections in the cluster. Records are taken from the index if this node is the
+	 * owner of the user or from the cache of locations otherwise.
+	 *
+	 * @return list of user's connection records or <code>null</code> if location of the user is not known.
+	 */
+	protected List<ConnectionRecordIfc> getRecords(BareJID user) {
+		if (sm.getComponentId().equals(getOwner(user))) {
+			return getIndexedRecords(user);
+		}
+
+		return getLocations().get(user, System.currentTimeMillis());
+	}
+
+	private void addRecord(ConnectionRecordIfc rec) {
+		BareJID user = rec.getUserJid().getBareJID();
+		Set<JID> watchers = new HashSet<>();
+
+		index.compute(user, (k, entry) -> {
+			if (entry == null) {
+				entry = new IndexEntry();
+			}
+			if (entry.add(rec)) {
+				indexedConnections.increment();
+			}
+			entry.takeWatchers(watchers);
+			return entry;
+		});
+		invalidate(user, watchers);
+	}
+
+	private List<ConnectionRecordIfc> getIndexedRecords(BareJID user) {
+		IndexEntry entry = index.get(user);
+
+		return entry == null ? Collections.emptyList() : Arrays.asList(entry.records);
+	}
+
+	private LocationCache<BareJID, List<ConnectionRecordIfc>> getLocations() {
+		LocationCache<BareJID, List<ConnectionRecordIfc>> cache = locations;
+
+		if (cache == null) {
+			synchronized (this) {
+				cache = locations;
+				if (cache == null) {
+					cache = new LocationCache<>(locationCacheSize, locationCacheTtl);
+					locations = cache;
+				}
+			}
+		}
+
+		return cache;
+	}
+
+	private ConsistentHashRing<JID> getRing() {
+		ConsistentHashRing<JID> result = ring;
+
+		if (result == null) {
+			synchronized (this) {
+				result = ring;
+				if (result == null) {
+					result = createRing();
+					ring = result;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private ConsistentHashRing<JID> createRing() {
+		List<JID> nodes = new ArrayList<>(getNodesConnected());
+
+		nodes.add(sm.getComponentId());
+
+		return new ConsistentHashRing<>(nodes, virtualNodes);
+	}
+
+	private void invalidate(BareJID user, Set<JID> watchers) {
+		if (watchers.isEmpty()) {
+			return;
+		}
+
+		Map<String, String> data = Collections.singletonMap(JIDS_KEY, user.toString());
+
+		watchers.remove(sm.getComponentId());
+		if (!watchers.isEmpty()) {
+			invalidationsSent.add(watchers.size());
+			cluster.sendToNodes(INDEX_INVALIDATE_CMD, data, sm.getComponentId(),
+								watchers.toArray(new JID[watchers.size()]));
+		}
+	}
+
+	private boolean isIndexRouted(Packet packet) {
+		return isSuitableForForward(packet) && !isIqResponseToNode(packet);
+	}
+
+	private synchronized void membershipChanged(JID disconnected) {
+		JID self = sm.getComponentId();
+		ConsistentHashRing<JID> oldRing = ring;
+		ConsistentHashRing<JID> newRing = createRing();
+
+		ring = newRing;
+		getLocations().clear();
+		lookups.clear();
+
+		// dropping users owned now by other nodes and connections of the disconnected node
+		for (BareJID user : index.keySet()) {
+			if (!self.equals(newRing.nodeFor(user.toString()))) {
+				IndexEntry entry = index.remove(user);
+
+				if (entry != null) {
+					indexedConnections.add(-entry.records.length);
+				}
+			} else if (disconnected != null) {
+				index.computeIfPresent(user, (k, entry) -> {
+					indexedConnections.add(-entry.removeNode(disconnected));
+					return entry.isEmpty() ? null : entry;
+				});
+			}
+		}
+		if (oldRing == null || sm.getXMPPSessions() == null) {
+			return;
+		}
+
+		// sending local connections to new owners
+		Map<JID, Queue<Element>> moved = new HashMap<>();
+
+		for (XMPPSession session : sm.getXMPPSessions().values()) {
+			for (XMPPResourceConnection conn : session.getActiveResources()) {
+				if (!conn.isAuthorized() || !conn.isResourceSet()) {
+					continue;
+				}
+				try {
+					ConnectionRecordIfc rec = getConnectionRecord(self, prepareConnectionParams(conn));
+					String user = rec.getUserJid().getBareJID().toString();
+					JID owner = newRing.nodeFor(user);
+
+					if (owner.equals(oldRing.nodeFor(user))) {
+						continue;
+					}
+					if (self.equals(owner)) {
+						addRecord(rec);
+					} else {
+						moved.computeIfAbsent(owner, k -> new ArrayDeque<>()).offer(rec.toElement());
+					}
+				} catch (NotAuthorizedException | NoConnectionIdException ex) {
+					// connection is being closed
+				}
+			}
+		}
+		for (Map.Entry<JID, Queue<Element>> e : moved.entrySet()) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Sending {0} connection records to new index owner: {1}",
+						new Object[]{e.getValue().size(), e.getKey()});
+			}
+			cluster.sendToNodes(INDEX_SYNC_CMD, null, e.getValue(), self, null, e.getKey());
+		}
+	}
+
+	private void fetchContactLocations(XMPPResourceConnection conn) {
+		JID[] buddies;
+
+		try {
+			buddies = RosterFactory.getRosterImplementation(true).getBuddies(conn);
+		} catch (Exception ex) {
+			log.log(Level.FINEST, "Could not get roster contacts of: " + conn, ex);
+			return;
+		}
+		if (buddies == null) {
+			return;
+		}
+
+		JID self = sm.getComponentId();
+		long now = System.currentTimeMillis();
+		Map<JID, StringBuilder> requests = new HashMap<>();
+
+		for (JID buddy : buddies) {
+			BareJID user = buddy.getBareJID();
+
+			if (!sm.isLocalDomain(user.getDomain(), false)) {
+				continue;
+			}
+
+			JID owner = getOwner(user);
+
+			if (self.equals(owner) || getLocations().get(user, now) != null || !startLookup(user, now)) {
+				continue;
+			}
+
+			StringBuilder sb = requests.get(owner);
+
+			if (sb == null) {
+				requests.put(owner, sb = new StringBuilder());
+			} else {
+				sb.append(',');
+			}
+			sb.append(user);
+		}
+		for (Map.Entry<JID, StringBuilder> e : requests.entrySet()) {
+			cluster.sendToNodes(INDEX_LOOKUP_CMD, Collections.singletonMap(JIDS_KEY, e.getValue().toString()), self,
+								e.getKey());
+		}
+	}
+
+	/**
+	 * Sends packet back to the first node for offline processing if there is no session of the user on this node and
+	 * the packet was not delivered to user's session on the first node.
+	 */
+	private boolean sendToFirstNode(JID fromNode, Set<JID> visitedNodes, Map<String, String> data, Packet packet) {
+		if ((data != null && data.get(SESSION_FOUND_KEY) != null) || sm.getComponentId().equals(fromNode)) {
+			return false;
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "User of packet {0} is not connected to this node, sending packet back to: {1}",
+					new Object[]{packet, fromNode});
+		}
+		cluster.sendToNodes(PACKET_FORWARD_CMD, data, packet.getElement(), fromNode, visitedNodes, fromNode);
+
+		return true;
+	}
+
+	private List<JID> selectHosts(List<ConnectionRecordIfc> records, Packet packet) {
+		JID self = sm.getComponentId();
+		JID to = packet.getStanzaTo();
+		List<JID> result = new ArrayList<>(records.size());
+
+		for (ConnectionRecordIfc rec : records) {
+			if (to.getResource() != null && !to.equals(rec.getUserJid())) {
+				continue;
+			}
+
+			JID node = rec.getNode();
+
+			if (!self.equals(node) && !result.contains(node)) {
+				result.add(node);
+			}
+		}
+
+		return result;
+	}
+
+	private void sendIndexUpdate(IndexAction action, Map<String, String> params, Element presence) {
+		JID self = sm.getComponentId();
+		JID owner = getOwner(BareJID.bareJIDInstanceNS(params.get(USER_ID)));
+
+		if (self.equals(owner)) {
+			updateIndex(action, self, params, presence);
+		} else {
+			params.put(INDEX_ACTION_KEY, action.name());
+			cluster.sendToNodes(INDEX_UPDATE_CMD, params, presence, self, null, owner);
+		}
+	}
+
+	private void sendLocations(JID node, Collection<BareJID> users, Collection<ConnectionRecordIfc> records) {
+		StringBuilder jids = new StringBuilder();
+
+		for (BareJID user : users) {
+			if (jids.length() > 0) {
+				jids.append(',');
+			}
+			jids.append(user);
+		}
+
+		Queue<Element> packets = new ArrayDeque<>(records.size());
+
+		for (ConnectionRecordIfc rec : records) {
+			packets.offer(rec.toElement());
+		}
+		cluster.sendToNodes(INDEX_LOCATION_CMD, Collections.singletonMap(JIDS_KEY, jids.toString()), packets,
+							sm.getComponentId(), null, node);
+	}
+
+	private boolean startLookup(BareJID user, long now) {
+		Long sent = lookups.get(user);
+
+		if (sent != null && now - sent < LOOKUP_TIMEOUT) {
+			return false;
+		}
+		lookups.put(user, now);
+		lookupsSent.increment();
+
+		return true;
+	}
+
+	private void updateIndex(IndexAction action, JID origin, Map<String, String> data, Element presence) {
+		ConnectionRecordIfc rec = getConnectionRecord(origin, data);
+		BareJID user = rec.getUserJid().getBareJID();
+		List<JID> hosts = new ArrayList<>();
+		Set<JID> watchers = new HashSet<>();
+
+		index.computeIfPresent(user, (k, entry) -> {
+			for (ConnectionRecordIfc r : entry.records) {
+				if (!origin.equals(r.getNode()) && !hosts.contains(r.getNode())) {
+					hosts.add(r.getNode());
+				}
+			}
+			if (action == IndexAction.remove && entry.remove(rec)) {
+				indexedConnections.decrement();
+				entry.takeWatchers(watchers);
+			}
+			return entry.isEmpty() ? null : entry;
+		});
+		invalidate(user, watchers);
+		if (hosts.isEmpty() || presence == null) {
+			return;
+		}
+
+		// presence is sent to all other nodes with user's connections
+		Map<String, String> relayData = new LinkedHashMap<>(data);
+
+		relayData.remove(INDEX_ACTION_KEY);
+		presenceRelays.increment();
+		if (hosts.remove(sm.getComponentId())) {
+			try {
+				userPresenceCmd.executeCommand(origin, null, relayData,
+											   new ArrayDeque<>(Collections.singletonList(presence)));
+			} catch (ClusterCommandException ex) {
+				log.log(Level.WARNING, "Error processing presence of user " + user, ex);
+			}
+		}
+		if (!hosts.isEmpty()) {
+			cluster.sendToNodes(USER_PRESENCE_CMD, relayData, presence, origin, null,
+								hosts.toArray(new JID[hosts.size()]));
+		}
+	}
+
+	private List<ConnectionRecordIfc> watch(BareJID user, JID node) {
+		long expiresAt = System.currentTimeMillis() + locationCacheTtl;
+		IndexEntry entry = index.compute(user, (k, e) -> {
+			if (e == null) {
+				e = new IndexEntry();
+			}
+			e.watchers.put(node, expiresAt);
+			return e;
+		});
+
+		return Arrays.asList(entry.records);
+	}
+
+	private enum IndexAction {
+		presence,
+		remove
+	}
+
+	/**
+	 * Index entry of a user owned by this node. Entry is modified only inside of <code>compute</code> methods of the
+	 * index, and records are replaced on every change, so they can be read without locking.
+	 */
+	private static final class IndexEntry {
+
+		private static final ConnectionRecordIfc[] EMPTY = new ConnectionRecordIfc[0];
+
+		private volatile ConnectionRecordIfc[] records = EMPTY;
+		// nodes which cached location of the user and time when their cached location expires
+		private final Map<JID, Long> watchers = new HashMap<>(4);
+
+		private boolean add(ConnectionRecordIfc rec) {
+			List<ConnectionRecordIfc> list = new ArrayList<>(records.length + 1);
+			boolean added = true;
+
+			for (ConnectionRecordIfc r : records) {
+				if (r.getUserJid().equals(rec.getUserJid())) {
+					// older connection for the same resource is going to be closed
+					added = false;
+				} else {
+					list.add(r);
+				}
+			}
+			list.add(rec);
+			records = list.toArray(new ConnectionRecordIfc[list.size()]);
+
+			return added;
+		}
+
+		private boolean isEmpty() {
+			return records.length == 0 && watchers.isEmpty();
+		}
+
+		private boolean remove(ConnectionRecordIfc rec) {
+			List<ConnectionRecordIfc> list = new ArrayList<>(Arrays.asList(records));
+
+			if (!list.remove(rec)) {
+				return false;
+			}
+			records = list.toArray(new ConnectionRecordIfc[list.size()]);
+
+			return true;
+		}
+
+		private int removeNode(JID node) {
+			List<ConnectionRecordIfc> list = new ArrayList<>(records.length);
+
+			for (ConnectionRecordIfc r : records) {
+				if (!node.equals(r.getNode())) {
+					list.add(r);
+				}
+			}
+
+			int removed = records.length - list.size();
+
+			if (removed > 0) {
+				records = list.toArray(new ConnectionRecordIfc[list.size()]);
+			}
+
+			return removed;
+		}
+
+		private void takeWatchers(Set<JID> result) {
+			result.addAll(watchers.keySet());
+			watchers.clear();
+		}
+	}
+
+	private class IndexInvalidateCommand
+			extends CommandListenerAbstract {
+
+		public IndexInvalidateCommand(String name) {
+			super(name, Priority.CLUSTER);
+		}
+
+		@Override
+		public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+								   Queue<Element> packets) throws ClusterCommandException {
+			LocationCache<BareJID, List<ConnectionRecordIfc>> cache = getLocations();
+
+			for (String jid : data.get(JIDS_KEY).split(",")) {
+				cache.invalidate(BareJID.bareJIDInstanceNS(jid));
+			}
+		}
+	}
+
+	private class IndexLocationCommand
+			extends CommandListenerAbstract {
+
+		public IndexLocationCommand(String name) {
+			super(name, Priority.CLUSTER);
+		}
+
+		@Override
+		public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+								   Queue<Element> packets) throws ClusterCommandException {
+			Map<BareJID, List<ConnectionRecordIfc>> found = new HashMap<>();
+
+			for (String jid : data.get(JIDS_KEY).split(",")) {
+				found.put(BareJID.bareJIDInstanceNS(jid), new ArrayList<>(1));
+			}
+			if (packets != null) {
+				for (Element elem : packets) {
+					ConnectionRecordIfc rec = getConnectionRecordInstance();
+
+					rec.setElement(elem);
+
+					List<ConnectionRecordIfc> records = found.get(rec.getUserJid().getBareJID());
+
+					if (records != null) {
+						records.add(rec);
+					}
+				}
+			}
+
+			LocationCache<BareJID, List<ConnectionRecordIfc>> cache = getLocations();
+			long now = System.currentTimeMillis();
+
+			for (Map.Entry<BareJID, List<ConnectionRecordIfc>> e : found.entrySet()) {
+				cache.put(e.getKey(), Collections.unmodifiableList(e.getValue()), now);
+				lookups.remove(e.getKey());
+			}
+		}
+	}
+
+	private class IndexLookupCommand
+			extends CommandListenerAbstract {
+
+		public IndexLookupCommand(String name) {
+			super(name, Priority.CLUSTER);
+		}
+
+		@Override
+		public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+								   Queue<Element> packets) throws ClusterCommandException {
+			List<BareJID> users = new ArrayList<>();
+			List<ConnectionRecordIfc> records = new ArrayList<>();
+
+			for (String jid : data.get(JIDS_KEY).split(",")) {
+				BareJID user = BareJID.bareJIDInstanceNS(jid);
+
+				users.add(user);
+				records.addAll(watch(user, fromNode));
+			}
+			lookupsReceived.add(users.size());
+			sendLocations(fromNode, users, records);
+		}
+	}
+
+	private class IndexSyncCommand
+			extends CommandListenerAbstract {
+
+		public IndexSyncCommand(String name) {
+			super(name, Priority.CLUSTER);
+		}
+
+		@Override
+		public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+								   Queue<Element> packets) throws ClusterCommandException {
+			if (packets == null) {
+				return;
+			}
+			for (Element elem : packets) {
+				ConnectionRecordIfc rec = getConnectionRecordInstance();
+
+				rec.setElement(elem);
+				addRecord(rec);
+			}
+		}
+	}
+
+	private class IndexUpdateCommand
+			extends CommandListenerAbstract {
+
+		public IndexUpdateCommand(String name) {
+			super(name, Priority.CLUSTER);
+		}
+
+		@Override
+		public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+								   Queue<Element> packets) throws ClusterCommandException {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Called fromNode: {0}, data: {1}, packets: {2}",
+						new Object[]{fromNode, data, packets});
+			}
+
+			IndexAction action = IndexAction.valueOf(data.get(INDEX_ACTION_KEY));
+
+			updateIndex(action, fromNode, data, packets == null ? null : packets.poll());
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import tigase.xmpp.jid.BareJID;
+
+import java.util.concurrent.*;
+
+/**
+ * Bounded executor for asynchronous repository calls. Calls are distributed between lanes by the user JID and every
+ * lane executes calls in a single thread, so calls for the same user are executed in the order in which they were
+ * made, ie. data read after they were stored are always up to date.
+ * <br>
+ * If queue of a lane is full, caller is blocked until there is a place in the queue, which slows down callers instead
+ * of piling up calls in the memory.
+ */
+public class AsyncRepositoryExecutor {
+
+	private final ThreadPoolExecutor[] lanes;
+
+	/**
+	 * Creates executor.
+	 *
+	 * @param name prefix of names of executor threads
+	 * @param threads number of lanes, each having its own thread
+	 * @param queueSize maximal number of calls waiting for execution in all lanes
+	 */
+	public AsyncRepositoryExecutor(String name, int threads, int queueSize) {
+		lanes = new ThreadPoolExecutor[Math.max(1, threads)];
+		for (int i = 0; i < lanes.length; i++) {
+			String threadName = name + "-" + i;
+			ThreadPoolExecutor lane = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(
+					Math.max(1, queueSize / lanes.length)), r -> {
+				Thread thread = new Thread(r, threadName);
+				thread.setDaemon(true);
+				return thread;
+			}, AsyncRepositoryExecutor::waitForQueue);
+
+			lane.allowCoreThreadTimeOut(true);
+			lanes[i] = lane;
+		}
+	}
+
+	private static void waitForQueue(Runnable task, ThreadPoolExecutor executor) {
+		if (executor.isShutdown()) {
+			throw new RejectedExecutionException("Executor is stopped");
+		}
+		try {
+			executor.getQueue().put(task);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Interrupted while waiting for a place in the queue", ex);
+		}
+	}
+
+	/**
+	 * Executes repository call in the lane of the user.
+	 *
+	 * @param user user for whom call is made, may be <code>null</code>
+	 * @param call repository call
+	 *
+	 * @return future completed with result of the call or with exception thrown by the call
+	 */
+	public <T> CompletableFuture<T> supplyAsync(BareJID user, RepositoryCall<T> call) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		int hash = user == null ? 0 : user.hashCode();
+
+		try {
+			lanes[(hash & Integer.MAX_VALUE) % lanes.length].execute(() -> {
+				try {
+					future.complete(call.call());
+				} catch (Throwable ex) {
+					future.completeExceptionally(ex);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			future.completeExceptionally(new TigaseDBException("Repository call rejected", ex));
+		}
+
+		return future;
+	}
+
+	public void shutdown() {
+		for (ThreadPoolExecutor lane : lanes) {
+			lane.shutdown();
+		}
+	}
+
+	@FunctionalInterface
+	public interface RepositoryCall<T> {
+
+		T call() throws TigaseDBException;
+
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import tigase.xmpp.jid.BareJID;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of data access methods of {@link UserRepository}. Methods return immediately and returned
+ * future is completed when operation is finished, so thread calling them is not blocked while waiting for the
+ * storage.
+ * <br>
+ * Returned future is completed exceptionally with {@link UserNotFoundException} or {@link TigaseDBException} in the
+ * same cases in which synchronous method would throw them. Callbacks attached to the future are executed by a thread
+ * of the repository, so they should not block.
+ * <br>
+ * Repositories without native support may be wrapped with {@link AsyncUserRepositoryAdapter}.
+ */
+public interface AsyncUserRepository {
+
+	CompletableFuture<Void> addDataListAsync(BareJID user, String subnode, String key, String[] list);
+
+	CompletableFuture<String> getDataAsync(BareJID user, String subnode, String key, String def);
+
+	CompletableFuture<String[]> getDataListAsync(BareJID user, String subnode, String key);
+
+	CompletableFuture<String[]> getKeysAsync(BareJID user, String subnode);
+
+	CompletableFuture<String[]> getSubnodesAsync(BareJID user, String subnode);
+
+	CompletableFuture<Void> removeDataAsync(BareJID user, String subnode, String key);
+
+	CompletableFuture<Void> removeSubnodeAsync(BareJID user, String subnode);
+
+	CompletableFuture<Void> setDataAsync(BareJID user, String subnode, String key, String value);
+
+	CompletableFuture<Void> setDataListAsync(BareJID user, String subnode, String key, String[] list);
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import tigase.xmpp.jid.BareJID;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Implementation of {@link AsyncUserRepository} executing calls to synchronous {@link UserRepository} using provided
+ * {@link AsyncRepositoryExecutor}.
+ */
+public class AsyncUserRepositoryAdapter
+		implements AsyncUserRepository {
+
+	private final AsyncRepositoryExecutor executor;
+	private final UserRepository repo;
+
+	public AsyncUserRepositoryAdapter(UserRepository repo, AsyncRepositoryExecutor executor) {
+		this.repo = repo;
+		this.executor = executor;
+	}
+
+	@Override
+	public CompletableFuture<Void> addDataListAsync(BareJID user, String subnode, String key, String[] list) {
+		return executor.supplyAsync(user, () -> {
+			repo.addDataList(user, subnode, key, list);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<String> getDataAsync(BareJID user, String subnode, String key, String def) {
+		return executor.supplyAsync(user, () -> repo.getData(user, subnode, key, def));
+	}
+
+	@Override
+	public CompletableFuture<String[]> getDataListAsync(BareJID user, String subnode, String key) {
+		return executor.supplyAsync(user, () -> repo.getDataList(user, subnode, key));
+	}
+
+	@Override
+	public CompletableFuture<String[]> getKeysAsync(BareJID user, String subnode) {
+		return executor.supplyAsync(user, () -> repo.getKeys(user, subnode));
+	}
+
+	@Override
+	public CompletableFuture<String[]> getSubnodesAsync(BareJID user, String subnode) {
+		return executor.supplyAsync(user, () -> repo.getSubnodes(user, subnode));
+	}
+
+	@Override
+	public CompletableFuture<Void> removeDataAsync(BareJID user, String subnode, String key) {
+		return executor.supplyAsync(user, () -> {
+			repo.removeData(user, subnode, key);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> removeSubnodeAsync(BareJID user, String subnode) {
+		return executor.supplyAsync(user, () -> {
+			repo.removeSubnode(user, subnode);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> setDataAsync(BareJID user, String subnode, String key, String value) {
+		return executor.supplyAsync(user, () -> {
+			repo.setData(user, subnode, key, value);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> setDataListAsync(BareJID user, String subnode, String key, String[] list) {
+		return executor.supplyAsync(user, () -> {
+			repo.setDataList(user, subnode, key, list);
+			return null;
+		});
+	}
+
+}
@@ -386,5 +386,30 @@ public interface AuthRepository
 		}
 	}
 
+	/**
+	 * Event fired when credentials of the user were changed or removed. It is delivered to all cluster nodes, so
+	 * they may drop data cached for the previous credentials.
+	 */
+	class CredentialsChangedEvent
+			implements java.io.Serializable {
+
+		private BareJID jid;
+
+		public CredentialsChangedEvent() {
+		}
+
+		public CredentialsChangedEvent(BareJID jid) {
+			this.jid = jid;
+		}
+
+		public BareJID getJid() {
+			return jid;
+		}
+
+		public void setJid(BareJID jid) {
+			this.jid = jid;
+		}
+	}
+
 }    // AuthRepository
 
@@ -220,6 +220,8 @@ public abstract class AuthRepositoryMDImpl
 
 		if (repo != null) {
 			repo.removeCredential(user, username);
+
+			eventBus.fire(new CredentialsChangedEvent(user));
 		} else {
 			log.log(Level.WARNING,
 					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
@@ -270,6 +272,8 @@ public abstract class AuthRepositoryMDImpl
 
 		if (repo != null) {
 			repo.updateCredential(user, username, password);
+
+			eventBus.fire(new CredentialsChangedEvent(user));
 		} else {
 			log.log(Level.WARNING,
 					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
@@ -282,6 +286,8 @@ public abstract class AuthRepositoryMDImpl
 
 		if (repo != null) {
 			repo.updatePassword(user, password);
+
+			eventBus.fire(new CredentialsChangedEvent(user));
 		} else {
 			log.log(Level.WARNING,
 					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
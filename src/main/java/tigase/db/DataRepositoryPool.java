@@ -18,6 +18,7 @@
 package tigase.db;
 
 import tigase.db.jdbc.DataRepositoryImpl;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.stats.StatisticsList;
 import tigase.stats.StatisticsProviderIfc;
 import tigase.util.Version;
@@ -30,11 +31,26 @@ import java.sql.Statement;
 import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Pool of <code>DataRepository</code> instances, each with its own database connection.
+ * <br>
+ * By default ({@link PoolMode#userAffinity}) connection is selected using hash code of the user JID, so all queries
+ * for the same user are executed using the same connection. In {@link PoolMode#anyIdle} mode
+ * {@link #takeRepoHandle(BareJID)} leases any idle connection for exclusive use until it is returned by {@link
+ * #releaseRepoHandle(DataRepository)}, and other queries are spread over connections which are not leased at the
+ * moment.
+ * <br>
  * Created: Sep 4, 2010 2:13:22 PM
  *
  * @author <a href="mailto:artur.hefczyc@tigase.org">Artur Hefczyc</a>
@@ -44,14 +60,56 @@ public class DataRepositoryPool
 		implements DataRepository, DataSourcePool<DataRepository>, StatisticsProviderIfc {
 
 	private static final Logger log = Logger.getLogger(DataRepositoryPool.class.getName());
+	// upper bounds of lease wait time histogram buckets in microseconds, last bucket has no upper bound
+	private static final long[] LEASE_WAIT_BUCKETS = {100, 1000, 10_000, 100_000, 1000_000};
+	private static final String[] LEASE_WAIT_BUCKET_NAMES = {"<100us", "<1ms", "<10ms", "<100ms", "<1s", ">=1s"};
+
+	public enum PoolMode {
+		/**
+		 * Queries for the same user are always executed using the same connection.
+		 */
+		userAffinity,
+		/**
+		 * Any idle connection may be used to execute a query.
+		 */
+		anyIdle
+	}
 
 	// ~--- fields ---------------------------------------------------------------
 	private dbTypes database = null;
+	private final ConcurrentLinkedQueue<DataRepository> idleRepos = new ConcurrentLinkedQueue<DataRepository>();
+	private final Semaphore idleReposPermits = new Semaphore(0);
+	@ConfigField(desc = "Maximal time to wait for an idle connection in milliseconds", alias = "pool-lease-timeout")
+	private long leaseTimeout = 10_000;
+	private final LongAdder leaseTimeouts = new LongAdder();
+	private final LongAdder leaseWaitTime = new LongAdder();
+	private final LongAdder[] leaseWaits = new LongAdder[LEASE_WAIT_BUCKET_NAMES.length];
+	private final Set<DataRepository> leasedRepos = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger nextRepo = new AtomicInteger();
+	@ConfigField(desc = "Mode of selecting connection from the pool", alias = "pool-mode")
+	private PoolMode poolMode = PoolMode.userAffinity;
 	private CopyOnWriteArrayList<DataRepository> repoPool = new CopyOnWriteArrayList<DataRepository>();
 	private String resource_uri = null;
 
+	public DataRepositoryPool() {
+		for (int i = 0; i < leaseWaits.length; i++) {
+			leaseWaits[i] = new LongAdder();
+		}
+	}
+
 	public void addRepo(DataRepository repo) {
-		repoPool.addIfAbsent(repo);
+		if (repoPool.addIfAbsent(repo)) {
+			idleRepos.offer(repo);
+			idleReposPermits.release();
+		}
+	}
+
+	public PoolMode getPoolMode() {
+		return poolMode;
+	}
+
+	public void setPoolMode(PoolMode poolMode) {
+		this.poolMode = poolMode;
 	}
 
 	@Override
@@ -68,6 +126,10 @@ public class DataRepositoryPool
 	}
 
 	public DataRepository takeRepo(BareJID user_id) {
+		if (poolMode == PoolMode.anyIdle) {
+			return takeNotLeasedRepo();
+		}
+
 		int idx = user_id != null ? Math.abs(user_id.hashCode() % repoPool.size()) : 0;
 		DataRepository result = null;
 		try {
@@ -79,24 +141,47 @@ public class DataRepositoryPool
 	}
 
 	public DataRepository takeRepo(int hashCode) {
-		int idx = Math.abs(hashCode % repoPool.size());
-		DataRepository result = null;
-		try {
-			result = repoPool.get(idx);
-		} catch (IndexOutOfBoundsException ioobe) {
-			result = repoPool.get(0);
+		if (poolMode == PoolMode.anyIdle) {
+			return takeNotLeasedRepo();
 		}
-		return result;
+
+		return takeAffinityRepo(hashCode);
 	}
 
 	@Override
 	public DataRepository takeRepoHandle(BareJID user_id) {
-		return takeRepo(user_id);
+		if (poolMode != PoolMode.anyIdle) {
+			return takeRepo(user_id);
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			if (idleReposPermits.tryAcquire() || idleReposPermits.tryAcquire(leaseTimeout, TimeUnit.MILLISECONDS)) {
+				// there is always an idle repository for every permit
+				DataRepository repo = idleRepos.poll();
+
+				leasedRepos.add(repo);
+				recordLeaseWait(System.nanoTime() - start);
+				return repo;
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		// callers synchronize on the returned repository, so sharing leased one is still safe
+		leaseTimeouts.increment();
+		log.log(Level.WARNING, "No idle connection available in {0}ms, pool size: {1}",
+				new Object[]{leaseTimeout, repoPool.size()});
+		return takeAffinityRepo(user_id != null ? user_id.hashCode() : 0);
 	}
 
 	@Override
 	public void releaseRepoHandle(DataRepository repo) {
-		// addRepo(repo);
+		if (repo != null && leasedRepos.remove(repo)) {
+			idleRepos.offer(repo);
+			idleReposPermits.release();
+		}
 	}
 
 	@Override
@@ -205,6 +290,21 @@ public class DataRepositoryPool
 	public void getStatistics(String compName, StatisticsList list) {
 		list.add(compName, "uri", getResourceUri(), Level.FINE);
 		list.add(compName, "connections count", repoPool.size(), Level.FINE);
+		if (poolMode == PoolMode.anyIdle) {
+			long leases = 0;
+
+			list.add(compName, "leased connections", leasedRepos.size(), Level.FINE);
+			for (int i = 0; i < leaseWaits.length; i++) {
+				long count = leaseWaits[i].sum();
+
+				leases += count;
+				list.add(compName, "lease wait " + LEASE_WAIT_BUCKET_NAMES[i], count, Level.FINER);
+			}
+			list.add(compName, "leases", leases, Level.FINE);
+			list.add(compName, "lease timeouts", leaseTimeouts.sum(), Level.FINE);
+			list.add(compName, "average lease wait [us]",
+					 leases == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(leaseWaitTime.sum() / leases), Level.FINE);
+		}
 		for (DataRepository repo : repoPool) {
 			if (repo instanceof StatisticsProviderIfc) {
 				((StatisticsProviderIfc) repo).getStatistics(compName, list);
@@ -289,4 +389,55 @@ public class DataRepositoryPool
 	public int getPoolSize() {
 		return repoPool.size();
 	}
+
+	/**
+	 * Selects repository based on passed hash code, in the same way as in <code>userAffinity</code> mode.
+	 */
+	private DataRepository takeAffinityRepo(int hashCode) {
+		int idx = Math.abs(hashCode % repoPool.size());
+		DataRepository result = null;
+		try {
+			result = repoPool.get(idx);
+		} catch (IndexOutOfBoundsException ioobe) {
+			result = repoPool.get(0);
+		}
+		return result;
+	}
+
+	/**
+	 * Selects next repository in round-robin manner skipping repositories leased for exclusive use.
+	 */
+	private DataRepository takeNotLeasedRepo() {
+		int size = repoPool.size();
+
+		if (size == 0) {
+			return null;
+		}
+
+		DataRepository result = null;
+
+		for (int i = 0; i < size; i++) {
+			try {
+				result = repoPool.get((nextRepo.getAndIncrement() & Integer.MAX_VALUE) % size);
+			} catch (IndexOutOfBoundsException ioobe) {
+				result = repoPool.get(0);
+			}
+			if (!leasedRepos.contains(result)) {
+				break;
+			}
+		}
+
+		return result;
+	}
+
+	private void recordLeaseWait(long nanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		int bucket = 0;
+
+		while (bucket < LEASE_WAIT_BUCKETS.length && micros >= LEASE_WAIT_BUCKETS[bucket]) {
+			bucket++;
+		}
+		leaseWaits[bucket].increment();
+		leaseWaitTime.add(nanos);
+	}
 }
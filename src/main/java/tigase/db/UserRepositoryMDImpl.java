@@ -21,26 +21,42 @@ import tigase.db.beans.MDPoolBeanWithStatistics;
 import tigase.db.beans.UserRepositoryMDPoolBean;
 import tigase.eventbus.EventBus;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.kernel.core.Kernel;
 import tigase.xmpp.jid.BareJID;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 /**
+ * Multi domain pool of user repositories.
+ * <br>
+ * Asynchronous calls are passed to repository of the domain if it implements {@link AsyncUserRepository}, otherwise
+ * synchronous call is executed by a bounded executor shared by all domains.
+ * <br>
  * Created: Mar 27, 2010 6:43:02 PM
  *
  * @author <a href="mailto:artur.hefczyc@tigase.org">Artur Hefczyc</a>
 */
 public abstract class UserRepositoryMDImpl
 		extends MDPoolBeanWithStatistics<UserRepository, UserRepositoryMDPoolBean.UserRepositoryConfigBean>
-		implements UserRepository {
+		implements UserRepository, AsyncUserRepository {
 
 	private static final Logger log = Logger.getLogger(UserRepositoryMDImpl.class.getName());
 
+	private AsyncRepositoryExecutor asyncExecutor;
+	@ConfigField(desc = "Maximal number of pending asynchronous calls to synchronous repositories",
+			alias = "async-queue-size")
+	private int asyncQueueSize = 10000;
+	@ConfigField(desc = "Number of threads executing asynchronous calls to synchronous repositories",
+			alias = "async-threads")
+	private int asyncThreads = 16;
+	private volatile AsyncUserRepository syncReposAdapter;
 	@Inject
 	private EventBus eventBus;
 
@@ -61,6 +77,11 @@ public abstract class UserRepositoryMDImpl
 		}
 	}
 
+	@Override
+	public CompletableFuture<Void> addDataListAsync(BareJID user, String subnode, String key, String[] list) {
+		return getAsyncRepo(user).addDataListAsync(user, subnode, key, list);
+	}
+
 	@Override
 	public void addUser(BareJID user) throws UserExistsException, TigaseDBException {
 		UserRepository repo = getRepo(user.getDomain());
@@ -380,4 +401,88 @@ public abstract class UserRepositoryMDImpl
 
 		return false;
 	}
+
+	@Override
+	public CompletableFuture<String> getDataAsync(BareJID user, String subnode, String key, String def) {
+		return getAsyncRepo(user).getDataAsync(user, subnode, key, def);
+	}
+
+	@Override
+	public CompletableFuture<String[]> getDataListAsync(BareJID user, String subnode, String key) {
+		return getAsyncRepo(user).getDataListAsync(user, subnode, key);
+	}
+
+	@Override
+	public CompletableFuture<String[]> getKeysAsync(BareJID user, String subnode) {
+		return getAsyncRepo(user).getKeysAsync(user, subnode);
+	}
+
+	@Override
+	public CompletableFuture<String[]> getSubnodesAsync(BareJID user, String subnode) {
+		return getAsyncRepo(user).getSubnodesAsync(user, subnode);
+	}
+
+	@Override
+	public CompletableFuture<Void> removeDataAsync(BareJID user, String subnode, String key) {
+		return getAsyncRepo(user).removeDataAsync(user, subnode, key);
+	}
+
+	@Override
+	public CompletableFuture<Void> removeSubnodeAsync(BareJID user, String subnode) {
+		return getAsyncRepo(user).removeSubnodeAsync(user, subnode);
+	}
+
+	@Override
+	public CompletableFuture<Void> setDataAsync(BareJID user, String subnode, String key, String value) {
+		return getAsyncRepo(user).setDataAsync(user, subnode, key, value);
+	}
+
+	@Override
+	public CompletableFuture<Void> setDataListAsync(BareJID user, String subnode, String key, String[] list) {
+		return getAsyncRepo(user).setDataListAsync(user, subnode, key, list);
+	}
+
+	@Override
+	public void unregister(Kernel kernel) {
+		super.unregister(kernel);
+		synchronized (this) {
+			if (asyncExecutor != null) {
+				asyncExecutor.shutdown();
+				asyncExecutor = null;
+				syncReposAdapter = null;
+			}
+		}
+	}
+
+	@Override
+	protected Class[] getProxyInterfaces(UserRepository repo) {
+		if (repo instanceof AsyncUserRepository) {
+			return new Class[]{UserRepository.class, AsyncUserRepository.class};
+		}
+		return super.getProxyInterfaces(repo);
+	}
+
+	private AsyncUserRepository getAsyncRepo(BareJID user) {
+		UserRepository repo = getRepo(user.getDomain());
+
+		if (repo instanceof AsyncUserRepository) {
+			return (AsyncUserRepository) repo;
+		}
+
+		// synchronous methods of this pool select repository of the domain again
+		AsyncUserRepository adapter = syncReposAdapter;
+
+		if (adapter == null) {
+			synchronized (this) {
+				if (syncReposAdapter == null) {
+					asyncExecutor = new AsyncRepositoryExecutor("user-repository-async", asyncThreads,
+																asyncQueueSize);
+					syncReposAdapter = new AsyncUserRepositoryAdapter(this, asyncExecutor);
+				}
+				adapter = syncReposAdapter;
+			}
+		}
+
+		return adapter;
+	}
 }
@@ -161,9 +161,21 @@ public abstract class MDPoolBeanWithStatistics<S extends Repository, T extends M
 		}
 	}
 
+	/**
+	 * Returns interfaces implemented by proxy gathering statistics of the repository. Only methods of the repository
+	 * interface are measured, methods of other interfaces are just passed to the repository.
+	 *
+	 * @param repo instance of repository
+	 *
+	 * @return array of interfaces
+	 */
+	protected Class[] getProxyInterfaces(S repo) {
+		return new Class[]{repoClazz};
+	}
+
 	public void wrapInProxy(String name, S repo) {
 		StatisticsInvocationHandler handler = new StatisticsInvocationHandler(name, repo, repoClazz);
-		S proxy = (S) Proxy.newProxyInstance(repo.getClass().getClassLoader(), new Class[]{repoClazz}, handler);
+		S proxy = (S) Proxy.newProxyInstance(repo.getClass().getClassLoader(), getProxyInterfaces(repo), handler);
 		handlers.put(name, handler);
 		reposProxy.put(name, proxy);
 	}
@@ -38,6 +38,8 @@ public abstract class AbstractSDComponentRepositoryBean<Item extends RepositoryI
 		extends SDRepositoryBean<ComponentRepositoryDataSourceAware<Item, DataSource>>
 		implements ComponentRepository<Item> {
 
+	private RepositoryChangeListenerIfc<Item> repoChangeListener;
+
 	@Override
 	public void setRepository(ComponentRepositoryDataSourceAware<Item, DataSource> repository) {
 		ComponentRepositoryDataSourceAware<Item, DataSource> oldRepo = getRepository();
@@ -45,17 +47,26 @@ public abstract class AbstractSDComponentRepositoryBean<Item extends RepositoryI
 		if (oldRepo != getRepository() && oldRepo != null) {
 			oldRepo.destroy();
 		}
+		// listener needs to be moved to the new repository instance
+		if (repoChangeListener != null && getRepository() != null && oldRepo != getRepository()) {
+			getRepository().addRepoChangeListener(repoChangeListener);
+		}
 	}
 
 	@Override
 	public void addRepoChangeListener(RepositoryChangeListenerIfc<Item> repoChangeListener) {
-		getRepository().addRepoChangeListener(repoChangeListener);
+		this.repoChangeListener = repoChangeListener;
+		if (getRepository() != null) {
+			getRepository().addRepoChangeListener(repoChangeListener);
+		}
 	}
 
 	@Override
 	public void removeRepoChangeListener(RepositoryChangeListenerIfc<Item> repoChangeListener) {
-		getRepository().removeRepoChangeListener(repoChangeListener);
-
+		this.repoChangeListener = null;
+		if (getRepository() != null) {
+			getRepository().removeRepoChangeListener(repoChangeListener);
+		}
 	}
 
 	@Override
@@ -31,6 +31,7 @@ import java.sql.*;
 import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -61,17 +62,18 @@ public class DataRepositoryImpl
 	@ConfigField(desc = "Automatic schema management", alias = "schema-management")
 	private boolean automaticSchemaManagement = true;
 	private String check_table_query = OTHER_CHECK_TABLE_QUERY;
-	private Connection conn = null;
-	private PreparedStatement conn_valid_st = null;
+	private volatile Connection conn = null;
+	private volatile PreparedStatement conn_valid_st = null;
 	private long connectionValidateInterval = 1000 * 60;
 	private dbTypes database = null;
 	private String db_conn = null;
 	@ConfigField(desc = "Database connection timeout", alias = DB_CONN_TIMEOUT_PROP_KEY)
 	private int db_conn_timeout = DB_CONN_TIMEOUT;
 	private Map<String, DBQuery> db_queries = new ConcurrentSkipListMap<String, DBQuery>();
-	private Map<String, PreparedStatement> db_statements = new ConcurrentSkipListMap<String, PreparedStatement>();
+	// replaced with a new map when connection is recreated, so it may be read without locking
+	private volatile Map<String, PreparedStatement> db_statements = new ConcurrentHashMap<String, PreparedStatement>();
 	private boolean derby_mode = false;
-	private long lastConnectionValidated = 0;
+	private volatile long lastConnectionValidated = 0;
 	@ConfigField(desc = "Query timeout", alias = QUERY_TIMEOUT_PROP_KEY)
 	private int query_timeout = QUERY_TIMEOUT;
 	private CounterValue reconnectionCounter = null;
@@ -189,33 +191,19 @@ public class DataRepositoryImpl
 	@Override
 	public Statement createStatement(BareJID user_id) throws SQLException {
 		checkConnection();
-		// This synchronization is used to prevent call when the connection and
-		// all prepared statements are being recreated.
-		synchronized (db_statements) {
-			return conn.createStatement();
-		}
+		return conn.createStatement();
 	}
 
 	@Override
 	public PreparedStatement getPreparedStatement(BareJID user_id, String stIdKey) throws SQLException {
 		checkConnection();
-
-		// This synchronization is used to prevent call when the connection and
-		// all prepared statements are being recreated.
-		synchronized (db_statements) {
-			return db_statements.get(stIdKey);
-		}
+		return db_statements.get(stIdKey);
 	}
 
 	@Override
 	public PreparedStatement getPreparedStatement(int hashCode, String stIdKey) throws SQLException {
 		checkConnection();
-
-		// This synchronization is used to prevent call when the connection and
-		// all prepared statements are being recreated.
-		synchronized (db_statements) {
-			return db_statements.get(stIdKey);
-		}
+		return db_statements.get(stIdKey);
 	}
 
 	@Override
@@ -231,13 +219,17 @@ public class DataRepositoryImpl
 	@Override
 	public void initPreparedStatement(String key, String query) throws SQLException {
 		db_queries.put(key, new DBQuery(query, Statement.NO_GENERATED_KEYS));
-		initStatement(key);
+		synchronized (this) {
+			initStatement(db_statements, key);
+		}
 	}
 
 	@Override
 	public void initPreparedStatement(String key, String query, int autoGeneratedKeys) throws SQLException {
 		db_queries.put(key, new DBQuery(query, autoGeneratedKeys));
-		initStatement(key);
+		synchronized (this) {
+			initStatement(db_statements, key);
+		}
 	}
 
 	@Override
@@ -432,14 +424,33 @@ public class DataRepositoryImpl
 	/**
 	 * <code>checkConnection</code> method checks database connection before any query. For some database servers (or
 	 * JDBC drivers) it happens the connection is dropped if not in use for a long time or after certain timeout passes.
-	 * This method allows us to detect the problem and reinitialize database connection. This method must not be called
-	 * concurrently, therefore it is synchronized.
+	 * This method allows us to detect the problem and reinitialize database connection. Connection validated recently
+	 * is not checked again, so in most cases this method does not need any locking.
 	 *
 	 * @return a <code>boolean</code> value if the database connection is working.
 	 *
 	 * @throws SQLException if an error occurs on database query.
 	 */
-	private synchronized boolean checkConnection() throws SQLException {
+	private boolean checkConnection() throws SQLException {
+		PreparedStatement valid_st = conn_valid_st;
+
+		try {
+			if ((System.currentTimeMillis() - lastConnectionValidated) < connectionValidateInterval &&
+					valid_st != null && !valid_st.isClosed()) {
+				return true;
+			}
+		} catch (SQLException ex) {
+			// connection will be validated below
+		}
+
+		return validateConnection();
+	}
+
+	/**
+	 * Validates and if needed reinitializes database connection. This method must not be called concurrently,
+	 * therefore it is synchronized.
+	 */
+	private synchronized boolean validateConnection() throws SQLException {
 		ResultSet rs = null;
 
 		try {
@@ -470,7 +481,7 @@ public class DataRepositoryImpl
 	 *
 	 * @throws SQLException if an error occurs on database query.
 	 */
-	private void initPreparedStatements() throws SQLException {
+	private void initPreparedStatements(Map<String, PreparedStatement> statements) throws SQLException {
 		String query = (derby_mode ? DERBY_CONNVALID_QUERY : JDBC_CONNVALID_QUERY);
 
 		conn_valid_st = prepareQuery(query, Statement.NO_GENERATED_KEYS);
@@ -482,11 +493,11 @@ public class DataRepositoryImpl
 		}
 
 		for (String key : db_queries.keySet()) {
-			initStatement(key);
+			initStatement(statements, key);
 		}
 	}
 
-	private void initStatement(String key) throws SQLException {
+	private void initStatement(Map<String, PreparedStatement> statements, String key) throws SQLException {
 		DBQuery dbQuery = db_queries.get(key);
 
 		PreparedStatement st = prepareQuery(dbQuery.query, dbQuery.autoGeneratedKeys);
@@ -501,7 +512,7 @@ public class DataRepositoryImpl
 			// Ignore for now, it seems that PostgreSQL does not support this method
 			// call yet
 		}
-		db_statements.put(key, st);
+		statements.put(key, st);
 	}
 
 	/**
@@ -509,7 +520,7 @@ public class DataRepositoryImpl
 	 *
 	 * @throws SQLException if an error occurs on database query.
 	 */
-	private void initRepo() throws SQLException {
+	private synchronized void initRepo() throws SQLException {
 
 		boolean failure = true;
 		try {
@@ -517,17 +528,18 @@ public class DataRepositoryImpl
 				reconnectionCounter.inc();
 				log.log(Level.INFO, "Reconnecting connection: {0}", reconnectionCounter);
 			}
-			synchronized (db_statements) {
-				db_statements.clear();
-				DriverManager.setLoginTimeout(db_conn_timeout);
-				conn = DriverManager.getConnection(db_conn);
-				conn.setAutoCommit(true);
-				derby_mode = db_conn.startsWith("jdbc:derby");
-				initPreparedStatements();
-
-				failure = false;
-				// stmt = conn.createStatement();
-			}
+			// statements are prepared in a new map, which replaces current one when connection is ready
+			Map<String, PreparedStatement> statements = new ConcurrentHashMap<String, PreparedStatement>();
+
+			DriverManager.setLoginTimeout(db_conn_timeout);
+			conn = DriverManager.getConnection(db_conn);
+			conn.setAutoCommit(true);
+			derby_mode = db_conn.startsWith("jdbc:derby");
+			initPreparedStatements(statements);
+			db_statements = statements;
+
+			failure = false;
+			// stmt = conn.createStatement();
 		} finally {
 			release(null, null);
 
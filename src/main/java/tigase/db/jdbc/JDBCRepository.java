@@ -25,6 +25,7 @@ import tigase.xmpp.jid.BareJID;
 import java.io.StringReader;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,7 +40,8 @@ import java.util.logging.Logger;
 @Repository.Meta(supportedUris = {"jdbc:[^:]+:.*"})
 @Repository.SchemaId(id = Schema.SERVER_SCHEMA_ID, name = Schema.SERVER_SCHEMA_NAME)
 public class JDBCRepository
-		implements AuthRepository, UserRepository, DataSourceAware<DataRepository>, RepositoryVersionAware {
+		implements AuthRepository, UserRepository, AsyncUserRepository, DataSourceAware<DataRepository>,
+				   RepositoryVersionAware {
 
 	public static final String CURRENT_DB_SCHEMA_VER = "8.0.0";
 
@@ -65,6 +67,8 @@ public class JDBCRepository
 	public static final String JDBC_GETSCHEMAVER_QUERY = "select TigGetDBProperty('schema-version')";
 
 	public static final String SCHEMA_UPGRADE_LINK = "Administration Guide > Tigase Server Schema v8.0 Updates (available locally in docs directory and online http://docs.tigase.org)";
+	// maximal number of asynchronous calls waiting for a database connection
+	private static final int ASYNC_QUEUE_SIZE = 10000;
 	private static final String ADD_NODE_QUERY = "{ call TigAddNode(?, ?, ?) }";
 	private static final String ADD_USER_PLAIN_PW_QUERY = "{ call TigAddUserPlainPw(?, ?) }";
 	private static final String COUNT_USERS_FOR_DOMAIN_QUERY = "select count(*) from tig_users where user_id like ?";
@@ -92,6 +96,8 @@ public class JDBCRepository
 			"update " + DEF_USERS_TBL + " set last_login=? where user_id=?";
 
 	// ~--- fields ---------------------------------------------------------------
+	// executes asynchronous calls with not more threads than there are connections in the data source
+	private AsyncRepositoryExecutor asyncExecutor = null;
 	private AuthRepository auth = null;
 	private boolean autoCreateUser = false;
 	// Cache moved to connection pool
@@ -503,6 +509,11 @@ public class JDBCRepository
 			data_repo.initPreparedStatement(UPDATE_PAIRS_QUERY, UPDATE_PAIRS_QUERY);
 			data_repo.initPreparedStatement(UPDATE_LAST_LOGIN_QUERY, UPDATE_LAST_LOGIN_QUERY);
 			auth = new AuthRepositoryImpl(this);
+			if (asyncExecutor != null) {
+				asyncExecutor.shutdown();
+			}
+			asyncExecutor = new AsyncRepositoryExecutor("jdbc-repository-async", data_repo.getPoolSize(),
+														ASYNC_QUEUE_SIZE);
 
 			// initRepo();
 			log.log(Level.INFO, "Initialized database connection: {0}", connection_str);
@@ -687,6 +698,8 @@ public class JDBCRepository
 				log.log(Level.WARNING,
 						"Error setting data , user_id: " + user_id + ", subnode: " + subnode + ", key: " + key +
 								", uid: " + uid + ", nid: " + nid + ", value: " + value, e);
+			} finally {
+				data_repo.releaseRepoHandle(repo);
 			}
 		}
 	}
@@ -764,6 +777,66 @@ public class JDBCRepository
 		auth.setUserDisabled(user, value);
 	}
 
+	@Override
+	public CompletableFuture<Void> addDataListAsync(BareJID user_id, String subnode, String key, String[] list) {
+		return asyncExecutor.supplyAsync(user_id, () -> {
+			addDataList(user_id, subnode, key, list);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<String> getDataAsync(BareJID user_id, String subnode, String key, String def) {
+		return asyncExecutor.supplyAsync(user_id, () -> getData(user_id, subnode, key, def));
+	}
+
+	@Override
+	public CompletableFuture<String[]> getDataListAsync(BareJID user_id, String subnode, String key) {
+		return asyncExecutor.supplyAsync(user_id, () -> getDataList(user_id, subnode, key));
+	}
+
+	@Override
+	public CompletableFuture<String[]> getKeysAsync(BareJID user_id, String subnode) {
+		return asyncExecutor.supplyAsync(user_id, () -> getKeys(user_id, subnode));
+	}
+
+	@Override
+	public CompletableFuture<String[]> getSubnodesAsync(BareJID user_id, String subnode) {
+		return asyncExecutor.supplyAsync(user_id, () -> getSubnodes(user_id, subnode));
+	}
+
+	@Override
+	public CompletableFuture<Void> removeDataAsync(BareJID user_id, String subnode, String key) {
+		return asyncExecutor.supplyAsync(user_id, () -> {
+			removeData(user_id, subnode, key);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> removeSubnodeAsync(BareJID user_id, String subnode) {
+		return asyncExecutor.supplyAsync(user_id, () -> {
+			removeSubnode(user_id, subnode);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> setDataAsync(BareJID user_id, String subnode, String key, String value) {
+		return asyncExecutor.supplyAsync(user_id, () -> {
+			setData(user_id, subnode, key, value);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> setDataListAsync(BareJID user_id, String subnode, String key, String[] list) {
+		return asyncExecutor.supplyAsync(user_id, () -> {
+			setDataList(user_id, subnode, key, list);
+			return null;
+		});
+	}
+
 	protected DataRepository getRepository() {
 		return data_repo;
 	}
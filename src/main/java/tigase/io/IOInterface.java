@@ -68,6 +68,33 @@ public interface IOInterface {
 
 	int write(final ByteBuffer buff) throws IOException;
 
+	/**
+	 * Writes data from <code>length</code> buffers starting at <code>offset</code>. Contrary to {@link
+	 * #write(ByteBuffer)} implementation may not keep reference to any of the passed buffers, so the caller may reuse
+	 * them as soon as this method returns. Data which cannot be written immediately has to be copied.
+	 * <br>
+	 * Default implementation copies content of every buffer and passes it to {@link #write(ByteBuffer)}.
+	 *
+	 * @param buffs buffers with data to write
+	 * @param offset index of the first buffer to write
+	 * @param length number of buffers to write
+	 *
+	 * @return number of bytes written to the network
+	 */
+	default int write(final ByteBuffer[] buffs, final int offset, final int length) throws IOException {
+		int result = 0;
+
+		for (int i = offset; i < offset + length; i++) {
+			ByteBuffer copy = ByteBuffer.allocate(buffs[i].remaining());
+
+			copy.put(buffs[i]);
+			copy.flip();
+			result += write(copy);
+		}
+
+		return result;
+	}
+
 	void setLogId(String logId);
 
 }    // IOInterface
@@ -303,6 +303,51 @@ public class SocketIO
 		return result;
 	}
 
+	@Override
+	public int write(final ByteBuffer[] buffs, final int offset, final int length) throws IOException {
+		int result = 0;
+
+		// data queued earlier has to be sent first
+		if (!dataToSend.isEmpty()) {
+			result += write(null);
+		}
+
+		int rem = 0;
+
+		if (dataToSend.isEmpty()) {
+			// single gathering write, passed buffers are expected to be direct so JDK
+			// does not need to copy them to its own cache of DirectByteBuffers
+			long res = channel.write(buffs, offset, length);
+
+			bytesSent += res;
+			totalBytesSent += res;
+			result += res;
+		}
+		for (int i = offset; i < offset + length; i++) {
+			rem += buffs[i].remaining();
+		}
+		if (rem > 0) {
+			// we cannot keep passed buffers, so data not sent is copied to the queue
+			ByteBuffer copy = ByteBuffer.allocate(rem);
+
+			for (int i = offset; i < offset + length; i++) {
+				copy.put(buffs[i]);
+			}
+			copy.flip();
+			if (!dataToSend.offer(copy)) {
+				++buffOverflow;
+				++totalBuffOverflow;
+			}
+		}
+
+		if (log.isLoggable(Level.FINER)) {
+			log.log(Level.FINER, "Wrote to channel {0} bytes from {1} buffers, queued: {2}, {3}",
+					new Object[]{result, length, rem, toString()});
+		}
+
+		return result;
+	}
+
 	@Override
 	public void setLogId(String logId) {
 		this.logId = logId + " ";
@@ -314,6 +314,19 @@ public class TLSIO
 		return result;
 	}
 
+	@Override
+	public int write(final ByteBuffer[] buffs, final int offset, final int length) throws IOException {
+		int result = 0;
+
+		// data is wrapped into separate network buffers before it is passed to
+		// lower level, so passed buffers are not referenced after the call
+		for (int i = offset; i < offset + length; i++) {
+			result += write(buffs[i]);
+		}
+
+		return result;
+	}
+
 	@Override
 	public void setLogId(String logId) {
 		io.setLogId(logId);
@@ -0,0 +1,196 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Set of direct buffers owned by a single thread into which outgoing data is encoded or copied before it is written
+ * to the network with a single gathering write. Direct buffers are allocated lazily and reused by the thread, so
+ * writing data does not allocate a new <code>ByteBuffer</code> per stanza. If encoded data does not fit into all
+ * direct buffers, remaining data is encoded into heap buffers which are dropped after the write.
+ * <br>
+ * Number and size of the direct buffers may be changed with <code>direct-encode-buffers-limit</code> and
+ * <code>direct-encode-buffer-size</code> system properties.
+ */
+public class DirectEncodeBuffers {
+
+	private static final Logger log = Logger.getLogger(DirectEncodeBuffers.class.getName());
+
+	private static final String BUFFERS_LIMIT_PROP_KEY = "direct-encode-buffers-limit";
+	private static final String BUFFER_SIZE_PROP_KEY = "direct-encode-buffer-size";
+
+	private static final int BUFFERS_LIMIT = Integer.getInteger(BUFFERS_LIMIT_PROP_KEY, 8);
+	private static final int BUFFER_SIZE = Integer.getInteger(BUFFER_SIZE_PROP_KEY, 8 * 1024);
+
+	private static final ThreadLocal<DirectEncodeBuffers> buffers = new ThreadLocal<DirectEncodeBuffers>();
+
+	private final int bufferSize;
+	private final ByteBuffer[] pool;
+	private int count = 0;
+	private boolean inUse = false;
+	private ByteBuffer[] output;
+
+	/**
+	 * Returns buffers of the current thread or <code>null</code> if buffers are already used by this thread and
+	 * were not released yet.
+	 *
+	 * @return instance of buffers ready to encode data or <code>null</code>
+	 */
+	public static DirectEncodeBuffers acquire() {
+		DirectEncodeBuffers result = buffers.get();
+
+		if (result == null) {
+			result = new DirectEncodeBuffers(BUFFER_SIZE, BUFFERS_LIMIT);
+			buffers.set(result);
+		}
+		if (result.inUse) {
+			return null;
+		}
+		result.inUse = true;
+
+		return result;
+	}
+
+	DirectEncodeBuffers(int bufferSize, int limit) {
+		this.bufferSize = bufferSize;
+		this.pool = new ByteBuffer[limit];
+		this.output = new ByteBuffer[limit];
+	}
+
+	/**
+	 * Encodes passed data and appends it to data already encoded in the buffers.
+	 *
+	 * @param encoder encoder used to encode data
+	 * @param data data to encode
+	 */
+	public void encode(CharsetEncoder encoder, String data) throws CharacterCodingException {
+		CharBuffer in = CharBuffer.wrap(data);
+
+		encoder.reset();
+
+		ByteBuffer out = (count == 0) ? next(maxBytes(in.remaining(), encoder)) : output[count - 1];
+		CoderResult cr;
+
+		while ((cr = encoder.encode(in, out, true)).isOverflow()) {
+			out = next(maxBytes(in.remaining(), encoder));
+		}
+		if (cr.isError()) {
+			cr.throwException();
+		}
+		while (encoder.flush(out).isOverflow()) {
+			out = next(maxBytes(1, encoder));
+		}
+	}
+
+	/**
+	 * Copies remaining bytes of passed buffer and appends them to data already stored in the buffers. Position of
+	 * the passed buffer is not changed.
+	 *
+	 * @param data buffer with already encoded data
+	 */
+	public void put(ByteBuffer data) {
+		ByteBuffer in = data.duplicate();
+		ByteBuffer out = (count == 0) ? next(in.remaining()) : output[count - 1];
+
+		while (in.remaining() > out.remaining()) {
+			int limit = in.limit();
+
+			in.limit(in.position() + out.remaining());
+			out.put(in);
+			in.limit(limit);
+			out = next(in.remaining());
+		}
+		out.put(in);
+	}
+
+	/**
+	 * Returns number of buffers containing encoded data.
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Prepares buffers for writing and returns them. Only first {@link #count()} entries of the returned array
+	 * contain data.
+	 *
+	 * @return array of buffers with encoded data
+	 */
+	public ByteBuffer[] flip() {
+		for (int i = 0; i < count; i++) {
+			output[i].flip();
+		}
+
+		return output;
+	}
+
+	/**
+	 * Clears buffers and makes them available for the next {@link #acquire()} call.
+	 */
+	public void release() {
+		for (int i = 0; i < output.length; i++) {
+			if (i < pool.length && output[i] != null) {
+				output[i].clear();
+			} else {
+				// heap buffers are not reused
+				output[i] = null;
+			}
+		}
+		count = 0;
+		inUse = false;
+	}
+
+	private static int maxBytes(int chars, CharsetEncoder encoder) {
+		return (int) Math.ceil(chars * encoder.maxBytesPerChar());
+	}
+
+	private ByteBuffer next(int remaining) {
+		ByteBuffer result;
+
+		if (count < pool.length) {
+			if (pool[count] == null) {
+				pool[count] = ByteBuffer.allocateDirect(bufferSize);
+				output[count] = pool[count];
+			}
+			result = pool[count];
+		} else {
+			int size = Math.max(bufferSize, remaining);
+
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "all direct buffers used, allocating heap buffer with size = {0}", size);
+			}
+			if (count == output.length) {
+				output = Arrays.copyOf(output, output.length + 1);
+			}
+			result = ByteBuffer.allocate(size);
+			output[count] = result;
+		}
+		++count;
+
+		return result;
+	}
+
+}
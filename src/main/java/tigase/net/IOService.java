@@ -37,6 +37,7 @@ import java.nio.channels.SocketChannel;
 import java.nio.charset.*;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
@@ -95,11 +96,20 @@ public abstract class IOService<RefObject>
 	 */
 	protected byte[] partialCharacterBytes = null;
 	private int bufferLimit = 0;
+	private boolean directWrite = false;
+	private long flushedRecords = 0;
+	private long flushes = 0;
+	private ReadBufferPool readBufferPool = null;
+	/**
+	 * Size of buffer leased from <code>readBufferPool</code>, adjusted to the amount of data read from socket.
+	 */
+	private int readBufferSize = ReadBufferPool.MIN_SIZE;
 	private CertificateContainerIfc certificateContainer;
 	private JID connectionId = null;
 	private ConnectionType connectionType = null;
 	private JID dataReceiver = null;
 	private long empty_read_call_count = 0;
+	private long writes = 0;
 	private String id = null;
 	/**
 	 * This variable keeps the time of last transfer in any direction it is used to help detect dead connections.
@@ -169,8 +179,10 @@ public abstract class IOService<RefObject>
 			throw e;
 		}
 		socketInputSize = socketIO.getSocketChannel().socket().getReceiveBufferSize();
-		socketInput = ByteBuffer.allocate(socketInputSize);
-		socketInput.order(byteOrder());
+		if (readBufferPool == null) {
+			socketInput = ByteBuffer.allocate(socketInputSize);
+			socketInput.order(byteOrder());
+		}
 
 		Socket sock = socketIO.getSocketChannel().socket();
 
@@ -197,6 +209,9 @@ public abstract class IOService<RefObject>
 						serviceListener.packetsReady(this);
 					}    // end of if (receivedPackets.size() > 0)
 				} finally {
+					if (readBufferPool != null) {
+						releaseReadBuffers();
+					}
 					readInProgress.unlock();
 					if (!isConnected()) {
 						// added to sooner detect disconnection of peer - ie. client
@@ -445,6 +460,45 @@ public abstract class IOService<RefObject>
 		return socketIO.getBuffOverflow(reset);
 	}
 
+	/**
+	 * Returns number of flushes of waiting data done since last reset.
+	 */
+	public long getFlushes(boolean reset) {
+		long tmp = flushes;
+
+		if (reset) {
+			flushes = 0;
+		}
+
+		return tmp;
+	}
+
+	/**
+	 * Returns number of records (stanzas) written by flushes of waiting data since last reset.
+	 */
+	public long getFlushedRecords(boolean reset) {
+		long tmp = flushedRecords;
+
+		if (reset) {
+			flushedRecords = 0;
+		}
+
+		return tmp;
+	}
+
+	/**
+	 * Returns number of writes of data to the socket done since last reset.
+	 */
+	public long getWrites(boolean reset) {
+		long tmp = writes;
+
+		if (reset) {
+			writes = 0;
+		}
+
+		return tmp;
+	}
+
 	public long getBytesReceived(boolean reset) {
 		return socketIO.getBytesReceived(reset);
 	}
@@ -543,8 +597,16 @@ public abstract class IOService<RefObject>
 
 	public void getStatistics(StatisticsList list, boolean reset) {
 		if (socketIO != null) {
+			list.add("ioservice", "Bytes per write", writes == 0 ? 0 : socketIO.getBytesSent(false) / writes,
+					 Level.FINE);
+			list.add("ioservice", "Records per flush", flushes == 0 ? 0 : flushedRecords / flushes, Level.FINE);
 			socketIO.getStatistics(list, reset);
 		}
+		if (reset) {
+			writes = 0;
+			flushes = 0;
+			flushedRecords = 0;
+		}
 	}
 
 	public long getTotalBuffOverflow() {
@@ -589,6 +651,29 @@ public abstract class IOService<RefObject>
 		this.bufferLimit = bufferLimit;
 	}
 
+	/**
+	 * Enables encoding of outgoing data directly into per-thread pooled direct buffers instead of allocating a new
+	 * buffer for every write.
+	 *
+	 * @param directWrite <code>true</code> to enable direct write
+	 */
+	public void setDirectWrite(boolean directWrite) {
+		this.directWrite = directWrite;
+	}
+
+	/**
+	 * Sets pool from which read buffers are leased only for the time of reading data from the socket. It has to be
+	 * set before the service is started.
+	 *
+	 * @param readBufferPool pool of read buffers or <code>null</code> to use buffers owned by the service
+	 */
+	public void setReadBufferPool(ReadBufferPool readBufferPool) {
+		this.readBufferPool = readBufferPool;
+		if (readBufferPool != null) {
+			cb = null;
+		}
+	}
+
 	public void setIOServiceListener(IOServiceListener<IOService<RefObject>> sl) {
 		this.serviceListener = sl;
 	}
@@ -649,10 +734,12 @@ public abstract class IOService<RefObject>
 			log.log(Level.FINEST, "Socket: " + socketIO, thr);
 		}
 		try {
+			int free = leaseInputBuffer();
 			ByteBuffer tmpBuffer = socketIO.read(socketInput);
 
 			if (socketIO.bytesRead() > 0) {
 				empty_read_call_count = 0;
+				adjustReadBufferSize(free, socketIO.bytesRead());
 
 				return tmpBuffer;
 			} else {
@@ -700,10 +787,12 @@ public abstract class IOService<RefObject>
 		// call() which has concurrent call protection.
 		// synchronized (socketIO) {
 		try {
+			int free = leaseInputBuffer();
 
 			// resizeInputBuffer();
 			// Maybe we can shrink the input buffer??
-			if ((socketInput.capacity() > socketInputSize) && (socketInput.remaining() == socketInput.capacity())) {
+			if ((readBufferPool == null) && (socketInput.capacity() > socketInputSize) &&
+					(socketInput.remaining() == socketInput.capacity())) {
 
 				// Yes, looks like we can
 				if (log.isLoggable(Level.FINE)) {
@@ -726,6 +815,7 @@ public abstract class IOService<RefObject>
 
 			if (socketIO.bytesRead() > 0) {
 				empty_read_call_count = 0;
+				adjustReadBufferSize(free, socketIO.bytesRead());
 
 				char[] result = null;
 
@@ -771,13 +861,7 @@ public abstract class IOService<RefObject>
 					// log.finer("cb.position()=" + cb.position());
 					// }
 					// tmpBuffer.flip();
-					if (cb.capacity() < tmpBuffer.remaining() * 4) {
-						if (log.isLoggable(Level.FINEST)) {
-							log.log(Level.FINEST, "Socket: {0}, resizing character buffer to: {1}",
-									new Object[]{socketIO, tmpBuffer.remaining()});
-						}
-						cb = CharBuffer.allocate(tmpBuffer.remaining() * 4);
-					}
+					prepareCharBuffer(tmpBuffer.remaining());
 
 					CoderResult cr = decoder.decode(tmpBuffer, cb, false);
 
@@ -786,8 +870,9 @@ public abstract class IOService<RefObject>
 							throw new MalformedInputException(tmpBuffer.remaining());
 						}
 					}
-					if (cb.remaining() > 0) {
-						cb.flip();
+					// decoded data may fill whole leased buffer, so buffer is flipped before checking it
+					cb.flip();
+					if (cb.hasRemaining()) {
 						result = new char[cb.remaining()];
 						cb.get(result);
 						if (log.isLoggable(Level.FINEST)) {
@@ -877,6 +962,18 @@ public abstract class IOService<RefObject>
 
 	protected abstract int receivedPackets();
 
+	/**
+	 * Records flush of waiting data, which was written to the socket.
+	 *
+	 * @param records number of records (stanzas) written
+	 */
+	protected void flushed(int records) {
+		if (records > 0) {
+			++flushes;
+			flushedRecords += records;
+		}
+	}
+
 	protected void writeBytes(ByteBuffer data) {
 
 		// Try to lock the data writing method
@@ -899,6 +996,7 @@ public abstract class IOService<RefObject>
 				int length = data.remaining();
 
 				socketIO.write(data);
+				++writes;
 				if (log.isLoggable(Level.FINEST)) {
 					log.log(Level.FINEST, "Socket: {0}, wrote: {1}", new Object[]{socketIO, length});
 				}
@@ -927,6 +1025,48 @@ public abstract class IOService<RefObject>
 		}
 	}
 
+	/**
+	 * Writes data from the passed buffer to the network. Unlike {@link #writeBytes(ByteBuffer)} buffer is not kept
+	 * by the network layer after this method returns, so it may be reused by the caller.
+	 *
+	 * @param data buffer with data to write
+	 */
+	protected void writeBuffer(ByteBuffer data) {
+		if (data == null || !data.hasRemaining()) {
+			writeBytes(null);
+			return;
+		}
+
+		writeInProgress.lock();
+		try {
+			int length = data.remaining();
+
+			if (data.isDirect()) {
+				socketIO.write(new ByteBuffer[]{data}, 0, 1);
+			} else {
+				writeCopy(data);
+			}
+			++writes;
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Socket: {0}, wrote: {1}", new Object[]{socketIO, length});
+			}
+			setLastTransferTime();
+			empty_read_call_count = 0;
+		} catch (SSLHandshakeException e) {
+			if (log.isLoggable(Level.INFO)) {
+				log.log(Level.INFO, "Socket: " + socketIO + ", Exception starting connection" + e);
+			}
+			forceStop();
+		} catch (Exception e) {
+			if (log.isLoggable(Level.FINER)) {
+				log.log(Level.FINER, "Data writing exception " + connectionId, e);
+			}
+			forceStop();
+		} finally {
+			writeInProgress.unlock();
+		}
+	}
+
 	protected void writeData(final String data) {
 
 		// Try to lock the data writing method
@@ -955,25 +1095,10 @@ public abstract class IOService<RefObject>
 					}
 				}
 
-				ByteBuffer dataBuffer = null;
-
-				// int out_buff_size = data.length();
-				// int idx_start = 0;
-				// int idx_offset = Math.min(idx_start + out_buff_size, data.length());
-				//
-				// while (idx_start < data.length()) {
-				// String data_str = data.substring(idx_start, idx_offset);
-				// if (log.isLoggable(Level.FINEST)) {
-				// log.finest("Writing data_str (" + data_str.length() + "), idx_start="
-				// + idx_start + ", idx_offset=" + idx_offset + ": " + data_str);
-				// }
-				encoder.reset();
-
-				// dataBuffer = encoder.encode(CharBuffer.wrap(data, idx_start,
-				// idx_offset));
-				dataBuffer = encoder.encode(CharBuffer.wrap(data));
-				encoder.flush(dataBuffer);
-				socketIO.write(dataBuffer);
+				if (!directWrite || !writeDirect(data)) {
+					writeEncoded(data);
+				}
+				++writes;
 				if (log.isLoggable(Level.FINEST)) {
 					log.log(Level.FINEST, "Socket: {0}, wrote: {1}", new Object[]{socketIO, data.length()});
 				}
@@ -1007,6 +1132,60 @@ public abstract class IOService<RefObject>
 		}
 	}
 
+	/**
+	 * Writes all passed data to the network at once. If direct write is enabled, data is encoded into direct buffers
+	 * and written with a single gathering write, otherwise it is concatenated and written in the same way as by
+	 * {@link #writeData(String)}.
+	 *
+	 * @param data list of data to write
+	 */
+	protected void writeDataBatch(final List<String> data) {
+		if (data == null || data.isEmpty()) {
+			writeData(null);
+			return;
+		}
+
+		writeInProgress.lock();
+		try {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Socket: {0}, Writing batch of data: {1}", new Object[]{socketIO, data.size()});
+			}
+			if (!directWrite || !writeDirect(data)) {
+				if (data.size() == 1) {
+					writeEncoded(data.get(0));
+				} else {
+					int length = 0;
+
+					for (String item : data) {
+						length += item.length();
+					}
+
+					StringBuilder sb = new StringBuilder(length);
+
+					for (String item : data) {
+						sb.append(item);
+					}
+					writeEncoded(sb.toString());
+				}
+			}
+			++writes;
+			setLastTransferTime();
+			empty_read_call_count = 0;
+		} catch (SSLHandshakeException e) {
+			if (log.isLoggable(Level.INFO)) {
+				log.log(Level.INFO, "Socket: " + socketIO + ", Exception starting connection" + e);
+			}
+			forceStop();
+		} catch (Exception e) {
+			if (log.isLoggable(Level.FINER)) {
+				log.log(Level.FINER, "Data writing exception " + connectionId, e);
+			}
+			forceStop();
+		} finally {
+			writeInProgress.unlock();
+		}
+	}
+
 	protected boolean isSocketServiceReady() {
 		return socketServiceReady;
 	}
@@ -1051,10 +1230,13 @@ public abstract class IOService<RefObject>
 				log.log(Level.FINE, "Socket: {0}, Resizing socketInput to {1} bytes.", new Object[]{socketIO, newSize});
 			}
 
-			ByteBuffer b = ByteBuffer.allocate(newSize);
+			ByteBuffer b = (readBufferPool == null) ? ByteBuffer.allocate(newSize) : readBufferPool.leaseBytes(newSize);
 
 			b.order(byteOrder());
 			b.put(socketInput);
+			if (readBufferPool != null) {
+				readBufferPool.releaseBytes(socketInput);
+			}
 			socketInput = b;
 		} else {
 
@@ -1088,6 +1270,153 @@ public abstract class IOService<RefObject>
 		}
 	}
 
+	private void writeEncoded(final String data) throws IOException {
+		ByteBuffer dataBuffer = null;
+
+		// int out_buff_size = data.length();
+		// int idx_start = 0;
+		// int idx_offset = Math.min(idx_start + out_buff_size, data.length());
+		//
+		// while (idx_start < data.length()) {
+		// String data_str = data.substring(idx_start, idx_offset);
+		// if (log.isLoggable(Level.FINEST)) {
+		// log.finest("Writing data_str (" + data_str.length() + "), idx_start="
+		// + idx_start + ", idx_offset=" + idx_offset + ": " + data_str);
+		// }
+		encoder.reset();
+
+		// dataBuffer = encoder.encode(CharBuffer.wrap(data, idx_start,
+		// idx_offset));
+		dataBuffer = encoder.encode(CharBuffer.wrap(data));
+		encoder.flush(dataBuffer);
+		socketIO.write(dataBuffer);
+	}
+
+	/**
+	 * Copies data to direct buffers before writing it to the network, so it is not copied again by the JDK to its
+	 * own cache of direct buffers.
+	 */
+	private void writeCopy(final ByteBuffer data) throws IOException {
+		DirectEncodeBuffers buffers = DirectEncodeBuffers.acquire();
+
+		if (buffers == null) {
+			// passed buffer may be reused by the caller, so it cannot be queued
+			ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+
+			copy.put(data.duplicate());
+			copy.flip();
+			socketIO.write(copy);
+			return;
+		}
+		try {
+			buffers.put(data);
+			socketIO.write(buffers.flip(), 0, buffers.count());
+		} finally {
+			buffers.release();
+		}
+	}
+
+	private boolean writeDirect(final String data) throws IOException {
+		DirectEncodeBuffers buffers = DirectEncodeBuffers.acquire();
+
+		if (buffers == null) {
+			return false;
+		}
+		try {
+			buffers.encode(encoder, data);
+			socketIO.write(buffers.flip(), 0, buffers.count());
+		} finally {
+			buffers.release();
+		}
+
+		return true;
+	}
+
+	private boolean writeDirect(final List<String> data) throws IOException {
+		DirectEncodeBuffers buffers = DirectEncodeBuffers.acquire();
+
+		if (buffers == null) {
+			return false;
+		}
+		try {
+			for (String item : data) {
+				buffers.encode(encoder, item);
+			}
+			socketIO.write(buffers.flip(), 0, buffers.count());
+		} finally {
+			buffers.release();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Makes sure that character buffer <code>cb</code> is able to hold characters decoded from the given number of
+	 * bytes. If read buffer pool is used, the buffer is leased from the pool and returned to it after data are read.
+	 *
+	 * @param bytes number of bytes which will be decoded
+	 */
+	protected void prepareCharBuffer(int bytes) {
+		if (readBufferPool != null) {
+			// decoded UTF-8 data never has more characters than bytes
+			if ((cb == null) || (cb.capacity() < bytes)) {
+				if (cb != null) {
+					readBufferPool.releaseChars(cb);
+				}
+				cb = readBufferPool.leaseChars(bytes);
+			}
+		} else if (cb.capacity() < bytes * 4) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Socket: {0}, resizing character buffer to: {1}", new Object[]{socketIO, bytes});
+			}
+			cb = CharBuffer.allocate(bytes * 4);
+		}
+	}
+
+	/**
+	 * Leases input buffer from the pool if needed.
+	 *
+	 * @return space available in the input buffer before reading data
+	 */
+	private int leaseInputBuffer() {
+		if (readBufferPool != null && socketInput == null) {
+			socketInput = readBufferPool.leaseBytes(readBufferSize);
+			socketInput.order(byteOrder());
+		}
+		return socketInput.remaining();
+	}
+
+	/**
+	 * Adjusts size of buffers leased from the pool. It is increased if read data filled whole buffer and decreased if
+	 * it used less than a quarter of it.
+	 */
+	private void adjustReadBufferSize(int free, int read) {
+		if (readBufferPool == null) {
+			return;
+		}
+		if (read >= free) {
+			if (readBufferSize < socketInputSize) {
+				readBufferSize = Math.min(readBufferSize << 1, Math.max(socketInputSize, ReadBufferPool.MIN_SIZE));
+			}
+		} else if ((read < (readBufferSize >> 2)) && (readBufferSize > ReadBufferPool.MIN_SIZE)) {
+			readBufferSize = readBufferSize >> 1;
+		}
+	}
+
+	/**
+	 * Returns buffers leased from the pool, input buffer is kept if it contains data which were not processed yet.
+	 */
+	private void releaseReadBuffers() {
+		if (cb != null) {
+			readBufferPool.releaseChars(cb);
+			cb = null;
+		}
+		if (socketInput != null && (isInputBufferEmpty() || !isConnected())) {
+			readBufferPool.releaseBytes(socketInput);
+			socketInput = null;
+		}
+	}
+
 	private void setLastTransferTime() {
 		lastTransferTime = System.currentTimeMillis();
 	}
@@ -0,0 +1,197 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import tigase.stats.StatisticsList;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Pool of read buffers shared by all connections of a single connection manager. Connection leases a buffer only
+ * when there is data to read from its socket and returns it as soon as all data read was processed, so idle
+ * connections do not keep any read buffers.
+ * <br>
+ * Buffers are grouped in size classes (powers of 2 starting from {@link #MIN_SIZE}) and the pool keeps no more
+ * idle buffers than allowed by the limit of pooled bytes. Buffers bigger than {@link #MAX_SIZE} are never pooled.
+ */
+public class ReadBufferPool {
+
+	public static final int MIN_SIZE = 1024;
+	public static final int MAX_SIZE = 256 * 1024;
+
+	private static final int MIN_SIZE_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+	private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SIZE_SHIFT + 1;
+	// the pool does not need more idle buffers of a size class than it is able to keep
+	private static final int MAX_CLASS_ENTRIES = 64 * 1024;
+
+	private final LongAdder allocations = new LongAdder();
+	private final ArrayBlockingQueue<ByteBuffer>[] byteBuffers;
+	private final ArrayBlockingQueue<CharBuffer>[] charBuffers;
+	private final LongAdder discarded = new LongAdder();
+	private final AtomicLong leasedBytes = new AtomicLong();
+	private final LongAdder leases = new LongAdder();
+	private final long maxPooledBytes;
+	private final AtomicLong pooledBytes = new AtomicLong();
+
+	/**
+	 * Returns index of the smallest size class able to hold data of passed size or <code>-1</code> if data is too
+	 * big to use pooled buffer.
+	 */
+	static int sizeClass(int size) {
+		if (size <= MIN_SIZE) {
+			return 0;
+		}
+		if (size > MAX_SIZE) {
+			return -1;
+		}
+		return (32 - Integer.numberOfLeadingZeros(size - 1)) - MIN_SIZE_SHIFT;
+	}
+
+	static int classSize(int sizeClass) {
+		return MIN_SIZE << sizeClass;
+	}
+
+	/**
+	 * Creates a new pool.
+	 *
+	 * @param maxPooledBytes maximal number of bytes kept in idle buffers
+	 */
+	@SuppressWarnings("unchecked")
+	public ReadBufferPool(long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+		this.byteBuffers = new ArrayBlockingQueue[CLASSES];
+		this.charBuffers = new ArrayBlockingQueue[CLASSES];
+		for (int i = 0; i < CLASSES; i++) {
+			int entries = (int) Math.max(1, Math.min(MAX_CLASS_ENTRIES, maxPooledBytes / classSize(i)));
+
+			byteBuffers[i] = new ArrayBlockingQueue<ByteBuffer>(entries);
+			charBuffers[i] = new ArrayBlockingQueue<CharBuffer>(entries);
+		}
+	}
+
+	/**
+	 * Returns cleared byte buffer with capacity equal or bigger than requested size.
+	 */
+	public ByteBuffer leaseBytes(int size) {
+		leases.increment();
+
+		int sizeClass = sizeClass(size);
+		ByteBuffer result = (sizeClass < 0) ? null : byteBuffers[sizeClass].poll();
+
+		if (result == null) {
+			allocations.increment();
+			result = ByteBuffer.allocate(sizeClass < 0 ? size : classSize(sizeClass));
+		} else {
+			pooledBytes.addAndGet(-result.capacity());
+			result.clear();
+			result.order(ByteOrder.BIG_ENDIAN);
+		}
+		leasedBytes.addAndGet(result.capacity());
+
+		return result;
+	}
+
+	/**
+	 * Returns cleared char buffer with capacity equal or bigger than requested number of characters.
+	 */
+	public CharBuffer leaseChars(int size) {
+		leases.increment();
+
+		int sizeClass = sizeClass(size);
+		CharBuffer result = (sizeClass < 0) ? null : charBuffers[sizeClass].poll();
+
+		if (result == null) {
+			allocations.increment();
+			result = CharBuffer.allocate(sizeClass < 0 ? size : classSize(sizeClass));
+		} else {
+			pooledBytes.addAndGet(-result.capacity() * 2);
+			result.clear();
+		}
+		leasedBytes.addAndGet(result.capacity() * 2);
+
+		return result;
+	}
+
+	public void releaseBytes(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+
+		leasedBytes.addAndGet(-capacity);
+		if (isPoolable(capacity) && reserve(capacity)) {
+			if (byteBuffers[sizeClass(capacity)].offer(buffer)) {
+				return;
+			}
+			pooledBytes.addAndGet(-capacity);
+		}
+		discarded.increment();
+	}
+
+	public void releaseChars(CharBuffer buffer) {
+		int capacity = buffer.capacity();
+
+		leasedBytes.addAndGet(-capacity * 2);
+		if (isPoolable(capacity) && reserve(capacity * 2)) {
+			if (charBuffers[sizeClass(capacity)].offer(buffer)) {
+				return;
+			}
+			pooledBytes.addAndGet(-capacity * 2);
+		}
+		discarded.increment();
+	}
+
+	public long getLeasedBytes() {
+		return leasedBytes.get();
+	}
+
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "Read buffer pool leases", leases.sum(), Level.FINE);
+		list.add(compName, "Read buffer pool allocations", allocations.sum(), Level.FINE);
+		list.add(compName, "Read buffer pool discarded", discarded.sum(), Level.FINER);
+		list.add(compName, "Read buffer pool leased [KB]", leasedBytes.get() / 1024, Level.FINE);
+		list.add(compName, "Read buffer pool idle [KB]", pooledBytes.get() / 1024, Level.FINE);
+	}
+
+	private boolean isPoolable(int capacity) {
+		int sizeClass = sizeClass(capacity);
+
+		return sizeClass >= 0 && classSize(sizeClass) == capacity;
+	}
+
+	private boolean reserve(int bytes) {
+		long current;
+
+		do {
+			current = pooledBytes.get();
+			if (current + bytes > maxPooledBytes) {
+				return false;
+			}
+		} while (!pooledBytes.compareAndSet(current, current + bytes));
+
+		return true;
+	}
+
+}
@@ -0,0 +1,445 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import tigase.stats.StatisticsList;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Alternative I/O engine used by {@link SocketThread} instead of separate read and write selector threads handing
+ * ready sockets off to a shared thread pool. Every event loop owns a selector with sockets for reading and writing
+ * and processes ready <code>IOService</code>s in its own thread. Event loop which has no work to do takes ready
+ * services from the queues of busy event loops, and a busy event loop wakes up an idle one if it has more than one
+ * service ready for processing.
+ * <br>
+ * Service is always registered in the selector of the same event loop. While it waits in the queue or is processed
+ * it is not selected again, and after processing it is registered again by the owning event loop.
+ */
+public class SocketEventLoops {
+
+	private static final Logger log = Logger.getLogger(SocketEventLoops.class.getName());
+	// Number of premature empty selections after which selector is rebuilt
+	private static final int SELECTOR_REBUILD_THRESHOLD = 512;
+	// Maximal number of services taken from other event loops before checking own selector
+	private static final int STEAL_BATCH = 16;
+
+	private final EventLoop[] loops;
+
+	SocketEventLoops(int threads) {
+		loops = new EventLoop[threads];
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop(i);
+		}
+		for (EventLoop loop : loops) {
+			Thread thrd = new Thread(loop);
+
+			thrd.setName("socketEventLoop-" + loop.idx);
+			loop.thread = thrd;
+			thrd.start();
+		}
+		log.log(Level.WARNING, "{0} socketEventLoops started.", loops.length);
+	}
+
+	public void addSocketService(IOService<?> s) {
+		loopFor(s).register(s);
+	}
+
+	public void removeSocketService(IOService<?> s) {
+		loopFor(s).unregister(s);
+	}
+
+	/**
+	 * Stops all event loops and closes their selectors. Services registered in the selectors are not stopped.
+	 *
+	 * @param timeout maximal time in milliseconds to wait for each event loop thread to finish
+	 */
+	public void shutdown(long timeout) throws InterruptedException {
+		for (EventLoop loop : loops) {
+			loop.stopping = true;
+			loop.selector.wakeup();
+		}
+		for (EventLoop loop : loops) {
+			loop.thread.join(timeout);
+		}
+		log.log(Level.WARNING, "{0} socketEventLoops stopped.", loops.length);
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		long processed = 0;
+		long stolen = 0;
+
+		for (EventLoop loop : loops) {
+			processed += loop.processed;
+			stolen += loop.stolen;
+			if (list.checkLevel(Level.FINER)) {
+				String prefix = "Event loop " + loop.idx + " ";
+
+				list.add(compName, prefix + "sockets", loop.registered.get(), Level.FINER);
+				list.add(compName, prefix + "processed", loop.processed, Level.FINER);
+				list.add(compName, prefix + "stolen", loop.stolen, Level.FINER);
+				list.add(compName, prefix + "max queue", loop.maxReady, Level.FINER);
+				list.add(compName, prefix + "average wait [us]", average(loop.waitTime, loop.processed), Level.FINER);
+				list.add(compName, prefix + "average processing [us]", average(loop.processingTime, loop.processed),
+						 Level.FINER);
+			}
+		}
+		list.add(compName, "Event loops", loops.length, Level.FINE);
+		list.add(compName, "Event loops processed", processed, Level.FINE);
+		list.add(compName, "Event loops stolen", stolen, Level.FINE);
+	}
+
+	private static long average(long nanos, long count) {
+		return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(nanos / count);
+	}
+
+	private static void forceStop(IOService<?> s) {
+		try {
+			if (log.isLoggable(Level.FINER)) {
+				log.log(Level.FINER, "Forcing stopping the service: {0}", s.getUniqueId());
+			}
+			s.forceStop();
+		} catch (Exception e) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Exception while stopping service: " + s.getUniqueId(), e);
+			}
+		}
+	}
+
+	int loopIndex(IOService<?> s) {
+		return (s.hashCode() & Integer.MAX_VALUE) % loops.length;
+	}
+
+	int getRegistered(int loopIndex) {
+		return loops[loopIndex].registered.get();
+	}
+
+	boolean isRunning() {
+		for (EventLoop loop : loops) {
+			if (loop.thread.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private EventLoop loopFor(IOService<?> s) {
+		return loops[loopIndex(s)];
+	}
+
+	private void wakeupIdleLoop(EventLoop busy) {
+		for (int i = 1; i < loops.length; i++) {
+			EventLoop loop = loops[(busy.idx + i) % loops.length];
+
+			if (loop.selecting && loop.ready.isEmpty()) {
+				loop.selector.wakeup();
+				return;
+			}
+		}
+	}
+
+	private class EventLoop
+			implements Runnable {
+
+		private final int idx;
+		private final ConcurrentLinkedQueue<IOService<?>> pending = new ConcurrentLinkedQueue<IOService<?>>();
+		private final ConcurrentLinkedDeque<IOService<?>> ready = new ConcurrentLinkedDeque<IOService<?>>();
+		// number of sockets registered in the selector, key set of the selector may be accessed only by the event
+		// loop thread so it is copied here for statistics
+		private final AtomicInteger registered = new AtomicInteger();
+		private int emptySelections = 0;
+		// statistics are updated only by the event loop thread
+		private int maxReady = 0;
+		private long processed = 0;
+		private long processingTime = 0;
+		private volatile long selectedAt = 0;
+		private volatile boolean selecting = false;
+		private volatile Selector selector;
+		private long stolen = 0;
+		private volatile boolean stopping = false;
+		private Thread thread;
+		private long waitTime = 0;
+
+		private EventLoop(int idx) {
+			this.idx = idx;
+			try {
+				selector = Selector.open();
+			} catch (IOException e) {
+				throw new RuntimeException("Server I/O error, can't open selector.", e);
+			}
+		}
+
+		@Override
+		public void run() {
+			while (!stopping) {
+				try {
+					boolean hadWork = registerPending();
+
+					registered.set(selector.keys().size());
+
+					boolean stole = ready.isEmpty() && steal();
+
+					int selectedKeys;
+
+					if (!stole && ready.isEmpty() && pending.isEmpty()) {
+						long start = System.nanoTime();
+
+						selecting = true;
+						try {
+							selectedKeys = selector.select();
+						} finally {
+							selecting = false;
+						}
+						if (selectedKeys == 0 && !hadWork && (System.nanoTime() - start) < 1000_000) {
+							if (++emptySelections > SELECTOR_REBUILD_THRESHOLD) {
+								rebuildSelector();
+							}
+						} else {
+							emptySelections = 0;
+						}
+					} else {
+						selectedKeys = selector.selectNow();
+					}
+					// keys cancelled by other threads are removed by the selection
+					registered.set(selector.keys().size());
+					if (stopping) {
+						break;
+					}
+
+					Set<SelectionKey> selected = selector.selectedKeys();
+
+					if (!selected.isEmpty()) {
+						selectedAt = System.nanoTime();
+
+						int added = 0;
+
+						for (SelectionKey key : selected) {
+							IOService<?> s = (IOService<?>) key.attachment();
+
+							try {
+								// service is not selected again until it is processed
+								key.interestOps(0);
+								ready.offer(s);
+								++added;
+							} catch (CancelledKeyException e) {
+								if (log.isLoggable(Level.FINEST)) {
+									log.log(Level.FINEST, "CancelledKeyException, stopping the connection: {0}",
+											s.getUniqueId());
+								}
+								forceStop(s);
+							}
+						}
+						selected.clear();
+						if (added > maxReady) {
+							maxReady = added;
+						}
+						if (added > 1) {
+							wakeupIdleLoop(this);
+						}
+					}
+
+					IOService<?> s;
+
+					while ((s = ready.pollFirst()) != null) {
+						process(s, this);
+					}
+				} catch (Exception e) {
+					if (stopping) {
+						break;
+					}
+					log.log(Level.SEVERE, "Server I/O error: ", e);
+					try {
+						rebuildSelector();
+					} catch (Exception ex) {
+						log.log(Level.SEVERE, "Serious problem, can't recreate selector: ", ex);
+					}
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				log.log(Level.FINE, "Exception closing selector of event loop " + idx, e);
+			}
+			registered.set(0);
+		}
+
+		private void process(IOService<?> s, EventLoop owner) {
+			long start = System.nanoTime();
+
+			waitTime += start - owner.selectedAt;
+
+			IOService<?> result = null;
+
+			try {
+				result = s.call();
+			} catch (Exception e) {
+				if (log.isLoggable(Level.FINER)) {
+					log.log(Level.FINER, "Exception processing service: " + s.getUniqueId(), e);
+				}
+				forceStop(s);
+			}
+			processingTime += System.nanoTime() - start;
+			++processed;
+
+			if (result != null) {
+				if (result.isConnected()) {
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST, "COMPLETED: {0}", result.getUniqueId());
+					}
+					SocketThread.addSocketService(result);
+				} else {
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST, "REMOVED: {0}", result.getUniqueId());
+					}
+				}
+			}
+		}
+
+		private void register(IOService<?> s) {
+			pending.offer(s);
+			if (Thread.currentThread() != thread) {
+				selector.wakeup();
+			}
+		}
+
+		private boolean registerPending() throws IOException {
+			boolean result = false;
+			IOService<?> s;
+
+			while ((s = pending.poll()) != null) {
+				result = true;
+
+				SocketChannel sc = s.getSocketChannel();
+
+				try {
+					if (!sc.isConnected()) {
+						if (log.isLoggable(Level.FINEST)) {
+							log.log(Level.FINEST, "Socket not connected: {0}", s.getUniqueId());
+						}
+						forceStop(s);
+						continue;
+					}
+
+					int ops = 0;
+
+					if (s.waitingToRead()) {
+						ops |= SelectionKey.OP_READ;
+					}
+					if (s.waitingToSend()) {
+						ops |= SelectionKey.OP_WRITE;
+					}
+
+					SelectionKey key = sc.keyFor(selector);
+
+					if (key != null && key.isValid()) {
+						key.interestOps(ops);
+					} else {
+						if (key != null) {
+							// cancelled key has to be removed from the selector before
+							// channel can be registered again
+							selector.selectNow();
+						}
+						sc.register(selector, ops, s);
+					}
+				} catch (Exception e) {
+					if (log.isLoggable(Level.FINER)) {
+						log.log(Level.FINER, "Forcing stopping the service: " + s.getUniqueId(), e);
+					}
+					forceStop(s);
+				}
+			}
+
+			return result;
+		}
+
+		private void rebuildSelector() throws IOException {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Recreating selector of event loop {0}, opened channels: {1}",
+						new Object[]{idx, selector.keys().size()});
+			}
+			emptySelections = 0;
+
+			Selector oldSel = selector;
+			Selector newSel = Selector.open();
+
+			for (SelectionKey key : oldSel.keys()) {
+				IOService<?> s = (IOService<?>) key.attachment();
+
+				try {
+					int ops = key.isValid() ? key.interestOps() : 0;
+
+					key.cancel();
+					if (s.getSocketChannel().isConnected()) {
+						s.getSocketChannel().register(newSel, ops, s);
+					} else {
+						forceStop(s);
+					}
+				} catch (Exception e) {
+					forceStop(s);
+				}
+			}
+			selector = newSel;
+			oldSel.close();
+			registered.set(newSel.keys().size());
+		}
+
+		private boolean steal() {
+			int count = 0;
+
+			for (int i = 1; i < loops.length && count < STEAL_BATCH; i++) {
+				EventLoop victim = loops[(idx + i) % loops.length];
+				IOService<?> s;
+
+				while (count < STEAL_BATCH && (s = victim.ready.pollLast()) != null) {
+					++count;
+					process(s, victim);
+				}
+			}
+			stolen += count;
+
+			return count > 0;
+		}
+
+		private void unregister(IOService<?> s) {
+			pending.remove(s);
+			ready.remove(s);
+
+			SelectionKey key = s.getSocketChannel().keyFor(selector);
+
+			if ((key != null) && (key.attachment() == s)) {
+				key.cancel();
+				// cancelled key is removed from the selector by the next selection
+				if (Thread.currentThread() != thread) {
+					selector.wakeup();
+				}
+			}
+		}
+	}
+
+}
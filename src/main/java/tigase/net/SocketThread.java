@@ -18,6 +18,7 @@
 package tigase.net;
 
 import tigase.annotations.TODO;
+import tigase.stats.StatisticsList;
 
 import java.io.IOException;
 import java.nio.channels.CancelledKeyException;
@@ -41,6 +42,11 @@ public class SocketThread
 		implements Runnable {
 
 	public static final int DEF_MAX_THREADS_PER_CPU = 8;
+	/**
+	 * System property setting number of {@link SocketEventLoops} threads, if set to value bigger than 0 event loops
+	 * are used instead of socket read and write threads.
+	 */
+	public static final String SOCKET_EVENT_LOOPS_PROP_KEY = "socket-event-loops";
 	private static final Logger log = Logger.getLogger(SocketThread.class.getName());
 	private static final int MAX_EMPTY_SELECTIONS = 10;
 	/**
@@ -50,6 +56,7 @@ public class SocketThread
 	 */
 	private static CompletionService<IOService<?>> completionService = null;
 	private static int cpus = Runtime.getRuntime().availableProcessors();
+	private static SocketEventLoops eventLoops = null;
 	private static ThreadPoolExecutor executor = null;
 	private static SocketThread[] socketReadThread = null;
 	private static SocketThread[] socketWriteThread = null;
@@ -58,7 +65,11 @@ public class SocketThread
 //private static final int READ_ONLY = SelectionKey.OP_READ;
 //private static final int READ_WRITE = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
 	static {
-		if (socketReadThread == null) {
+		int loops = Integer.getInteger(SOCKET_EVENT_LOOPS_PROP_KEY, 0);
+
+		if (loops > 0) {
+			eventLoops = new SocketEventLoops(loops);
+		} else if (socketReadThread == null) {
 			int nThreads = (cpus * DEF_MAX_THREADS_PER_CPU) / 2 + 1;
 
 			executor = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
@@ -111,6 +122,10 @@ public class SocketThread
 
 	public static void addSocketService(IOService<?> s) {
 		s.setSocketServiceReady(true);
+		if (eventLoops != null) {
+			eventLoops.addSocketService(s);
+			return;
+		}
 		// Due to a delayed SelectionKey cancelling deregistering
 		// nature this distribution doesn't work well, it leads to
 		// dead-lock. Let's make sure the service is always processed
@@ -128,10 +143,25 @@ public class SocketThread
 
 	public static void removeSocketService(IOService<Object> s) {
 		s.setSocketServiceReady(false);
+		if (eventLoops != null) {
+			eventLoops.removeSocketService(s);
+			return;
+		}
 		socketReadThread[s.hashCode() % socketReadThread.length].removeSocketServicePriv(s);
 		socketWriteThread[s.hashCode() % socketWriteThread.length].removeSocketServicePriv(s);
 	}
 
+	/**
+	 * Adds statistics of the I/O engine if event loops are used.
+	 *
+	 * @param list list to which statistics are added
+	 */
+	public static void getStatistics(StatisticsList list) {
+		if (eventLoops != null) {
+			eventLoops.getStatistics("socket-io", list);
+		}
+	}
+
 	/**
 	 * Creates a new <code>SocketThread</code> instance.
 	 */
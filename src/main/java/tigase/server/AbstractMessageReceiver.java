@@ -178,6 +178,8 @@ public abstract class AbstractMessageReceiver
 	private int processingInThreads = processingInThreads();
 	@ConfigField(desc = "Number of threads processing outgoing packages", alias = "processing-out-threads")
 	private int processingOutThreads = processingOutThreads();
+	@ConfigField(desc = "Maximal number of packets taken from queue at once by processing thread", alias = "processing-batch-size")
+	private int processingBatchSize = 1;
 	private ScheduledExecutorService receiverScheduler = null;
 	private Timer receiverTasks = null;
 	private String resourceForPacketWithTimeout = null;
@@ -407,6 +409,7 @@ public abstract class AbstractMessageReceiver
 			log.log(Level.FINE, "{0} - attempt to add regex routing: {1}", new Object[]{getName(), address});
 		}
 		regexRoutings.add(Pattern.compile(address, Pattern.CASE_INSENSITIVE));
+		regexRoutingsChanged();
 		if (log.isLoggable(Level.FINE)) {
 			log.log(Level.FINE, "{0} - success adding regex routing: {1}", new Object[]{getName(), address});
 		}
@@ -514,6 +517,7 @@ public abstract class AbstractMessageReceiver
 	 */
 	public void clearRegexRoutings() {
 		regexRoutings.clear();
+		regexRoutingsChanged();
 	}
 
 	/**
@@ -660,7 +664,12 @@ public abstract class AbstractMessageReceiver
 	}
 
 	public boolean removeRegexRouting(String address) {
-		return regexRoutings.remove(Pattern.compile(address, Pattern.CASE_INSENSITIVE));
+		boolean removed = regexRoutings.remove(Pattern.compile(address, Pattern.CASE_INSENSITIVE));
+
+		if (removed) {
+			regexRoutingsChanged();
+		}
+		return removed;
 	}
 
 	/**
@@ -799,6 +808,8 @@ public abstract class AbstractMessageReceiver
 		for (PacketFilterIfc packetFilter : outgoing_filters) {
 			packetFilter.getStatistics(list);
 		}
+		addBatchStatistics(list, "IN", threadsQueueIn);
+		addBatchStatistics(list, "OUT", threadsQueueOut);
 		if (list.checkLevel(Level.FINEST)) {
 			list.add(getName(), "Processed packets thread IN", threadsQueueIn.toString(), Level.FINEST);
 			list.add(getName(), "Processed packets thread OUT", threadsQueueOut.toString(), Level.FINEST);
@@ -1069,6 +1080,33 @@ public abstract class AbstractMessageReceiver
 		}
 	}
 
+	private void addBatchStatistics(StatisticsList list, String type, ArrayDeque<QueueListener> threads) {
+		if (threads == null || !list.checkLevel(Level.FINER)) {
+			return;
+		}
+
+		long batches = 0;
+		long packets = 0;
+		long waitTime = 0;
+
+		for (QueueListener queueListener : threads) {
+			batches += queueListener.batchCounter;
+			packets += queueListener.packetCounter;
+			waitTime += queueListener.batchWaitTime;
+		}
+
+		list.add(getName(), "Average batch size " + type, batches == 0 ? 0f : ((float) packets) / batches,
+				 Level.FINER);
+		list.add(getName(), "Average batch wait time " + type + " [ms]",
+				 batches == 0 ? 0f : (waitTime / 1000000f) / batches, Level.FINER);
+	}
+
+	private void regexRoutingsChanged() {
+		if (parent instanceof MessageRouterIfc) {
+			((MessageRouterIfc) parent).routingsChanged();
+		}
+	}
+
 	private Packet filterPacket(Packet packet, CopyOnWriteArrayList<PacketFilterIfc> filters) {
 		Packet result = packet;
 
@@ -1324,6 +1362,8 @@ public abstract class AbstractMessageReceiver
 	private class QueueListener
 			extends Thread {
 
+		private long batchCounter = 0;
+		private long batchWaitTime = 0;
 		private String compName = null;
 		private long packetCounter = 0;
 		private PriorityQueueAbstract<Packet> queue;
@@ -1344,102 +1384,127 @@ public abstract class AbstractMessageReceiver
 
 			Packet packet = null;
 			Queue<Packet> results = new ArrayDeque<Packet>(2);
+			ArrayList<Packet> batch = new ArrayList<Packet>();
 
 			while (!threadStopped) {
 				try {
 
-					// Now process next waiting packet
-					// log.finest("[" + getName() + "] before take... " + type);
-					// packet = queue.take(getName() + ":" + type);
-					packet = queue.take();
-					++packetCounter;
+					// Now process next waiting packets
+					long waitStart = System.nanoTime();
+					int batchSize = processingBatchSize;
+
+					if (batchSize > 1) {
+						queue.drainTo(batch, batchSize);
+					} else {
+						batch.add(queue.take());
+					}
+					batchWaitTime += System.nanoTime() - waitStart;
+					++batchCounter;
+
+					for (int i = 0; i < batch.size(); i++) {
+						packet = batch.get(i);
+						++packetCounter;
+						try {
+							processQueuedPacket(packet, results);
+						} catch (Exception e) {
+							if (!threadStopped) {
+								log.log(Level.SEVERE, "[" + getName() + "] Exception during packet processing: " + packet,
+										e);
+							}
+						}
+					}
+				} catch (InterruptedException e) {
+					System.out.println("interrupted " + getName());
+					// log.log(Level.SEVERE, "Exception during packet processing: ", e);
+					// stopped = true;
+				} catch (Exception e) {
+					if (!threadStopped) {
+						log.log(Level.SEVERE, "[" + getName() + "] Exception during packet processing: " + packet, e);
+					} else {
+						//log.log(Level.FINEST, "[" + getName() + "] Stopping processing thread");
+					}
+				} finally {
+					batch.clear();
+				}    // end of try-catch
+			}      // end of while (! threadStopped)
+		}
 
-					// if (log.isLoggable(Level.INFO)) {
-					// log.info("[" + getName() + "] packet from " + type + " queue: " +
-					// packet);
-					// }
-					switch (type) {
-						case IN_QUEUE:
-							long startPPT = System.currentTimeMillis();
+		private void processQueuedPacket(Packet packet, Queue<Packet> results) {
 
-							// tracer.trace(null, packet.getElemTo(), packet.getElemFrom(),
-							// packet.getFrom(), getName(), type.name(), null, packet);
-							PacketReceiverTaskIfc task = null;
+			// if (log.isLoggable(Level.INFO)) {
+			// log.info("[" + getName() + "] packet from " + type + " queue: " +
+			// packet);
+			// }
+			switch (type) {
+				case IN_QUEUE:
+					long startPPT = System.currentTimeMillis();
 
-							if (packet.getTo() != null) {
-								String id = packet.getTo().toString() + packet.getStanzaId();
+					// tracer.trace(null, packet.getElemTo(), packet.getElemFrom(),
+					// packet.getFrom(), getName(), type.name(), null, packet);
+					PacketReceiverTaskIfc task = null;
 
-								task = waitingTasks.remove(id);
-							}
-							if (task == null && packet.getStanzaTo() != null) {
-								String id = packet.getStanzaTo().toString() + packet.getStanzaId();
+					if (packet.getTo() != null) {
+						String id = packet.getTo().toString() + packet.getStanzaId();
 
-								task = waitingTasks.remove(id);
-							}
-							if (task != null) {
-								task.handleResponse(packet);
-							} else {
-
-								// log.finest("[" + getName() + "]  " +
-								// "No task found for id: " + id);
-								// Maybe this is a command for local processing...
-								boolean processed = false;
-
-								if (packet.isCommand() && (packet.getStanzaTo() != null) &&
-										compName.equals(packet.getStanzaTo().getLocalpart()) &&
-										isLocalDomain(packet.getStanzaTo().getDomain())) {
-									processed = processScriptCommand(packet, results);
-									if (processed) {
-										Packet result = null;
-
-										while ((result = results.poll()) != null) {
-											addOutPacket(result);
-										}
-									}
-								}
-								if (!processed && ((packet = filterPacket(packet, incoming_filters)) != null)) {
-									processPacket(packet);
-								}
+						task = waitingTasks.remove(id);
+					}
+					if (task == null && packet.getStanzaTo() != null) {
+						String id = packet.getStanzaTo().toString() + packet.getStanzaId();
 
-								// It is all concurrent so we have to use a local index variable
-								int idx = pptIdx;
+						task = waitingTasks.remove(id);
+					}
+					if (task != null) {
+						task.handleResponse(packet);
+					} else {
 
-								pptIdx = (pptIdx + 1) % processPacketTimings.length;
+						// log.finest("[" + getName() + "]  " +
+						// "No task found for id: " + id);
+						// Maybe this is a command for local processing...
+						boolean processed = false;
 
-								long timing = System.currentTimeMillis() - startPPT;
+						if (packet.isCommand() && (packet.getStanzaTo() != null) &&
+								compName.equals(packet.getStanzaTo().getLocalpart()) &&
+								isLocalDomain(packet.getStanzaTo().getDomain())) {
+							processed = processScriptCommand(packet, results);
+							if (processed) {
+								Packet result = null;
 
-								processPacketTimings[idx] = timing;
+								while ((result = results.poll()) != null) {
+									addOutPacket(result);
+								}
 							}
+						}
+						if (!processed && ((packet = filterPacket(packet, incoming_filters)) != null)) {
+							processPacket(packet);
+						}
 
-							break;
+						// It is all concurrent so we have to use a local index variable
+						int idx = pptIdx;
 
-						case OUT_QUEUE:
+						pptIdx = (pptIdx + 1) % processPacketTimings.length;
 
-							// tracer.trace(null, packet.getElemTo(), packet.getElemFrom(),
-							// packet.getTo(), getName(), type.name(), null, packet);
-							if ((packet = filterPacket(packet, outgoing_filters)) != null) {
-								processOutPacket(packet);
-							}
+						long timing = System.currentTimeMillis() - startPPT;
 
-							break;
+						processPacketTimings[idx] = timing;
+					}
 
-						default:
-							log.log(Level.SEVERE, "Unknown queue element type: {0}", type);
+					break;
 
-							break;
-					}    // end of switch (qel.type)
-				} catch (InterruptedException e) {
-					System.out.println("interrupted " + getName());
-					// log.log(Level.SEVERE, "Exception during packet processing: ", e);
-					// stopped = true;
-				} catch (Exception e) {
-					if (!threadStopped) {
-						log.log(Level.SEVERE, "[" + getName() + "] Exception during packet processing: " + packet, e);
-					} else {
-						//log.log(Level.FINEST, "[" + getName() + "] Stopping processing thread");
+				case OUT_QUEUE:
+
+					// tracer.trace(null, packet.getElemTo(), packet.getElemFrom(),
+					// packet.getTo(), getName(), type.name(), null, packet);
+					if ((packet = filterPacket(packet, outgoing_filters)) != null) {
+						processOutPacket(packet);
 					}
-				}    // end of try-catch
-			}      // end of while (! threadStopped)
+
+					break;
+
+				default:
+					log.log(Level.SEVERE, "Unknown queue element type: {0}", type);
+
+					break;
+			}    // end of switch (qel.type)
 		}
 
 		@Override
@@ -46,6 +46,7 @@ import java.net.InetSocketAddress;
 import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -112,6 +113,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	public static final String WATCHDOG_DELAY = "watchdog_delay";
 	public static final String WATCHDOG_TIMEOUT = "watchdog_timeout";
 	public static final String WATCHDOG_PING_TYPE_KEY = "watchdog_ping_type";
+	private static final String WATCHDOG_WHEEL_ENTRY_KEY = "watchdog-wheel-entry";
 
 	protected static final Element pingElement = new Element("iq", new Element[]{
 			new Element("ping", new String[]{"xmlns"}, new String[]{"urn:xmpp:ping"})}, new String[]{"type", "id"},
@@ -159,13 +161,28 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	protected WATCHDOG_PING_TYPE watchdogPingType = WATCHDOG_PING_TYPE.WHITESPACE;
 	@ConfigField(desc = "Watchdog timeout", alias = "watchdog-timeout")
 	protected long watchdogTimeout = 29 * MINUTE; // 1 740 000
+	@ConfigField(desc = "Use timing wheel to find inactive connections", alias = "watchdog-timing-wheel")
+	protected boolean watchdogTimingWheel = false;
+	@ConfigField(desc = "Duration of a single tick of watchdog timing wheel", alias = "watchdog-wheel-tick")
+	protected long watchdogWheelTick = SECOND;
 	private long bytesReceived = 0;
 	private long bytesSent = 0;
 	@Inject
 	private CertificateContainerIfc certificateContainer;
+	@ConfigField(desc = "Write all waiting packets with a single write", alias = "coalesce-flush")
+	private boolean coalesceFlush = false;
+	@ConfigField(desc = "Encode outgoing data into pooled direct buffers", alias = "direct-write")
+	private boolean directWrite = false;
+	private ReadBufferPool readBufferPool = null;
+	@ConfigField(desc = "Lease read buffers from shared pool", alias = "read-buffer-pool")
+	private boolean readBufferPoolEnabled = false;
+	@ConfigField(desc = "Maximal size of idle buffers kept in read buffers pool", alias = "read-buffer-pool-size")
+	private long readBufferPoolSize = 32 * 1024 * 1024;
 	@ConfigField(desc = "Flash cross domain policy file path", alias = XMPPIOService.CROSS_DOMAIN_POLICY_FILE_PROP_KEY)
 	private String flashCrossDomainPolicyFile = XMPPIOService.CROSS_DOMAIN_POLICY_FILE_PROP_VAL;
 	private String flassCrossDomainPolicy = null;
+	private long flushedRecords = 0;
+	private long flushes = 0;
 	private IOServiceStatisticsGetter ioStatsGetter = new IOServiceStatisticsGetter();
 	@ConfigField(desc = "Limit of bytes per minute for connection")
 	private long last_minute_bin_limit = LAST_MINUTE_BIN_LIMIT_PROP_VAL;
@@ -173,6 +190,8 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	private long last_minute_packets_limit = LAST_MINUTE_PACKETS_LIMIT_PROP_VAL;
 	@ConfigField(desc = "Maximal allowed time of inactivity of connection")
 	private long maxInactivityTime = getMaxInactiveTime();
+	@ConfigField(desc = "Maximal number of characters written by a single coalesced flush", alias = "max-flush-size")
+	private int maxFlushSize = 65536;
 	@ConfigField(desc = "Limit of size for network buffer for connection", alias = "net-buffer-limit")
 	private int net_buffer_limit = 0;
 	private Set<ConnectionListenerImpl> pending_open = Collections.synchronizedSet(
@@ -185,6 +204,8 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	@Inject(bean = "sslContextContainer")
 	private SSLContextContainerIfc sslContextContainer;
 	private boolean started = false;
+	@ConfigField(desc = "Encode outgoing stanzas directly into bytes", alias = "streaming-serializer")
+	private boolean streamingSerializer = false;
 	@ConfigField(desc = "Limit of total numer of bytes per connection")
 	private long total_bin_limit = TOTAL_BIN_LIMIT_PROP_VAL;
 	@ConfigField(desc = "Limit of total number of packets per connection")
@@ -195,6 +216,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	private long watchdogStopped = 0;
 	private long watchdogTests = 0;
 	private boolean white_char_ack = WHITE_CHAR_ACK_PROP_VAL;
+	private long writes = 0;
 
 	@ConfigField(desc = "Action taken if XMPP limit is exceeded")
 	private LIMIT_ACTION xmppLimitAction = LIMIT_ACTION.DISCONNECT;
@@ -210,6 +232,12 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	@Override
 	public void beanConfigurationChanged(Collection<String> changedFields) {
 		super.beanConfigurationChanged(changedFields);
+		if (!readBufferPoolEnabled) {
+			readBufferPool = null;
+		} else if (readBufferPool == null || changedFields.contains("readBufferPoolSize")) {
+			// connections already open keep buffers from the previous pool
+			readBufferPool = new ReadBufferPool(readBufferPoolSize);
+		}
 	}
 
 	public boolean checkTrafficLimits(IO serv) {
@@ -445,6 +473,12 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		services.put(id, service);
 		++services_size;
 
+		Watchdog watchdog = this.watchdog;
+
+		if (watchdog != null) {
+			watchdog.serviceStarted(service);
+		}
+
 		if (enableServiceConnectedTimeout(service)) {
 			ServiceConnectedTimer startTimer = new ServiceConnectedTimer(service);
 			addTimerTask(startTimer, serviceConnectedTimeout, TimeUnit.SECONDS);
@@ -465,6 +499,12 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 
 		ServiceConnectedTimer.cancel(service);
 
+		Watchdog watchdog = this.watchdog;
+
+		if (watchdog != null) {
+			watchdog.serviceStopped(service);
+		}
+
 		// synchronized(service) {
 		String id = getUniqueId(service);
 
@@ -649,9 +689,18 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		list.add(getName(), "Bytes sent", bytesSent, Level.FINE);
 		list.add(getName(), "Bytes received", bytesReceived, Level.FINE);
 		list.add(getName(), "Socket overflow", socketOverflow, Level.FINE);
+		list.add(getName(), "Average bytes per write", writes == 0 ? 0 : bytesSent / writes, Level.FINE);
+		list.add(getName(), "Average records per flush", flushes == 0 ? 0 : (float) flushedRecords / flushes,
+				 Level.FINE);
+		if (readBufferPool != null) {
+			readBufferPool.getStatistics(getName(), list);
+		}
 		list.add(getName(), "Watchdog runs", watchdogRuns, Level.FINER);
 		list.add(getName(), "Watchdog tests", watchdogTests, Level.FINE);
 		list.add(getName(), "Watchdog stopped", watchdogStopped, Level.FINE);
+		if (watchdog != null) {
+			watchdog.getStatistics(list);
+		}
 		for (XMPPIOProcessor proc : processors) {
 			proc.getStatistics(list);
 		}
@@ -784,7 +833,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	}
 
 	protected Watchdog newWatchdog() {
-		return new Watchdog();
+		return watchdogTimingWheel ? new TimingWheelWatchdog() : new Watchdog();
 	}
 
 	protected void addWaitingTask(Map<String, Object> conn) {
@@ -1200,6 +1249,11 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			IO serv = getXMPPIOServiceInstance();
 			serv.setSslContextContainer(sslContextContainer);
 			serv.setBufferLimit(net_buffer_limit);
+			serv.setDirectWrite(directWrite);
+			serv.setCoalesceFlush(coalesceFlush);
+			serv.setMaxFlushSize(maxFlushSize);
+			serv.setStreamingSerializer(streamingSerializer);
+			serv.setReadBufferPool(readBufferPool);
 			serv.setCertificateContainer(certificateContainer);
 
 			((XMPPDomBuilderHandler) serv.getSessionData().get(DOM_HANDLER)).setElementsLimit(elements_number_limit);
@@ -1344,6 +1398,9 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			bytesReceived += service.getBytesReceived(true);
 			bytesSent += service.getBytesSent(true);
 			socketOverflow += service.getBuffOverflow(true);
+			writes += service.getWrites(true);
+			flushes += service.getFlushes(true);
+			flushedRecords += service.getFlushedRecords(true);
 			service.getPacketsReceived(true);
 			service.getPacketsSent(true);
 
@@ -1362,7 +1419,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			extends Thread {
 
 		Packet pingPacket;
-		private boolean shutdown = false;
+		protected volatile boolean shutdown = false;
 
 		@Override
 		public void run() {
@@ -1399,6 +1456,99 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			return curr_time - lastTransfer;
 		}
 
+		/**
+		 * Checks whether the service is still alive. Depending on the configuration sends either whitespace or XMPP
+		 * ping if the service is inactive for the configured period of time, and stops the service if it is inactive
+		 * for too long.
+		 *
+		 * @param service service to check
+		 */
+		protected void checkService(final XMPPIOService service) {
+			try {
+				if (null != service) {
+					long sinceLastTransfer = getDurationSinceLastTransfer(service);
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST,
+								"Testing service: {0}, sinceLastTransfer: {1}, maxInactivityTime: {2}, watchdogTimeout: {3}, watchdogDelay: {4}, watchdogPingType: {5} ",
+								new Object[]{service, sinceLastTransfer, maxInactivityTime, watchdogTimeout,
+											 watchdogDelay, watchdogPingType});
+					}
+					if (sinceLastTransfer >= maxInactivityTime) {
+
+						// Stop the service if max keep-alive time is exceeded
+						// for non-active connections.
+						if (log.isLoggable(Level.INFO)) {
+							log.log(Level.INFO,
+									"{0}: Max inactive time exceeded, stopping: {1} ( sinceLastTransfer: {2}, maxInactivityTime: {3}, watchdogTimeout: {4}, watchdogDelay: {5}, watchdogPingType: {6} )",
+									new Object[]{getName(), service, sinceLastTransfer, maxInactivityTime,
+												 watchdogTimeout, watchdogDelay, watchdogPingType});
+						}
+						++watchdogStopped;
+						service.forceStop();
+					} else {
+						if (sinceLastTransfer >= (watchdogTimeout)) {
+
+							/** At least once every configured timings check if the
+							 * connection is still alive with the use of configured
+							 * ping type. */
+							switch (watchdogPingType) {
+								case XMPP:
+									pingPacket = Iq.packetInstance(pingElement.clone(), JID.jidInstanceNS(
+											(String) service.getSessionData().get(XMPPIOService.HOSTNAME_KEY)),
+																   JID.jidInstanceNS(service.getUserJid()));
+									if (log.isLoggable(Level.FINEST)) {
+										log.log(Level.FINEST, "{0}, sending XMPP ping {1}",
+												new Object[]{service, pingPacket});
+									}
+									if (!writePacketToSocket((IO) service, pingPacket)) {
+										// writing failed, stopp service
+										++watchdogStopped;
+										service.forceStop();
+									}
+									break;
+
+								case WHITESPACE:
+									if (log.isLoggable(Level.FINEST)) {
+										log.log(Level.FINEST, "Sending whitespace ping for service {0}",
+												new Object[]{service});
+									}
+									service.writeRawData(" ");
+									break;
+							}
+							++watchdogTests;
+						}
+					}
+				}
+			} catch (IOException e) {
+
+				// Close the service
+				try {
+					if (service != null) {
+						log.info(getName() + "Found dead connection, stopping: " + service);
+						++watchdogStopped;
+						service.forceStop();
+					}
+				} catch (Exception ignore) {
+					// Do nothing here as we expect Exception to be thrown here...
+				}
+			}
+		}
+
+		protected void getStatistics(StatisticsList list) {
+		}
+
+		/**
+		 * Called when a new service is started.
+		 */
+		protected void serviceStarted(IO service) {
+		}
+
+		/**
+		 * Called when a service is stopped.
+		 */
+		protected void serviceStopped(IO service) {
+		}
+
 		private void executeWatchdog() {
 			/** Walk through all connections and check whether they are really
 			 * alive. Depending on the configuration send either whitespace or
@@ -1408,80 +1558,117 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			doForAllServices(new ServiceChecker<IO>() {
 				@Override
 				public void check(final XMPPIOService service) {
-					try {
-						if (null != service) {
-							long sinceLastTransfer = getDurationSinceLastTransfer(service);
-							if (log.isLoggable(Level.FINEST)) {
-								log.log(Level.FINEST,
-										"Testing service: {0}, sinceLastTransfer: {1}, maxInactivityTime: {2}, watchdogTimeout: {3}, watchdogDelay: {4}, watchdogPingType: {5} ",
-										new Object[]{service, sinceLastTransfer, maxInactivityTime,
-													 watchdogTimeout, watchdogDelay, watchdogPingType});
-							}
-							if (sinceLastTransfer >= maxInactivityTime) {
-
-								// Stop the service if max keep-alive time is exceeded
-								// for non-active connections.
-								if (log.isLoggable(Level.INFO)) {
-									log.log(Level.INFO,
-											"{0}: Max inactive time exceeded, stopping: {1} ( sinceLastTransfer: {2}, maxInactivityTime: {3}, watchdogTimeout: {4}, watchdogDelay: {5}, watchdogPingType: {6} )",
-											new Object[]{getName(), service, sinceLastTransfer,
-														 maxInactivityTime, watchdogTimeout, watchdogDelay,
-														 watchdogPingType});
-								}
-								++watchdogStopped;
-								service.forceStop();
-							} else {
-								if (sinceLastTransfer >= (watchdogTimeout)) {
-
-									/** At least once every configured timings check if the
-									 * connection is still alive with the use of configured
-									 * ping type. */
-									switch (watchdogPingType) {
-										case XMPP:
-											pingPacket = Iq.packetInstance(pingElement.clone(), JID.jidInstanceNS(
-													(String) service.getSessionData().get(XMPPIOService.HOSTNAME_KEY)),
-																		   JID.jidInstanceNS(service.getUserJid()));
-											if (log.isLoggable(Level.FINEST)) {
-												log.log(Level.FINEST, "{0}, sending XMPP ping {1}",
-														new Object[]{service, pingPacket});
-											}
-											if (!writePacketToSocket((IO) service, pingPacket)) {
-												// writing failed, stopp service
-												++watchdogStopped;
-												service.forceStop();
-											}
-											break;
-
-										case WHITESPACE:
-											if (log.isLoggable(Level.FINEST)) {
-												log.log(Level.FINEST, "Sending whitespace ping for service {0}",
-														new Object[]{service});
-											}
-											service.writeRawData(" ");
-											break;
-									}
-									++watchdogTests;
-								}
-							}
-						}
-					} catch (IOException e) {
-
-						// Close the service
-						try {
-							if (service != null) {
-								log.info(getName() + "Found dead connection, stopping: " + service);
-								++watchdogStopped;
-								service.forceStop();
-							}
-						} catch (Exception ignore) {
-							// Do nothing here as we expect Exception to be thrown here...
-						}
-					}
+					checkService(service);
 				}
 			});
 		}
 	}
 
+	/**
+	 * Watchdog keeping connections in a timing wheel instead of checking all of them every <code>watchdogDelay</code>.
+	 * Every connection is scheduled for the time when it may reach <code>watchdogTimeout</code> of inactivity, so only
+	 * connections which may be inactive are visited. Connection which was active in the meantime is rescheduled
+	 * according to the time of its last transfer. Deadlines are moved by a random part of <code>watchdogDelay</code>,
+	 * so pings of connections opened or active at the same time are spread over time.
+	 */
+	protected class TimingWheelWatchdog
+			extends Watchdog {
+
+		private final TimingWheel<IO> wheel;
+
+		public TimingWheelWatchdog() {
+			wheel = new TimingWheel<IO>(watchdogWheelTick,
+										TimingWheel.slotsFor(watchdogTimeout + watchdogDelay, watchdogWheelTick),
+										System.currentTimeMillis());
+		}
+
+		@Override
+		public void run() {
+			// services started before the watchdog
+			doForAllServices(this::serviceStarted);
+			while (!shutdown) {
+				try {
+					long now = System.currentTimeMillis();
+
+					Thread.sleep(watchdogWheelTick - (now % watchdogWheelTick));
+					++watchdogRuns;
+					wheel.expire(System.currentTimeMillis(), this::expired);
+				} catch (InterruptedException e) {    /* Do nothing here */
+				} catch (Exception e) {
+					log.log(Level.WARNING, getName() + ", exception in watchdog", e);
+				}
+			}
+		}
+
+		@Override
+		protected void getStatistics(StatisticsList list) {
+			list.add(getName(), "Watchdog wheel connections", wheel.size(), Level.FINE);
+			list.add(getName(), "Watchdog wheel slots", wheel.getSlots(), Level.FINER);
+			list.add(getName(), "Watchdog wheel expired", wheel.getExpired(), Level.FINER);
+			list.add(getName(), "Watchdog wheel average expiry lag [ms]", wheel.getAverageLag(), Level.FINE);
+			list.add(getName(), "Watchdog wheel max expiry lag [ms]", wheel.getMaxLag(), Level.FINE);
+		}
+
+		@Override
+		protected void serviceStarted(IO service) {
+			long now = System.currentTimeMillis();
+
+			schedule(service, Math.min(now + watchdogTimeout + jitter(), now + maxInactivityTime));
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		protected void serviceStopped(IO service) {
+			TimingWheel.Entry<IO> entry = (TimingWheel.Entry<IO>) service.getSessionData()
+					.remove(WATCHDOG_WHEEL_ENTRY_KEY);
+
+			if (entry != null) {
+				wheel.cancel(entry);
+			}
+		}
+
+		private void expired(IO service, TimingWheel.Entry<IO> entry) {
+			// service could be scheduled again or stopped in the meantime
+			if (!service.getSessionData().remove(WATCHDOG_WHEEL_ENTRY_KEY, entry)) {
+				return;
+			}
+			if (services.get(getUniqueId(service)) != service) {
+				return;
+			}
+
+			long now = System.currentTimeMillis();
+			long sinceLastTransfer = getDurationSinceLastTransfer(service);
+			long next;
+
+			if (sinceLastTransfer >= watchdogTimeout || sinceLastTransfer >= maxInactivityTime) {
+				checkService(service);
+				if (!service.isConnected()) {
+					return;
+				}
+				next = now + watchdogDelay;
+			} else {
+				// connection was active, so it is checked after watchdogTimeout since the last transfer
+				next = now - sinceLastTransfer + watchdogTimeout + jitter();
+			}
+			schedule(service, Math.min(next, now - sinceLastTransfer + maxInactivityTime));
+		}
+
+		private long jitter() {
+			return watchdogDelay > 0 ? ThreadLocalRandom.current().nextLong(watchdogDelay) : 0;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void schedule(IO service, long deadline) {
+			TimingWheel.Entry<IO> entry = wheel.schedule(service, deadline);
+			TimingWheel.Entry<IO> old = (TimingWheel.Entry<IO>) service.getSessionData()
+					.put(WATCHDOG_WHEEL_ENTRY_KEY, entry);
+
+			if (old != null) {
+				wheel.cancel(old);
+			}
+		}
+	}
+
 	private static class ServiceConnectedTimer<IO extends XMPPIOService> extends TimerTask {
 
 		private final IO service;
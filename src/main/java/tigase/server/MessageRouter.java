@@ -21,6 +21,8 @@ import tigase.conf.ConfigurationException;
 import tigase.conf.ConfiguratorAbstract;
 import tigase.conf.MonitoringBeanIfc;
 import tigase.disco.XMPPService;
+import tigase.eventbus.EventBus;
+import tigase.eventbus.HandleEvent;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.RegistrarBean;
@@ -33,6 +35,8 @@ import tigase.sys.NativeMemoryTracking;
 import tigase.sys.TigaseRuntime;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.util.updater.UpdatesChecker;
+import tigase.vhosts.VHostManager;
+import tigase.vhosts.VHostManagerIfc;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
 import tigase.xmpp.PacketErrorTypeException;
@@ -50,6 +54,8 @@ import java.text.NumberFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -106,6 +112,17 @@ public class MessageRouter
 
 	@ConfigField(desc = "Enabled detailed memory usage statistics from NMT in metrics", alias = "detailed-memory-statistics")
 	private boolean detailedMemoryStatistics = false;
+	@Inject(nullAllowed = true)
+	private EventBus eventBus;
+	private volatile boolean regexRoutingsPresent = true;
+	private final ConcurrentHashMap<String, RoutingCacheEntry> routingCache = new ConcurrentHashMap<>();
+	@ConfigField(desc = "Cache routing decisions per destination domain", alias = "routing-cache")
+	private boolean routingCacheEnabled = true;
+	private final LongAdder routingCacheHits = new LongAdder();
+	private final LongAdder routingCacheMisses = new LongAdder();
+	@ConfigField(desc = "Maximal number of domains in routing cache", alias = "routing-cache-size")
+	private int routingCacheSize = 100000;
+	private final AtomicLong routingCacheVersion = new AtomicLong();
 
 	@Override
 	public void register(Kernel kernel) {
@@ -180,6 +197,7 @@ public class MessageRouter
 				registr.addComponent(component);
 			}    // end of if (reg != component)
 		}      // end of for ()
+		routingsChanged();
 	}
 
 	public void addRegistrator(ComponentRegistrator registr) throws ConfigurationException {
@@ -199,11 +217,13 @@ public class MessageRouter
 		log.info("Adding receiver: " + receiver.getClass().getSimpleName());
 		addComponent(receiver);
 		receivers.put(receiver.getName(), receiver);
+		routingsChanged();
 	}
 
 	@Override
 	public void beanConfigurationChanged(Collection<String> changedFields) {
 		super.beanConfigurationChanged(changedFields);
+		routingsChanged();
 		if (getServiceEntity() != null &&
 				(changedFields.contains("disco_name") || changedFields.contains("disco_show_version"))) {
 			updateServiceDiscoveryItem(getName(), null, getDiscoDescription(), "server", "im", false);
@@ -254,6 +274,9 @@ public class MessageRouter
 	public void initialize() {
 		super.initialize();
 		updateServiceDiscoveryItem(getName(), null, getDiscoDescription(), "server", "im", false);
+		if (eventBus != null) {
+			eventBus.registerAll(this);
+		}
 	}
 
 	@Override
@@ -394,20 +417,21 @@ public class MessageRouter
 		// to a virtual domains (implement VHostListener and return 'true' from
 		// handlesLocalDomains() method call)
 		String host = packet.getTo().getDomain();
-		ServerComponent[] comps = getComponentsForLocalDomain(host);
+		RoutingCacheEntry entry = routingCacheEnabled ? getRoutingCacheEntry(host) : null;
+		ServerComponent[] comps = (entry != null) ? entry.localDomainComponents : getComponentsForLocalDomain(host);
 
-		if (comps == null) {
+		if ((comps == null) && (entry == null || regexRoutingsPresent)) {
 
 			// Still no component found, now the most expensive lookup.
 			// Checking regex routings provided by the component.
 			comps = getServerComponentsForRegex(packet.getTo().getBareJID().toString());
 		}
-		if ((comps == null) && !isLocalDomain(host)) {
+		if ((comps == null) && !((entry != null) ? entry.localDomain : isLocalDomain(host))) {
 
 			// None of the component want to process the packet.
 			// If the packet is addressed to non-local domain then it is processed by
 			// all components dealing with external world, like s2s
-			comps = getComponentsForNonLocalDomain(host);
+			comps = (entry != null) ? entry.nonLocalDomainComponents : getComponentsForNonLocalDomain(host);
 		}
 
 		// Ok, if any component has been found then process the packet in a standard
@@ -499,6 +523,7 @@ public class MessageRouter
 		if (component instanceof XMPPService) {
 			xmppServices.remove(component.getName());
 		}
+		routingsChanged();
 	}
 
 	public void removeRegistrator(ComponentRegistrator registr) {
@@ -518,6 +543,27 @@ public class MessageRouter
 		log.info("Removing receiver: " + receiver.getClass().getSimpleName());
 		receivers.remove(receiver.getName());
 		removeComponent(receiver);
+		routingsChanged();
+	}
+
+	/**
+	 * Drops all cached routing decisions. Called when components are added or removed, when regex routings of any
+	 * component are changed and when virtual hosts are changed.
+	 */
+	@Override
+	public void routingsChanged() {
+		boolean regexRoutings = false;
+
+		for (MessageReceiver mr : receivers.values()) {
+			if (!(mr instanceof AbstractMessageReceiver) ||
+					!((AbstractMessageReceiver) mr).getRegexRoutings().isEmpty()) {
+				regexRoutings = true;
+				break;
+			}
+		}
+		regexRoutingsPresent = regexRoutings;
+		routingCacheVersion.incrementAndGet();
+		routingCache.clear();
 	}
 
 	@Override
@@ -554,6 +600,9 @@ public class MessageRouter
 	public void getStatistics(StatisticsList list) {
 		super.getStatistics(list);
 		list.add(getName(), "Local hostname", getDefHostName().getDomain(), Level.INFO);
+		list.add(getName(), "Routing cache hits", routingCacheHits.sum(), Level.FINE);
+		list.add(getName(), "Routing cache misses", routingCacheMisses.sum(), Level.FINE);
+		list.add(getName(), "Routing cache size", routingCache.size(), Level.FINER);
 
 		TigaseRuntime runtime = TigaseRuntime.getTigaseRuntime();
 
@@ -669,6 +718,12 @@ public class MessageRouter
 		}
 	}
 
+	@Override
+	public void setVHostManager(VHostManagerIfc manager) {
+		super.setVHostManager(manager);
+		routingsChanged();
+	}
+
 	@Override
 	public void setConfig(ConfiguratorAbstract config) throws ConfigurationException {
 		components.put(getName(), this);
@@ -678,6 +733,9 @@ public class MessageRouter
 
 	@Override
 	public void beforeUnregister() {
+		if (eventBus != null) {
+			eventBus.unregisterAll(this);
+		}
 		stop();
 	}
 
@@ -855,13 +913,20 @@ public class MessageRouter
 		// the component name + virtual host name
 		// Code below, tries to find a destination by the component name + any
 		// active virtual hostname.
+		RoutingCacheEntry entry = routingCacheEnabled ? getRoutingCacheEntry(jid.getDomain()) : null;
+
 		if (jid.getLocalpart() != null) {
 			comp = components.get(jid.getLocalpart());
-			if ((comp != null) &&
-					(isLocalDomain(jid.getDomain()) || jid.getDomain().equals(getDefHostName().getDomain()))) {
+			if ((comp != null) && ((entry != null)
+								   ? entry.localOrDefaultDomain
+								   : (isLocalDomain(jid.getDomain()) ||
+										   jid.getDomain().equals(getDefHostName().getDomain())))) {
 				return comp;
 			}
 		}
+		if (entry != null) {
+			return entry.subdomainComponent;
+		}
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "No component name matches (VHost lookup against component name): " +
 							"{0}, for map: {1}, for all VHosts: {2}; trying other forms of addressing",
@@ -869,45 +934,71 @@ public class MessageRouter
 							vHostManager.getAllVHosts().size() + "]" : String.valueOf(vHostManager.getAllVHosts())});
 		}
 
+		return getSubdomainComponent(jid.getDomain());
+	}
+
+	private ServerComponent getSubdomainComponent(String domain) {
 		// Instead of a component ID built of: component name + "@" domain name
 		// Some components have an ID of: component name + "." domain name
 		// Code below tries to find a packet receiver if the address have the other
 		// type of form.
-		int idx = jid.getDomain().indexOf('.');
+		int idx = domain.indexOf('.');
 
 		if (idx > 0) {
-			String cmpName = jid.getDomain().substring(0, idx);
-			String basename = jid.getDomain().substring(idx + 1);
+			String cmpName = domain.substring(0, idx);
+			String basename = domain.substring(idx + 1);
 
-			comp = components.get(cmpName);
+			ServerComponent comp = components.get(cmpName);
 			if ((comp != null) && (isLocalDomain(basename) || basename.equals(getDefHostName().getDomain()))) {
 				if (log.isLoggable(Level.FINEST)) {
 					log.log(Level.FINEST, "Component matched: {0}, for comp: {1}, basename: {3}",
-							new Object[]{jid, components.keySet(), comp, basename});
+							new Object[]{domain, components.keySet(), comp, basename});
 				}
 				return comp;
 			}
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "Component match failed: {0}, for comp: {1}, basename: {3}",
-						new Object[]{jid, components.keySet(), comp, basename});
+						new Object[]{domain, components.keySet(), comp, basename});
 			}
 		}
 
 		return null;
 	}
 
+	private RoutingCacheEntry getRoutingCacheEntry(String domain) {
+		long version = routingCacheVersion.get();
+		RoutingCacheEntry entry = routingCache.get(domain);
+
+		if (entry != null && entry.version == version) {
+			routingCacheHits.increment();
+			return entry;
+		}
+
+		routingCacheMisses.increment();
+		entry = new RoutingCacheEntry(version, domain);
+		if (routingCache.size() >= routingCacheSize) {
+			routingCache.clear();
+		}
+		routingCache.put(domain, entry);
+
+		return entry;
+	}
+
 	private ServerComponent[] getServerComponentsForRegex(String id) {
-		LinkedHashSet<ServerComponent> comps = new LinkedHashSet<ServerComponent>();
+		LinkedHashSet<ServerComponent> comps = null;
 
 		for (MessageReceiver mr : receivers.values()) {
 			if (log.isLoggable(Level.FINEST)) {
 				log.finest("Checking routings for: " + mr.getName());
 			}
 			if (mr.isInRegexRoutings(id)) {
+				if (comps == null) {
+					comps = new LinkedHashSet<ServerComponent>();
+				}
 				comps.add(mr);
 			}
 		}
-		if (comps.size() > 0) {
+		if (comps != null) {
 			return comps.toArray(new ServerComponent[comps.size()]);
 		} else {
 			return null;
@@ -947,5 +1038,32 @@ public class MessageRouter
 //  .toString()))) {
 		return result;
 	}
+
+	@HandleEvent
+	public void onVHostChanged(VHostManager.VHostChangedEvent event) {
+		routingsChanged();
+	}
+
+	/**
+	 * Routing decisions for a destination domain which do not depend on the localpart of the destination address.
+	 */
+	private class RoutingCacheEntry {
+
+		private final boolean localDomain;
+		private final ServerComponent[] localDomainComponents;
+		private final boolean localOrDefaultDomain;
+		private final ServerComponent[] nonLocalDomainComponents;
+		private final ServerComponent subdomainComponent;
+		private final long version;
+
+		private RoutingCacheEntry(long version, String domain) {
+			this.version = version;
+			this.localDomain = isLocalDomain(domain);
+			this.localOrDefaultDomain = localDomain || domain.equals(getDefHostName().getDomain());
+			this.subdomainComponent = getSubdomainComponent(domain);
+			this.localDomainComponents = getComponentsForLocalDomain(domain);
+			this.nonLocalDomainComponents = localDomain ? null : getComponentsForNonLocalDomain(domain);
+		}
+	}
 }
 
@@ -32,4 +32,11 @@ public interface MessageRouterIfc
 
 	void start();
 
+	/**
+	 * Method called by components when their routings (ie. regex routings) has changed, so any cached routing
+	 * decisions have to be dropped.
+	 */
+	default void routingsChanged() {
+	}
+
 }
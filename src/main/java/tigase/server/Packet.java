@@ -23,7 +23,6 @@ import tigase.xml.Element;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.JID;
 
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -100,9 +99,12 @@ public class Packet {
 	private String packetToStringSecure = null;
 	private Permissions permissions = Permissions.NONE;
 	private Priority priority = Priority.NORMAL;
-	private Set<String> processorsIds = new LinkedHashSet<String>(4, 0.9f);
+	// IDs of processors are kept as bits of indexes assigned by ProcessorIds
+	private long processorsIds = 0;
+	private long[] processorsIdsMore = null;
 	private boolean routed;
-	private LinkedHashSet<String> skippedProcessorsIds = new LinkedHashSet<String>(4, 0.9f);
+	private long skippedProcessorsIds = 0;
+	private long[] skippedProcessorsIdsMore = null;
 	private JID stanzaFrom = null;
 	private String stanzaId = null;
 	private JID stanzaTo = null;
@@ -592,19 +594,21 @@ public class Packet {
 	 * packets which hasn't been processed by any processor, hence a default action is applied to the packet if
 	 * possible.
 	 *
-	 * @return a <code>Set</code> of stanza processor IDs which handled the packet.
+	 * @return a <code>Set</code> of stanza processor IDs which handled the packet. Returned set is a copy, so changes
+	 * to it are not reflected in the packet.
 	 */
 	public Set<String> getProcessorsIds() {
-		return processorsIds;
+		return ProcessorIds.toSet(processorsIds, processorsIdsMore);
 	}
 
 	/**
 	 * Method returns a set of all processor IDs which skipped processing packets.
 	 *
-	 * @return a <code>Set</code> of stanza processor IDs which skipped the packet.
+	 * @return a <code>Set</code> of stanza processor IDs which skipped the packet. Returned set is a copy, so changes
+	 * to it are not reflected in the packet.
 	 */
 	public Set<String> getSkippedProcessorsIds() {
-		return skippedProcessorsIds;
+		return ProcessorIds.toSet(skippedProcessorsIds, skippedProcessorsIdsMore);
 	}
 
 	/**
@@ -837,7 +841,13 @@ public class Packet {
 	 * @param id is a <code>String</code> instance of the packet processer identifier.
 	 */
 	public void notProcessedBy(String id) {
-		skippedProcessorsIds.add(id);
+		int idx = ProcessorIds.indexOf(id);
+
+		if (idx < 64) {
+			skippedProcessorsIds |= 1L << idx;
+		} else {
+			skippedProcessorsIdsMore = ProcessorIds.set(skippedProcessorsIdsMore, idx);
+		}
 	}
 
 	/**
@@ -964,7 +974,13 @@ public class Packet {
 	 * @param id is a <code>String</code> instance of the packet processer identifier.
 	 */
 	public void processedBy(String id) {
-		processorsIds.add(id);
+		int idx = ProcessorIds.indexOf(id);
+
+		if (idx < 64) {
+			processorsIds |= 1L << idx;
+		} else {
+			processorsIdsMore = ProcessorIds.set(processorsIdsMore, idx);
+		}
 	}
 
 	/**
@@ -1144,7 +1160,7 @@ public class Packet {
 	 * <code>false</code> otherwise.
 	 */
 	public boolean wasProcessed() {
-		return processorsIds.size() > 0;
+		return processorsIds != 0 || processorsIdsMore != null;
 	}
 
 	/**
@@ -1154,7 +1170,7 @@ public class Packet {
 	 * @return <code>true</code> if packet was skipped by any processor.
 	 */
 	public boolean wasSkipped() {
-		return skippedProcessorsIds.size() > 0;
+		return skippedProcessorsIds != 0 || skippedProcessorsIdsMore != null;
 	}
 
 	/**
@@ -1166,7 +1182,7 @@ public class Packet {
 	 * specified ID and <code>false</code> otherwise.
 	 */
 	public boolean wasProcessedBy(String id) {
-		return processorsIds.contains(id);
+		return ProcessorIds.isSet(processorsIds, processorsIdsMore, ProcessorIds.find(id));
 	}
 
 	/**
@@ -0,0 +1,132 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry assigning an index to every packet processor ID passed to {@link Packet#processedBy(String)} or {@link
+ * Packet#notProcessedBy(String)}. Thanks to that <code>Packet</code> may keep IDs of processors as bits of a
+ * <code>long</code> value instead of a set of strings. Indexes below 64 are stored in the <code>long</code> value, and
+ * only packets processed by processors with bigger indexes need an additional array.
+ */
+final class ProcessorIds {
+
+	private static final ConcurrentHashMap<String, Integer> indexes = new ConcurrentHashMap<String, Integer>();
+	private static volatile String[] ids = new String[64];
+
+	static int indexOf(String id) {
+		Integer idx = indexes.get(id);
+
+		if (idx == null) {
+			idx = register(id);
+		}
+
+		return idx;
+	}
+
+	/**
+	 * Returns index of the processor ID or <code>-1</code> if ID was not registered yet.
+	 */
+	static int find(String id) {
+		Integer idx = indexes.get(id);
+
+		return idx == null ? -1 : idx;
+	}
+
+	/**
+	 * Sets bit for the index in the additional array, which is resized if needed.
+	 *
+	 * @return passed array or a new array if the passed one was too small
+	 */
+	static long[] set(long[] bits, int idx) {
+		int word = (idx >>> 6) - 1;
+
+		if (bits == null) {
+			bits = new long[word + 1];
+		} else if (bits.length <= word) {
+			bits = Arrays.copyOf(bits, word + 1);
+		}
+		bits[word] |= 1L << idx;
+
+		return bits;
+	}
+
+	static boolean isSet(long bits, long[] moreBits, int idx) {
+		if (idx < 0) {
+			return false;
+		}
+		if (idx < 64) {
+			return (bits & (1L << idx)) != 0;
+		}
+
+		int word = (idx >>> 6) - 1;
+
+		return moreBits != null && word < moreBits.length && (moreBits[word] & (1L << idx)) != 0;
+	}
+
+	static Set<String> toSet(long bits, long[] moreBits) {
+		if (bits == 0 && moreBits == null) {
+			return Collections.emptySet();
+		}
+
+		String[] names = ids;
+		Set<String> result = new LinkedHashSet<String>();
+
+		addAll(result, names, bits, 0);
+		if (moreBits != null) {
+			for (int i = 0; i < moreBits.length; i++) {
+				addAll(result, names, moreBits[i], (i + 1) << 6);
+			}
+		}
+
+		return result;
+	}
+
+	private static void addAll(Set<String> result, String[] names, long bits, int offset) {
+		while (bits != 0) {
+			int bit = Long.numberOfTrailingZeros(bits);
+
+			result.add(names[offset + bit]);
+			bits &= bits - 1;
+		}
+	}
+
+	private static synchronized Integer register(String id) {
+		Integer idx = indexes.get(id);
+
+		if (idx == null) {
+			idx = indexes.size();
+			if (idx == ids.length) {
+				ids = Arrays.copyOf(ids, ids.length * 2);
+			}
+			ids[idx] = id;
+			indexes.put(id, idx);
+		}
+
+		return idx;
+	}
+
+	private ProcessorIds() {
+	}
+
+}
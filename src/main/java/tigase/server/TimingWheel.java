@@ -0,0 +1,212 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel keeping items scheduled for a deadline. Deadline is rounded to a tick and item is kept in the
+ * slot of that tick, so expiring items are found by visiting only slots of ticks which passed, instead of checking all
+ * items. Deadlines further than one turn of the wheel are kept in the same slot and skipped until their turn comes.
+ * <br>
+ * Items may be scheduled by any thread, but {@link #expire(long, ExpiryHandler)} has to be called by a single
+ * thread.
+ */
+final class TimingWheel<T> {
+
+	private final int mask;
+	private final AtomicInteger size = new AtomicInteger();
+	private final ConcurrentLinkedQueue<Entry<T>>[] slots;
+	private final long tick;
+	// statistics are updated only by the thread expiring items
+	private long expired = 0;
+	private long lag = 0;
+	private long maxLag = 0;
+	// index of the next tick to process
+	private volatile long nextTick;
+
+	/**
+	 * Returns number of slots needed to keep deadlines up to <code>horizon</code> in a single turn of the wheel.
+	 */
+	static int slotsFor(long horizon, long tick) {
+		long ticks = Math.max(64, Math.min(65536, horizon / tick + 1));
+
+		return Integer.highestOneBit((int) (ticks - 1)) << 1;
+	}
+
+	@SuppressWarnings("unchecked")
+	TimingWheel(long tick, int slots, long now) {
+		if (Integer.bitCount(slots) != 1) {
+			throw new IllegalArgumentException("Number of slots has to be a power of 2: " + slots);
+		}
+		this.tick = tick;
+		this.mask = slots - 1;
+		this.slots = new ConcurrentLinkedQueue[slots];
+		for (int i = 0; i < slots; i++) {
+			this.slots[i] = new ConcurrentLinkedQueue<Entry<T>>();
+		}
+		this.nextTick = now / tick;
+	}
+
+	/**
+	 * Adds item to the wheel. Items with deadlines which already passed are expired with one of the next ticks.
+	 *
+	 * @param item item to schedule
+	 * @param deadline time in milliseconds
+	 *
+	 * @return entry which may be used to cancel scheduling
+	 */
+	Entry<T> schedule(T item, long deadline) {
+		// slot of the next tick may be processed right now
+		long t = Math.max(deadline / tick, nextTick + 1);
+		Entry<T> entry = new Entry<T>(item, deadline, (int) (t & mask));
+
+		slots[entry.slot].offer(entry);
+		size.incrementAndGet();
+
+		return entry;
+	}
+
+	/**
+	 * Removes entry from the wheel, so it will not be expired and the item is not referenced any more.
+	 *
+	 * @param entry entry returned by {@link #schedule(Object, long)}
+	 */
+	void cancel(Entry<T> entry) {
+		entry.cancelled = true;
+		if (slots[entry.slot].remove(entry)) {
+			size.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Processes all ticks which ended before <code>now</code> and passes expired items to the handler.
+	 *
+	 * @param now current time in milliseconds
+	 * @param handler handler of expired items
+	 *
+	 * @return number of expired items
+	 */
+	int expire(long now, ExpiryHandler<T> handler) {
+		long lastTick = now / tick - 1;
+		int result = 0;
+		List<Entry<T>> notExpired = null;
+
+		// at most one turn of the wheel has to be visited, even if thread was delayed for a longer time
+		long t = Math.max(nextTick, lastTick - mask);
+
+		for (; t <= lastTick; t++) {
+			ConcurrentLinkedQueue<Entry<T>> slot = slots[(int) (t & mask)];
+			Entry<T> entry;
+
+			while ((entry = slot.poll()) != null) {
+				if (entry.cancelled) {
+					size.decrementAndGet();
+					continue;
+				}
+				// all items of processed ticks expired, so these are waiting for next turns of the wheel
+				if (entry.deadline > now) {
+					if (notExpired == null) {
+						notExpired = new ArrayList<Entry<T>>();
+					}
+					notExpired.add(entry);
+					continue;
+				}
+				size.decrementAndGet();
+
+				long entryLag = now - entry.deadline;
+
+				lag += entryLag;
+				if (entryLag > maxLag) {
+					maxLag = entryLag;
+				}
+				++expired;
+				++result;
+				handler.expired(entry.item, entry);
+			}
+			if (notExpired != null && !notExpired.isEmpty()) {
+				slot.addAll(notExpired);
+				notExpired.clear();
+			}
+		}
+		if (lastTick + 1 > nextTick) {
+			nextTick = lastTick + 1;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns average difference in milliseconds between deadline of expired items and the time when they were
+	 * processed.
+	 */
+	long getAverageLag() {
+		return expired == 0 ? 0 : lag / expired;
+	}
+
+	long getExpired() {
+		return expired;
+	}
+
+	long getMaxLag() {
+		return maxLag;
+	}
+
+	int getSlots() {
+		return slots.length;
+	}
+
+	long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Returns number of items kept in the wheel.
+	 */
+	int size() {
+		return size.get();
+	}
+
+	interface ExpiryHandler<T> {
+
+		void expired(T item, Entry<T> entry);
+
+	}
+
+	static final class Entry<T> {
+
+		private final long deadline;
+		private final T item;
+		private final int slot;
+		private volatile boolean cancelled = false;
+
+		private Entry(T item, long deadline, int slot) {
+			this.item = item;
+			this.deadline = deadline;
+			this.slot = slot;
+		}
+
+		long getDeadline() {
+			return deadline;
+		}
+	}
+
+}
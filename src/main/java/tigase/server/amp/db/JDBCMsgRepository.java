@@ -19,8 +19,11 @@ package tigase.server.amp.db;
 
 import tigase.db.*;
 import tigase.db.util.RepositoryVersionAware;
+import tigase.kernel.beans.UnregisterAware;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Packet;
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
 import tigase.util.ExceptionUtilities;
 import tigase.xml.DomBuilderHandler;
 import tigase.xml.Element;
@@ -32,6 +35,10 @@ import tigase.xmpp.jid.JID;
 import java.sql.*;
 import java.util.Date;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,12 +51,14 @@ import java.util.logging.Logger;
 @Repository.SchemaId(id = Schema.SERVER_SCHEMA_ID, name = Schema.SERVER_SCHEMA_NAME)
 public class JDBCMsgRepository
 		extends MsgRepository<Long, DataRepository>
-		implements RepositoryVersionAware {
+		implements RepositoryVersionAware, StatisticsProviderIfc, UnregisterAware {
 
 	private static final Logger log = Logger.getLogger(JDBCMsgRepository.class.getName());
 	protected DataRepository data_repo = null;
 	@ConfigField(desc = "Query to add message", alias = "add-message-query")
 	private String MSGS_ADD_MESSAGE = "{ call Tig_OfflineMessages_AddMessage(?,?,?,?,?,?,?) }";
+	@ConfigField(desc = "Query to add messages in batches, must not return any result", alias = "add-message-batch-query")
+	private String MSGS_ADD_MESSAGE_BATCH = null;
 	@ConfigField(desc = "Query to count messages", alias = "count-messages-query")
 	private String MSGS_COUNT_MESSAGES = "{ call Tig_OfflineMessages_GetMessagesCount(?) }";
 	@ConfigField(desc = "Query to delete message", alias = "delete-message-query")
@@ -73,7 +82,24 @@ public class JDBCMsgRepository
 	// ~--- fields ---------------------------------------------------------------
 	@ConfigField(desc = "Query to list messages", alias = "list-messages-query")
 	private String MSGS_LIST_MESSAGES = "{ call Tig_OfflineMessages_ListMessages(?) }";
+	private volatile boolean batchSupported = false;
 	private boolean initialized = false;
+	@ConfigField(desc = "Store offline messages asynchronously in batches", alias = "write-behind")
+	private boolean writeBehind = false;
+	private final LongAdder writeBehindBatchTime = new LongAdder();
+	private final LongAdder writeBehindBatches = new LongAdder();
+	@ConfigField(desc = "Maximal number of offline messages stored in a single batch", alias = "write-behind-batch-size")
+	private int writeBehindBatchSize = 100;
+	@ConfigField(desc = "Maximal time in milliseconds which message waits for a batch to be filled", alias = "write-behind-flush-interval")
+	private long writeBehindFlushInterval = 50;
+	@ConfigField(desc = "Time in milliseconds to wait for space in a full write-behind queue", alias = "write-behind-offer-timeout")
+	private long writeBehindOfferTimeout = 100;
+	private volatile BlockingQueue<PendingMessage> writeBehindQueue = null;
+	@ConfigField(desc = "Maximal number of offline messages waiting to be stored", alias = "write-behind-queue-size")
+	private int writeBehindQueueSize = 10000;
+	private final LongAdder writeBehindRejected = new LongAdder();
+	private final LongAdder writeBehindStored = new LongAdder();
+	private Thread writeBehindThread = null;
 
 	@Override
 	public void setDataSource(DataRepository data_repo) {
@@ -88,6 +114,12 @@ public class JDBCMsgRepository
 			data_repo.initPreparedStatement(MSGS_DELETE_MESSAGES_BY_IDS, MSGS_DELETE_MESSAGES_BY_IDS);
 			data_repo.initPreparedStatement(MSGS_GET_EXPIRED_MESSAGES, MSGS_GET_EXPIRED_MESSAGES);
 			data_repo.initPreparedStatement(MSGS_GET_EXPIRED_MESSAGES_BEFORE, MSGS_GET_EXPIRED_MESSAGES_BEFORE);
+			// procedure adding message returns result which is not allowed in a batch by JDBC drivers, so batches
+			// are used only with a separate query
+			if (MSGS_ADD_MESSAGE_BATCH != null) {
+				data_repo.initPreparedStatement(MSGS_ADD_MESSAGE_BATCH, MSGS_ADD_MESSAGE_BATCH);
+			}
+			batchSupported = MSGS_ADD_MESSAGE_BATCH != null;
 		} catch (SQLException ex) {
 			log.log(Level.WARNING, "MsgRepository not initialized due to exception",
 					ExceptionUtilities.getExceptionRootCause(ex, true));
@@ -96,6 +128,10 @@ public class JDBCMsgRepository
 		}
 
 		this.data_repo = data_repo;
+
+		if (writeBehind) {
+			startWriteBehind();
+		}
 	}
 
 	@Override
@@ -361,62 +397,60 @@ public class JDBCMsgRepository
 
 		try {
 			long msgs_store_limit = getMsgsStoreLimit(to.getBareJID(), userRepo);
+			PendingMessage item = new PendingMessage(from.getBareJID(), to.getBareJID(), expired, msg,
+													 msgs_store_limit);
+
+			BlockingQueue<PendingMessage> queue = writeBehindQueue;
+			if (queue != null) {
+				// if messages are not stored fast enough, storing is rejected and
+				// OfflineMessages responds with an error instead of blocking all threads
+				result = queue.offer(item, writeBehindOfferTimeout, TimeUnit.MILLISECONDS);
+				if (!result) {
+					writeBehindRejected.increment();
+					log.log(Level.FINE, "Write-behind queue is full, message from {0} to {1} not stored",
+							new Object[]{from, to});
+				}
+				return result;
+			}
 
 			PreparedStatement insert_msg_st = data_repo.getPreparedStatement(to.getBareJID(), MSGS_ADD_MESSAGE);
 
 			synchronized (insert_msg_st) {
-				insert_msg_st.setString(1, to.getBareJID().toString());
-				insert_msg_st.setString(2, from.getBareJID().toString());
-				int msg_type;
-				try {
-					final String name = msg.getName();
-					final MSG_TYPES valueOf = MSG_TYPES.valueOf(name);
-					msg_type = valueOf.ordinal();
-				} catch (IllegalArgumentException e) {
-					msg_type = Integer.MAX_VALUE;
-				}
-
-				insert_msg_st.setInt(3, msg_type);
-				data_repo.setTimestamp(insert_msg_st, 4, new Timestamp(System.currentTimeMillis()));
-				insert_msg_st.setString(5, msg.toString());
-
-				if (expired == null) {
-					insert_msg_st.setNull(6, Types.TIMESTAMP);
-				} else {
-					Timestamp time = new Timestamp(expired.getTime());
-
-					data_repo.setTimestamp(insert_msg_st, 6, time);
-				}
-				insert_msg_st.setLong(7, msgs_store_limit);
-
-				try (ResultSet rs = insert_msg_st.executeQuery()) {
-					if (rs.next()) {
-						result = rs.getLong(1) != 0;
-					}
-				}
+				result = executeStoreMessage(data_repo, insert_msg_st, item);
 			}
 
-			if (expired != null) {
-				if (expired.getTime() < earliestOffline) {
-					earliestOffline = expired.getTime();
-				}
-
-				if (expiredQueue.size() == 0) {
-					loadExpiredQueue(1);
-				}
-			}
+			messageStored(expired);
 		} catch (DataTruncation dte) {
 			log.log(Level.FINE, "Data truncated for message from {0} to {1}", new Object[]{from, to});
 		} catch (SQLException e) {
-			if (e.getErrorCode() == 1366 || e.getMessage() != null && e.getMessage().startsWith("Incorrect string value")) {
-				log.log(Level.WARNING, "Your MySQL configuration can't handle extended Unicode (for example emoji) correctly. Please refer to <Support for emoji and other icons> section of the server documentation");
-			} else {
-				log.log(Level.WARNING, "Problem adding new entry to DB: ", e);
-			}
+			logStoreError(e);
+		} catch (InterruptedException e) {
+			log.log(Level.FINE, "Interrupted while waiting for space in write-behind queue");
 		}
 		return result;
 	}
 
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		if (writeBehindQueue != null) {
+			long batches = writeBehindBatches.sum();
+
+			list.add(compName, "Offline messages write-behind queue", writeBehindQueue.size(), Level.FINE);
+			list.add(compName, "Offline messages write-behind rejected", writeBehindRejected.sum(), Level.FINE);
+			list.add(compName, "Offline messages write-behind batches", batches, Level.FINER);
+			list.add(compName, "Offline messages write-behind average batch size",
+					 batches == 0 ? 0 : writeBehindStored.sum() / batches, Level.FINER);
+			list.add(compName, "Offline messages write-behind average batch time [ms]",
+					 batches == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(writeBehindBatchTime.sum() / batches),
+					 Level.FINE);
+		}
+	}
+
+	@Override
+	public void beforeUnregister() {
+		stopWriteBehind();
+	}
+
 	protected Queue<Element> parseLoadedMessages(OfflineMessagesProcessor proc, ResultSet rs) throws SQLException {
 		StringBuilder sb = new StringBuilder(1000);
 		Queue<Element> result = new LinkedList<Element>();
@@ -554,4 +588,284 @@ public class JDBCMsgRepository
 		}
 	}
 
+	protected void messageStored(Date expired) {
+		if (expired != null) {
+			if (expired.getTime() < earliestOffline) {
+				earliestOffline = expired.getTime();
+			}
+
+			if (expiredQueue.size() == 0) {
+				loadExpiredQueue(1);
+			}
+		}
+	}
+
+	private boolean executeStoreMessage(DataRepository repo, PreparedStatement insert_msg_st, PendingMessage item)
+			throws SQLException {
+		setStoreMessageParams(repo, insert_msg_st, item);
+		try (ResultSet rs = insert_msg_st.executeQuery()) {
+			if (rs.next()) {
+				return rs.getLong(1) != 0;
+			}
+		}
+		return false;
+	}
+
+	private void setStoreMessageParams(DataRepository repo, PreparedStatement insert_msg_st, PendingMessage item)
+			throws SQLException {
+		insert_msg_st.setString(1, item.to.toString());
+		insert_msg_st.setString(2, item.from.toString());
+		insert_msg_st.setInt(3, item.type);
+		repo.setTimestamp(insert_msg_st, 4, item.stored);
+		insert_msg_st.setString(5, item.msg);
+
+		if (item.expired == null) {
+			insert_msg_st.setNull(6, Types.TIMESTAMP);
+		} else {
+			repo.setTimestamp(insert_msg_st, 6, new Timestamp(item.expired.getTime()));
+		}
+		insert_msg_st.setLong(7, item.limit);
+	}
+
+	private void logStoreError(SQLException e) {
+		if (e.getErrorCode() == 1366 || e.getMessage() != null && e.getMessage().startsWith("Incorrect string value")) {
+			log.log(Level.WARNING, "Your MySQL configuration can't handle extended Unicode (for example emoji) correctly. Please refer to <Support for emoji and other icons> section of the server documentation");
+		} else {
+			log.log(Level.WARNING, "Problem adding new entry to DB: ", e);
+		}
+	}
+
+	private synchronized void startWriteBehind() {
+		if (writeBehindThread != null) {
+			return;
+		}
+		writeBehindQueue = new ArrayBlockingQueue<>(writeBehindQueueSize);
+		writeBehindThread = new Thread(this::writeBehind, "offline-msgs-write-behind");
+		writeBehindThread.setDaemon(true);
+		writeBehindThread.start();
+	}
+
+	private synchronized void stopWriteBehind() {
+		Thread thread = writeBehindThread;
+
+		if (thread == null) {
+			return;
+		}
+		// new messages are stored directly, writer stores all queued messages and stops
+		BlockingQueue<PendingMessage> queue = writeBehindQueue;
+		writeBehindQueue = null;
+		writeBehindThread = null;
+		try {
+			queue.put(PendingMessage.STOP);
+			thread.join(TimeUnit.MINUTES.toMillis(1));
+		} catch (InterruptedException ex) {
+			log.log(Level.WARNING, "Interrupted while waiting for offline messages to be stored");
+		}
+		if (thread.isAlive()) {
+			log.log(Level.WARNING, "Offline messages write-behind queue not flushed, {0} messages not stored",
+					queue.size());
+			return;
+		}
+
+		// messages added to the queue while writer was stopping
+		List<PendingMessage> remaining = new ArrayList<>();
+		queue.drainTo(remaining);
+		remaining.remove(PendingMessage.STOP);
+		if (!remaining.isEmpty()) {
+			storeBatch(remaining);
+		}
+	}
+
+	private void writeBehind() {
+		BlockingQueue<PendingMessage> queue = writeBehindQueue;
+		List<PendingMessage> batch = new ArrayList<>(writeBehindBatchSize);
+		long flushInterval = TimeUnit.MILLISECONDS.toNanos(writeBehindFlushInterval);
+		boolean stop = false;
+
+		while (!stop) {
+			try {
+				batch.add(queue.take());
+
+				// batch is stored when it is full or when the oldest message waited long enough
+				long deadline = System.nanoTime() + flushInterval;
+				while (batch.size() < writeBehindBatchSize) {
+					queue.drainTo(batch, writeBehindBatchSize - batch.size());
+					long wait = deadline - System.nanoTime();
+					if (batch.size() >= writeBehindBatchSize || wait <= 0) {
+						break;
+					}
+					PendingMessage item = queue.poll(wait, TimeUnit.NANOSECONDS);
+					if (item == null) {
+						break;
+					}
+					batch.add(item);
+				}
+
+				stop = batch.remove(PendingMessage.STOP);
+				if (stop) {
+					queue.drainTo(batch);
+				}
+				if (!batch.isEmpty()) {
+					storeBatch(batch);
+				}
+				batch.clear();
+			} catch (InterruptedException ex) {
+				// messages already taken from the queue are stored with the next batch
+				log.log(Level.FINEST, "Offline messages write-behind thread interrupted");
+			} catch (Throwable ex) {
+				log.log(Level.WARNING, "Problem storing batch of " + batch.size() + " offline messages", ex);
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns indexes of batch entries which were not stored by a failed batch execution.
+	 *
+	 * @param updateCounts update counts reported by the driver, may be <code>null</code>
+	 * @param size number of entries in the batch
+	 * @param atomic <code>true</code> if driver rolls back whole batch on failure
+	 */
+	static List<Integer> notStoredIndexes(int[] updateCounts, int size, boolean atomic) {
+		List<Integer> result = new ArrayList<>();
+		int reported = (updateCounts == null || atomic) ? 0 : Math.min(updateCounts.length, size);
+
+		// drivers continuing after an error mark failed entries, other drivers stop at the first failure
+		for (int i = 0; i < reported; i++) {
+			if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+				result.add(i);
+			}
+		}
+		for (int i = reported; i < size; i++) {
+			result.add(i);
+		}
+		return result;
+	}
+
+	void storeBatch(List<PendingMessage> batch) {
+		long start = System.nanoTime();
+		DataRepository repo = data_repo.takeRepoHandle(batch.get(0).to);
+		int stored = 0;
+
+		try {
+			List<Integer> toStore;
+
+			if (batchSupported) {
+				toStore = Collections.emptyList();
+
+				PreparedStatement batch_st = repo.getPreparedStatement(batch.get(0).to, MSGS_ADD_MESSAGE_BATCH);
+
+				synchronized (batch_st) {
+					try {
+						for (PendingMessage item : batch) {
+							setStoreMessageParams(repo, batch_st, item);
+							batch_st.addBatch();
+						}
+						batch_st.executeBatch();
+						stored = batch.size();
+					} catch (BatchUpdateException ex) {
+						// batch query does not return results, so entries were rejected by the database,
+						// PostgreSQL executes whole batch in a single transaction which is rolled back
+						toStore = notStoredIndexes(ex.getUpdateCounts(), batch.size(),
+												   repo.getDatabaseType() == DataRepository.dbTypes.postgresql);
+						stored = batch.size() - toStore.size();
+						log.log(Level.FINE, "Batch execution failed, " + toStore.size() +
+								" offline messages will be stored one by one", ex);
+					} catch (SQLFeatureNotSupportedException ex) {
+						// nothing was executed
+						batchSupported = false;
+						toStore = notStoredIndexes(null, batch.size(), true);
+						log.log(Level.WARNING,
+								"Batch execution is not supported, offline messages will be stored one by one", ex);
+					} catch (SQLException ex) {
+						// it is not known which messages were stored, so they are not stored again to avoid duplicates
+						log.log(Level.WARNING, "Batch execution failed, " + batch.size() +
+								" offline messages may not be stored", ex);
+					} finally {
+						batch_st.clearBatch();
+					}
+				}
+			} else {
+				toStore = notStoredIndexes(null, batch.size(), true);
+			}
+			if (!toStore.isEmpty()) {
+				PreparedStatement insert_msg_st = repo.getPreparedStatement(batch.get(0).to, MSGS_ADD_MESSAGE);
+
+				synchronized (insert_msg_st) {
+					for (int i : toStore) {
+						PendingMessage item = batch.get(i);
+						try {
+							if (executeStoreMessage(repo, insert_msg_st, item)) {
+								++stored;
+							} else {
+								log.log(Level.FINE, "Message from {0} to {1} not stored",
+										new Object[]{item.from, item.to});
+							}
+						} catch (DataTruncation dte) {
+							log.log(Level.FINE, "Data truncated for message from {0} to {1}",
+									new Object[]{item.from, item.to});
+						} catch (SQLException e) {
+							logStoreError(e);
+						}
+					}
+				}
+			}
+		} catch (SQLException e) {
+			logStoreError(e);
+		} finally {
+			data_repo.releaseRepoHandle(repo);
+		}
+
+		for (PendingMessage item : batch) {
+			messageStored(item.expired);
+		}
+		writeBehindBatches.increment();
+		writeBehindStored.add(stored);
+		writeBehindBatchTime.add(System.nanoTime() - start);
+	}
+
+	long getWriteBehindStored() {
+		return writeBehindStored.sum();
+	}
+
+	static class PendingMessage {
+
+		private static final PendingMessage STOP = new PendingMessage();
+
+		private final Date expired;
+		private final BareJID from;
+		private final long limit;
+		private final String msg;
+		private final Timestamp stored;
+		private final BareJID to;
+		private final int type;
+
+		private PendingMessage() {
+			this.expired = null;
+			this.from = null;
+			this.limit = 0;
+			this.msg = null;
+			this.stored = null;
+			this.to = null;
+			this.type = 0;
+		}
+
+		PendingMessage(BareJID from, BareJID to, Date expired, Element msg, long limit) {
+			this.from = from;
+			this.to = to;
+			this.expired = expired;
+			this.msg = msg.toString();
+			this.limit = limit;
+			this.stored = new Timestamp(System.currentTimeMillis());
+
+			int msg_type;
+			try {
+				msg_type = MSG_TYPES.valueOf(msg.getName()).ordinal();
+			} catch (IllegalArgumentException e) {
+				msg_type = Integer.MAX_VALUE;
+			}
+			this.type = msg_type;
+		}
+	}
+
 }
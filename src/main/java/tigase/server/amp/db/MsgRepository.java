@@ -28,6 +28,8 @@ import tigase.kernel.core.Kernel;
 import tigase.osgi.ModulesManagerImpl;
 import tigase.server.BasicComponent;
 import tigase.server.xmppsession.SessionManager;
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
 import tigase.xml.Element;
 import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
@@ -40,6 +42,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
@@ -276,16 +279,34 @@ public abstract class MsgRepository<T, S extends DataSource>
 
 		private final transient ReentrantLock lock = new ReentrantLock();
 		private final Condition expiredMessagesCondition = lock.newCondition();
+		private final Map<String, StatisticsProviderIfc> statisticsProviders = new ConcurrentHashMap<>();
 
 		public MsgRepositoryMDBean() {
 			super(MsgRepositoryIfc.class, OfflineMsgRepositoryIfc.class);
 		}
 
+		@Override
+		public void getStatistics(String compName, StatisticsList list) {
+			super.getStatistics(compName, list);
+			statisticsProviders.values().forEach(repo -> repo.getStatistics(compName, list));
+		}
+
 		@Override
 		public boolean belongsTo(Class<? extends BasicComponent> component) {
 			return SessionManager.class.isAssignableFrom(component);
 		}
 
+		@Override
+		protected void updateDataSourceAware(String domain, MsgRepositoryIfc newRepo, MsgRepositoryIfc oldRepo) {
+			// repositories are wrapped in proxies, so providers of statistics are kept separately
+			if (newRepo instanceof StatisticsProviderIfc) {
+				statisticsProviders.put(domain, (StatisticsProviderIfc) newRepo);
+			} else {
+				statisticsProviders.remove(domain);
+			}
+			super.updateDataSourceAware(domain, newRepo, oldRepo);
+		}
+
 		@Override
 		public Element getMessageExpired(long time, boolean delete) {
 			lock.lock();
@@ -202,6 +202,22 @@ public class BoshIOService
 		}
 	}
 
+	/**
+	 * Each <code>body</code> element has to be prefixed with HTTP headers, so packets cannot be written together
+	 */
+	@Override
+	protected boolean isFlushCoalescingSupported() {
+		return false;
+	}
+
+	/**
+	 * Each <code>body</code> element has to be prefixed with HTTP headers by {@link #writeRawData(String)}
+	 */
+	@Override
+	protected boolean isStreamingSerializerSupported() {
+		return false;
+	}
+
 	@Override
 	public boolean checkData(char[] data) throws IOException {
 		// we need to check this every time as Webkit based browser are reusing
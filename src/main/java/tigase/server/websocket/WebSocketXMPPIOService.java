@@ -28,6 +28,7 @@ import java.nio.charset.CoderResult;
 import java.nio.charset.MalformedInputException;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -288,6 +289,58 @@ public class WebSocketXMPPIOService<RefObject>
 		}
 	}
 
+	/**
+	 * Every stanza has to be sent in a separate WebSocket frame, so packets cannot be written together
+	 */
+	@Override
+	protected boolean isFlushCoalescingSupported() {
+		return false;
+	}
+
+	/**
+	 * Custom implementation of writeSerialized function which encodes data in WebSocket protocol frames. Passed
+	 * buffer is valid only during this call, so data is copied to the frame.
+	 */
+	@Override
+	protected void writeSerialized(ByteBuffer data) throws IOException {
+		writeInProgress.lock();
+		try {
+			if (state != State.handshaking) {
+				try {
+					ByteBuffer buf = ByteBuffer.allocate(data.remaining());
+
+					buf.put(data);
+					buf.flip();
+					protocol.encodeFrameAndWrite(this, buf);
+				} catch (Exception ex) {
+					if (log.isLoggable(Level.FINE)) {
+						log.log(Level.FINE, "exception writing data", ex);
+					}
+					forceStop();
+				}
+			} else {
+				super.writeSerialized(data);
+			}
+		} finally {
+			writeInProgress.unlock();
+		}
+	}
+
+	/**
+	 * Every item has to be encoded in a separate WebSocket frame, so batch is written item by item
+	 *
+	 */
+	@Override
+	protected void writeDataBatch(final List<String> data) {
+		if (data == null || data.isEmpty()) {
+			writeData(null);
+			return;
+		}
+		for (String item : data) {
+			writeData(item);
+		}
+	}
+
 	protected int parseHttpHeaders(byte[] buf, Map<String, String> headers) {
 		int i = 0;
 
@@ -415,7 +468,7 @@ public class WebSocketXMPPIOService<RefObject>
 	/**
 	 * Decode data from buffer to chars array
 	 */
-	private char[] decode(ByteBuffer tmpBuffer) throws MalformedInputException {
+	char[] decode(ByteBuffer tmpBuffer) throws MalformedInputException {
 		if (tmpBuffer == null) {
 			return null;
 		}
@@ -433,17 +486,15 @@ public class WebSocketXMPPIOService<RefObject>
 			oldTmpBuffer.clear();
 			partialCharacterBytes = null;
 		}
-		if (cb.capacity() < tmpBuffer.remaining() * 4) {
-			cb = CharBuffer.allocate(tmpBuffer.remaining() * 4);
-		}
+		prepareCharBuffer(tmpBuffer.remaining());
 
 		CoderResult cr = decoder.decode(tmpBuffer, cb, false);
 
 		if (cr.isMalformed()) {
 			throw new MalformedInputException(tmpBuffer.remaining());
 		}
+		cb.flip();
 		if (cb.remaining() > 0) {
-			cb.flip();
 			result = new char[cb.remaining()];
 			cb.get(result);
 		}
@@ -54,6 +54,7 @@ import tigase.util.Base64;
 import tigase.util.common.TimerTask;
 import tigase.util.processing.ProcessingThreads;
 import tigase.util.processing.QueueItem;
+import tigase.util.processing.VirtualThreads;
 import tigase.util.processing.WorkerThread;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.vhosts.VHostItem;
@@ -179,6 +180,10 @@ public class SessionManager
 	private SMResourceConnection smResourceConnection = null;
 	@ConfigField(desc = "Default processors threads pool size", alias = SessionManagerConfig.SM_THREADS_POOL_PROP_KEY)
 	private String smThreadsPool = SessionManagerConfig.SM_THREADS_POOL_PROP_VAL;
+	@ConfigField(desc = "Factor for number of queues of processors executed on virtual threads", alias = "virtual-threads-factor")
+	private int virtualThreadsFactor = 16;
+	@ConfigField(desc = "Processors executed on virtual threads", alias = "virtual-threads-processors")
+	private String[] virtualThreadsProcessors = new String[0];
 	private StaleConnectionCloser staleConnectionCloser = new StaleConnectionCloser();
 	private Map<String, XMPPStopListenerIfc> stopListeners = new ConcurrentHashMap<String, XMPPStopListenerIfc>(10);
 	private int tIdx = 0;
@@ -234,6 +239,23 @@ public class SessionManager
 
 			threadsNo = threadsNo * pluginsThreadFactor;
 
+			// Processors blocking on repositories may be executed on virtual threads,
+			// in such case there are many more queues (and threads) to let more users
+			// be processed while some of them wait for the database. Packets of a single
+			// user still end up in the same queue. On JVM without virtual threads
+			// the number of platform threads is not multiplied.
+			boolean virtualThreads = isVirtualThreadsProcessor(proc.id());
+			if (virtualThreads && !VirtualThreads.isSupported()) {
+				log.log(Level.WARNING,
+						"Virtual threads are not supported by this JVM, using {0} platform threads for plugin id: {1}",
+						new Object[]{threadsNo, proc.id()});
+				virtualThreads = false;
+			}
+			if (virtualThreads) {
+				threadsNo = threadsNo * virtualThreadsFactor;
+				requireNewPool = true;
+			}
+
 			// If there is not default processors thread pool or the processor does
 			// have thread pool specific settings create a separate thread pool
 			// for the processor
@@ -246,11 +268,13 @@ public class SessionManager
 					ProcessingThreads<ProcessorWorkerThread> pt = new ProcessingThreads<ProcessorWorkerThread>(worker,
 																											   threadsNo,
 																											   queueSize,
-																											   proc.id());
+																											   proc.id(),
+																											   virtualThreads);
 
 					workerThreads.put(proc.id(), pt);
-					log.log(Level.CONFIG, "Created thread pool: {0}, queue per thread: {1} for plugin id: {2}",
-							new Object[]{threadsNo, queueSize, proc.id()});
+					log.log(Level.CONFIG,
+							"Created thread pool: {0}, queue per thread: {1} for plugin id: {2}, virtual threads: {3}",
+							new Object[]{threadsNo, queueSize, proc.id(), virtualThreads});
 				}
 			}
 			processors.put(proc.id(), (XMPPProcessorIfc) proc);
@@ -738,6 +762,15 @@ public class SessionManager
 		}
 	}
 
+	protected boolean isVirtualThreadsProcessor(String id) {
+		for (String procId : virtualThreadsProcessors) {
+			if (procId.equals(id)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public void setSmThreadsPool(String val) {
 		this.smThreadsPool = val;
 		if (!SM_THREADS_POOL_PROP_VAL.equals(val)) {
@@ -857,6 +890,19 @@ public class SessionManager
 		}
 	}
 
+	/**
+	 * Sends results produced by a processor after its <code>process</code> method returned, ie. when an asynchronous
+	 * call to the user repository completed. Results are passed through output filters in the same way as results
+	 * returned synchronously.
+	 *
+	 * @param packet processed packet
+	 * @param conn user session for which packet was processed
+	 * @param results packets produced by the processor
+	 */
+	public void addProcessorResults(Packet packet, XMPPResourceConnection conn, Queue<Packet> results) {
+		addOutPackets(packet, conn, results);
+	}
+
 	protected void addOutPackets(Packet packet, XMPPResourceConnection conn, Queue<Packet> results) {
 		for (XMPPPacketFilterIfc outfilter : outFilters.values()) {
 			outfilter.filter(packet, conn, naUserRepository, results);
@@ -27,6 +27,7 @@ import tigase.kernel.beans.config.ConfigField;
 import tigase.kernel.beans.selector.ConfigType;
 import tigase.kernel.beans.selector.ConfigTypeEnum;
 import tigase.kernel.core.Kernel;
+import tigase.net.SocketThread;
 import tigase.server.*;
 import tigase.sys.ShutdownHook;
 import tigase.sys.TigaseRuntime;
@@ -316,6 +317,8 @@ public class StatisticsCollector
 		}
 
 		getStatistics(list);
+		// I/O engine is shared by all connection managers, so its statistics are added only once
+		SocketThread.getStatistics(list);
 
 		int totalQueuesWait = 0;
 		long totalQueuesOverflow = 0;
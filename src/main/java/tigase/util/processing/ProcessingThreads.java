@@ -49,15 +49,29 @@ public class ProcessingThreads<E extends WorkerThread> {
 	private int numWorkerThreads = 1;
 	private ArrayList<E> workerThreads = null;
 
-	@SuppressWarnings({"unchecked"})
 	public ProcessingThreads(E worker, int numWorkerThreads, int maxQueueSize, String name)
 			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+		this(worker, numWorkerThreads, maxQueueSize, name, false);
+	}
+
+	/**
+	 * Creates processing threads, if <code>virtualThreads</code> is set and JVM supports virtual threads, each worker
+	 * is executed on a separate virtual thread. Otherwise platform threads are used.
+	 */
+	@SuppressWarnings({"unchecked"})
+	public ProcessingThreads(E worker, int numWorkerThreads, int maxQueueSize, String name, boolean virtualThreads)
+			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
 
 		// this.numQueues = numQueues;
 		// this.maxQueueSize = maxQueueSize;
 		this.numWorkerThreads = numWorkerThreads;
 		workerThreads = new ArrayList<E>(numWorkerThreads);
 		this.name = name;
+		if (virtualThreads && !VirtualThreads.isSupported()) {
+			log.log(Level.WARNING, "Virtual threads are not supported by this JVM, using platform threads for {0}",
+					name);
+			virtualThreads = false;
+		}
 
 //  for (int i = 0; i < numQueues; i++) {
 		// LinkedBlockingQueue<QueueItem> queue = new LinkedBlockingQueue<QueueItem>(maxQueueSize);
@@ -68,7 +82,11 @@ public class ProcessingThreads<E extends WorkerThread> {
 			t.setQueueMaxSize(maxQueueSize);
 			t.setDaemon(true);
 			t.setName(name + "-proc-" + j);
-			t.start();
+			if (virtualThreads) {
+				VirtualThreads.start(t.getName(), t);
+			} else {
+				t.start();
+			}
 			workerThreads.add((E) t);
 			log.log(Level.FINEST, "Created worker thread: {0}, queueSize: {1}",
 					new Object[]{t.getName(), maxQueueSize});
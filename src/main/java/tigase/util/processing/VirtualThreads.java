@@ -0,0 +1,100 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.processing;
+
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Helper starting tasks on virtual threads if they are provided by the JVM (Java 21 or newer). Server is compiled
+ * for older Java versions, so the virtual threads API is accessed using reflection.
+ */
+public class VirtualThreads {
+
+	private static final Logger log = Logger.getLogger(VirtualThreads.class.getName());
+
+	private static final Method IS_VIRTUAL;
+	private static final Method NAME;
+	private static final Method OF_VIRTUAL;
+	private static final Method START;
+
+	static {
+		Method isVirtual = null;
+		Method name = null;
+		Method ofVirtual = null;
+		Method start = null;
+
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			isVirtual = Thread.class.getMethod("isVirtual");
+			name = builder.getMethod("name", String.class);
+			start = builder.getMethod("start", Runnable.class);
+		} catch (ClassNotFoundException | NoSuchMethodException ex) {
+			log.log(Level.CONFIG, "Virtual threads are not supported by this JVM");
+			ofVirtual = null;
+		}
+		IS_VIRTUAL = isVirtual;
+		NAME = name;
+		OF_VIRTUAL = ofVirtual;
+		START = start;
+	}
+
+	public static boolean isSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	public static boolean isVirtual(Thread thread) {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (Boolean) IS_VIRTUAL.invoke(thread);
+		} catch (ReflectiveOperationException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Starts task on a new virtual thread.
+	 *
+	 * @param name name of the thread
+	 * @param task task to execute
+	 *
+	 * @return started thread
+	 *
+	 * @throws UnsupportedOperationException if virtual threads are not supported
+	 */
+	public static Thread start(String name, Runnable task) {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+		}
+		try {
+			Object builder = OF_VIRTUAL.invoke(null);
+
+			builder = NAME.invoke(builder, name);
+
+			return (Thread) START.invoke(builder, task);
+		} catch (ReflectiveOperationException ex) {
+			throw new UnsupportedOperationException("Could not start virtual thread", ex);
+		}
+	}
+
+}
@@ -35,6 +35,8 @@ public abstract class WorkerThread
 
 	//private PriorityQueueAbstract<QueueItem> queue = null;
 	private LinkedBlockingQueue<QueueItem> queue = null;
+	// thread executing run() method, it is a different thread if worker is executed on a virtual thread
+	private volatile Thread runner = null;
 	private long runsCnt = 0;
 	private boolean stopped = false;
 
@@ -58,6 +60,7 @@ public abstract class WorkerThread
 	public void run() {
 		QueueItem item = null;
 
+		runner = Thread.currentThread();
 		while (!stopped) {
 			try {
 				item = queue.take();
@@ -100,7 +103,13 @@ public abstract class WorkerThread
 	public void shutdown() {
 		stopped = true;
 		try {
-			this.interrupt();
+			Thread thread = runner;
+
+			if (thread != null && thread != this) {
+				thread.interrupt();
+			} else {
+				this.interrupt();
+			}
 		} catch (Exception ex) {
 		}
 	}
@@ -20,6 +20,7 @@ package tigase.util.workqueue;
 import tigase.annotations.TigaseDeprecated;
 import tigase.sys.TigaseRuntime;
 
+import java.util.Collection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -83,6 +84,23 @@ public abstract class PriorityQueueAbstract<E> {
 		return null;
 	}
 
+	/**
+	 * Removes waiting elements from the queue and adds them to the given collection. Method blocks until at least
+	 * one element is available and then takes (without blocking) up to <code>maxBatch</code> elements honoring
+	 * priorities in the same way as {@link #take()}.
+	 * <br>
+	 * Default implementation takes a single element only, queue implementations should override it.
+	 *
+	 * @param c collection to which elements are added
+	 * @param maxBatch maximal number of elements to take
+	 *
+	 * @return number of elements added to the collection
+	 */
+	public int drainTo(Collection<? super E> c, int maxBatch) throws InterruptedException {
+		c.add(take());
+		return 1;
+	}
+
 	public abstract void init(int maxPriority, int maxSize);
 
 	public abstract boolean offer(E element, int priority);
@@ -0,0 +1,333 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.workqueue;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Priority queue which does not use any monitor on <code>offer()</code>, <code>put()</code> or <code>take()</code>.
+ * Each priority is backed by a bounded ring buffer to which many threads may add elements concurrently. Thread
+ * waiting in {@link #take()} spins for a while, then yields and finally parks until one of the producers wakes it up.
+ * <br>
+ * Ring buffers are allocated when the queue is initialized (capacity is rounded up to the power of 2) so
+ * {@link #setMaxSize(int)} is able to change the limit only within the initial capacity.
+ * <br>
+ * Priority handling is the same as in {@link PriorityQueueRelaxed}: if there is no room for an element offered with
+ * a given priority, it is added to the queue of the next lower priority.
+ * <br>
+ * To use it set <code>'priority-queue-implementation' = 'tigase.util.workqueue.PriorityQueueLockFree'</code> in
+ * component configuration.
+ */
+public class PriorityQueueLockFree<E>
+		extends PriorityQueueAbstract<E> {
+
+	private static final Logger log = Logger.getLogger(PriorityQueueLockFree.class.getName());
+
+	// Number of empty polls before consumer starts yielding
+	private static final int SPIN_TRIES = 64;
+	// Number of empty polls (including spins) before consumer parks
+	private static final int YIELD_TRIES = SPIN_TRIES + 16;
+	// Nobody notifies producers about free space, so blocked producer parks for a short time only
+	private static final long FULL_PARK_NANOS = 50_000;
+
+	private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<>();
+	private volatile int maxSize = 0;
+	private RingBuffer<E>[] qs = null;
+
+	public PriorityQueueLockFree() {
+	}
+
+	protected PriorityQueueLockFree(int maxPriority, int maxSize) {
+		init(maxPriority, maxSize);
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c, int maxBatch) throws InterruptedException {
+		c.add(take());
+
+		int count = 1;
+		E e;
+
+		while ((count < maxBatch) && ((e = poll()) != null)) {
+			c.add(e);
+			++count;
+		}
+
+		return count;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public final void init(int maxPriority, int maxSize) {
+		qs = new RingBuffer[maxPriority];
+
+		for (int i = 0; i < qs.length; i++) {
+			qs[i] = new RingBuffer<E>(maxSize);
+		}
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public boolean offer(E element, int priority) {
+		checkPriority(priority);
+
+		int limit = maxSize;
+
+		for (int i = priority; i < qs.length; i++) {
+			if (qs[i].offer(element, limit)) {
+				signalNotEmpty();
+
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public void put(E element, int priority) throws InterruptedException {
+		checkPriority(priority);
+
+		RingBuffer<E> q = qs[priority];
+		int idle = 0;
+
+		while (!q.offer(element, maxSize)) {
+			if (idle < SPIN_TRIES) {
+				++idle;
+			} else if (idle < YIELD_TRIES) {
+				++idle;
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(this, FULL_PARK_NANOS);
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+		signalNotEmpty();
+	}
+
+	@Override
+	public void setMaxSize(int maxSize) {
+		int capacity = qs[0].capacity();
+
+		if (maxSize > capacity) {
+			log.log(Level.WARNING, "Queue size cannot be increased above initial capacity {0}, requested: {1}",
+					new Object[]{capacity, maxSize});
+		}
+		this.maxSize = Math.min(maxSize, capacity);
+	}
+
+	@Override
+	public int[] size() {
+		int[] result = new int[qs.length];
+
+		for (int i = 0; i < result.length; i++) {
+			result[i] = qs[i].size();
+		}
+
+		return result;
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		E e = poll();
+
+		if (e != null) {
+			return e;
+		}
+
+		int idle = 0;
+		Thread current = Thread.currentThread();
+
+		while (true) {
+			if (idle < SPIN_TRIES) {
+				++idle;
+			} else if (idle < YIELD_TRIES) {
+				++idle;
+				Thread.yield();
+			} else {
+				// Registering before polling again, so producer adding element after our
+				// poll will see us waiting and will wake us up.
+				waiters.offer(current);
+				e = poll();
+				if (e == null) {
+					LockSupport.park(this);
+					e = poll();
+				}
+				waiters.remove(current);
+				if (e != null) {
+					// We might have consumed a signal meant for other waiting thread
+					if (totalSize() > 0) {
+						signalNotEmpty();
+					}
+
+					return e;
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				continue;
+			}
+
+			e = poll();
+			if (e != null) {
+				return e;
+			}
+		}
+	}
+
+	@Override
+	public int totalSize() {
+		int result = 0;
+
+		for (int i = 0; i < qs.length; i++) {
+			result += qs[i].size();
+		}
+
+		return result;
+	}
+
+	private void checkPriority(int priority) {
+		if ((priority < 0) || (qs.length <= priority)) {
+			throw new IllegalArgumentException("parameter priority must be " + "between 0 and " + (qs.length - 1));
+		}
+	}
+
+	private E poll() {
+		for (int i = 0; i < qs.length; i++) {
+			E e = qs[i].poll();
+
+			if (e != null) {
+				return e;
+			}
+		}
+
+		return null;
+	}
+
+	private void signalNotEmpty() {
+		if (!waiters.isEmpty()) {
+			Thread waiter = waiters.poll();
+
+			if (waiter != null) {
+				LockSupport.unpark(waiter);
+			}
+		}
+	}
+
+	/**
+	 * Bounded ring buffer based on the algorithm by Dmitry Vyukov. Every slot has a sequence number which tells if
+	 * the slot is free for a producer or ready for a consumer, so threads only compete on the position counters.
+	 */
+	private static final class RingBuffer<E> {
+
+		private static final int MAX_CAPACITY = 1 << 30;
+
+		private final AtomicReferenceArray<E> buffer;
+		private final AtomicLong head = new AtomicLong();
+		private final int mask;
+		private final AtomicLongArray sequences;
+		private final AtomicLong tail = new AtomicLong();
+
+		private RingBuffer(int maxSize) {
+			int capacity = 1;
+
+			while (capacity < maxSize && capacity < MAX_CAPACITY) {
+				capacity <<= 1;
+			}
+			this.mask = capacity - 1;
+			this.buffer = new AtomicReferenceArray<E>(capacity);
+			this.sequences = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++) {
+				sequences.lazySet(i, i);
+			}
+		}
+
+		private int capacity() {
+			return mask + 1;
+		}
+
+		private boolean offer(E element, int limit) {
+			long pos = tail.get();
+
+			while (true) {
+				if (pos - head.get() >= limit) {
+					return false;
+				}
+
+				int idx = (int) pos & mask;
+				long diff = sequences.get(idx) - pos;
+
+				if (diff == 0) {
+					if (tail.compareAndSet(pos, pos + 1)) {
+						buffer.lazySet(idx, element);
+						sequences.set(idx, pos + 1);
+
+						return true;
+					}
+					pos = tail.get();
+				} else if (diff < 0) {
+					// slot is still occupied by element not taken by consumer
+					return false;
+				} else {
+					pos = tail.get();
+				}
+			}
+		}
+
+		private E poll() {
+			long pos = head.get();
+
+			while (true) {
+				int idx = (int) pos & mask;
+				long diff = sequences.get(idx) - (pos + 1);
+
+				if (diff == 0) {
+					if (head.compareAndSet(pos, pos + 1)) {
+						E e = buffer.get(idx);
+
+						buffer.lazySet(idx, null);
+						sequences.set(idx, pos + mask + 1);
+
+						return e;
+					}
+					pos = head.get();
+				} else if (diff < 0) {
+					// slot not yet published by producer
+					return null;
+				} else {
+					pos = head.get();
+				}
+			}
+		}
+
+		private int size() {
+			long size = tail.get() - head.get();
+
+			return (int) Math.max(0, Math.min(size, Integer.MAX_VALUE));
+		}
+	}
+}
@@ -17,6 +17,7 @@
  */
 package tigase.util.workqueue;
 
+import java.util.Collection;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Logger;
 
@@ -42,6 +43,26 @@ public class PriorityQueueRelaxed<E>
 		init(maxPriority, maxSize);
 	}
 
+	@Override
+	public int drainTo(Collection<? super E> c, int maxBatch) throws InterruptedException {
+		int count = 0;
+
+		while (count == 0) {
+			synchronized (this) {
+				while (lowestNonEmpty == Integer.MAX_VALUE) {
+					this.wait();
+				}
+
+				for (int i = lowestNonEmpty; (i < qs.length) && (count < maxBatch); i++) {
+					count += qs[i].drainTo(c, maxBatch - count);
+				}
+				lowestNonEmpty = findNextNonEmpty();
+			}
+		}
+
+		return count;
+	}
+
 	@Override
 	@SuppressWarnings("unchecked")
 	public final void init(int maxPriority, int maxSize) {
@@ -0,0 +1,164 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.vhosts;
+
+import tigase.server.ServerComponent;
+
+import java.util.*;
+
+/**
+ * Immutable snapshot of local domains used by {@link VHostManager} for routing decisions. For every local domain it
+ * keeps only precomputed array of components handling the domain and a few flags, so lookup done for every routed
+ * packet is a single hash map access without any allocation. Complete {@link VHostItem} is still retrieved from the
+ * repository, but only when it is requested.
+ * <br>
+ * Index is never modified, a new index is built when virtual hosts or components change.
+ */
+final class VHostIndex {
+
+	private final Map<String, Entry> domains;
+	private final ServerComponent[][] subdomainComponents;
+	private final String[] subdomainNames;
+	private final long version;
+
+	/**
+	 * Creates index of domains.
+	 *
+	 * @param version version of virtual hosts and components for which index is created
+	 * @param items all virtual hosts
+	 * @param components all components registered in <code>VHostManager</code> by their names
+	 * @param localDomainsHandlers components handling all local domains
+	 */
+	static VHostIndex build(long version, Collection<? extends VHostItem> items,
+							Map<String, ? extends VHostListener> components,
+							Collection<? extends VHostListener> localDomainsHandlers) {
+		// components for domains without explicitly bound components are shared by all entries
+		ServerComponent[] defaultComponents = localDomainsHandlers.isEmpty()
+											  ? null
+											  : localDomainsHandlers.toArray(new ServerComponent[0]);
+		Map<String, Entry> domains = new HashMap<>(Math.max(16, (int) (items.size() / 0.75f) + 1));
+
+		for (VHostItem item : items) {
+			ServerComponent[] comps = null;
+			String[] names = item.getComps();
+
+			if (names != null && names.length > 0) {
+				LinkedHashSet<ServerComponent> bound = new LinkedHashSet<>();
+				for (String name : names) {
+					VHostListener listener = components.get(name);
+					if (listener != null) {
+						bound.add(listener);
+					}
+				}
+				if (!bound.isEmpty()) {
+					comps = bound.toArray(new ServerComponent[bound.size()]);
+				}
+			}
+			if (comps == null) {
+				comps = defaultComponents;
+			}
+			domains.put(item.getKey().toLowerCase(), new Entry(comps, item.isAnonymousEnabled()));
+		}
+
+		List<String> subdomainNames = new ArrayList<>();
+		List<ServerComponent[]> subdomainComponents = new ArrayList<>();
+		for (Map.Entry<String, ? extends VHostListener> e : components.entrySet()) {
+			if (e.getValue().handlesNameSubdomains() && e.getKey().indexOf('.') < 0) {
+				subdomainNames.add(e.getKey());
+				subdomainComponents.add(new ServerComponent[]{e.getValue()});
+			}
+		}
+
+		return new VHostIndex(version, domains, subdomainNames.toArray(new String[0]),
+							  subdomainComponents.toArray(new ServerComponent[0][]));
+	}
+
+	private VHostIndex(long version, Map<String, Entry> domains, String[] subdomainNames,
+					   ServerComponent[][] subdomainComponents) {
+		this.version = version;
+		this.domains = domains;
+		this.subdomainNames = subdomainNames;
+		this.subdomainComponents = subdomainComponents;
+	}
+
+	boolean contains(String domain) {
+		return get(domain) != null;
+	}
+
+	/**
+	 * Returns entry of local domain or <code>null</code> if domain is not local.
+	 */
+	Entry get(String domain) {
+		Entry entry = domains.get(domain);
+		if (entry == null) {
+			// domains of JIDs are already in lower case, so conversion is rarely needed
+			String lower = domain.toLowerCase();
+			if (lower != domain) {
+				entry = domains.get(lower);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns components for domain in form of <code>name.localdomain</code> where <code>name</code> is a name of
+	 * component handling name subdomains, or <code>null</code> if domain is not such subdomain.
+	 */
+	ServerComponent[] getNameSubdomainComponents(String domain) {
+		for (int i = 0; i < subdomainNames.length; i++) {
+			String name = subdomainNames[i];
+			int len = name.length();
+			if (domain.length() > len + 1 && domain.charAt(len) == '.' && domain.regionMatches(0, name, 0, len) &&
+					contains(domain.substring(len + 1))) {
+				return subdomainComponents[i];
+			}
+		}
+		return null;
+	}
+
+	long getVersion() {
+		return version;
+	}
+
+	int size() {
+		return domains.size();
+	}
+
+	static final class Entry {
+
+		private final boolean anonymousEnabled;
+		private final ServerComponent[] components;
+
+		private Entry(ServerComponent[] components, boolean anonymousEnabled) {
+			this.components = components;
+			this.anonymousEnabled = anonymousEnabled;
+		}
+
+		/**
+		 * Returns components handling the domain or <code>null</code> if there are none.
+		 */
+		ServerComponent[] getComponents() {
+			return components;
+		}
+
+		boolean isAnonymousEnabled() {
+			return anonymousEnabled;
+		}
+	}
+
+}
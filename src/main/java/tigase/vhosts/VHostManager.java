@@ -23,6 +23,8 @@ import tigase.db.DataSourceHelper;
 import tigase.db.TigaseDBException;
 import tigase.db.comp.AbstractSDComponentRepositoryBean;
 import tigase.db.comp.ComponentRepository;
+import tigase.db.comp.RepositoryChangeListenerIfc;
+import tigase.eventbus.EventBus;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.RegistrarBean;
@@ -44,6 +46,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -58,16 +61,21 @@ import java.util.logging.Logger;
 @ConfigType({ConfigTypeEnum.DefaultMode, ConfigTypeEnum.SessionManagerMode, ConfigTypeEnum.ConnectionManagersMode, ConfigTypeEnum.ComponentMode})
 public class VHostManager
 		extends AbstractComponentRegistrator<VHostListener>
-		implements VHostManagerIfc, StatisticsContainer, RegistrarBean {
+		implements VHostManagerIfc, StatisticsContainer, RegistrarBean, RepositoryChangeListenerIfc<VHostItem> {
 
 	private static final Logger log = Logger.getLogger(VHostManager.class.getName());
 
 	@Inject
 	protected VHostComponentRepository repo = null;
+	@Inject(nullAllowed = true)
+	private EventBus eventBus;
 	private long getComponentsForLocalDomainCalls = 0;
 	private long getComponentsForNonLocalDomainCalls = 0;
 	// private ServiceEntity serviceEntity = null;
 	private String identity_type = "generic";
+	private volatile VHostIndex index = null;
+	private long indexRebuilds = 0;
+	private final AtomicLong indexVersion = new AtomicLong();
 	private long isAnonymousEnabledCalls = 0;
 	private long isLocalDomainCalls = 0;
 	private Kernel kernel;
@@ -99,6 +107,7 @@ public class VHostManager
 		if (component.handlesNameSubdomains()) {
 			nameSubdomainsHandlers.add(component);
 		}
+		indexChanged();
 	}
 
 	@Override
@@ -106,6 +115,31 @@ public class VHostManager
 		localDomainsHandlers.remove(component);
 		nonLocalDomainsHandlers.remove(component);
 		nameSubdomainsHandlers.remove(component);
+		indexChanged();
+	}
+
+	@Override
+	public void initialize() {
+		super.initialize();
+		repo.addRepoChangeListener(this);
+	}
+
+	@Override
+	public void itemAdded(VHostItem item) {
+		indexChanged();
+		fireVHostChanged(item);
+	}
+
+	@Override
+	public void itemUpdated(VHostItem item) {
+		indexChanged();
+		fireVHostChanged(item);
+	}
+
+	@Override
+	public void itemRemoved(VHostItem item) {
+		indexChanged();
+		fireVHostChanged(item);
 	}
 
 	@Override
@@ -149,6 +183,14 @@ public class VHostManager
 	public ServerComponent[] getComponentsForLocalDomain(String domain) {
 		++getComponentsForLocalDomainCalls;
 
+		VHostIndex index = index();
+
+		if (index != null) {
+			VHostIndex.Entry entry = index.get(domain);
+
+			return entry != null ? entry.getComponents() : index.getNameSubdomainComponents(domain);
+		}
+
 		VHostItem vhost = repo.getItem(domain);
 
 		if (vhost == null) {
@@ -239,6 +281,7 @@ public class VHostManager
 		list.add(getName(), "Checks: is anonymous domain", isAnonymousEnabledCalls, Level.FINER);
 		list.add(getName(), "Get components for local domain", getComponentsForLocalDomainCalls, Level.FINER);
 		list.add(getName(), "Get components for non-local domain", getComponentsForNonLocalDomainCalls, Level.FINER);
+		list.add(getName(), "Domain index rebuilds", indexRebuilds, Level.FINER);
 	}
 
 	@Override
@@ -268,6 +311,14 @@ public class VHostManager
 	public boolean isAnonymousEnabled(String domain) {
 		++isAnonymousEnabledCalls;
 
+		VHostIndex index = index();
+
+		if (index != null) {
+			VHostIndex.Entry entry = index.get(domain);
+
+			return entry != null && entry.isAnonymousEnabled();
+		}
+
 		VHostItem vhost = repo.getItem(domain);
 
 		if (vhost == null) {
@@ -286,7 +337,9 @@ public class VHostManager
 	public boolean isLocalDomain(String domain) {
 		++isLocalDomainCalls;
 
-		return repo.contains(domain);
+		VHostIndex index = index();
+
+		return index != null ? index.contains(domain) : repo.contains(domain);
 	}
 
 	@Override
@@ -297,6 +350,12 @@ public class VHostManager
 			result = registeredComponentDomains.contains(domain);
 		}
 		if (!result) {
+			VHostIndex index = index();
+
+			if (index != null) {
+				return index.getNameSubdomainComponents(domain) != null;
+			}
+
 			int idx = domain.indexOf('.');
 
 			if (idx > 0) {
@@ -316,9 +375,50 @@ public class VHostManager
 		super.setName(name);
 	}
 
+	/**
+	 * Returns index of local domains, which is rebuilt if virtual hosts or components changed since it was created.
+	 *
+	 * @return index or <code>null</code> if it could not be built
+	 */
+	private VHostIndex index() {
+		VHostIndex index = this.index;
+		long version = indexVersion.get();
+
+		if (index != null && index.getVersion() == version) {
+			return index;
+		}
+
+		synchronized (indexVersion) {
+			index = this.index;
+			version = indexVersion.get();
+			if (index == null || index.getVersion() != version) {
+				try {
+					index = VHostIndex.build(version, repo.allItems(), components, localDomainsHandlers);
+					++indexRebuilds;
+					this.index = index;
+				} catch (TigaseDBException ex) {
+					log.log(Level.WARNING, "Could not build index of virtual hosts", ex);
+					return null;
+				}
+			}
+		}
+		return index;
+	}
+
+	private void indexChanged() {
+		indexVersion.incrementAndGet();
+	}
+
+	private void fireVHostChanged(VHostItem item) {
+		if (eventBus != null) {
+			eventBus.fire(new VHostChangedEvent(item.getKey()));
+		}
+	}
+
 	public void initializeRepository() throws TigaseDBException {
 		// loading all items
 		repo.reload();
+		indexChanged();
 
 //		List<VHostItem> items = new ArrayList<VHostItem>(repo.allItems());
 //		for (VHostItem item : items) {
@@ -340,6 +440,22 @@ public class VHostManager
 		return repo;
 	}
 
+	/**
+	 * Local event fired when a virtual host is added, updated or removed from the repository.
+	 */
+	public static class VHostChangedEvent {
+
+		private final String vhost;
+
+		public VHostChangedEvent(String vhost) {
+			this.vhost = vhost;
+		}
+
+		public String getVHost() {
+			return vhost;
+		}
+	}
+
 	@Bean(name = "vhostRepository", parent = VHostManager.class, active = true)
 	public static class DefVHostRepositoryBean
 			extends AbstractSDComponentRepositoryBean<VHostItem> implements VHostComponentRepository {
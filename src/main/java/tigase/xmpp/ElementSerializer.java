@@ -0,0 +1,289 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import tigase.xml.Element;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializer writing XML representation of an <code>Element</code> directly to an output sink, without building
+ * <code>String</code> representation of the whole element first. Serializer instance owned by a thread encodes
+ * elements as UTF-8 into a reusable byte array, which is passed to the network layer, while {@link
+ * #serialize(Element, Appendable)} writes characters to any <code>Appendable</code>.
+ * <br>
+ * Attribute values and character data are kept by <code>Element</code> in the escaped form, so they are written as
+ * they are, exactly as done by {@link Element#toString()}. Elements with mixed content (character data and child
+ * elements) are written using {@link Element#toString()} as order of their nodes is not available.
+ * <br>
+ * Initial size of the byte array and maximal size of the array kept between uses may be changed with
+ * <code>element-serializer-buffer-size</code> and <code>element-serializer-buffer-limit</code> system properties.
+ */
+public class ElementSerializer {
+
+	private static final String BUFFER_LIMIT_PROP_KEY = "element-serializer-buffer-limit";
+	private static final String BUFFER_SIZE_PROP_KEY = "element-serializer-buffer-size";
+
+	private static final int BUFFER_LIMIT = Integer.getInteger(BUFFER_LIMIT_PROP_KEY, 256 * 1024);
+	private static final int BUFFER_SIZE = Integer.getInteger(BUFFER_SIZE_PROP_KEY, 8 * 1024);
+
+	private static final ThreadLocal<ElementSerializer> serializers = new ThreadLocal<ElementSerializer>();
+
+	private final int bufferLimit;
+	private final int bufferSize;
+	private byte[] buf;
+	private boolean inUse = false;
+	private int pos = 0;
+
+	/**
+	 * Returns serializer of the current thread or <code>null</code> if serializer is already used by this thread and
+	 * was not released yet.
+	 *
+	 * @return empty serializer or <code>null</code>
+	 */
+	public static ElementSerializer acquire() {
+		ElementSerializer result = serializers.get();
+
+		if (result == null) {
+			result = new ElementSerializer(BUFFER_SIZE, BUFFER_LIMIT);
+			serializers.set(result);
+		}
+		if (result.inUse) {
+			return null;
+		}
+		result.inUse = true;
+
+		return result;
+	}
+
+	/**
+	 * Writes XML representation of the element to the passed output.
+	 *
+	 * @param elem element to write
+	 * @param out output to which characters are appended
+	 */
+	public static void serialize(Element elem, Appendable out) throws IOException {
+		List<Element> children = elem.getChildren();
+		String cdata = elem.getCData();
+		boolean hasChildren = (children != null) && !children.isEmpty();
+
+		if (hasChildren && (cdata != null)) {
+			out.append(elem.toString());
+			return;
+		}
+
+		String name = elem.getName();
+
+		out.append('<').append(name);
+
+		Map<String, String> attributes = elem.getAttributes();
+
+		if (attributes != null) {
+			for (Map.Entry<String, String> attr : attributes.entrySet()) {
+				out.append(' ').append(attr.getKey()).append("=\"").append(attr.getValue()).append('"');
+			}
+		}
+		if (!hasChildren && (cdata == null)) {
+			out.append("/>");
+			return;
+		}
+		out.append('>');
+		if (cdata != null) {
+			out.append(cdata);
+		} else {
+			for (Element child : children) {
+				serialize(child, out);
+			}
+		}
+		out.append("</").append(name).append('>');
+	}
+
+	ElementSerializer(int bufferSize, int bufferLimit) {
+		this.bufferSize = bufferSize;
+		this.bufferLimit = bufferLimit;
+		this.buf = new byte[bufferSize];
+	}
+
+	/**
+	 * Returns buffer wrapping encoded data. Returned buffer shares content with the serializer, so it is valid only
+	 * until the serializer is modified or released.
+	 */
+	public ByteBuffer buffer() {
+		return buffer(0, pos);
+	}
+
+	/**
+	 * Returns buffer wrapping part of encoded data. Returned buffer shares content with the serializer, so it is
+	 * valid only until the serializer is modified or released.
+	 *
+	 * @param from index of the first byte
+	 * @param to index after the last byte
+	 */
+	public ByteBuffer buffer(int from, int to) {
+		return ByteBuffer.wrap(buf, from, to - from);
+	}
+
+	/**
+	 * Returns a new buffer with a copy of encoded data, which may be kept after the serializer is released.
+	 */
+	public ByteBuffer copy() {
+		return ByteBuffer.wrap(Arrays.copyOf(buf, pos));
+	}
+
+	/**
+	 * Removes the passed number of bytes from the beginning of encoded data.
+	 */
+	public void discard(int bytes) {
+		System.arraycopy(buf, bytes, buf, 0, pos - bytes);
+		pos -= bytes;
+	}
+
+	/**
+	 * Clears serializer and makes it available for the next {@link #acquire()} call. Array which grew over the limit
+	 * is dropped, so a single big element does not keep memory allocated by the thread.
+	 */
+	public void release() {
+		reset();
+		if (buf.length > bufferLimit) {
+			buf = new byte[bufferSize];
+		}
+		inUse = false;
+	}
+
+	/**
+	 * Removes all encoded data.
+	 */
+	public void reset() {
+		pos = 0;
+	}
+
+	/**
+	 * Returns number of bytes of encoded data.
+	 */
+	public int size() {
+		return pos;
+	}
+
+	/**
+	 * Encodes XML representation of the element as UTF-8 and appends it to already encoded data.
+	 *
+	 * @param elem element to write
+	 */
+	public void write(Element elem) {
+		List<Element> children = elem.getChildren();
+		String cdata = elem.getCData();
+		boolean hasChildren = (children != null) && !children.isEmpty();
+
+		if (hasChildren && (cdata != null)) {
+			writeString(elem.toString());
+			return;
+		}
+
+		String name = elem.getName();
+
+		writeByte('<');
+		writeString(name);
+
+		Map<String, String> attributes = elem.getAttributes();
+
+		if (attributes != null) {
+			for (Map.Entry<String, String> attr : attributes.entrySet()) {
+				writeByte(' ');
+				writeString(attr.getKey());
+				writeByte('=');
+				writeByte('"');
+				writeString(attr.getValue());
+				writeByte('"');
+			}
+		}
+		if (!hasChildren && (cdata == null)) {
+			writeByte('/');
+			writeByte('>');
+			return;
+		}
+		writeByte('>');
+		if (cdata != null) {
+			writeString(cdata);
+		} else {
+			for (Element child : children) {
+				write(child);
+			}
+		}
+		writeByte('<');
+		writeByte('/');
+		writeString(name);
+		writeByte('>');
+	}
+
+	private void ensureCapacity(int bytes) {
+		if (pos + bytes > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + bytes));
+		}
+	}
+
+	private void writeByte(char c) {
+		ensureCapacity(1);
+		buf[pos++] = (byte) c;
+	}
+
+	private void writeString(String str) {
+		int len = str.length();
+		int i = 0;
+
+		ensureCapacity(len);
+		// most of the data is ASCII, which is copied without further checks
+		for (; i < len; i++) {
+			char c = str.charAt(i);
+
+			if (c >= 0x80) {
+				break;
+			}
+			buf[pos++] = (byte) c;
+		}
+		for (; i < len; i++) {
+			char c = str.charAt(i);
+
+			ensureCapacity(4);
+			if (c < 0x80) {
+				buf[pos++] = (byte) c;
+			} else if (c < 0x800) {
+				buf[pos++] = (byte) (0xC0 | (c >> 6));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && (i + 1 < len) && Character.isLowSurrogate(str.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, str.charAt(++i));
+
+				buf[pos++] = (byte) (0xF0 | (cp >> 18));
+				buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogate cannot be encoded
+				buf[pos++] = '?';
+			} else {
+				buf[pos++] = (byte) (0xE0 | (c >> 12));
+				buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+}
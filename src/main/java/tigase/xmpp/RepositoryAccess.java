@@ -26,6 +26,8 @@ import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -275,6 +277,39 @@ public abstract class RepositoryAccess {
 		// return null;
 	}
 
+	/**
+	 * Asynchronous variant of {@link #getData(String, String, String)}. If user repository does not implement {@link
+	 * AsyncUserRepository} data are loaded synchronously and completed future is returned.
+	 *
+	 * @return future completed with data or with <code>NotAuthorizedException</code> or
+	 * <code>TigaseDBException</code>
+	 *
+	 * @throws NotAuthorizedException is thrown when session has not been authorized yet and there is no access to
+	 * permanent storage.
+	 */
+	public CompletableFuture<String> getDataAsync(String subnode, String key, String def)
+			throws NotAuthorizedException {
+		if (is_anonymous) {
+			return CompletableFuture.completedFuture(null);
+		}
+		if (!isAuthorized()) {
+			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG);
+		}
+		if (repo instanceof AsyncUserRepository) {
+			return mapUserNotFound(((AsyncUserRepository) repo).getDataAsync(getBareJID(), subnode, key, def));
+		}
+
+		CompletableFuture<String> result = new CompletableFuture<>();
+
+		try {
+			result.complete(getData(subnode, key, def));
+		} catch (TigaseDBException ex) {
+			result.completeExceptionally(ex);
+		}
+
+		return result;
+	}
+
 	/**
 	 * This method retrieves list of all direct subnodes for given node. It works in similar way as <code>ls</code> unix
 	 * command or <code>dir</code> under DOS/Windows systems.
@@ -344,6 +379,35 @@ public abstract class RepositoryAccess {
 		// return null;
 	}
 
+	/**
+	 * This method returns all data keys with values stored in given node. Depending on the repository implementation
+	 * it may be retrieved with a single query, which is much faster than retrieving every key separately.
+	 *
+	 * @param subnode a <code>String</code> value pointing to specific subnode in user reposiotry where data have to be
+	 * stored.
+	 *
+	 * @return a <code>Map</code> with all data keys and values found in given subnode.
+	 *
+	 * @throws NotAuthorizedException is thrown when session has not been authorized yet and there is no access to
+	 * permanent storage.
+	 * @see #getDataKeys(String)
+	 */
+	public Map<String, String> getDataMap(final String subnode) throws NotAuthorizedException, TigaseDBException {
+		if (is_anonymous) {
+			return null;
+		}
+		if (!isAuthorized()) {
+			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG);
+		}
+		try {
+			return repo.getDataMap(getBareJID(), subnode);
+		} catch (UserNotFoundException e) {
+			log.log(Level.FINEST, "Problem accessing reposiotry: ", e);
+
+			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG, e);
+		}    // end of try-catch
+	}
+
 	/**
 	 * This method allows to retrieve list of values associated with one key. As it is possible to store many values
 	 * with one key there are a few methods which provides this functionality. If given key does not exists in given
@@ -406,6 +470,11 @@ public abstract class RepositoryAccess {
 		return getData(calcNode(PUBLIC_DATA_NODE, subnode), key, def);
 	}
 
+	public CompletableFuture<String> getPublicDataAsync(String subnode, String key, String def)
+			throws NotAuthorizedException {
+		return getDataAsync(calcNode(PUBLIC_DATA_NODE, subnode), key, def);
+	}
+
 	public String[] getPublicDataList(String subnode, String key) throws NotAuthorizedException, TigaseDBException {
 		return getDataList(calcNode(PUBLIC_DATA_NODE, subnode), key);
 	}
@@ -478,6 +547,34 @@ public abstract class RepositoryAccess {
 		}    // end of try-catch
 	}
 
+	/**
+	 * Asynchronous variant of {@link #setData(String, String, String)}. If user repository does not implement {@link
+	 * AsyncUserRepository} data are stored synchronously and completed future is returned.
+	 *
+	 * @return future completed when data are stored or with <code>NotAuthorizedException</code> or
+	 * <code>TigaseDBException</code>
+	 *
+	 * @throws NotAuthorizedException is thrown when session has not been authorized yet and there is no access to
+	 * permanent storage.
+	 */
+	public CompletableFuture<Void> setDataAsync(String subnode, String key, String value)
+			throws NotAuthorizedException {
+		if (repo instanceof AsyncUserRepository) {
+			return mapUserNotFound(((AsyncUserRepository) repo).setDataAsync(getBareJID(), subnode, key, value));
+		}
+
+		CompletableFuture<Void> result = new CompletableFuture<>();
+
+		try {
+			setData(subnode, key, value);
+			result.complete(null);
+		} catch (TigaseDBException ex) {
+			result.completeExceptionally(ex);
+		}
+
+		return result;
+	}
+
 	/**
 	 * This method allows to store list of values under one key ID reference. It is often necessary to keep set of
 	 * values which can be refered by one key. As an example might be list of groups for specific buddy in roster. There
@@ -611,6 +708,28 @@ public abstract class RepositoryAccess {
 		return base + "/" + subnode;
 	}
 
+	private <T> CompletableFuture<T> mapUserNotFound(CompletableFuture<T> future) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+
+		future.whenComplete((value, ex) -> {
+			if (ex == null) {
+				result.complete(value);
+				return;
+			}
+
+			Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+
+			if (cause instanceof UserNotFoundException) {
+				log.log(Level.FINEST, "Problem accessing reposiotry: ", cause);
+				result.completeExceptionally(new NotAuthorizedException(NO_ACCESS_TO_REP_MSG, cause));
+			} else {
+				result.completeExceptionally(cause);
+			}
+		});
+
+		return result;
+	}
+
 	private boolean isLoginAllowed() throws AuthorizationException {
 		if (isAuthorized()) {
 			throw new AuthorizationException("User session already authenticated. " +
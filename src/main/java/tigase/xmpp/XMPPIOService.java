@@ -28,8 +28,11 @@ import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -73,6 +76,7 @@ public class XMPPIOService<RefObject>
 	public ReentrantLock writeInProgress = new ReentrantLock();
 	protected SimpleParser parser = SingletonFactory.getParserInstance();
 	protected XMPPIOProcessor[] processors = null;
+	private boolean coalesceFlush = false;
 	private XMPPDomBuilderHandler<RefObject> domHandler = null;
 	private boolean firstPacket = true;
 	private String jid = null;
@@ -80,6 +84,7 @@ public class XMPPIOService<RefObject>
 	 * This variable keeps the time of last received XMPP packet, it is used to help detect dead connections.
 	 */
 	private long lastXmppPacketReceivedTime = 0;
+	private int maxFlushSize = 65536;
 	private long packetsReceived = 0;
 	private long packetsSent = 0;
 	/**
@@ -91,6 +96,7 @@ public class XMPPIOService<RefObject>
 	@SuppressWarnings("rawtypes")
 	protected XMPPIOServiceListener serviceListener = null;
 	private boolean strict_ack = false;
+	private boolean streamingSerializer = false;
 	private long totalPacketsReceived = 0;
 	private long totalPacketsSent = 0;
 	private ConcurrentSkipListMap<String, Packet> waitingForAck = new ConcurrentSkipListMap<String, Packet>();
@@ -221,34 +227,170 @@ public class XMPPIOService<RefObject>
 
 	@Override
 	public void processWaitingPackets() throws IOException {
-		Packet packet = null;
+		ElementSerializer serializer = (streamingSerializer && isStreamingSerializerSupported())
+									   ? ElementSerializer.acquire()
+									   : null;
 
-		// int cnt = 0;
-		// while ((packet = waitingPackets.poll()) != null && (cnt < 1000)) {
+		if (serializer != null) {
+			try {
+				processWaitingPacketsSerialized(serializer);
+			} finally {
+				serializer.release();
+			}
+		} else if (coalesceFlush && isFlushCoalescingSupported()) {
+			processWaitingPacketsCoalesced();
+		} else {
+			Packet packet = null;
+			int count = 0;
+
+			// int cnt = 0;
+			// while ((packet = waitingPackets.poll()) != null && (cnt < 1000)) {
+
+			// we should only peek for packet now, and poll it after sending it
+			while ((packet = waitingPackets.peek()) != null) {
+
+				// ++cnt;
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "{0}, Sending packet: {1}", new Object[]{toString(), packet});
+				}
+				writeRawData(packet.getElement().toString());
+
+				// and after sending it we should remove it to minimalize chances of lost packets
+				waitingPackets.poll();
+				++count;
+
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "{0}, SENT: {1}", new Object[]{toString(), packet.getElement().toString()});
+				}
+			}    // end of while (packet = waitingPackets.poll() != null)
+			flushed(count);
+		}
+
+		// notify io processors that all waiting packets were sent
+		if (processors != null) {
+			for (XMPPIOProcessor processor : processors) {
+				processor.packetsSent(this);
+			}
+		}
+	}
+
+	/**
+	 * Collects data of waiting packets into batches, limited by <code>maxFlushSize</code>, and writes each batch at
+	 * once with {@link #writeDataBatch(List)}. Packets are removed from the queue only after they were written.
+	 */
+	protected void processWaitingPacketsCoalesced() throws IOException {
+		List<String> batch = new ArrayList<String>();
+		int size = 0;
 
-		// we should only peek for packet now, and poll it after sending it
-		while ((packet = waitingPackets.peek()) != null) {
+		for (Packet packet : waitingPackets) {
+			String data = packet.getElement().toString();
 
-			// ++cnt;
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "{0}, Sending packet: {1}", new Object[]{toString(), packet});
 			}
-			writeRawData(packet.getElement().toString());
+			if (!batch.isEmpty() && size + data.length() > maxFlushSize) {
+				writeCoalesced(batch);
+				batch.clear();
+				size = 0;
+			}
+			batch.add(data);
+			size += data.length();
+		}
+		if (!batch.isEmpty()) {
+			writeCoalesced(batch);
+		}
+	}
 
-			// and after sending it we should remove it to minimalize chances of lost packets
-			waitingPackets.poll();
+	/**
+	 * Encodes waiting packets directly into bytes, without creating <code>String</code> representation of each
+	 * packet. If flush coalescing is enabled, data of many packets is written at once, up to
+	 * <code>maxFlushSize</code> bytes. Packets are removed from the queue only after they were written.
+	 *
+	 * @param serializer serializer of the current thread
+	 */
+	protected void processWaitingPacketsSerialized(ElementSerializer serializer) throws IOException {
+		boolean coalesce = coalesceFlush && isFlushCoalescingSupported();
+		int count = 0;
 
+		for (Packet packet : waitingPackets) {
 			if (log.isLoggable(Level.FINEST)) {
-				log.log(Level.FINEST, "{0}, SENT: {1}", new Object[]{toString(), packet.getElement().toString()});
+				log.log(Level.FINEST, "{0}, Sending packet: {1}", new Object[]{toString(), packet});
 			}
-		}    // end of while (packet = waitingPackets.poll() != null)
 
-		// notify io processors that all waiting packets were sent
-		if (processors != null) {
-			for (XMPPIOProcessor processor : processors) {
-				processor.packetsSent(this);
+			int mark = serializer.size();
+
+			serializer.write(packet.getElement());
+			if (count > 0 && serializer.size() > maxFlushSize) {
+				writeSerialized(serializer.buffer(0, mark), count);
+				serializer.discard(mark);
+				count = 0;
+			}
+			++count;
+			if (!coalesce) {
+				writeSerialized(serializer.buffer(), count);
+				serializer.reset();
+				count = 0;
 			}
 		}
+		if (count > 0) {
+			writeSerialized(serializer.buffer(), count);
+			serializer.reset();
+		}
+	}
+
+	/**
+	 * Writes data of packets encoded by {@link ElementSerializer}. Passed buffer is valid only until this method
+	 * returns, so implementations which need to keep data have to copy it.
+	 *
+	 * @param data buffer with encoded packets
+	 */
+	protected void writeSerialized(ByteBuffer data) throws IOException {
+		writeBuffer(data);
+	}
+
+	/**
+	 * Returns <code>true</code> if packets may be encoded directly into bytes by {@link ElementSerializer}.
+	 * Implementations which need to alter <code>String</code> data passed to {@link #writeRawData(String)} should
+	 * return <code>false</code>.
+	 */
+	protected boolean isStreamingSerializerSupported() {
+		return true;
+	}
+
+	private void writeSerialized(ByteBuffer data, int count) throws IOException {
+		writeSerialized(data);
+
+		// and after sending data we should remove packets to minimalize chances of lost packets
+		for (int i = 0; i < count; i++) {
+			waitingPackets.poll();
+		}
+		flushed(count);
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "{0}, SENT {1} packets", new Object[]{toString(), count});
+		}
+	}
+
+	private void writeCoalesced(List<String> data) throws IOException {
+		int count = data.size();
+
+		writeDataBatch(data);
+
+		// and after sending data we should remove packets to minimalize chances of lost packets
+		for (int i = 0; i < count; i++) {
+			waitingPackets.poll();
+		}
+		flushed(count);
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "{0}, SENT {1} packets: {2}", new Object[]{toString(), count, data});
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if data of many packets may be written to the socket at once. Implementations which
+	 * need to frame each packet separately should return <code>false</code>.
+	 */
+	protected boolean isFlushCoalescingSupported() {
+		return true;
 	}
 
 	@Override
@@ -378,6 +520,28 @@ public class XMPPIOService<RefObject>
 		this.processors = processors;
 	}
 
+	/**
+	 * Enables writing of all waiting packets with a single write instead of writing each packet separately.
+	 */
+	public void setCoalesceFlush(boolean coalesceFlush) {
+		this.coalesceFlush = coalesceFlush;
+	}
+
+	/**
+	 * Enables encoding of outgoing packets directly into bytes with {@link ElementSerializer}.
+	 */
+	public void setStreamingSerializer(boolean streamingSerializer) {
+		this.streamingSerializer = streamingSerializer;
+	}
+
+	/**
+	 * Sets maximal number of characters (or bytes if packets are encoded by {@link ElementSerializer}) written by a
+	 * single coalesced flush. Single packet bigger than this limit is still written, but with a separate write.
+	 */
+	public void setMaxFlushSize(int maxFlushSize) {
+		this.maxFlushSize = maxFlushSize;
+	}
+
 	/**
 	 * This method returns the time when the last XMPP packet was received, it is used to help detect dead connections.
 	 *
@@ -20,6 +20,7 @@ package tigase.xmpp.impl;
 import tigase.db.NonAuthUserRepository;
 import tigase.db.TigaseDBException;
 import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
 import tigase.server.Iq;
 import tigase.server.Packet;
 import tigase.server.xmppsession.SessionManager;
@@ -29,15 +30,21 @@ import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
 import tigase.xmpp.*;
 
+import java.util.ArrayDeque;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Describe class JabberIqPrivate here.
  * <br>
+ * Private data are loaded and stored asynchronously, so the processing thread is not blocked while waiting for the
+ * database, and the response is sent when the user repository completes the call.
+ * <br>
  * Created: Mon Apr 16 08:28:18 2007
  *
  * @author <a href="mailto:artur.hefczyc@tigase.org">Artur Hefczyc</a>
@@ -56,6 +63,9 @@ public class JabberIqPrivate
 	private static final Element[] DISCO_FEATURES = {new Element("feature", new String[]{"var"}, new String[]{XMLNS})};
 	private static Logger log = Logger.getLogger(JabberIqPrivate.class.getName());
 
+	@Inject(nullAllowed = true)
+	private SessionManager sessionManager;
+
 	@Override
 	public String id() {
 		return ID;
@@ -84,21 +94,22 @@ public class JabberIqPrivate
 
 				if ((elems != null) && (elems.size() > 0)) {
 					Element elem = elems.get(0);
+					String key = elem.getName() + elem.getXMLNS();
 					StanzaType type = packet.getType();
 
 					switch (type) {
 						case get:
-							String priv = session.getData(PRIVATE_KEY, elem.getName() + elem.getXMLNS(), null);
-
-							if (log.isLoggable(Level.FINEST)) {
-								log.finest("Loaded private data for key: " + elem.getName() + ": " + priv);
-							}
-							if (priv != null) {
-								results.offer(parseXMLData(priv, packet));
+							if (sessionManager != null) {
+								session.getDataAsync(PRIVATE_KEY, key, null)
+										.whenComplete((priv, ex) -> sendAsyncResult(packet, session, ex,
+																					() -> loadedResult(priv, elem, packet)));
 
 								break;
 							}
-							results.offer(packet.okResult((String) null, 2));
+
+							String priv = session.getData(PRIVATE_KEY, key, null);
+
+							results.offer(loadedResult(priv, elem, packet));
 
 							break;
 
@@ -106,7 +117,14 @@ public class JabberIqPrivate
 							if (log.isLoggable(Level.FINEST)) {
 								log.finest("Saving private data: " + elem.toString());
 							}
-							session.setData(PRIVATE_KEY, elem.getName() + elem.getXMLNS(), elem.toString());
+							if (sessionManager != null) {
+								session.setDataAsync(PRIVATE_KEY, key, elem.toString())
+										.whenComplete((result, ex) -> sendAsyncResult(packet, session, ex,
+																					  () -> packet.okResult((String) null, 0)));
+
+								break;
+							}
+							session.setData(PRIVATE_KEY, key, elem.toString());
 							results.offer(packet.okResult((String) null, 0));
 
 							break;
@@ -159,6 +177,45 @@ public class JabberIqPrivate
 		return XMLNSS;
 	}
 
+	private Packet loadedResult(String priv, Element elem, Packet packet) {
+		if (log.isLoggable(Level.FINEST)) {
+			log.finest("Loaded private data for key: " + elem.getName() + ": " + priv);
+		}
+		if (priv != null) {
+			return parseXMLData(priv, packet);
+		}
+
+		return packet.okResult((String) null, 2);
+	}
+
+	private void sendAsyncResult(Packet packet, XMPPResourceConnection session, Throwable ex,
+								 Supplier<Packet> resultSupplier) {
+		Queue<Packet> results = new ArrayDeque<Packet>(1);
+
+		if (ex == null) {
+			results.offer(resultSupplier.get());
+		} else {
+			Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+
+			try {
+				if (cause instanceof NotAuthorizedException) {
+					log.warning("Received privacy request but user session is not authorized yet: " + packet.toString());
+					results.offer(Authorization.NOT_AUTHORIZED.getResponseMessage(packet,
+																				  "You must authorize session first.",
+																				  true));
+				} else {
+					log.warning("Database proble, please contact admin: " + cause);
+					results.offer(Authorization.INTERNAL_SERVER_ERROR.getResponseMessage(packet,
+																						 "Database access problem, please contact administrator.",
+																						 true));
+				}
+			} catch (PacketErrorTypeException e) {
+				log.log(Level.FINE, "Could not send error response for packet: " + packet, e);
+			}
+		}
+		sessionManager.addProcessorResults(packet, session, results);
+	}
+
 	private Packet parseXMLData(String data, Packet packet) {
 		DomBuilderHandler domHandler = new DomBuilderHandler();
 
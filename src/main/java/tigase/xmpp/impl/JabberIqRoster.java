@@ -27,6 +27,7 @@ import tigase.server.Packet;
 import tigase.server.PolicyViolationException;
 import tigase.server.Priority;
 import tigase.server.xmppsession.SessionManager;
+import tigase.stats.StatisticsList;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.*;
@@ -178,6 +179,12 @@ public class JabberIqRoster
 		return ID;
 	}
 
+	@Override
+	public void getStatistics(StatisticsList list) {
+		super.getStatistics(list);
+		RosterMap.getStatistics(id(), list);
+	}
+
 	public boolean isEmptyNameAllowed() {
 		return roster_util.isEmptyNameAllowed();
 	}
@@ -403,15 +410,56 @@ public class JabberIqRoster
 		// return the success result and abort further roster processing.
 		// No need to send the whole roster to the client.
 		if (incomingHash != null) {
-			storedHash = roster_util.getBuddiesHash(session);
-			if ((storedHash == null) || storedHash.isEmpty()) {
-				updateHash(session, settings);
+			// versions of roster items are not known for dynamic roster
+			String rosterVersion = ((its != null) && (its.size() > 0)) ? null : roster_util.getRosterVersion(session);
+
+			if (rosterVersion != null) {
+				storedHash = rosterVersion;
+				if (incomingHash.equals(storedHash)) {
+					results.offer(packet.okResult((String) null, 0));
+
+					return;
+				}
+
+				List<Element> changes = roster_util.getRosterItemsChangedSince(session, incomingHash);
+
+				if (changes != null) {
+					// Only changed items are sent as roster pushes after the empty result
+					results.offer(packet.okResult((String) null, 0));
+					try {
+						for (Element query : changes) {
+							Element iq = new Element("iq", new String[]{"type", "id", "to"},
+													 new String[]{"set", session.nextStanzaId(),
+																  session.getJID().toString()});
+
+							iq.setXMLNS(CLIENT_XMLNS);
+							iq.addChild(query);
+
+							Packet push = Packet.packetInstance(iq, null, session.getJID());
+
+							push.setPacketTo(session.getConnectionId());
+							push.setPacketFrom(packet.getTo());
+							results.offer(push);
+						}
+					} catch (NoConnectionIdException ex) {
+						log.log(Level.WARNING,
+								"Problem with roster request, no connection ID for session: {0}, request: {1}",
+								new Object[]{session, packet});
+					}
+
+					return;
+				}
+			} else {
 				storedHash = roster_util.getBuddiesHash(session);
-			}
-			if (incomingHash.equals(storedHash)) {
-				results.offer(packet.okResult((String) null, 0));
+				if ((storedHash == null) || storedHash.isEmpty()) {
+					updateHash(session, settings);
+					storedHash = roster_util.getBuddiesHash(session);
+				}
+				if (incomingHash.equals(storedHash)) {
+					results.offer(packet.okResult((String) null, 0));
 
-				return;
+					return;
+				}
 			}
 		}
 
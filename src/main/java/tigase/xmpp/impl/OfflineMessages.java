@@ -103,6 +103,8 @@ public class OfflineMessages
 	private static final Element[] DISCO_FEATURES = {
 			new Element("feature", new String[]{"var"}, new String[]{"msgoffline"})};
 	private static final String MSG_OFFLINE_STORAGE_PATHS = "msg-store-offline-paths";
+	private static final String MSG_DELIVERY_CHUNK_SIZE = "msg-delivery-chunk-size";
+	private static final String MSG_DELIVERY_RATE = "msg-delivery-rate";
 	private static final String MSG_REPO_CLASS_KEY = "msg-repo-class";
 	private static final String MSG_PUBSUB_JID = "msg-pubsub-jid";
 	private static final String MSG_PUBSUB_NODE = "msg-pubsub-node";
@@ -114,6 +116,10 @@ public class OfflineMessages
 	 * Field holds class for formatting and parsing dates in a locale-sensitive manner
 	 */
 	private final SimpleDateFormat formatter;
+	@ConfigField(desc = "Number of offline messages loaded and sent at once, 0 to load all messages", alias = MSG_DELIVERY_CHUNK_SIZE)
+	private int deliveryChunkSize = 0;
+	@ConfigField(desc = "Maximal number of offline messages per second sent to a session in chunks", alias = MSG_DELIVERY_RATE)
+	private int deliveryRate = 100;
 	@Inject
 	private Message message;
 	@ConfigField(desc = "Offline message implementation repository class", alias = MSG_REPO_CLASS_KEY)
@@ -122,6 +128,8 @@ public class OfflineMessages
 	private List<Notifier> notifiers;
 	@ConfigField(desc = "Store offline messages with mathing paths", alias = MSG_OFFLINE_STORAGE_PATHS)
 	private ElementMatcher[] offlineStorageMatchers = new ElementMatcher[0];
+	@Inject(nullAllowed = true)
+	private SessionManager sessionManager;
 
 	{
 		this.formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
@@ -287,6 +295,9 @@ public class OfflineMessages
 	 * Method restores all messages from repository for the JID of the current session. All retrieved elements are then
 	 * instantiated as {@code Packet} objects added to {@code LinkedList} collection and, if possible, sorted by
 	 * timestamp.
+	 * <br>
+	 * If delivery in chunks is enabled and repository contains more messages than a single chunk, only the first chunk
+	 * is returned and the next chunks are sent later.
 	 *
 	 * @param conn user session which keeps all the user session data and also gives an access to the user's repository
 	 * data.
@@ -299,37 +310,29 @@ public class OfflineMessages
 	public Queue<Packet> restorePacketForOffLineUser(XMPPResourceConnection conn,
 													 tigase.db.OfflineMsgRepositoryIfc repo)
 			throws UserNotFoundException, NotAuthorizedException {
-		Queue<Element> elems = repo.loadMessagesToJID(conn, true);
+		if (deliveryChunkSize > 0 && repo instanceof MsgRepositoryIfc) {
+			List<Element> items = ((MsgRepositoryIfc) repo).getMessagesList(conn.getJID());
 
-		if (elems != null) {
-			LinkedList<Packet> pacs = new LinkedList<Packet>();
-			Element elem = null;
+			if (items != null && items.size() > deliveryChunkSize) {
+				List<String> ids = new ArrayList<>(items.size());
 
-			while ((elem = elems.poll()) != null) {
-				try {
-					Packet p = Packet.packetInstance(elem);
-					if (p.getElemName() == Iq.ELEM_NAME) {
-						p.initVars(p.getStanzaFrom(), conn.getJID());
-					}
-					pacs.offer(p);
-				} catch (TigaseStringprepException ex) {
-					log.warning("Packet addressing problem, stringprep failed: " + elem);
+				for (Element item : items) {
+					ids.add(item.getAttributeStaticStr("node"));
 				}
-			}    // end of while (elem = elems.poll() != null)
-			try {
-				Collections.sort(pacs, new StampComparator());
-			} catch (NullPointerException e) {
-				try {
-					log.warning("Can not sort off line messages: " + pacs + ",\n" + e);
-				} catch (Exception exc) {
-					log.log(Level.WARNING, "Can not print log message.", exc);
-				}
-			}
 
-			return pacs;
+				return new PagedDelivery(conn, (MsgRepositoryIfc) repo, ids).nextChunk();
+			}
 		}
 
-		return null;
+		return restoreAllPackets(conn, repo);
+	}
+
+	public int getDeliveryChunkSize() {
+		return deliveryChunkSize;
+	}
+
+	public void setDeliveryChunkSize(int deliveryChunkSize) {
+		this.deliveryChunkSize = deliveryChunkSize;
 	}
 
 	/**
@@ -571,6 +574,71 @@ public class OfflineMessages
 		}
 	}
 
+	/**
+	 * Schedules loading of the next chunk of offline messages delivered in pages.
+	 */
+	protected void scheduleNextChunk(tigase.util.common.TimerTask task, long delay) {
+		if (sessionManager == null) {
+			log.log(Level.WARNING, "Session manager not available, remaining offline messages will be sent later");
+			return;
+		}
+		sessionManager.addTimerTask(task, delay);
+	}
+
+	/**
+	 * Sends chunk of offline messages loaded outside of processing of the user presence.
+	 */
+	protected void sendPackets(Queue<Packet> packets) {
+		for (Packet packet : packets) {
+			sessionManager.addOutPacket(packet);
+		}
+	}
+
+	private Queue<Packet> restoreAllPackets(XMPPResourceConnection conn, tigase.db.OfflineMsgRepositoryIfc repo)
+			throws UserNotFoundException, NotAuthorizedException {
+		Queue<Element> elems = repo.loadMessagesToJID(conn, true);
+
+		if (elems != null) {
+			return toPackets(conn, elems);
+		}
+
+		return null;
+	}
+
+	private LinkedList<Packet> toPackets(XMPPResourceConnection conn, Queue<Element> elems)
+			throws NotAuthorizedException {
+		LinkedList<Packet> pacs = new LinkedList<Packet>();
+
+		if (elems == null) {
+			return pacs;
+		}
+
+		Element elem = null;
+
+		while ((elem = elems.poll()) != null) {
+			try {
+				Packet p = Packet.packetInstance(elem);
+				if (p.getElemName() == Iq.ELEM_NAME) {
+					p.initVars(p.getStanzaFrom(), conn.getJID());
+				}
+				pacs.offer(p);
+			} catch (TigaseStringprepException ex) {
+				log.warning("Packet addressing problem, stringprep failed: " + elem);
+			}
+		}    // end of while (elem = elems.poll() != null)
+		try {
+			Collections.sort(pacs, new StampComparator());
+		} catch (NullPointerException e) {
+			try {
+				log.warning("Can not sort off line messages: " + pacs + ",\n" + e);
+			} catch (Exception exc) {
+				log.log(Level.WARNING, "Can not print log message.", exc);
+			}
+		}
+
+		return pacs;
+	}
+
 	public interface Notifier {
 
 		void notifyNewOfflineMessage(Packet packet, XMPPResourceConnection conn, Queue<Packet> queue,
@@ -703,6 +771,64 @@ public class OfflineMessages
 		}
 	}
 
+	/**
+	 * Delivery of offline messages in chunks. First chunk is sent in response to the initial presence, and next chunks
+	 * are loaded and sent by timer tasks, so at most one chunk of messages is kept in memory and a single session cannot
+	 * send more messages per second than configured. Every chunk is removed from the repository after it is passed for
+	 * delivery, and if the session is closed in the meantime, remaining messages are sent after the next login.
+	 */
+	private class PagedDelivery
+			extends tigase.util.common.TimerTask {
+
+		private final XMPPResourceConnection conn;
+		private final List<String> ids;
+		private final MsgRepositoryIfc repo;
+		private int offset = 0;
+
+		private PagedDelivery(XMPPResourceConnection conn, MsgRepositoryIfc repo, List<String> ids) {
+			this.conn = conn;
+			this.repo = repo;
+			this.ids = ids;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (!conn.isAuthorized()) {
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST, "Session {0} closed, {1} offline messages left in repository",
+								new Object[]{conn, ids.size() - offset});
+					}
+					return;
+				}
+				sendPackets(nextChunk());
+			} catch (UserNotFoundException | NotAuthorizedException ex) {
+				log.log(Level.FINE, "Could not load offline messages for session " + conn, ex);
+			}
+		}
+
+		private Queue<Packet> nextChunk() throws UserNotFoundException, NotAuthorizedException {
+			List<String> chunk = new ArrayList<>(ids.subList(offset, Math.min(offset + deliveryChunkSize, ids.size())));
+
+			offset += chunk.size();
+
+			Queue<Packet> packets = toPackets(conn, repo.loadMessagesToJID(chunk, conn, false, null));
+
+			repo.deleteMessagesToJID(chunk, conn);
+			if (offset < ids.size()) {
+				scheduleNextChunk(this, deliveryRate > 0 ? (deliveryChunkSize * 1000L) / deliveryRate : 0);
+			} else {
+				// messages not returned in the list of messages or stored in the meantime
+				Queue<Packet> remaining = restoreAllPackets(conn, repo);
+				if (remaining != null) {
+					packets.addAll(remaining);
+				}
+			}
+
+			return packets;
+		}
+	}
+
 	/**
 	 * Implementation of {@code MsgRepositoryIfc} interface providing basic support for storing and loading of Elements
 	 * from repository.
@@ -0,0 +1,296 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl;
+
+import tigase.db.TigaseDBException;
+import tigase.server.Packet;
+import tigase.stats.StatisticsList;
+import tigase.xml.Element;
+import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.XMPPResourceConnection;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalescing stage for presence updates broadcast by {@link PresenceState} to user contacts.
+ * <br>
+ * Every presence broadcast is sent from the same session to all contacts, so state is kept per user session and
+ * applies to every <code>(from, to)</code> pair of the broadcast. Presence identical to the last broadcast one (except
+ * <code>id</code>, <code>from</code> and <code>to</code> attributes) is dropped, if duplicates suppression is enabled.
+ * If coalescing window is set, only the first presence update within the window is broadcast immediately. Following
+ * updates are held and only the latest of them is broadcast when the window ends, so a client flapping between
+ * <code>away</code> and <code>available</code> generates at most one broadcast per window.
+ * <br>
+ * Held presence is flushed by {@link #flushPending(XMPPResourceConnection, Queue)} before any presence which bypasses
+ * this stage (subscription stanzas, direct and unavailable presences) is sent, to keep presences in order.
+ */
+public class PresenceCoalescer {
+
+	public static final String PRESENCE_COALESCED = "Presences coalesced";
+	public static final String PRESENCE_DUPLICATES = "Presence duplicates suppressed";
+	public static final String SESSION_DATA_KEY = "presence-coalescer-state";
+	private static final Logger log = Logger.getLogger(PresenceCoalescer.class.getCanonicalName());
+	private static final String[] IGNORED_ATTRS = {Packet.ID_ATT, Packet.FROM_ATT, Packet.TO_ATT};
+
+	private final Broadcaster broadcaster;
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder duplicates = new LongAdder();
+	private boolean suppressDuplicates = false;
+	private long window = 0;
+
+	/**
+	 * Broadcasts held presence if there is any for the session. Method should be called before sending any presence of
+	 * the session which is not passed through the coalescing stage.
+	 *
+	 * @param session user session for which held presence should be sent.
+	 * @param results queue to which broadcast presences are added.
+	 */
+	public static void flushPending(XMPPResourceConnection session, Queue<Packet> results)
+			throws NotAuthorizedException, TigaseDBException {
+		State state = (State) session.getSessionData(SESSION_DATA_KEY);
+
+		if (state != null) {
+			state.owner.flush(session, state, results, System.currentTimeMillis());
+		}
+	}
+
+	static String fingerprint(Element presence) {
+		Element copy = presence.clone();
+
+		for (String attr : IGNORED_ATTRS) {
+			copy.removeAttribute(attr);
+		}
+
+		return copy.toString();
+	}
+
+	public PresenceCoalescer(Broadcaster broadcaster) {
+		this.broadcaster = broadcaster;
+	}
+
+	public long getWindow() {
+		return window;
+	}
+
+	public void setWindow(long window) {
+		this.window = window;
+	}
+
+	public boolean isEnabled() {
+		return suppressDuplicates || window > 0;
+	}
+
+	public boolean isSuppressDuplicates() {
+		return suppressDuplicates;
+	}
+
+	public void setSuppressDuplicates(boolean suppressDuplicates) {
+		this.suppressDuplicates = suppressDuplicates;
+	}
+
+	/**
+	 * Returns coalescing state of the session, creating a new one if needed.
+	 */
+	public State getState(XMPPResourceConnection session) {
+		State state = (State) session.getSessionData(SESSION_DATA_KEY);
+
+		if (state == null) {
+			state = new State(this);
+			session.putSessionData(SESSION_DATA_KEY, state);
+		}
+
+		return state;
+	}
+
+	/**
+	 * Passes presence update through the coalescing stage.
+	 *
+	 * @param state coalescing state of the session.
+	 * @param presence presence update which is going to be broadcast.
+	 * @param now current time in milliseconds.
+	 *
+	 * @return {@link Decision#SEND} if presence should be broadcast immediately, {@link Decision#SCHEDULE} if it was
+	 * held and flush needs to be scheduled after {@link #getFlushDelay(State, long)} or {@link Decision#SKIP} if
+	 * nothing needs to be done now.
+	 */
+	public Decision offer(State state, Element presence, long now) {
+		String fingerprint = fingerprint(presence);
+
+		if (state.pending != null) {
+			if (suppressDuplicates && fingerprint.equals(state.pendingFingerprint)) {
+				duplicates.increment();
+			} else if (fingerprint.equals(state.sentFingerprint)) {
+				// update reverting held one, contacts already have this presence
+				state.pending = null;
+				state.pendingFingerprint = null;
+				coalesced.increment();
+			} else {
+				state.pending = presence;
+				state.pendingFingerprint = fingerprint;
+				coalesced.increment();
+			}
+
+			return Decision.SKIP;
+		}
+		if (suppressDuplicates && fingerprint.equals(state.sentFingerprint)) {
+			duplicates.increment();
+
+			return Decision.SKIP;
+		}
+		if (window > 0 && state.sentFingerprint != null && now - state.sentAt < window) {
+			state.pending = presence;
+			state.pendingFingerprint = fingerprint;
+			if (state.flushScheduled) {
+				return Decision.SKIP;
+			}
+			state.flushScheduled = true;
+
+			return Decision.SCHEDULE;
+		}
+		sent(state, fingerprint, now);
+
+		return Decision.SEND;
+	}
+
+	/**
+	 * Returns number of milliseconds after which held presence should be flushed.
+	 */
+	public long getFlushDelay(State state, long now) {
+		return Math.max(0, state.sentAt + window - now);
+	}
+
+	/**
+	 * Broadcasts presence held for the session, called when scheduled flush is executed.
+	 *
+	 * @return <code>true</code> if presence was broadcast.
+	 */
+	public boolean flush(XMPPResourceConnection session, State state, Queue<Packet> results, long now)
+			throws NotAuthorizedException, TigaseDBException {
+		Element presence = takePending(state, now);
+
+		if (presence == null) {
+			return false;
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Broadcasting coalesced presence: {0}", presence);
+		}
+		broadcaster.broadcast(session, presence, results);
+
+		return true;
+	}
+
+	/**
+	 * Records presence broadcast bypassing the coalescing stage (i.e. rebroadcast of the current presence) and drops
+	 * held presence superseded by it.
+	 */
+	public void sent(State state, Element presence, long now) {
+		discardPending(state);
+		sent(state, fingerprint(presence), now);
+	}
+
+	/**
+	 * Drops held presence, i.e. when unavailable presence is sent for the session.
+	 *
+	 * @return <code>true</code> if there was a held presence.
+	 */
+	public boolean discardPending(State state) {
+		if (state.pending == null) {
+			return false;
+		}
+		state.pending = null;
+		state.pendingFingerprint = null;
+		coalesced.increment();
+
+		return true;
+	}
+
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	public long getDuplicates() {
+		return duplicates.sum();
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, PRESENCE_COALESCED, coalesced.sum(), Level.FINE);
+		list.add(compName, PRESENCE_DUPLICATES, duplicates.sum(), Level.FINE);
+	}
+
+	Element takePending(State state, long now) {
+		state.flushScheduled = false;
+
+		Element presence = state.pending;
+
+		if (presence != null) {
+			sent(state, state.pendingFingerprint, now);
+			state.pending = null;
+			state.pendingFingerprint = null;
+		}
+
+		return presence;
+	}
+
+	private void sent(State state, String fingerprint, long now) {
+		state.sentFingerprint = fingerprint;
+		state.sentAt = now;
+	}
+
+	public enum Decision {
+		SEND,
+		SCHEDULE,
+		SKIP
+	}
+
+	@FunctionalInterface
+	public interface Broadcaster {
+
+		void broadcast(XMPPResourceConnection session, Element presence, Queue<Packet> results)
+				throws NotAuthorizedException, TigaseDBException;
+
+	}
+
+	/**
+	 * Coalescing state of a single user session, access is synchronized on the session.
+	 */
+	public static class State {
+
+		private final PresenceCoalescer owner;
+		private boolean flushScheduled = false;
+		private Element pending = null;
+		private String pendingFingerprint = null;
+		private long sentAt = 0;
+		private String sentFingerprint = null;
+
+		State(PresenceCoalescer owner) {
+			this.owner = owner;
+		}
+
+		public Element getPending() {
+			return pending;
+		}
+
+		public boolean isFlushScheduled() {
+			return flushScheduled;
+		}
+	}
+
+}
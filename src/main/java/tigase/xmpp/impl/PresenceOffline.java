@@ -48,13 +48,13 @@ import tigase.xmpp.impl.annotation.Id;
 import tigase.xmpp.impl.roster.RosterAbstract;
 import tigase.xmpp.impl.roster.RosterElement;
 import tigase.xmpp.impl.roster.RosterFlat;
+import tigase.xmpp.impl.roster.RosterMap;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -345,7 +345,7 @@ public class PresenceOffline
 			}
 
 			if (rosterString != null) {
-				roster = new ConcurrentHashMap<BareJID, RosterElement>(100, 0.25f, 1);
+				roster = new RosterMap();
 				RosterFlat.parseRosterUtil(rosterString, roster, null);
 				if (log.isLoggable(Level.FINEST)) {
 					log.log(Level.FINEST, "Loaded roster from DB: {0}", roster);
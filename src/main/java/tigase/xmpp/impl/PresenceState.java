@@ -71,6 +71,10 @@ public class PresenceState
 
 	public static final String OFFLINE_ROSTER_LAST_SEEN_PROP_KEY = "offline-roster-last-seen";
 
+	public static final String PRESENCE_COALESCING_WINDOW_KEY = "presence-coalescing-window";
+
+	public static final String PRESENCE_DUPLICATES_SUPPRESSION_KEY = "presence-duplicates-suppression";
+
 	/**
 	 * key allowing setting global forwarding JID address.
 	 */
@@ -91,6 +95,13 @@ public class PresenceState
 	private JID presenceGLobalForward = null;
 	@ConfigField(desc = "Enable roster lazy loading", alias = ENABLE_ROSTER_LAZY_LOADING_KEY)
 	private boolean rosterLazyLoading = true;
+	private final PresenceCoalescer presenceCoalescer = new PresenceCoalescer(this::broadcastCoalescedPresence);
+	@ConfigField(desc = "Time window (in milliseconds) in which presence updates are coalesced", alias = PRESENCE_COALESCING_WINDOW_KEY)
+	private long presenceCoalescingWindow = 0;
+	@ConfigField(desc = "Suppress broadcast of presence identical to previously broadcast one", alias = PRESENCE_DUPLICATES_SUPPRESSION_KEY)
+	private boolean presenceDuplicatesSuppression = false;
+	@Inject(nullAllowed = true)
+	private SessionManager sessionManager;
 	private long usersStatusChanges = 0;
 
 	/**
@@ -453,6 +464,8 @@ public class PresenceState
 			// According to the spec and logic actually offline status should
 			// not be broadcasted if initial presence was not sent by the client.
 			try {
+				// Presence held by coalescing stage is superseded by unavailable presence
+				discardCoalescedPresence(session);
 				if (session.getPresence() != null) {
 
 					// If this was called without sending unavailable presence
@@ -483,6 +496,17 @@ public class PresenceState
 	public void getStatistics(StatisticsList list) {
 		super.getStatistics(list);
 		list.add(id(), USERS_STATUS_CHANGES, usersStatusChanges, Level.INFO);
+		presenceCoalescer.getStatistics(id(), list);
+	}
+
+	public void setPresenceCoalescingWindow(long presenceCoalescingWindow) {
+		this.presenceCoalescingWindow = presenceCoalescingWindow;
+		presenceCoalescer.setWindow(presenceCoalescingWindow);
+	}
+
+	public void setPresenceDuplicatesSuppression(boolean presenceDuplicatesSuppression) {
+		this.presenceDuplicatesSuppression = presenceDuplicatesSuppression;
+		presenceCoalescer.setSuppressDuplicates(presenceDuplicatesSuppression);
 	}
 
 	public void rebroadcastPresence(XMPPResourceConnection session, Queue<Packet> results)
@@ -506,6 +530,9 @@ public class PresenceState
 			}
 		}
 
+		if (presenceCoalescer.isEnabled()) {
+			presenceCoalescer.sent(presenceCoalescer.getState(session), presence, System.currentTimeMillis());
+		}
 		sendPresenceBroadcast(StanzaType.available, session, FROM_SUBSCRIBED, results, presence, null, getRosterUtil());
 
 		updateUserResources(presence, session, results, false);
@@ -797,6 +824,9 @@ public class PresenceState
 					presenceEl.addChild(extendContent);
 				}
 			}
+			// Presence held by coalescing stage has to be sent first
+			PresenceCoalescer.flushPending(session, results);
+
 			// Yes this is it, send direct presence
 			results.offer(presence);
 
@@ -849,6 +879,9 @@ public class PresenceState
 
 						// Resend pending in subscription requests
 						resendPendingInRequests(session, results);
+					} else if (presenceCoalescer.isEnabled()) {
+						// Broadcast presence update to 'from' or 'both' contacts, unless superseded or duplicated
+						broadcastPresenceUpdate(session, results, presenceEl);
 					} else {
 						// Broadcast initial presence to 'from' or 'both' contacts
 						sendPresenceBroadcast(StanzaType.available, session, FROM_SUBSCRIBED, results, presenceEl,
@@ -884,6 +917,62 @@ public class PresenceState
 		}
 	}
 
+	/**
+	 * Passes presence update through the {@link PresenceCoalescer} and broadcasts it to contacts if it is not
+	 * duplicated or held to be coalesced with following updates.
+	 *
+	 * @param session user session which keeps all the user session data and also gives an access to the user's
+	 * repository data.
+	 * @param results this a collection with packets which have been generated as input packet processing results.
+	 * @param presenceEl presence update to broadcast.
+	 *
+	 */
+	protected void broadcastPresenceUpdate(XMPPResourceConnection session, Queue<Packet> results, Element presenceEl)
+			throws NotAuthorizedException, TigaseDBException {
+		final PresenceCoalescer.State state = presenceCoalescer.getState(session);
+		final long now = System.currentTimeMillis();
+
+		switch (presenceCoalescer.offer(state, presenceEl, now)) {
+			case SEND:
+				broadcastCoalescedPresence(session, presenceEl, results);
+				break;
+			case SCHEDULE:
+				if (sessionManager == null) {
+					presenceCoalescer.flush(session, state, results, now);
+				} else {
+					sessionManager.addTimerTask(new CoalescedPresenceFlushTask(session, state),
+												presenceCoalescer.getFlushDelay(state, now));
+				}
+				break;
+			default:
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "Presence update coalesced for: {0}", session);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Broadcasts presence update passed by {@link PresenceCoalescer} to 'from' or 'both' contacts.
+	 */
+	protected void broadcastCoalescedPresence(XMPPResourceConnection session, Element presence, Queue<Packet> results)
+			throws NotAuthorizedException, TigaseDBException {
+		sendPresenceBroadcast(StanzaType.available, session, FROM_SUBSCRIBED, results, presence, null, roster_util);
+	}
+
+	/**
+	 * Drops presence held by {@link PresenceCoalescer} for the session and resets its coalescing state.
+	 */
+	protected void discardCoalescedPresence(XMPPResourceConnection session) {
+		PresenceCoalescer.State state = (PresenceCoalescer.State) session.getSessionData(
+				PresenceCoalescer.SESSION_DATA_KEY);
+
+		if (state != null) {
+			presenceCoalescer.discardPending(state);
+			session.removeSessionData(PresenceCoalescer.SESSION_DATA_KEY);
+		}
+	}
+
 	/**
 	 * Method sends back presence to contact while it becomes online (i.e. during processing of incoming initial
 	 * presence of the contact/buddy)
@@ -1005,4 +1094,43 @@ public class PresenceState
 		Element extend(XMPPResourceConnection session, Queue<Packet> results);
 	}
 
+	/**
+	 * Task broadcasting presence held by {@link PresenceCoalescer} when the coalescing window ends.
+	 */
+	private class CoalescedPresenceFlushTask
+			extends tigase.util.common.TimerTask {
+
+		private final XMPPResourceConnection session;
+		private final PresenceCoalescer.State state;
+
+		private CoalescedPresenceFlushTask(XMPPResourceConnection session, PresenceCoalescer.State state) {
+			this.session = session;
+			this.state = state;
+		}
+
+		@Override
+		public void run() {
+			synchronized (session) {
+				// state is removed from the session when unavailable presence is sent
+				if (session.getSessionData(PresenceCoalescer.SESSION_DATA_KEY) != state) {
+					return;
+				}
+
+				Queue<Packet> results = new ArrayDeque<>();
+
+				try {
+					presenceCoalescer.flush(session, state, results, System.currentTimeMillis());
+				} catch (NotAuthorizedException e) {
+					log.log(Level.FINEST, "Session closed before coalesced presence was sent: {0}", session);
+				} catch (TigaseDBException e) {
+					log.log(Level.WARNING, "Error accessing database for presence data: {0}", e);
+				}
+				// packets are added while holding the lock, so they are not reordered with later presences
+				for (Packet packet : results) {
+					sessionManager.addOutPacket(packet);
+				}
+			}
+		}
+	}
+
 }
@@ -172,6 +172,9 @@ public class PresenceSubscription
 						packet.initVars(session.getJID().copyWithoutResource(),
 										packet.getStanzaTo().copyWithoutResource());
 
+						// Presence held by coalescing stage has to be sent before subscription stanza
+						PresenceCoalescer.flushPending(session, results);
+
 						break;
 
 					default:
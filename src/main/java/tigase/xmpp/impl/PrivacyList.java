@@ -34,6 +34,13 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Privacy list compiled for evaluation of stanzas. List is created when it is activated or changed, so items are
+ * indexed only once: items matching JIDs and domains are kept in hash maps and items matching roster groups in a map
+ * by group name, with positions of the first matching item for every stanza type. Only items which cannot be indexed
+ * (subscription items and fall-through item) are checked one by one, and only if they are placed before the item
+ * found in the indexes.
+ */
 public class PrivacyList {
 
 	public static final PrivacyList ALLOW_ALL = new PrivacyList(null, new Element("list"));
@@ -45,7 +52,14 @@ public class PrivacyList {
 			return false;
 		}
 	};
+	private static final int NO_MATCH = Integer.MAX_VALUE;
+	private final Map<BareJID, int[]> bareJidIndex = new HashMap<>();
+	private final Map<String, int[]> domainIndex = new HashMap<>();
+	// positions of items which are not indexed, in order
+	private final int[] fallback;
+	private final Map<String, int[]> groupIndex = new HashMap<>();
 	private final Item[] items;
+	private final Map<JID, int[]> jidIndex = new HashMap<>();
 	private final String name;
 	private final Function<JID, RosterElement> rosterElementGetter;
 
@@ -81,6 +95,7 @@ public class PrivacyList {
 				.map(this::elemToItem)
 				.filter(it -> it != null)
 				.toArray(x -> new Item[x]);
+		this.fallback = index();
 	}
 
 	public String getName() {
@@ -92,13 +107,40 @@ public class PrivacyList {
 	}
 
 	public boolean isAllowed(JID jid, Item.Type type) {
-		for (Item item : items) {
-			if (item.matches(jid, type)) {
-				return item.isAllowed();
+		int t = type.ordinal();
+		int match = NO_MATCH;
+
+		if (jid != null) {
+			if (!jidIndex.isEmpty()) {
+				match = first(match, jidIndex.get(jid), t);
+			}
+			if (!bareJidIndex.isEmpty()) {
+				match = first(match, bareJidIndex.get(jid.getBareJID()), t);
+			}
+			if (!domainIndex.isEmpty()) {
+				match = first(match, domainIndex.get(jid.getDomain()), t);
 			}
 		}
+		if (!groupIndex.isEmpty()) {
+			String[] groups = getRosterGroupsForJid(jid);
 
-		return true;
+			if (groups != null) {
+				for (String group : groups) {
+					match = first(match, groupIndex.get(group), t);
+				}
+			}
+		}
+		for (int idx : fallback) {
+			if (idx >= match) {
+				break;
+			}
+			if (items[idx].matches(jid, type)) {
+				match = idx;
+				break;
+			}
+		}
+
+		return match == NO_MATCH || items[match].isAllowed();
 	}
 
 	public boolean isEmpty() {
@@ -121,6 +163,57 @@ public class PrivacyList {
 		return joiner.toString();
 	}
 
+	private static int first(int match, int[] positions, int type) {
+		return (positions == null || positions[type] > match) ? match : positions[type];
+	}
+
+	private static <K> void addToIndex(Map<K, int[]> index, K key, int position, Set<Item.Type> types) {
+		int[] positions = index.computeIfAbsent(key, k -> {
+			int[] tmp = new int[Item.Type.values().length];
+
+			Arrays.fill(tmp, NO_MATCH);
+			return tmp;
+		});
+
+		for (Item.Type type : types) {
+			// items are sorted, so the first item for the type wins
+			if (positions[type.ordinal()] == NO_MATCH) {
+				positions[type.ordinal()] = position;
+			}
+		}
+	}
+
+	private String[] getRosterGroupsForJid(JID jid) {
+		RosterElement item = rosterElementGetter.apply(jid);
+		return item == null ? null : item.getGroups();
+	}
+
+	private int[] index() {
+		List<Integer> notIndexed = new ArrayList<>();
+
+		for (int i = 0; i < items.length; i++) {
+			Item item = items[i];
+
+			if (item instanceof ItemJid) {
+				JID jid = ((ItemJid) item).jid;
+
+				if (jid.getResource() != null) {
+					addToIndex(jidIndex, jid, i, ((ItemJid) item).types);
+				} else if (jid.getLocalpart() != null) {
+					addToIndex(bareJidIndex, jid.getBareJID(), i, ((ItemJid) item).types);
+				} else {
+					addToIndex(domainIndex, jid.getDomain(), i, ((ItemJid) item).types);
+				}
+			} else if (item instanceof ItemGroup) {
+				addToIndex(groupIndex, ((ItemGroup) item).group, i, ((ItemGroup) item).types);
+			} else {
+				notIndexed.add(i);
+			}
+		}
+
+		return notIndexed.stream().mapToInt(Integer::intValue).toArray();
+	}
+
 	private PrivacyList getSingletonIfPossible() {
 		if (isEmpty()) {
 			return ALLOW_ALL;
@@ -231,11 +324,6 @@ public class PrivacyList {
 			return allowed;
 		}
 
-		protected String[] getRosterGroupsForJid(JID jid) {
-			RosterElement item = rosterElementGetter.apply(jid);
-			return item == null ? null : item.getGroups();
-		}
-
 		protected RosterAbstract.SubscriptionType getSubscriptionForJID(JID jid) {
 			RosterElement item = rosterElementGetter.apply(jid);
 			return item == null ? null : item.getSubscription();
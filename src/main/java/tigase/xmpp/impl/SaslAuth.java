@@ -30,6 +30,7 @@ import tigase.server.Command;
 import tigase.server.Packet;
 import tigase.server.Priority;
 import tigase.server.xmppsession.SessionManager;
+import tigase.stats.StatisticsList;
 import tigase.util.Base64;
 import tigase.xml.Element;
 import tigase.xmpp.NotAuthorizedException;
@@ -42,10 +43,15 @@ import javax.security.auth.callback.CallbackHandler;
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslException;
 import javax.security.sasl.SaslServer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -70,6 +76,7 @@ public class SaslAuth
 	private static final Logger log = Logger.getLogger(SaslAuth.class.getName());
 	private final static String SASL_SERVER_KEY = "SASL_SERVER_KEY";
 	private static final String[] XMLNSS = {_XMLNS, _XMLNS, _XMLNS, _XMLNS, _XMLNS, _XMLNS};
+	private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
 
 	public enum ElementType {
 		abort,
@@ -80,6 +87,7 @@ public class SaslAuth
 		success
 	}
 
+	private final Map<String, AuthTime> authTimes = new ConcurrentHashMap<>();
 	private final Map<String, Object> props = new HashMap<String, Object>();
 	@Inject
 	private BruteForceLockerBean bruteForceLocker;
@@ -193,7 +201,15 @@ public class SaslAuth
 						data = new byte[]{};
 					}
 
-					byte[] challenge = ss.evaluateResponse(data);
+					final long cpuTime = currentThreadCpuTime();
+					byte[] challenge;
+
+					try {
+						challenge = ss.evaluateResponse(data);
+					} finally {
+						authTimes.computeIfAbsent(ss.getMechanismName(), name -> new AuthTime())
+								.add(currentThreadCpuTime() - cpuTime);
+					}
 					String challengeData;
 
 					if (challenge != null) {
@@ -272,6 +288,21 @@ public class SaslAuth
 		}
 	}
 
+	@Override
+	public void getStatistics(StatisticsList list) {
+		super.getStatistics(list);
+		authTimes.forEach((mechanism, authTime) -> {
+			long steps = authTime.steps.sum();
+			long nanos = authTime.nanos.sum();
+
+			list.add(getComponentInfo().getName(), mechanism + " auth steps", steps, Level.FINE);
+			list.add(getComponentInfo().getName(), mechanism + " auth CPU time [ms]",
+					 TimeUnit.NANOSECONDS.toMillis(nanos), Level.FINE);
+			list.add(getComponentInfo().getName(), mechanism + " average auth step CPU time [us]",
+					 steps == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(nanos / steps), Level.FINE);
+		});
+	}
+
 	@Override
 	public Element[] supDiscoFeatures(final XMPPResourceConnection session) {
 		return DISCO_FEATURES;
@@ -309,6 +340,16 @@ public class SaslAuth
 		session.removeSessionData(SASL_SERVER_KEY);
 	}
 
+	/**
+	 * Returns CPU time of the current thread, or wall clock time if measuring CPU time is not supported.
+	 */
+	private long currentThreadCpuTime() {
+		if (threadMXBean.isCurrentThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled()) {
+			return threadMXBean.getCurrentThreadCpuTime();
+		}
+		return System.nanoTime();
+	}
+
 	private Element createReply(final ElementType type, final String cdata) {
 		Element reply = new Element(type.toString());
 
@@ -394,4 +435,15 @@ public class SaslAuth
 		results.offer(response);
 	}
 
+	private static class AuthTime {
+
+		private final LongAdder nanos = new LongAdder();
+		private final LongAdder steps = new LongAdder();
+
+		private void add(long time) {
+			nanos.add(time);
+			steps.increment();
+		}
+	}
+
 }
\ No newline at end of file
@@ -39,9 +39,11 @@ import tigase.xmpp.impl.annotation.Id;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.util.ArrayDeque;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.logging.Level;
@@ -77,6 +79,8 @@ public class VCardTemp
 	 */
 	private static Logger log = Logger.getLogger(VCardTemp.class.getName());
 
+	@Inject(nullAllowed = true)
+	private SessionManager sessionManager;
 	@Inject
 	private UserRepository userRepository;
 
@@ -117,6 +121,16 @@ public class VCardTemp
 
 				switch (packet.getType()) {
 					case get:
+						if (sessionManager != null) {
+							// own vCard is loaded asynchronously, response is sent when it is loaded
+							JID connectionIdOfSession = session.getConnectionId();
+
+							session.getPublicDataAsync(ID, VCARD_KEY, null)
+									.whenComplete((vcard, ex) -> sendLoadedVCard(packet, session,
+																				 connectionIdOfSession, vcard, ex));
+							break;
+						}
+
 						String strvCard = session.getPublicData(ID, VCARD_KEY, null);
 
 						if (strvCard != null) {
@@ -176,6 +190,37 @@ public class VCardTemp
 		}
 	}
 
+	private void sendLoadedVCard(Packet packet, XMPPResourceConnection session, JID connectionId, String strvCard,
+								 Throwable ex) {
+		Queue<Packet> results = new ArrayDeque<Packet>(1);
+
+		try {
+			if (ex == null) {
+				Packet result = (strvCard != null) ? parseXMLData(strvCard, packet) : packet.okResult((String) null, 1);
+
+				result.setPacketTo(connectionId);
+				results.offer(result);
+			} else {
+				Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+
+				if (cause instanceof NotAuthorizedException) {
+					log.warning("Received vCard request but user session is not authorized yet: " + packet);
+					results.offer(
+							Authorization.NOT_AUTHORIZED.getResponseMessage(packet, "You must authorize session first.",
+																			true));
+				} else {
+					log.warning("Database problem, please contact admin: " + cause);
+					results.offer(Authorization.INTERNAL_SERVER_ERROR.getResponseMessage(packet,
+																						 "Database access problem, please contact administrator.",
+																						 true));
+				}
+			}
+		} catch (PacketErrorTypeException e) {
+			log.log(Level.FINE, "Could not send error response for packet: " + packet, e);
+		}
+		sessionManager.addProcessorResults(packet, session, results);
+	}
+
 	@Override
 	public void processNullSessionPacket(Packet packet, NonAuthUserRepository repo, Queue<Packet> results,
 										 Map<String, Object> settings) throws PacketErrorTypeException {
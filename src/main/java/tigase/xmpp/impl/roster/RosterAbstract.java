@@ -620,6 +620,42 @@ public abstract class RosterAbstract {
 		return hash != null ? hash : "";
 	}
 
+	/**
+	 * Returns version of the user roster if roster implementation keeps versions of roster items. Such version may be
+	 * used instead of the roster hash to send only changed items to the client.
+	 *
+	 * @return roster version or <code>null</code> if versions are not supported or roster is not loaded
+	 */
+	public String getRosterVersion(final XMPPSession session) {
+		return null;
+	}
+
+	/**
+	 * Returns version of the user roster if roster implementation keeps versions of roster items, loading the roster if
+	 * needed.
+	 *
+	 * @return roster version or <code>null</code> if versions are not supported
+	 */
+	public String getRosterVersion(final XMPPResourceConnection session)
+			throws NotAuthorizedException, TigaseDBException {
+		return null;
+	}
+
+	/**
+	 * Returns roster items changed since the passed roster version, including items with <code>remove</code>
+	 * subscription for contacts removed from the roster. Every item is returned inside of a roster
+	 * <code>query</code> element with the roster version after this change, ordered from the oldest change, so they
+	 * may be sent to the client as roster pushes.
+	 *
+	 * @param ver roster version known by the client
+	 *
+	 * @return list of <code>query</code> elements or <code>null</code> if the whole roster has to be sent
+	 */
+	public List<Element> getRosterItemsChangedSince(final XMPPResourceConnection session, String ver)
+			throws NotAuthorizedException, TigaseDBException {
+		return null;
+	}
+
 	public abstract String[] getBuddyGroups(final XMPPResourceConnection session, JID buddy)
 			throws NotAuthorizedException, TigaseDBException;
 
@@ -919,7 +955,10 @@ public abstract class RosterAbstract {
 		Element query = new Element("query");
 
 		query.setXMLNS(ROSTER_XMLNS);
-		query.addAttribute(VER_ATT, getBuddiesHash(session));
+
+		String ver = getRosterVersion(session);
+
+		query.addAttribute(VER_ATT, (ver != null) ? ver : getBuddiesHash(session));
 		query.addChild(item);
 		update.addChild(query);
 
@@ -24,10 +24,9 @@ import tigase.xml.XMLUtils;
 import tigase.xmpp.impl.roster.RosterAbstract.SubscriptionType;
 import tigase.xmpp.jid.JID;
 
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
@@ -42,6 +41,7 @@ public class RosterElement {
 	protected static final long INITIAL_LAST_SEEN_VAL = 1000l;
 	private static final String ACTIVITY_ATT = "activity";
 	private static final String ELEM_NAME = "contact";
+	private static final String[] EMPTY_RESOURCES = new String[0];
 	private static final String GRP_ATT = "groups";
 	private static final double INITIAL_ACTIVITY_VAL = 1d;
 	private static final double INITIAL_WEIGHT_VAL = 1d;
@@ -52,6 +52,7 @@ public class RosterElement {
 	private static final String OTHER_ATT = "other";
 	private static final String STRINGPREP_ATT = "preped";
 	private static final String SUBS_ATT = "subs";
+	private static final String VERSION_ATT = "ver";
 	private static final String WEIGHT_ATT = "weight";
 
 	private double activity = INITIAL_ACTIVITY_VAL;
@@ -62,12 +63,14 @@ public class RosterElement {
 	// private boolean online = false;
 	private boolean modified = false;
 	private String name = null;
-	private Map<String, Boolean> onlineMap = new ConcurrentHashMap<String, Boolean>();
+	// resources of the contact which are online, array is replaced on every change
+	private volatile String[] onlineResources = EMPTY_RESOURCES;
 	private String otherData = null;
 	private boolean persistent = true;
 	private boolean presence_sent = false;
 	private String stringpreped = null;
 	private SubscriptionType subscription = null;
+	private long version = 0;
 	private double weight = INITIAL_WEIGHT_VAL;
 
 	public RosterElement(Element roster_el) throws TigaseStringprepException {
@@ -121,6 +124,15 @@ public class RosterElement {
 					lastSeen = INITIAL_LAST_SEEN_VAL;
 				}
 			}
+			num_str = roster_el.getAttributeStaticStr(VERSION_ATT);
+			if (num_str != null) {
+				try {
+					version = Long.parseLong(num_str);
+				} catch (NumberFormatException nfe) {
+					log.warning("Incorrect version field: " + num_str);
+					version = 0;
+				}
+			}
 			// how roster can be modified as it is read from DB?
 			modified = false;
 		} else {
@@ -165,7 +177,8 @@ public class RosterElement {
 		if ((groups != null) && (groups.length > 0)) {
 			this.groups = new String[groups.length];
 			for (int i = 0; i < groups.length; i++) {
-				this.groups[i] = XMLUtils.unescape(groups[i]);
+				// the same group names are used by many contacts of many users
+				this.groups[i] = XMLUtils.unescape(groups[i]).intern();
 			}
 		} else {
 			this.groups = null;
@@ -244,6 +257,9 @@ public class RosterElement {
 		elem.setAttribute(ACTIVITY_ATT, Double.toString(activity));
 		elem.setAttribute(WEIGHT_ATT, Double.toString(weight));
 		elem.setAttribute(LAST_SEEN_ATT, Long.toString(lastSeen));
+		if (version > 0) {
+			elem.setAttribute(VERSION_ATT, Long.toString(version));
+		}
 		modified = false;
 
 		return elem;
@@ -296,7 +312,7 @@ public class RosterElement {
 	}
 
 	public boolean isOnline() {
-		return onlineMap.size() > 0;
+		return onlineResources.length > 0;
 	}
 
 	public boolean isPresence_sent() {
@@ -307,12 +323,34 @@ public class RosterElement {
 		this.presence_sent = presence_sent;
 	}
 
-	public void setOnline(String resource, boolean online) {
-		if ((onlineMap != null) && (resource != null)) {
-			if (online) {
-				onlineMap.put(resource, Boolean.TRUE);
+	public synchronized void setOnline(String resource, boolean online) {
+		if (resource == null) {
+			return;
+		}
+
+		String[] resources = onlineResources;
+		int idx = -1;
+
+		for (int i = 0; i < resources.length; i++) {
+			if (resource.equals(resources[i])) {
+				idx = i;
+				break;
+			}
+		}
+		if (online && idx < 0) {
+			String[] tmp = Arrays.copyOf(resources, resources.length + 1);
+
+			tmp[resources.length] = resource;
+			onlineResources = tmp;
+		} else if (!online && idx >= 0) {
+			if (resources.length == 1) {
+				onlineResources = EMPTY_RESOURCES;
 			} else {
-				onlineMap.remove(resource);
+				String[] tmp = new String[resources.length - 1];
+
+				System.arraycopy(resources, 0, tmp, 0, idx);
+				System.arraycopy(resources, idx + 1, tmp, idx, tmp.length - idx);
+				onlineResources = tmp;
 			}
 		}
 	}
@@ -346,6 +384,18 @@ public class RosterElement {
 		modified = true;
 	}
 
+	/**
+	 * Returns version of the roster in which this item was changed for the last time or <code>0</code> if roster
+	 * implementation does not keep versions of items.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
 	public long getLastSeen() {
 		return lastSeen;
 	}
@@ -31,7 +31,6 @@ import tigase.xmpp.jid.JID;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -428,10 +427,9 @@ public class RosterFlat
 	public Map<BareJID, RosterElement> loadUserRoster(XMPPResourceConnection session)
 			throws NotAuthorizedException, TigaseDBException {
 
-		// In most times we just read from this data structure
-		// From time to time there might be some modification, posibly concurrent
-		// very unlikely by more than one thread
-		Map<BareJID, RosterElement> roster = new ConcurrentHashMap<BareJID, RosterElement>(100, 0.25f, 1);
+		// In most times we just read from this data structure, modifications are rare
+		// and rosters of all users together may keep a lot of elements, so compact map is used
+		Map<BareJID, RosterElement> roster = new RosterMap();
 
 		session.putCommonSessionData(ROSTER, roster);
 
@@ -0,0 +1,379 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl.roster;
+
+import tigase.db.TigaseDBException;
+import tigase.xml.Element;
+import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.XMPPSession;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Roster implementation storing every roster item under a separate key in the user repository instead of storing the
+ * whole roster as a single XML document. Only items which were changed are written to the repository when the roster
+ * is modified, and the whole roster is loaded with a single query (if supported by the repository).
+ * <br>
+ * Every change of a roster item increases the version of the roster, which is kept with the item. Removed items are
+ * remembered (up to {@link #MAX_REMOVED_ITEMS}) with the version of their removal, so a client requesting the roster
+ * with an older version receives only items changed since then as roster pushes.
+ * <br>
+ * Roster stored by {@link RosterFlat} is converted when the user logs in for the first time after enabling this
+ * implementation and the old roster is removed.
+ */
+public class RosterFlatIncremental
+		extends RosterFlat {
+
+	public static final String ITEMS_NODE = "roster-items";
+	public static final String MIN_VERSION_KEY = "roster-min-version";
+	public static final String REMOVED_NODE = "roster-removed";
+	public static final String VERSION_KEY = "roster-version";
+	protected static final int MAX_REMOVED_ITEMS = 500;
+	private static final Logger log = Logger.getLogger(RosterFlatIncremental.class.getName());
+	private static final String STATE_KEY = "roster-versions";
+	private static final String VER_PREFIX = "v";
+
+	private static int itemHash(RosterElement relem) {
+		return relem.getRosterItem().toString().hashCode();
+	}
+
+	private static long parseVersion(String value, long def) {
+		if (value == null) {
+			return def;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException ex) {
+			log.log(Level.WARNING, "Incorrect roster version: {0}", value);
+			return def;
+		}
+	}
+
+	@Override
+	public String getRosterVersion(XMPPSession session) {
+		RosterVersions versions = (RosterVersions) session.getCommonSessionData(STATE_KEY);
+
+		if (versions == null) {
+			return null;
+		}
+		synchronized (versions) {
+			return VER_PREFIX + versions.version;
+		}
+	}
+
+	@Override
+	public String getRosterVersion(XMPPResourceConnection session) throws NotAuthorizedException, TigaseDBException {
+		getUserRoster(session);
+
+		RosterVersions versions = getVersions(session);
+
+		if (versions == null) {
+			return null;
+		}
+		synchronized (versions) {
+			return VER_PREFIX + versions.version;
+		}
+	}
+
+	@Override
+	public List<Element> getRosterItemsChangedSince(XMPPResourceConnection session, String ver)
+			throws NotAuthorizedException, TigaseDBException {
+		if ((ver == null) || !ver.startsWith(VER_PREFIX)) {
+			return null;
+		}
+
+		long since;
+
+		try {
+			since = Long.parseLong(ver.substring(VER_PREFIX.length()));
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+
+		Map<BareJID, RosterElement> roster = getUserRoster(session);
+		RosterVersions versions = getVersions(session);
+
+		if (versions == null) {
+			return null;
+		}
+
+		TreeMap<Long, Element> changes = new TreeMap<>();
+
+		synchronized (versions) {
+			if ((since < versions.minVersion) || (since > versions.version)) {
+				return null;
+			}
+			for (RosterElement relem : roster.values()) {
+				if (relem.isPersistent() && (relem.getVersion() > since)) {
+					Element item = SubscriptionType.none_pending_in.equals(relem.getSubscription())
+								   ? removedItem(relem.getJid().getBareJID())
+								   : getBuddyItem(relem);
+
+					changes.put(relem.getVersion(), item);
+				}
+			}
+			for (Map.Entry<BareJID, Long> removed : versions.removed.entrySet()) {
+				if (removed.getValue() > since) {
+					changes.put(removed.getValue(), removedItem(removed.getKey()));
+				}
+			}
+		}
+		// sending the whole roster is cheaper in such case
+		if (changes.size() > roster.size()) {
+			return null;
+		}
+
+		List<Element> result = new ArrayList<>(changes.size());
+
+		for (Map.Entry<Long, Element> change : changes.entrySet()) {
+			Element query = new Element("query", new String[]{"xmlns", VER_ATT},
+										new String[]{ROSTER_XMLNS, VER_PREFIX + change.getKey()});
+
+			query.addChild(change.getValue());
+			result.add(query);
+		}
+
+		return result;
+	}
+
+	@Override
+	public Map<BareJID, RosterElement> loadUserRoster(XMPPResourceConnection session)
+			throws NotAuthorizedException, TigaseDBException {
+		Map<BareJID, RosterElement> roster = new RosterMap();
+		RosterVersions versions = new RosterVersions();
+
+		session.putCommonSessionData(STATE_KEY, versions);
+		session.putCommonSessionData(ROSTER, roster);
+
+		String ver = session.getData(null, VERSION_KEY, null);
+
+		if (ver == null) {
+			convertRoster(session, roster, versions);
+		} else {
+			loadItems(session, roster, versions, parseVersion(ver, 0));
+		}
+
+		return roster;
+	}
+
+	@Override
+	protected void saveUserRoster(XMPPResourceConnection session) throws NotAuthorizedException, TigaseDBException {
+		Map<BareJID, RosterElement> roster = getUserRoster(session);
+		RosterVersions versions = getVersions(session);
+
+		if (versions == null) {
+			super.saveUserRoster(session);
+			return;
+		}
+		synchronized (versions) {
+			long oldVersion = versions.version;
+			long oldMinVersion = versions.minVersion;
+
+			for (RosterElement relem : roster.values()) {
+				if (!relem.isPersistent()) {
+					continue;
+				}
+
+				BareJID jid = relem.getJid().getBareJID();
+				Integer oldHash = versions.items.get(jid);
+
+				if ((oldHash != null) && !relem.isModified()) {
+					continue;
+				}
+
+				int hash = itemHash(relem);
+
+				// only changes visible to the client change the roster version
+				if ((oldHash == null) || (oldHash != hash)) {
+					relem.setVersion(++versions.version);
+					if (versions.removed.remove(jid) != null) {
+						session.removeData(REMOVED_NODE, jid.toString());
+					}
+				}
+				versions.items.put(jid, hash);
+				session.setData(ITEMS_NODE, jid.toString(), relem.getRosterElement().toString());
+			}
+			for (Iterator<BareJID> it = versions.items.keySet().iterator(); it.hasNext(); ) {
+				BareJID jid = it.next();
+				RosterElement relem = roster.get(jid);
+
+				if ((relem == null) || !relem.isPersistent()) {
+					it.remove();
+					session.removeData(ITEMS_NODE, jid.toString());
+					versions.removed.put(jid, ++versions.version);
+					session.setData(REMOVED_NODE, jid.toString(), String.valueOf(versions.version));
+				}
+			}
+			while (versions.removed.size() > MAX_REMOVED_ITEMS) {
+				Map.Entry<BareJID, Long> oldest = Collections.min(versions.removed.entrySet(),
+																  Map.Entry.comparingByValue());
+
+				versions.removed.remove(oldest.getKey());
+				versions.minVersion = oldest.getValue();
+				session.removeData(REMOVED_NODE, oldest.getKey().toString());
+			}
+			if (versions.minVersion != oldMinVersion) {
+				session.setData(null, MIN_VERSION_KEY, String.valueOf(versions.minVersion));
+			}
+			if (versions.version != oldVersion) {
+				session.setData(null, VERSION_KEY, String.valueOf(versions.version));
+			}
+		}
+	}
+
+	@Override
+	protected void updateRosterItem(XMPPResourceConnection session, RosterModifiedEvent event)
+			throws NotAuthorizedException, TigaseDBException {
+		super.updateRosterItem(session, event);
+
+		// item was already stored by the other cluster node, so we only need to update versions
+		RosterVersions versions = getVersions(session);
+
+		if (versions == null) {
+			return;
+		}
+
+		BareJID jid = event.getJid().getBareJID();
+		RosterElement relem = getUserRoster(session).get(jid);
+
+		synchronized (versions) {
+			String stored = session.getData(ITEMS_NODE, jid.toString(), null);
+
+			if ((stored != null) && (relem != null)) {
+				Map<BareJID, RosterElement> tmp = new HashMap<>();
+
+				parseRoster(stored, tmp, session);
+
+				RosterElement storedElem = tmp.get(jid);
+
+				if (storedElem != null) {
+					relem.setVersion(storedElem.getVersion());
+				}
+				versions.items.put(jid, itemHash(relem));
+				versions.removed.remove(jid);
+			} else {
+				versions.items.remove(jid);
+
+				String removed = session.getData(REMOVED_NODE, jid.toString(), null);
+
+				if (removed != null) {
+					versions.removed.put(jid, parseVersion(removed, versions.version));
+				}
+			}
+			versions.version = Math.max(versions.version,
+										parseVersion(session.getData(null, VERSION_KEY, null), versions.version));
+		}
+	}
+
+	private void convertRoster(XMPPResourceConnection session, Map<BareJID, RosterElement> roster,
+							   RosterVersions versions) throws NotAuthorizedException, TigaseDBException {
+		String roster_str = session.getData(null, ROSTER, null);
+
+		synchronized (versions) {
+			versions.version = 1;
+			versions.minVersion = 1;
+			if ((roster_str != null) && !roster_str.isEmpty()) {
+				parseRoster(roster_str, roster, session);
+				for (RosterElement relem : roster.values()) {
+					if (relem.isPersistent()) {
+						relem.setVersion(versions.version);
+						versions.items.put(relem.getJid().getBareJID(), itemHash(relem));
+						session.setData(ITEMS_NODE, relem.getJid().getBareJID().toString(),
+										relem.getRosterElement().toString());
+					}
+				}
+			}
+			session.setData(null, MIN_VERSION_KEY, String.valueOf(versions.minVersion));
+			session.setData(null, VERSION_KEY, String.valueOf(versions.version));
+		}
+		if (roster_str != null) {
+			session.removeData(null, ROSTER);
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Converted roster of user {0}, items: {1}",
+						new Object[]{session.getBareJID(), versions.items.size()});
+			}
+		}
+	}
+
+	private RosterVersions getVersions(XMPPResourceConnection session) {
+		return (RosterVersions) session.getCommonSessionData(STATE_KEY);
+	}
+
+	private void loadItems(XMPPResourceConnection session, Map<BareJID, RosterElement> roster,
+						   RosterVersions versions, long version) throws NotAuthorizedException, TigaseDBException {
+		Map<String, String> items = session.getDataMap(ITEMS_NODE);
+		Map<String, String> removed = session.getDataMap(REMOVED_NODE);
+		boolean modified = false;
+
+		synchronized (versions) {
+			versions.version = version;
+			versions.minVersion = parseVersion(session.getData(null, MIN_VERSION_KEY, null), version);
+			if ((items != null) && !items.isEmpty()) {
+				StringBuilder sb = new StringBuilder(items.size() * 200);
+
+				for (String item : items.values()) {
+					if (item != null) {
+						sb.append(item);
+					}
+				}
+				modified = parseRoster(sb.toString(), roster, session);
+				for (RosterElement relem : roster.values()) {
+					versions.items.put(relem.getJid().getBareJID(), itemHash(relem));
+					// version may not be saved if the node was stopped while saving the roster
+					versions.version = Math.max(versions.version, relem.getVersion());
+				}
+			}
+			if (removed != null) {
+				for (Map.Entry<String, String> entry : removed.entrySet()) {
+					long ver = parseVersion(entry.getValue(), version);
+
+					versions.removed.put(BareJID.bareJIDInstanceNS(entry.getKey()), ver);
+					versions.version = Math.max(versions.version, ver);
+				}
+			}
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Loaded user {0} roster, items: {1}, version: {2}",
+					new Object[]{session.getjid(), roster.size(), versions.version});
+		}
+		if (modified) {
+			saveUserRoster(session);
+		}
+	}
+
+	private Element removedItem(BareJID jid) {
+		return new Element("item", new String[]{"jid", "subscription"}, new String[]{jid.toString(), "remove"});
+	}
+
+	/**
+	 * Versions of the roster items of a single user, kept in the user session.
+	 */
+	private static class RosterVersions {
+
+		private final Map<BareJID, Integer> items = new HashMap<>();
+		private final Map<BareJID, Long> removed = new HashMap<>();
+		private long minVersion = 0;
+		private long version = 0;
+
+	}
+
+}
@@ -0,0 +1,404 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl.roster;
+
+import tigase.stats.StatisticsList;
+import tigase.xmpp.jid.BareJID;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Memory efficient map of roster elements of a single user used instead of <code>ConcurrentHashMap</code>.
+ * <br>
+ * Key of every entry is a bare JID of the roster element, so the map keeps only roster elements in a single open
+ * addressing table with linear probing. There are no objects allocated per entry, and with the table filled up to
+ * 2/3 it needs less than 8 bytes per contact (with compressed references).
+ * <br>
+ * Reading does not require locking: roster is read far more often than modified. Modifications are synchronized and
+ * counted, and a reader which did not find the element while the map was modified repeats the lookup holding the lock.
+ * Iterators work on a snapshot of the map.
+ */
+public class RosterMap
+		extends AbstractMap<BareJID, RosterElement> {
+
+	// rough estimations of memory used by objects with compressed references
+	static final int ELEMENT_BYTES = 80;
+	static final int MAP_BYTES = 48;
+	static final int REF_BYTES = 4;
+
+	private static final LongAdder contacts = new LongAdder();
+	private static final LongAdder maps = new LongAdder();
+	private static final ReferenceQueue<RosterMap> released = new ReferenceQueue<>();
+	private static final LongAdder slots = new LongAdder();
+	private static final Set<Usage> usages = ConcurrentHashMap.newKeySet();
+
+	private volatile int modifications = 0;
+	private int size = 0;
+	private volatile AtomicReferenceArray<RosterElement> table;
+	private final Usage usage;
+
+	/**
+	 * Adds statistics of memory used by all roster maps.
+	 */
+	public static void getStatistics(String compName, StatisticsList list) {
+		drainReleased();
+
+		long count = contacts.sum();
+
+		list.add(compName, "Roster maps", maps.sum(), Level.FINE);
+		list.add(compName, "Roster contacts", count, Level.FINE);
+		list.add(compName, "Roster bytes per contact",
+				 count == 0 ? 0 : (maps.sum() * MAP_BYTES + slots.sum() * REF_BYTES + count * ELEMENT_BYTES) / count,
+				 Level.FINE);
+	}
+
+	private static int capacityFor(int expected) {
+		int capacity = 8;
+
+		while (capacity * 2 < expected * 3) {
+			capacity <<= 1;
+		}
+
+		return capacity;
+	}
+
+	private static void drainReleased() {
+		Usage usage;
+
+		while ((usage = (Usage) released.poll()) != null) {
+			if (usages.remove(usage)) {
+				usage.release();
+			}
+		}
+	}
+
+	private static int indexFor(Object key, int mask) {
+		int h = key.hashCode();
+
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	public RosterMap() {
+		this(8);
+	}
+
+	public RosterMap(int expectedSize) {
+		drainReleased();
+		table = new AtomicReferenceArray<>(capacityFor(expectedSize));
+		usage = new Usage(this);
+		usages.add(usage);
+		maps.increment();
+		usage.update(0, table.length());
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public RosterElement get(Object key) {
+		if (key == null) {
+			return null;
+		}
+
+		int mods = modifications;
+		RosterElement result = find(table, key);
+
+		if (result == null && (mods != modifications || (mods & 1) != 0)) {
+			// element could have been moved during lookup
+			synchronized (this) {
+				result = find(table, key);
+			}
+		}
+
+		return result;
+	}
+
+	@Override
+	public RosterElement put(BareJID key, RosterElement value) {
+		if (!key.equals(value.getJid().getBareJID())) {
+			throw new IllegalArgumentException("Key " + key + " does not match roster element " + value.getJid());
+		}
+		synchronized (this) {
+			AtomicReferenceArray<RosterElement> tab = table;
+			int mask = tab.length() - 1;
+
+			for (int i = indexFor(key, mask); ; i = (i + 1) & mask) {
+				RosterElement current = tab.get(i);
+
+				if (current == null) {
+					if ((size + 1) * 3 > tab.length() * 2) {
+						resize(tab.length() << 1);
+						return put(key, value);
+					}
+					++modifications;
+					tab.set(i, value);
+					++size;
+					++modifications;
+					usage.update(size, tab.length());
+					return null;
+				}
+				if (key.equals(current.getJid().getBareJID())) {
+					tab.set(i, value);
+					return current;
+				}
+			}
+		}
+	}
+
+	@Override
+	public RosterElement remove(Object key) {
+		if (key == null) {
+			return null;
+		}
+		synchronized (this) {
+			AtomicReferenceArray<RosterElement> tab = table;
+			int mask = tab.length() - 1;
+
+			for (int i = indexFor(key, mask); ; i = (i + 1) & mask) {
+				RosterElement current = tab.get(i);
+
+				if (current == null) {
+					return null;
+				}
+				if (key.equals(current.getJid().getBareJID())) {
+					++modifications;
+					deleteSlot(tab, i);
+					--size;
+					++modifications;
+					usage.update(size, tab.length());
+					return current;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void clear() {
+		synchronized (this) {
+			++modifications;
+			table = new AtomicReferenceArray<>(8);
+			size = 0;
+			++modifications;
+			usage.update(0, 8);
+		}
+	}
+
+	@Override
+	public int size() {
+		synchronized (this) {
+			return size;
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public Collection<RosterElement> values() {
+		return new AbstractCollection<RosterElement>() {
+			@Override
+			public Iterator<RosterElement> iterator() {
+				return new SnapshotIterator<RosterElement>() {
+					@Override
+					protected RosterElement value(RosterElement elem) {
+						return elem;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return RosterMap.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<Entry<BareJID, RosterElement>> entrySet() {
+		return new AbstractSet<Entry<BareJID, RosterElement>>() {
+			@Override
+			public Iterator<Entry<BareJID, RosterElement>> iterator() {
+				return new SnapshotIterator<Entry<BareJID, RosterElement>>() {
+					@Override
+					protected Entry<BareJID, RosterElement> value(RosterElement elem) {
+						return new SimpleImmutableEntry<>(elem.getJid().getBareJID(), elem);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return RosterMap.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Removes element from the slot and moves following elements of the probing sequence, so lookups do not need
+	 * markers of removed elements.
+	 */
+	private void deleteSlot(AtomicReferenceArray<RosterElement> tab, int slot) {
+		int mask = tab.length() - 1;
+		int i = slot;
+
+		tab.set(i, null);
+		for (int j = (i + 1) & mask; ; j = (j + 1) & mask) {
+			RosterElement elem = tab.get(j);
+
+			if (elem == null) {
+				return;
+			}
+
+			int home = indexFor(elem.getJid().getBareJID(), mask);
+
+			// element may be moved to the free slot if it is not between its home slot and the current slot
+			if ((j > i && (home <= i || home > j)) || (j < i && (home <= i && home > j))) {
+				tab.set(i, elem);
+				tab.set(j, null);
+				i = j;
+			}
+		}
+	}
+
+	private RosterElement find(AtomicReferenceArray<RosterElement> tab, Object key) {
+		int mask = tab.length() - 1;
+
+		for (int i = indexFor(key, mask), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+			RosterElement current = tab.get(i);
+
+			if (current == null) {
+				return null;
+			}
+			if (key.equals(current.getJid().getBareJID())) {
+				return current;
+			}
+		}
+
+		return null;
+	}
+
+	private void resize(int capacity) {
+		AtomicReferenceArray<RosterElement> old = table;
+		AtomicReferenceArray<RosterElement> tab = new AtomicReferenceArray<>(capacity);
+		int mask = capacity - 1;
+
+		for (int j = 0; j < old.length(); j++) {
+			RosterElement elem = old.get(j);
+
+			if (elem != null) {
+				int i = indexFor(elem.getJid().getBareJID(), mask);
+
+				while (tab.get(i) != null) {
+					i = (i + 1) & mask;
+				}
+				tab.set(i, elem);
+			}
+		}
+		// readers using old table still find all elements in it
+		table = tab;
+	}
+
+	private RosterElement[] snapshot() {
+		synchronized (this) {
+			AtomicReferenceArray<RosterElement> tab = table;
+			RosterElement[] result = new RosterElement[size];
+			int idx = 0;
+
+			for (int i = 0; i < tab.length(); i++) {
+				RosterElement elem = tab.get(i);
+
+				if (elem != null) {
+					result[idx++] = elem;
+				}
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * Keeps numbers of contacts and table slots used by the map, so they may be removed from statistics when the map
+	 * is garbage collected.
+	 */
+	private static class Usage
+			extends WeakReference<RosterMap> {
+
+		private int contacts = 0;
+		private int slots = 0;
+
+		private Usage(RosterMap map) {
+			super(map, released);
+		}
+
+		private synchronized void release() {
+			update(0, 0);
+			maps.decrement();
+		}
+
+		private synchronized void update(int contacts, int slots) {
+			RosterMap.contacts.add(contacts - this.contacts);
+			RosterMap.slots.add(slots - this.slots);
+			this.contacts = contacts;
+			this.slots = slots;
+		}
+	}
+
+	private abstract class SnapshotIterator<T>
+			implements Iterator<T> {
+
+		private final RosterElement[] elements = snapshot();
+		private int idx = 0;
+		private RosterElement last = null;
+
+		@Override
+		public boolean hasNext() {
+			return idx < elements.length;
+		}
+
+		@Override
+		public T next() {
+			if (idx >= elements.length) {
+				throw new NoSuchElementException();
+			}
+			last = elements[idx++];
+			return value(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last == null) {
+				throw new IllegalStateException();
+			}
+			RosterMap.this.remove(last.getJid().getBareJID());
+			last = null;
+		}
+
+		protected abstract T value(RosterElement elem);
+	}
+
+}
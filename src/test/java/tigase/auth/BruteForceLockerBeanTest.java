@@ -243,4 +243,84 @@ public class BruteForceLockerBeanTest {
 
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void test4InvalidLoginsBucketed() {
+		BruteForceLockerBean bean = new BruteForceLockerBean();
+		bean.setMap(new BruteForceLockerBucketedMap(1000, 4));
+
+		for (int i = 0; i < 4; i++) {
+			bean.addInvalidLogin(null, "1.2.3.4", BareJID.bareJIDInstanceNS("a@bc.d"), 100000 + i);
+		}
+		Assert.assertFalse(bean.isLoginAllowed(null, "1.2.3.4", BareJID.bareJIDInstanceNS("a@bc.d"), 100005));
+		Assert.assertTrue(bean.isLoginAllowed(null, "1.2.3.5", BareJID.bareJIDInstanceNS("a@bc.d"), 100005));
+
+		// entry expires with its time bucket
+		bean.clearOutdated(100003 + 10_000);
+		Assert.assertFalse(bean.isLoginAllowed(null, "1.2.3.4", BareJID.bareJIDInstanceNS("a@bc.d"), 100005));
+		bean.clearOutdated(100003 + 11_000);
+		Assert.assertTrue(bean.isLoginAllowed(null, "1.2.3.4", BareJID.bareJIDInstanceNS("a@bc.d"), 100005));
+	}
+
+	@Test
+	public void testBucketedMapExpiry() {
+		BruteForceLockerBucketedMap map = new BruteForceLockerBucketedMap(1000, 4);
+		BruteForceLockerBean.Key k1 = new BruteForceLockerBean.Key("1.2.3.4", "a@b.c", "b.c");
+		BruteForceLockerBean.Key k2 = new BruteForceLockerBean.Key("1.2.3.5", "a@b.c", "b.c");
+		BruteForceLockerBean.Value v1 = new BruteForceLockerBean.Value("b.c", "1.2.3.4", null);
+		BruteForceLockerBean.Value v2 = new BruteForceLockerBean.Value("b.c", "1.2.3.5", null);
+
+		v1.setInvalidateAtTime(1500);
+		v2.setInvalidateAtTime(2500);
+		map.put(k1, v1);
+		map.put(k2, v2);
+		Assert.assertEquals(2, map.size());
+		Assert.assertEquals(2, map.bucketsCount());
+
+		// first entry moved to a later bucket
+		map.compute(k1, (k, v) -> {
+			v.setInvalidateAtTime(3500);
+			return v;
+		});
+		Assert.assertEquals(0, map.removeExpired(2000));
+		Assert.assertEquals(1, map.removeExpired(3000));
+		Assert.assertNull(map.get(k2));
+		Assert.assertEquals(v1, map.get(k1));
+		Assert.assertEquals(1, map.removeExpired(4000));
+		Assert.assertEquals(0, map.size());
+		Assert.assertEquals(0, map.bucketsCount());
+	}
+
+	@Test
+	public void testBucketedMapSync() {
+		BruteForceLockerBucketedMap map = new BruteForceLockerBucketedMap(1000, 4);
+		BruteForceLockerBean.Key k1 = new BruteForceLockerBean.Key("1.2.3.4", "a@b.c", "b.c");
+
+		for (int i = 1; i <= 3; i++) {
+			final int counter = i;
+			map.compute(k1, (k, v) -> {
+				BruteForceLockerBean.Value value = v == null ? new BruteForceLockerBean.Value("b.c", "1.2.3.4",
+																							  null) : v;
+				value.setBadLoginCounter(counter);
+				value.setInvalidateAtTime(1000 * counter);
+				return value;
+			});
+		}
+
+		// changes of the same entry are sent once
+		BruteForceLockerBean.InvalidLogins batch = new BruteForceLockerBean.InvalidLogins(map.drainChanged());
+		Assert.assertEquals(1, batch.getEntries().size());
+		Assert.assertTrue(map.drainChanged().isEmpty());
+
+		DefaultTypesConverter converter = new DefaultTypesConverter();
+		BruteForceLockerBean.InvalidLogins received = converter.convert(converter.toString(batch),
+																		 BruteForceLockerBean.InvalidLogins.class);
+
+		BruteForceLockerBucketedMap remote = new BruteForceLockerBucketedMap(1000, 4);
+		received.getEntries().forEach(remote::merge);
+		Assert.assertEquals(3, remote.get(k1).getBadLoginCounter());
+		Assert.assertEquals(3000, remote.get(k1).getInvalidateAtTime());
+		// entries received from other nodes are not sent back
+		Assert.assertTrue(remote.drainChanged().isEmpty());
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.auth;
+
+import org.junit.Assert;
+import org.junit.Test;
+import tigase.auth.credentials.entries.PlainCredentialsEntry;
+import tigase.auth.credentials.entries.ScramCredentialsEntry;
+import tigase.db.AuthRepository;
+import tigase.xmpp.jid.BareJID;
+
+public class ScramKeyCacheBeanTest {
+
+	private static final byte[][] KEYS = new byte[][]{{1}, {2}, {3}};
+
+	@Test
+	public void testGetAndPut() throws Exception {
+		ScramKeyCacheBean cache = new ScramKeyCacheBean();
+		BareJID jid = BareJID.bareJIDInstanceNS("user@example.com");
+		ScramCredentialsEntry entry = new ScramCredentialsEntry("SHA-1", new PlainCredentialsEntry("pencil"));
+		byte[] version = ScramKeyCacheBean.version(entry);
+
+		Assert.assertNull(cache.get(jid, "default", "SCRAM-SHA-1", version));
+
+		cache.put(jid, "default", "SCRAM-SHA-1", version, entry, KEYS);
+		Assert.assertSame(KEYS, cache.get(jid, "default", "SCRAM-SHA-1", version).getKeys());
+		Assert.assertNull(cache.get(jid, "default", "SCRAM-SHA-256", version));
+
+		// changed password
+		byte[] otherVersion = ScramKeyCacheBean.version(new PlainCredentialsEntry("other"));
+		Assert.assertNull(cache.get(jid, "default", "SCRAM-SHA-1", otherVersion));
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		ScramKeyCacheBean cache = new ScramKeyCacheBean();
+		BareJID jid = BareJID.bareJIDInstanceNS("user@example.com");
+		byte[] version = ScramKeyCacheBean.version(new PlainCredentialsEntry("pencil"));
+
+		cache.put(jid, "default", "SCRAM-SHA-1", version, null, KEYS);
+		cache.handleCredentialsChangedEvent(new AuthRepository.CredentialsChangedEvent(jid));
+		Assert.assertNull(cache.get(jid, "default", "SCRAM-SHA-1", version));
+	}
+
+	@Test
+	public void testSizeLimit() {
+		ScramKeyCacheBean cache = new ScramKeyCacheBean();
+		cache.setCacheSize(16);
+		byte[] version = ScramKeyCacheBean.version(new PlainCredentialsEntry("pencil"));
+
+		for (int i = 0; i < 1000; i++) {
+			cache.put(BareJID.bareJIDInstanceNS("user" + i + "@example.com"), "default", "SCRAM-SHA-1", version, null,
+					  KEYS);
+		}
+
+		int cached = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (cache.get(BareJID.bareJIDInstanceNS("user" + i + "@example.com"), "default", "SCRAM-SHA-1",
+						  version) != null) {
+				cached++;
+			}
+		}
+		Assert.assertTrue(cached <= 16);
+		Assert.assertTrue(cached > 0);
+	}
+
+}
@@ -171,6 +171,38 @@ public class SaslSCRAMTest
 
 	}
 
+	@Test
+	public void testServerFirstMessageWithScramKeys() throws Exception {
+		final byte[] CFM = "n,,n=user,r=fyko+d2lbbFgONRv9qkxdawL".getBytes("UTF-8");
+		final byte[] CSM = "c=biws,r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,p=v0X8v3Bz2T0CJGbJQyF0X+HI4Ts=".getBytes("UTF-8");
+		final byte[] SSM = "v=rmF9pqV8S7suAoZWja4dJRkFsKQ=".getBytes("UTF-8");
+
+		final int[] keysCallbacks = new int[1];
+		TestCallbackHandler h = new TestCallbackHandler() {
+			@Override
+			public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+				if (callbacks.length == 1 && callbacks[0] instanceof ScramKeysCallback) {
+					ScramKeysCallback kc = (ScramKeysCallback) callbacks[0];
+					try {
+						kc.setKeys(AbstractSaslSCRAM.keys(kc.getAlgorithm(), kc.getSaltedPassword(),
+														  kc.getClientKeyData(), kc.getServerKeyData()));
+					} catch (Exception e) {
+						throw new IOException(e);
+					}
+					keysCallbacks[0]++;
+				} else {
+					super.handle(callbacks);
+				}
+			}
+		};
+		SaslSCRAM m = create("QSXCR+Q6sek8bf92", "3rfcNHYJY1ZVvWVs7j", "pencil", h);
+
+		m.evaluateResponse(CFM);
+		Assert.assertArrayEquals(SSM, m.evaluateResponse(CSM));
+		assertEquals(1, keysCallbacks[0]);
+		assertTrue(m.isComplete());
+	}
+
 	@Test
 	public void testServerFirstMessageFail_1() throws UnsupportedEncodingException {
 		try {
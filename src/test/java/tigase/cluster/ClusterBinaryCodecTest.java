@@ -0,0 +1,154 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.xml.Element;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ClusterBinaryCodecTest {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		ClusterBinaryCodec.Encoder encoder = new ClusterBinaryCodec.Encoder();
+		ClusterBinaryCodec.Decoder decoder = new ClusterBinaryCodec.Decoder();
+
+		Element el = createClusterElement(1);
+		encoder.writeElement(el);
+		decoder.feed(encoder.flush());
+
+		assertTrue(decoder.readFrame());
+		assertFalse(decoder.isAck());
+		assertEquals(el.toString(), decoder.getElement().toString());
+		assertSame("cluster", decoder.getElement().getName());
+		assertFalse(decoder.readFrame());
+
+		Packet packet = decoder.getPacket();
+		assertEquals("sess-man@node1", packet.getStanzaFrom().toString());
+		assertEquals("sess-man@node2", packet.getStanzaTo().toString());
+	}
+
+	@Test
+	public void testRepeatedValuesAreShorter() throws Exception {
+		ClusterBinaryCodec.Encoder encoder = new ClusterBinaryCodec.Encoder();
+
+		encoder.writeElement(createClusterElement(1));
+		int first = encoder.flush().remaining();
+		encoder.writeElement(createClusterElement(2));
+		assertTrue(encoder.flush().remaining() < first);
+	}
+
+	@Test
+	public void testPartialFrames() throws Exception {
+		ClusterBinaryCodec.Encoder encoder = new ClusterBinaryCodec.Encoder();
+		ClusterBinaryCodec.Decoder decoder = new ClusterBinaryCodec.Decoder();
+
+		Element[] elements = new Element[10];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = createClusterElement(i);
+			encoder.writeElement(elements[i]);
+		}
+		encoder.writeAck();
+		ByteBuffer data = encoder.flush();
+
+		int idx = 0;
+		boolean ack = false;
+		// feeding data in small chunks
+		while (data.hasRemaining()) {
+			ByteBuffer chunk = data.slice();
+			chunk.limit(Math.min(7, chunk.remaining()));
+			data.position(data.position() + chunk.remaining());
+			decoder.feed(chunk);
+			while (decoder.readFrame()) {
+				if (decoder.isAck()) {
+					ack = true;
+				} else {
+					assertEquals(elements[idx++].toString(), decoder.getElement().toString());
+				}
+			}
+		}
+		assertEquals(elements.length, idx);
+		assertTrue(ack);
+	}
+
+	@Test
+	public void testMixedContent() throws Exception {
+		ClusterBinaryCodec.Encoder encoder = new ClusterBinaryCodec.Encoder();
+		ClusterBinaryCodec.Decoder decoder = new ClusterBinaryCodec.Decoder();
+
+		Element el = new Element("message", new String[]{"from", "to"},
+								 new String[]{"user1@example.com/res", "user2@example.com"});
+		Element body = new Element("body");
+		body.setCData("Hello &amp; ");
+		body.addChild(new Element("b", "welcome"));
+		el.addChild(body);
+
+		encoder.writeElement(el);
+		decoder.feed(encoder.flush());
+		assertTrue(decoder.readFrame());
+		assertEquals("user1@example.com/res", decoder.getElement().getAttributeStaticStr("from"));
+		assertEquals(1, decoder.getElement().getChild("body").getChildren().size());
+	}
+
+	@Test
+	public void testDictionaryOverflow() throws Exception {
+		ClusterBinaryCodec.Encoder encoder = new ClusterBinaryCodec.Encoder();
+		ClusterBinaryCodec.Decoder decoder = new ClusterBinaryCodec.Decoder();
+
+		for (int i = 0; i < ClusterBinaryCodec.DICTIONARY_SIZE * 2 + 10; i++) {
+			Element el = new Element("presence", new String[]{"from", "to"},
+									 new String[]{"user" + i + "@example.com", "user@example.com"});
+			encoder.writeElement(el);
+			decoder.feed(encoder.flush());
+			assertTrue(decoder.readFrame());
+			assertEquals(el.toString(), decoder.getElement().toString());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidFrameLength() throws Exception {
+		ClusterBinaryCodec.Decoder decoder = new ClusterBinaryCodec.Decoder();
+
+		decoder.feed(ByteBuffer.wrap(new byte[]{0x7F, 0, 0, 0, 1}));
+		decoder.readFrame();
+	}
+
+	private Element createClusterElement(int id) {
+		Element cluster = new Element("cluster", new String[]{"from", "to", "id", "type"},
+									  new String[]{"sess-man@node1", "sess-man@node2", "cl-" + id, "set"});
+		cluster.setXMLNS("tigase:cluster");
+		Element control = new Element("control");
+		control.addChild(new Element("visited-nodes", new Element[]{new Element("node-id", "sess-man@node1")},
+									 null, null));
+		control.addChild(new Element("method-name", "packet-forward-sm-cmd"));
+		control.addChild(new Element("first-node", "sess-man@node1"));
+		cluster.addChild(control);
+		Element data = new Element("data");
+		data.addChild(new Element("message", new Element[]{new Element("body", "Message " + id)},
+								  new String[]{"from", "to", "type"},
+								  new String[]{"user1@example.com/res", "user2@example.com", "chat"}));
+		cluster.addChild(data);
+		return cluster;
+	}
+
+}
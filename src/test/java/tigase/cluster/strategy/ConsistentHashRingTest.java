@@ -0,0 +1,119 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ConsistentHashRingTest {
+
+	private static List<String> nodes(int count) {
+		List<String> nodes = new ArrayList<>();
+
+		for (int i = 1; i <= count; i++) {
+			nodes.add("sess-man@node" + i + ".example.com");
+		}
+
+		return nodes;
+	}
+
+	@Test
+	public void testEmptyRing() {
+		ConsistentHashRing<String> ring = new ConsistentHashRing<>(Collections.emptyList(), 16);
+
+		assertNull(ring.nodeFor("user@example.com"));
+		assertEquals(0, ring.size());
+	}
+
+	@Test
+	public void testSameOwnerForAnyOrderOfNodes() {
+		List<String> nodes = nodes(5);
+		ConsistentHashRing<String> ring1 = new ConsistentHashRing<>(nodes, 64);
+
+		Collections.reverse(nodes);
+
+		ConsistentHashRing<String> ring2 = new ConsistentHashRing<>(nodes, 64);
+
+		for (int i = 0; i < 1000; i++) {
+			String key = "user-" + i + "@example.com";
+
+			assertEquals(ring1.nodeFor(key), ring2.nodeFor(key));
+		}
+	}
+
+	@Test
+	public void testDistribution() {
+		List<String> nodes = nodes(8);
+		ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes, 128);
+		Map<String, Integer> counts = new HashMap<>();
+		int keys = 80000;
+
+		for (int i = 0; i < keys; i++) {
+			counts.merge(ring.nodeFor("user-" + i + "@example.com"), 1, Integer::sum);
+		}
+		assertEquals(nodes.size(), counts.size());
+		for (int count : counts.values()) {
+			// every node should own between 1/2 and 3/2 of an average share of keys
+			assertTrue("Unbalanced ring: " + counts, count > keys / nodes.size() / 2);
+			assertTrue("Unbalanced ring: " + counts, count < keys / nodes.size() * 3 / 2);
+		}
+	}
+
+	@Test
+	public void testOnlyKeysOfChangedNodeAreMoved() {
+		List<String> nodes = nodes(4);
+		ConsistentHashRing<String> before = new ConsistentHashRing<>(nodes, 128);
+		List<String> more = new ArrayList<>(nodes);
+
+		more.add("sess-man@node5.example.com");
+
+		ConsistentHashRing<String> after = new ConsistentHashRing<>(more, 128);
+		int moved = 0;
+		int keys = 10000;
+
+		for (int i = 0; i < keys; i++) {
+			String key = "user-" + i + "@example.com";
+			String oldOwner = before.nodeFor(key);
+			String newOwner = after.nodeFor(key);
+
+			if (!oldOwner.equals(newOwner)) {
+				// keys may move only to the new node
+				assertEquals("sess-man@node5.example.com", newOwner);
+				moved++;
+			}
+		}
+		assertTrue("Too many keys moved: " + moved, moved < keys * 2 / 5);
+		assertTrue("No keys moved", moved > 0);
+	}
+
+	@Test
+	public void testDuplicatedNodes() {
+		List<String> nodes = nodes(3);
+
+		nodes.add(nodes.get(0));
+
+		ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes, 8);
+
+		assertEquals(3, ring.size());
+		assertEquals(nodes.subList(0, 3), ring.getNodes());
+	}
+
+}
@@ -86,8 +86,10 @@ public class DefaultClusterStrategyTest extends AbstractKernelTestCase {
 		assertEquals(null, strategy.getNodesForPacketForward(sm.getComponentId(), null, packet));
 	}
 
-	private class DummyClusterController implements ClusterControllerIfc {
+	protected class DummyClusterController implements ClusterControllerIfc {
 
+		protected final Map<String, CommandListener> listeners = new ConcurrentHashMap<>();
+		protected final List<SentCommand> sent = new ArrayList<>();
 		private List<String> nodes = new ArrayList<>();
 
 		@Override
@@ -109,57 +111,84 @@ public class DefaultClusterStrategyTest extends AbstractKernelTestCase {
 
 		@Override
 		public void removeCommandListener(CommandListener listener) {
-
+			listeners.remove(listener.getName(), listener);
 		}
 
 		@Override
 		public void sendToNodes(String command, Map<String, String> data, Queue<Element> packets, JID fromNode,
 								Set<JID> visitedNodes, JID... toNodes) {
-
+			sent.add(new SentCommand(command, data, packets, fromNode, toNodes));
 		}
 
 		@Override
 		public void sendToNodes(String command, Queue<Element> packets, JID fromNode, Set<JID> visitedNodes,
 								JID... toNodes) {
-
+			sendToNodes(command, null, packets, fromNode, visitedNodes, toNodes);
 		}
 
 		@Override
 		public void sendToNodes(String command, Map<String, String> data, JID fromNode, Set<JID> visitedNodes,
 								JID... toNodes) {
-
+			sendToNodes(command, data, (Queue<Element>) null, fromNode, visitedNodes, toNodes);
 		}
 
 		@Override
 		public void sendToNodes(String command, Map<String, String> data, JID fromNode, JID... toNodes) {
-
+			sendToNodes(command, data, (Queue<Element>) null, fromNode, null, toNodes);
 		}
 
 		@Override
 		public void sendToNodes(String command, JID fromNode, JID... toNodes) {
-
+			sendToNodes(command, null, (Queue<Element>) null, fromNode, null, toNodes);
 		}
 
 		@Override
 		public void sendToNodes(String command, Element packet, JID fromNode, Set<JID> visitedNodes, JID... toNodes) {
-
+			sendToNodes(command, null, new ArrayDeque<>(Collections.singletonList(packet)), fromNode, visitedNodes,
+						toNodes);
 		}
 
 		@Override
 		public void sendToNodes(String command, Map<String, String> data, Element packet, JID fromNode,
 								Set<JID> visitedNodes, JID... toNodes) {
-
+			sendToNodes(command, data, new ArrayDeque<>(Collections.singletonList(packet)), fromNode, visitedNodes,
+						toNodes);
 		}
 
 		@Override
 		public void setCommandListener(CommandListener listener) {
+			listeners.put(listener.getName(), listener);
+		}
+	}
 
+	protected static class SentCommand {
+
+		protected final String command;
+		protected final Map<String, String> data;
+		protected final JID fromNode;
+		protected final List<Element> packets;
+		protected final List<JID> toNodes;
+
+		private SentCommand(String command, Map<String, String> data, Queue<Element> packets, JID fromNode,
+							JID[] toNodes) {
+			this.command = command;
+			this.data = data == null ? Collections.emptyMap() : new HashMap<>(data);
+			this.packets = packets == null ? Collections.emptyList() : new ArrayList<>(packets);
+			this.fromNode = fromNode;
+			this.toNodes = Arrays.asList(toNodes);
+		}
+
+		@Override
+		public String toString() {
+			return command + " " + toNodes + " " + data;
 		}
 	}
 
-	private class DummySessionManagerClustered
+	protected class DummySessionManagerClustered
 			implements SessionManagerClusteredIfc {
 
+		private final JID componentId = JID.jidInstanceNS("sess-man@" + UUID.randomUUID().toString());
+
 		@Override
 		public boolean fastAddOutPacket(Packet packet) {
 			return false;
@@ -197,7 +226,7 @@ public class DefaultClusterStrategyTest extends AbstractKernelTestCase {
 
 		@Override
 		public JID getComponentId() {
-			return JID.jidInstanceNS("sess-man@" + UUID.randomUUID().toString());
+			return componentId;
 		}
 
 		@Override
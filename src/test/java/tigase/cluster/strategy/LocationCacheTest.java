@@ -0,0 +1,101 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LocationCacheTest {
+
+	@Test
+	public void testGetAndInvalidate() {
+		LocationCache<String, String> cache = new LocationCache<>(10, 1000);
+
+		assertNull(cache.get("user1", 0));
+		cache.put("user1", "node1", 0);
+		assertEquals("node1", cache.get("user1", 10));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		assertTrue(cache.invalidate("user1"));
+		assertFalse(cache.invalidate("user1"));
+		assertNull(cache.get("user1", 20));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testExpiration() {
+		LocationCache<String, String> cache = new LocationCache<>(10, 1000);
+
+		cache.put("user1", "node1", 0);
+		assertEquals("node1", cache.get("user1", 999));
+		assertNull(cache.get("user1", 1000));
+		// expired entry is removed on read
+		assertEquals(0, cache.size());
+
+		// entry is expired from the time when it was put last time
+		cache.put("user2", "node1", 0);
+		cache.put("user2", "node2", 500);
+		assertEquals("node2", cache.get("user2", 1200));
+	}
+
+	@Test
+	public void testExpiredEntriesRemovedFirst() {
+		LocationCache<String, String> cache = new LocationCache<>(8, 1000);
+
+		for (int i = 0; i < 4; i++) {
+			cache.put("old" + i, "node1", 0);
+		}
+		for (int i = 0; i < 5; i++) {
+			cache.put("new" + i, "node1", 2000);
+		}
+
+		// only expired entries were removed
+		assertEquals(5, cache.size());
+		assertEquals(0, cache.getEvictions());
+		for (int i = 0; i < 5; i++) {
+			assertEquals("node1", cache.get("new" + i, 2000));
+		}
+	}
+
+	@Test
+	public void testEviction() {
+		LocationCache<String, String> cache = new LocationCache<>(16, 1000);
+
+		for (int i = 0; i < 16; i++) {
+			cache.put("user" + i, "node1", 0);
+		}
+		assertEquals(16, cache.size());
+		assertEquals(0, cache.getEvictions());
+
+		// cache is trimmed to 7/8 of the limit, so eviction is not needed after every put
+		cache.put("user16", "node1", 0);
+		assertEquals(14, cache.size());
+		assertEquals(3, cache.getEvictions());
+
+		cache.put("user17", "node1", 0);
+		cache.put("user18", "node1", 0);
+		assertEquals(16, cache.size());
+		assertEquals(3, cache.getEvictions());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+}
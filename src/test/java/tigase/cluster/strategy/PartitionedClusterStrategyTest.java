@@ -0,0 +1,390 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import org.junit.Test;
+import tigase.cluster.api.ClusterCommandException;
+import tigase.cluster.api.SessionManagerClusteredIfc;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PartitionedClusterStrategyTest
+		extends DefaultClusterStrategyTest {
+
+	private static final String INDEX_INVALIDATE_CMD = "index-invalidate-sm-cmd";
+	private static final String INDEX_LOCATION_CMD = "index-location-sm-cmd";
+	private static final String INDEX_LOOKUP_CMD = "index-lookup-sm-cmd";
+	private static final String INDEX_SYNC_CMD = "index-sync-sm-cmd";
+	private static final String INDEX_UPDATE_CMD = "index-update-sm-cmd";
+
+	private DummyClusterController cluster;
+	private JID node1;
+	private JID node2;
+	private JID self;
+	private DummySessionManagerClustered sm;
+	private PartitionedClusteringStrategy<ConnectionRecordIfc> strategy;
+
+	@Override
+	protected Class<? extends DefaultClusteringStrategyAbstract> getStrategyClass() {
+		return PartitionedClusteringStrategy.class;
+	}
+
+	@Test
+	public void testOwnerAddAndRemove() throws ClusterCommandException {
+		setUpCluster();
+
+		BareJID user = userOwnedBy(self);
+		ConnectionRecordIfc rec1 = record(node1, user, "res1");
+		ConnectionRecordIfc rec2 = record(node2, user, "res2");
+
+		strategy.handleRemoteResourceBind(rec1);
+		strategy.handleRemoteResourceBind(rec2);
+		assertEquals(new HashSet<>(Arrays.asList(rec1, rec2)), strategy.getConnectionRecords(user));
+
+		// user connected to other nodes receives presence relayed by the owner
+		executeCommand(INDEX_UPDATE_CMD, node1, updateData(rec1, "presence"), presence(user));
+		SentCommand relay = single("user-presence-sm-cmd");
+		assertEquals(Collections.singletonList(node2), relay.toNodes);
+		assertEquals(node1, relay.fromNode);
+
+		cluster.sent.clear();
+		executeCommand(INDEX_UPDATE_CMD, node1, updateData(rec1, "remove"), presence(user));
+		assertEquals(Collections.singleton(rec2), strategy.getConnectionRecords(user));
+		assertEquals(Collections.singletonList(node2), single("user-presence-sm-cmd").toNodes);
+
+		cluster.sent.clear();
+		executeCommand(INDEX_UPDATE_CMD, node2, updateData(rec2, "remove"), presence(user));
+		assertEquals(Collections.emptySet(), strategy.getConnectionRecords(user));
+		// there is no other node with user's connections
+		assertTrue(cluster.sent.isEmpty());
+	}
+
+	@Test
+	public void testRecordsOfOtherUsersNotIndexed() {
+		setUpCluster();
+
+		BareJID user = userOwnedBy(node1);
+
+		strategy.handleRemoteResourceBind(record(node2, user, "res1"));
+		// location of the user is not known yet
+		assertNull(strategy.getConnectionRecords(user));
+	}
+
+	@Test
+	public void testLookupAndWatcherInvalidation() throws Exception {
+		setUpCluster();
+
+		BareJID user = userOwnedBy(self);
+		ConnectionRecordIfc rec1 = record(node1, user, "res1");
+
+		strategy.handleRemoteResourceBind(rec1);
+
+		// node2 does not know location of the user and sends the packet to the owner
+		Packet packet = message(user);
+		Map<String, String> data = new HashMap<>();
+		data.put("index-owner", self.toString());
+		data.put("index-lookup", "true");
+		assertTrue(strategy.sendToNextNode(node2, null, data, packet));
+
+		SentCommand location = single(INDEX_LOCATION_CMD);
+		assertEquals(Collections.singletonList(node2), location.toNodes);
+		assertEquals(user.toString(), location.data.get("jids"));
+		assertEquals(1, location.packets.size());
+
+		SentCommand forward = single("packet-forward-sm-cmd");
+		assertEquals(Collections.singletonList(node1), forward.toNodes);
+		assertEquals(node2, forward.fromNode);
+		assertFalse(forward.data.containsKey("index-owner"));
+		assertFalse(forward.data.containsKey("index-lookup"));
+
+		// node2 is notified once when location of the user changes
+		cluster.sent.clear();
+		strategy.handleRemoteResourceBind(record(node2, user, "res2"));
+		assertEquals(Collections.singletonList(node2), single(INDEX_INVALIDATE_CMD).toNodes);
+
+		cluster.sent.clear();
+		strategy.handleRemoteResourceBind(record(node1, user, "res3"));
+		assertTrue(cluster.sent.isEmpty());
+	}
+
+	@Test
+	public void testLocationCachedByOtherNodes() throws Exception {
+		setUpCluster();
+
+		BareJID user = userOwnedBy(node1);
+		Packet packet = message(user);
+
+		// location is not known, packet is sent to the owner with request for location
+		assertTrue(strategy.processPacket(packet, null));
+		SentCommand forward = single("packet-forward-sm-cmd");
+		assertEquals(Collections.singletonList(node1), forward.toNodes);
+		assertEquals(node1.toString(), forward.data.get("index-owner"));
+		assertEquals("true", forward.data.get("index-lookup"));
+
+		// lookup for the same user is not repeated until owner responds
+		cluster.sent.clear();
+		assertTrue(strategy.processPacket(packet, null));
+		assertNull(single("packet-forward-sm-cmd").data.get("index-lookup"));
+
+		// owner responds with location of the user
+		executeCommand(INDEX_LOCATION_CMD, node1, Collections.singletonMap("jids", user.toString()),
+					   record(node2, user, "res1").toElement());
+		assertEquals(1, strategy.getConnectionRecords(user).size());
+
+		cluster.sent.clear();
+		assertTrue(strategy.processPacket(packet, null));
+		forward = single("packet-forward-sm-cmd");
+		assertEquals(Collections.singletonList(node2), forward.toNodes);
+		assertNull(forward.data.get("index-owner"));
+
+		// cached location is invalidated by the owner
+		executeCommand(INDEX_INVALIDATE_CMD, node1, Collections.singletonMap("jids", user.toString()));
+		assertNull(strategy.getConnectionRecords(user));
+
+		cluster.sent.clear();
+		assertTrue(strategy.processPacket(packet, null));
+		forward = single("packet-forward-sm-cmd");
+		assertEquals(Collections.singletonList(node1), forward.toNodes);
+		assertEquals("true", forward.data.get("index-lookup"));
+	}
+
+	@Test
+	public void testOfflineUserLocation() throws Exception {
+		setUpCluster();
+
+		BareJID user = userOwnedBy(node1);
+
+		// owner responds that user is not connected to any node
+		executeCommand(INDEX_LOCATION_CMD, node1, Collections.singletonMap("jids", user.toString()));
+		assertEquals(Collections.emptySet(), strategy.getConnectionRecords(user));
+
+		// packet is processed locally
+		assertFalse(strategy.processPacket(message(user), null));
+		assertTrue(cluster.sent.isEmpty());
+	}
+
+	@Test
+	public void testLookupOfContactsLocations() throws Exception {
+		setUpCluster();
+
+		List<BareJID> users = usersOwnedBy(self, 2);
+		BareJID user1 = users.get(0);
+		BareJID user2 = users.get(1);
+
+		strategy.handleRemoteResourceBind(record(node1, user1, "res1"));
+
+		executeCommand(INDEX_LOOKUP_CMD, node2, Collections.singletonMap("jids", user1 + "," + user2));
+		SentCommand location = single(INDEX_LOCATION_CMD);
+		assertEquals(Collections.singletonList(node2), location.toNodes);
+		assertEquals(user1 + "," + user2, location.data.get("jids"));
+		assertEquals(1, location.packets.size());
+
+		// node2 is watching location of both users
+		cluster.sent.clear();
+		strategy.handleRemoteResourceBind(record(node1, user2, "res1"));
+		assertEquals(Collections.singletonList(node2), single(INDEX_INVALIDATE_CMD).toNodes);
+	}
+
+	@Test
+	public void testStaleLocationSendsPacketBack() throws Exception {
+		setUpCluster();
+
+		BareJID user = userOwnedBy(node1);
+		Packet packet = message(user);
+
+		// packet forwarded directly from node2 using stale location, there is no session of the user here
+		assertTrue(strategy.sendToNextNode(node2, null, new HashMap<>(), packet));
+		SentCommand back = single("packet-forward-sm-cmd");
+		assertEquals(Collections.singletonList(node2), back.toNodes);
+		assertEquals(node2, back.fromNode);
+
+		// packet was delivered to user's session
+		cluster.sent.clear();
+		Map<String, String> data = new HashMap<>();
+		data.put(SessionManagerClusteredIfc.SESSION_FOUND_KEY, node2.toString());
+		assertFalse(strategy.sendToNextNode(node2, null, data, packet));
+		assertTrue(cluster.sent.isEmpty());
+
+		// packet returned to the first node is processed there
+		assertFalse(strategy.sendToNextNode(self, null, new HashMap<>(), packet));
+		assertTrue(cluster.sent.isEmpty());
+	}
+
+	@Test
+	public void testOfflineUserResolvedByOwner() throws Exception {
+		setUpCluster();
+
+		BareJID user = userOwnedBy(self);
+		Map<String, String> data = new HashMap<>();
+		data.put("index-owner", self.toString());
+
+		assertTrue(strategy.sendToNextNode(node1, null, data, message(user)));
+		SentCommand back = single("packet-forward-sm-cmd");
+		assertEquals(Collections.singletonList(node1), back.toNodes);
+		assertFalse(back.data.containsKey("index-owner"));
+	}
+
+	@Test
+	public void testMembershipChange() throws Exception {
+		setUpCluster();
+
+		List<BareJID> users = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			BareJID user = BareJID.bareJIDInstanceNS("member" + i, "localhost");
+			if (self.equals(strategy.getOwner(user))) {
+				users.add(user);
+				strategy.handleRemoteResourceBind(record(node1, user, "res"));
+			}
+		}
+		assertFalse(users.isEmpty());
+
+		BareJID remote = userOwnedBy(node1);
+		executeCommand(INDEX_LOCATION_CMD, node1, Collections.singletonMap("jids", remote.toString()),
+					   record(node2, remote, "res").toElement());
+		assertNotNull(strategy.getConnectionRecords(remote));
+
+		JID node3 = connect("node3");
+
+		// cached locations are dropped and users owned now by node3 are removed from the index
+		assertNull(strategy.getConnectionRecords(remote));
+		for (BareJID user : users) {
+			if (self.equals(strategy.getOwner(user))) {
+				assertEquals(1, strategy.getConnectionRecords(user).size());
+			} else {
+				assertEquals(node3, strategy.getOwner(user));
+			}
+		}
+
+		// connections of disconnected node are removed from the index
+		sm.nodeDisconnected("node1");
+		strategy.nodeDisconnected(node1);
+		for (BareJID user : users) {
+			if (self.equals(strategy.getOwner(user))) {
+				assertEquals(Collections.emptySet(), strategy.getConnectionRecords(user));
+			}
+		}
+	}
+
+	@Test
+	public void testIndexSync() throws Exception {
+		setUpCluster();
+
+		BareJID user = userOwnedBy(self);
+
+		executeCommand(INDEX_SYNC_CMD, node1, null, record(node1, user, "res1").toElement(),
+					   record(node2, user, "res2").toElement());
+		assertEquals(2, strategy.getConnectionRecords(user).size());
+	}
+
+	private void setUpCluster() {
+		strategy = (PartitionedClusteringStrategy<ConnectionRecordIfc>) getInstance(
+				DefaultClusteringStrategyAbstract.class);
+		cluster = getInstance(DummyClusterController.class);
+		sm = getInstance(DummySessionManagerClustered.class);
+		strategy.setClusterController(cluster);
+		self = sm.getComponentId();
+		node1 = connect("node1");
+		node2 = connect("node2");
+		cluster.sent.clear();
+	}
+
+	private JID connect(String name) {
+		JID node = JID.jidInstanceNS("sess-man", name, null);
+
+		sm.nodeConnected(name);
+		strategy.nodeConnected(node);
+
+		return node;
+	}
+
+	private void executeCommand(String command, JID fromNode, Map<String, String> data, Element... packets)
+			throws ClusterCommandException {
+		cluster.listeners.get(command)
+				.executeCommand(fromNode, null, data == null ? null : new HashMap<>(data),
+								new ArrayDeque<>(Arrays.asList(packets)));
+	}
+
+	private SentCommand single(String command) {
+		SentCommand result = null;
+
+		for (SentCommand cmd : cluster.sent) {
+			if (command.equals(cmd.command)) {
+				assertNull("Command " + command + " sent more than once: " + cluster.sent, result);
+				result = cmd;
+			}
+		}
+		assertNotNull("Command " + command + " not sent: " + cluster.sent, result);
+
+		return result;
+	}
+
+	private BareJID userOwnedBy(JID node) {
+		return usersOwnedBy(node, 1).get(0);
+	}
+
+	private List<BareJID> usersOwnedBy(JID node, int count) {
+		List<BareJID> result = new ArrayList<>();
+
+		for (int i = 0; result.size() < count; i++) {
+			BareJID user = BareJID.bareJIDInstanceNS("user" + i, "localhost");
+
+			if (node.equals(strategy.getOwner(user))) {
+				result.add(user);
+			}
+		}
+
+		return result;
+	}
+
+	private ConnectionRecordIfc record(JID node, BareJID user, String resource) {
+		ConnectionRecordIfc rec = new ConnectionRecord();
+
+		rec.setRecordFields(node, JID.jidInstanceNS(user, resource), UUID.randomUUID().toString(),
+							JID.jidInstanceNS("c2s", node.getDomain(), UUID.randomUUID().toString()));
+
+		return rec;
+	}
+
+	private Map<String, String> updateData(ConnectionRecordIfc rec, String action) {
+		Map<String, String> data = new HashMap<>();
+
+		data.put(DefaultClusteringStrategy.USER_ID, rec.getUserJid().getBareJID().toString());
+		data.put(DefaultClusteringStrategy.RESOURCE, rec.getUserJid().getResource());
+		data.put(DefaultClusteringStrategy.CONNECTION_ID, rec.getConnectionId().toString());
+		data.put(DefaultClusteringStrategy.XMPP_SESSION_ID, rec.getSessionId());
+		data.put("index-action", action);
+
+		return data;
+	}
+
+	private Element presence(BareJID user) {
+		return new Element("presence", new String[]{"from"}, new String[]{user.toString()});
+	}
+
+	private Packet message(BareJID user) throws Exception {
+		return Packet.packetInstance(new Element("message").withAttribute("type", "chat"),
+									 JID.jidInstance("sender", "example.com", "res"), JID.jidInstance(user));
+	}
+
+}
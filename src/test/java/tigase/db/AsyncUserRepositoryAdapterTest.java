@@ -0,0 +1,92 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.db.xml.XMLRepository;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncUserRepositoryAdapterTest {
+
+	private AsyncUserRepositoryAdapter adapter;
+	private AsyncRepositoryExecutor executor;
+	private XMLRepository repository;
+
+	@Before
+	public void setUp() throws Exception {
+		repository = new XMLRepository();
+		repository.initRepository("memory://xmlRepo?autoCreateUser=true", null);
+		executor = new AsyncRepositoryExecutor("test-async", 2, 4);
+		adapter = new AsyncUserRepositoryAdapter(repository, executor);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void testCallsForUserAreOrdered() throws Exception {
+		BareJID user = BareJID.bareJIDInstanceNS("async-user", "example.com");
+
+		for (int i = 0; i < 20; i++) {
+			adapter.setDataAsync(user, "test", "key", String.valueOf(i));
+			assertEquals(String.valueOf(i),
+						 adapter.getDataAsync(user, "test", "key", null).get(10, TimeUnit.SECONDS));
+		}
+		assertEquals("19", repository.getData(user, "test", "key"));
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		DummyRepository failing = new DummyRepository() {
+			@Override
+			public String getData(BareJID user, String subnode, String key, String def) {
+				throw new IllegalStateException("failure");
+			}
+		};
+		AsyncUserRepositoryAdapter failingAdapter = new AsyncUserRepositoryAdapter(failing, executor);
+
+		try {
+			failingAdapter.getDataAsync(BareJID.bareJIDInstanceNS("async-user", "example.com"), "test", "key", null)
+					.get(10, TimeUnit.SECONDS);
+			fail("Exception should be thrown");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testRejectedAfterShutdown() throws Exception {
+		executor.shutdown();
+		try {
+			adapter.getDataAsync(BareJID.bareJIDInstanceNS("async-user", "example.com"), "test", "key", null)
+					.get(10, TimeUnit.SECONDS);
+			fail("Exception should be thrown");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof TigaseDBException);
+		}
+	}
+}
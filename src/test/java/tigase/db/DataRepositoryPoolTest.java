@@ -0,0 +1,85 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+
+public class DataRepositoryPoolTest {
+
+	private static DataRepository dataRepository() {
+		return (DataRepository) Proxy.newProxyInstance(DataRepository.class.getClassLoader(),
+													   new Class[]{DataRepository.class}, (proxy, method, args) -> {
+					switch (method.getName()) {
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						case "toString":
+							return "repo-" + System.identityHashCode(proxy);
+						default:
+							return null;
+					}
+				});
+	}
+
+	private static void setField(Object obj, String name, Object value) throws Exception {
+		Field f = obj.getClass().getDeclaredField(name);
+		f.setAccessible(true);
+		f.set(obj, value);
+	}
+
+	@Test
+	public void testAnyIdleLease() throws Exception {
+		DataRepositoryPool pool = new DataRepositoryPool();
+		pool.setPoolMode(DataRepositoryPool.PoolMode.anyIdle);
+		DataRepository repo1 = dataRepository();
+		DataRepository repo2 = dataRepository();
+		pool.addRepo(repo1);
+		pool.addRepo(repo2);
+
+		DataRepository leased = pool.takeRepoHandle(null);
+		Assert.assertNotSame(leased, pool.takeRepoHandle(null));
+
+		pool.releaseRepoHandle(leased);
+		Assert.assertSame(leased, pool.takeRepoHandle(null));
+	}
+
+	@Test
+	public void testLeaseTimeoutFallsBackToUserAffinity() throws Exception {
+		DataRepositoryPool pool = new DataRepositoryPool();
+		pool.setPoolMode(DataRepositoryPool.PoolMode.anyIdle);
+		setField(pool, "leaseTimeout", 10L);
+		DataRepository repo1 = dataRepository();
+		DataRepository repo2 = dataRepository();
+		pool.addRepo(repo1);
+		pool.addRepo(repo2);
+
+		pool.takeRepoHandle(null);
+		pool.takeRepoHandle(null);
+
+		// no idle repository, so every time the same repository is selected as in userAffinity mode
+		for (int i = 0; i < 4; i++) {
+			Assert.assertSame(repo1, pool.takeRepoHandle(null));
+		}
+	}
+
+}
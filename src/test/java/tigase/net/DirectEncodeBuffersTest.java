@@ -0,0 +1,123 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class DirectEncodeBuffersTest {
+
+	@Test
+	public void testEncodeSingleBuffer() throws Exception {
+		DirectEncodeBuffers buffers = new DirectEncodeBuffers(64, 2);
+		CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+		buffers.encode(encoder, "<message/>");
+		buffers.encode(encoder, "<presence/>");
+		assertEquals(1, buffers.count());
+		assertEquals("<message/><presence/>", decode(buffers));
+		assertTrue(buffers.flip()[0].isDirect());
+	}
+
+	@Test
+	public void testEncodeMultiByteAcrossBuffers() throws Exception {
+		DirectEncodeBuffers buffers = new DirectEncodeBuffers(8, 2);
+		CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+		String data = "<body>zażółć gęślą jaźń</body>";
+
+		buffers.encode(encoder, data);
+		// direct buffers are too small, so rest of data has to be in heap buffer
+		assertEquals(3, buffers.count());
+		ByteBuffer[] result = buffers.flip();
+		assertTrue(result[0].isDirect());
+		assertTrue(result[1].isDirect());
+		assertFalse(result[2].isDirect());
+		assertEquals(data, decode(result, buffers.count()));
+
+		buffers.release();
+		assertEquals(0, buffers.count());
+		buffers.encode(encoder, "<a/>");
+		assertEquals("<a/>", decode(buffers));
+	}
+
+	@Test
+	public void testPut() throws Exception {
+		DirectEncodeBuffers buffers = new DirectEncodeBuffers(8, 2);
+		CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+		ByteBuffer data = ByteBuffer.wrap("<message><body>test</body></message>".getBytes(StandardCharsets.UTF_8));
+
+		buffers.encode(encoder, "<a/>");
+		buffers.put(data);
+		// passed buffer is not modified
+		assertEquals(0, data.position());
+		assertEquals(3, buffers.count());
+		ByteBuffer[] result = buffers.flip();
+		assertTrue(result[0].isDirect());
+		assertTrue(result[1].isDirect());
+		assertFalse(result[2].isDirect());
+		assertEquals("<a/><message><body>test</body></message>", decode(result, buffers.count()));
+		buffers.release();
+
+		buffers.put(ByteBuffer.wrap("<b/>".getBytes(StandardCharsets.UTF_8)));
+		assertEquals(1, buffers.count());
+		result = buffers.flip();
+		assertTrue(result[0].isDirect());
+		assertEquals("<b/>", decode(result, buffers.count()));
+	}
+
+	@Test
+	public void testAcquire() {
+		DirectEncodeBuffers buffers = DirectEncodeBuffers.acquire();
+
+		assertNotNull(buffers);
+		// buffers are in use by this thread
+		assertNull(DirectEncodeBuffers.acquire());
+		buffers.release();
+		assertSame(buffers, DirectEncodeBuffers.acquire());
+		buffers.release();
+	}
+
+	private String decode(DirectEncodeBuffers buffers) {
+		return decode(buffers.flip(), buffers.count());
+	}
+
+	private String decode(ByteBuffer[] buffs, int count) {
+		int size = 0;
+
+		for (int i = 0; i < count; i++) {
+			size += buffs[i].remaining();
+		}
+
+		byte[] data = new byte[size];
+		int pos = 0;
+
+		for (int i = 0; i < count; i++) {
+			int len = buffs[i].remaining();
+			buffs[i].get(data, pos, len);
+			pos += len;
+		}
+
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+}
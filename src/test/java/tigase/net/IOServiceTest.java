@@ -0,0 +1,111 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class IOServiceTest {
+
+	private SocketChannel client;
+	private ServerSocketChannel server;
+	private TestService service;
+
+	@Before
+	public void setUp() throws IOException {
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		client = SocketChannel.open(server.getLocalAddress());
+		service = new TestService();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		client.close();
+		server.close();
+	}
+
+	@Test
+	public void testReadDataFillingLeasedBuffer() throws Exception {
+		service.setReadBufferPool(new ReadBufferPool(1024 * 1024));
+		service.accept(server.accept());
+
+		// ASCII data of the size of the leased buffer is decoded into a char buffer of the same size
+		char[] chars = new char[ReadBufferPool.MIN_SIZE];
+		Arrays.fill(chars, 'a');
+		String data = new String(chars);
+		client.write(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+
+		assertEquals(data, readData(data.length()));
+	}
+
+	@Test
+	public void testReadData() throws Exception {
+		service.accept(server.accept());
+
+		String data = "<message><body>Zażółć gęślą jaźń</body></message>";
+		client.write(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+
+		assertEquals(data, readData(data.length()));
+	}
+
+	private String readData(int length) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		long end = System.currentTimeMillis() + 5000;
+
+		while (sb.length() < length && System.currentTimeMillis() < end) {
+			char[] result = service.readData();
+
+			if (result != null) {
+				sb.append(result);
+			}
+		}
+
+		return sb.toString();
+	}
+
+	private static class TestService
+			extends IOService<Object> {
+
+		@Override
+		public void processWaitingPackets() {
+		}
+
+		@Override
+		protected void processSocketData() {
+		}
+
+		@Override
+		protected int receivedPackets() {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import static org.junit.Assert.*;
+
+public class ReadBufferPoolTest {
+
+	@Test
+	public void testSizeClass() {
+		assertEquals(0, ReadBufferPool.sizeClass(1));
+		assertEquals(0, ReadBufferPool.sizeClass(1024));
+		assertEquals(1, ReadBufferPool.sizeClass(1025));
+		assertEquals(1, ReadBufferPool.sizeClass(2048));
+		assertEquals(8, ReadBufferPool.sizeClass(ReadBufferPool.MAX_SIZE));
+		assertEquals(-1, ReadBufferPool.sizeClass(ReadBufferPool.MAX_SIZE + 1));
+	}
+
+	@Test
+	public void testLeaseAndRelease() {
+		ReadBufferPool pool = new ReadBufferPool(1024 * 1024);
+
+		ByteBuffer bb = pool.leaseBytes(3000);
+		assertEquals(4096, bb.capacity());
+		assertEquals(4096, pool.getLeasedBytes());
+		bb.put((byte) 1);
+		pool.releaseBytes(bb);
+		assertEquals(0, pool.getLeasedBytes());
+		assertEquals(4096, pool.getPooledBytes());
+
+		ByteBuffer reused = pool.leaseBytes(4000);
+		assertSame(bb, reused);
+		assertEquals(0, reused.position());
+		assertEquals(0, pool.getPooledBytes());
+		pool.releaseBytes(reused);
+
+		CharBuffer cb = pool.leaseChars(100);
+		assertEquals(1024, cb.capacity());
+		pool.releaseChars(cb);
+		assertSame(cb, pool.leaseChars(1000));
+	}
+
+	@Test
+	public void testPoolLimit() {
+		ReadBufferPool pool = new ReadBufferPool(8192);
+
+		ByteBuffer b1 = pool.leaseBytes(8192);
+		ByteBuffer b2 = pool.leaseBytes(8192);
+		pool.releaseBytes(b1);
+		pool.releaseBytes(b2);
+		assertEquals(8192, pool.getPooledBytes());
+
+		// buffers not matching size classes are never pooled
+		ByteBuffer big = pool.leaseBytes(ReadBufferPool.MAX_SIZE + 1);
+		assertEquals(ReadBufferPool.MAX_SIZE + 1, big.capacity());
+		pool.releaseBytes(big);
+		pool.releaseBytes(ByteBuffer.allocate(3000));
+		assertEquals(8192, pool.getPooledBytes());
+	}
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class SocketEventLoopsTest {
+
+	private SocketChannel client;
+	private SocketEventLoops loops;
+	private ServerSocketChannel server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		client = SocketChannel.open(server.getLocalAddress());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (loops != null) {
+			loops.shutdown(5000);
+		}
+		client.close();
+		server.close();
+	}
+
+	@Test
+	public void testLoopAssignment() throws Exception {
+		loops = new SocketEventLoops(3);
+		TestService service = new TestService(accept());
+		int idx = loops.loopIndex(service);
+
+		assertTrue(idx >= 0 && idx < 3);
+		assertEquals(idx, loops.loopIndex(service));
+
+		loops.addSocketService(service);
+		waitFor(() -> loops.getRegistered(idx) == 1);
+		for (int i = 0; i < 3; i++) {
+			if (i != idx) {
+				assertEquals(0, loops.getRegistered(i));
+			}
+		}
+	}
+
+	@Test
+	public void testRegisterAndCancelFromOtherThread() throws Exception {
+		loops = new SocketEventLoops(2);
+		TestService service = new TestService(accept());
+		int idx = loops.loopIndex(service);
+
+		loops.addSocketService(service);
+		client.write(ByteBuffer.wrap(new byte[]{1}));
+		assertTrue(service.called.await(5, TimeUnit.SECONDS));
+		assertTrue(service.thread.startsWith("socketEventLoop-"));
+
+		// data is not read by the service, so the socket stays readable
+		loops.removeSocketService(service);
+		waitFor(() -> loops.getRegistered(idx) == 0);
+		waitFor(() -> !service.channel.isRegistered());
+
+		// cancelled registration is replaced by a new one
+		service.called = new CountDownLatch(1);
+		loops.addSocketService(service);
+		assertTrue(service.called.await(5, TimeUnit.SECONDS));
+		assertEquals(1, loops.getRegistered(idx));
+		assertEquals(0, service.stopped);
+	}
+
+	@Test
+	public void testShutdown() throws Exception {
+		loops = new SocketEventLoops(2);
+		TestService service = new TestService(accept());
+
+		loops.addSocketService(service);
+		waitFor(() -> loops.getRegistered(loops.loopIndex(service)) == 1);
+
+		loops.shutdown(5000);
+		assertFalse(loops.isRunning());
+		assertEquals(0, loops.getRegistered(0));
+		assertEquals(0, loops.getRegistered(1));
+		// closed selector deregisters channel
+		assertFalse(service.channel.isRegistered());
+		assertEquals(0, service.stopped);
+		loops = null;
+	}
+
+	private SocketChannel accept() throws IOException {
+		SocketChannel channel = server.accept();
+
+		channel.configureBlocking(false);
+
+		return channel;
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+
+		while (!condition.getAsBoolean()) {
+			assertTrue("Condition not met in time", System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+	}
+
+	private static class TestService
+			extends IOService<Object> {
+
+		private final SocketChannel channel;
+		private volatile CountDownLatch called = new CountDownLatch(1);
+		private volatile int stopped = 0;
+		private volatile String thread;
+
+		private TestService(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public IOService<?> call() {
+			thread = Thread.currentThread().getName();
+			called.countDown();
+			// service is not added back to the event loop
+			return null;
+		}
+
+		@Override
+		public void forceStop() {
+			++stopped;
+		}
+
+		@Override
+		public SocketChannel getSocketChannel() {
+			return channel;
+		}
+
+		@Override
+		public boolean waitingToSend() {
+			return false;
+		}
+
+		@Override
+		public void processWaitingPackets() {
+		}
+
+		@Override
+		protected void processSocketData() {
+		}
+
+		@Override
+		protected int receivedPackets() {
+			return 0;
+		}
+	}
+
+}
@@ -145,4 +145,29 @@ public class PacketTest {
 		Assert.assertTrue("Output secured in default Packet.toString(false)",
 						  result.toString(false).contains("mySuperSecretPassword"));
 	}
+
+	@Test
+	public void testProcessedBy() {
+		Assert.assertFalse(packetInstance.wasProcessed());
+		Assert.assertFalse(packetInstance.wasSkipped());
+		Assert.assertTrue(packetInstance.getProcessorsIds().isEmpty());
+
+		packetInstance.processedBy("test-processor-1");
+		packetInstance.notProcessedBy("test-processor-2");
+		Assert.assertTrue(packetInstance.wasProcessed());
+		Assert.assertTrue(packetInstance.wasSkipped());
+		Assert.assertTrue(packetInstance.wasProcessedBy("test-processor-1"));
+		Assert.assertFalse(packetInstance.wasProcessedBy("test-processor-2"));
+		Assert.assertFalse(packetInstance.wasProcessedBy("test-processor-unknown"));
+		assertEquals(1, packetInstance.getProcessorsIds().size());
+		Assert.assertTrue(packetInstance.getSkippedProcessorsIds().contains("test-processor-2"));
+
+		// more processors than fits into a single long value
+		for (int i = 0; i < 100; i++) {
+			packetInstance.processedBy("test-processor-many-" + i);
+		}
+		Assert.assertTrue(packetInstance.wasProcessedBy("test-processor-many-99"));
+		Assert.assertTrue(packetInstance.wasProcessedBy("test-processor-1"));
+		assertEquals(101, packetInstance.getProcessorsIds().size());
+	}
 }
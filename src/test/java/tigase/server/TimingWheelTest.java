@@ -0,0 +1,103 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+
+	@Test
+	public void testSlotsFor() {
+		assertEquals(64, TimingWheel.slotsFor(10, 1000));
+		assertEquals(2048, TimingWheel.slotsFor(29 * 60 * 1000, 1000));
+		assertEquals(65536, TimingWheel.slotsFor(Long.MAX_VALUE / 2, 1));
+	}
+
+	@Test
+	public void testExpire() {
+		TimingWheel<String> wheel = new TimingWheel<>(100, 8, 0);
+		List<String> expired = new ArrayList<>();
+
+		wheel.schedule("a", 250);
+		wheel.schedule("b", 420);
+		wheel.schedule("c", 260);
+		assertEquals(3, wheel.size());
+
+		assertEquals(0, wheel.expire(250, (item, entry) -> expired.add(item)));
+		assertEquals(2, wheel.expire(300, (item, entry) -> expired.add(item)));
+		assertEquals(Arrays.asList("a", "c"), expired);
+		assertEquals(1, wheel.size());
+
+		assertEquals(1, wheel.expire(500, (item, entry) -> expired.add(item)));
+		assertEquals(Arrays.asList("a", "c", "b"), expired);
+		assertEquals(0, wheel.size());
+		assertEquals(3, wheel.getExpired());
+		assertEquals(80, wheel.getMaxLag());
+	}
+
+	@Test
+	public void testExpireAfterManyTurns() {
+		TimingWheel<String> wheel = new TimingWheel<>(100, 8, 0);
+		List<String> expired = new ArrayList<>();
+
+		// same slot as deadline 150, but 3 turns later
+		wheel.schedule("late", 2550);
+		wheel.schedule("early", 150);
+
+		wheel.expire(1000, (item, entry) -> expired.add(item));
+		assertEquals(Arrays.asList("early"), expired);
+		wheel.expire(2500, (item, entry) -> expired.add(item));
+		assertEquals(Arrays.asList("early"), expired);
+		wheel.expire(2600, (item, entry) -> expired.add(item));
+		assertEquals(Arrays.asList("early", "late"), expired);
+	}
+
+	@Test
+	public void testScheduleInPast() {
+		TimingWheel<String> wheel = new TimingWheel<>(100, 8, 1000);
+		List<String> expired = new ArrayList<>();
+
+		wheel.schedule("past", 10);
+		wheel.expire(1100, (item, entry) -> expired.add(item));
+		assertTrue(expired.isEmpty());
+		wheel.expire(1200, (item, entry) -> expired.add(item));
+		assertEquals(Arrays.asList("past"), expired);
+	}
+
+	@Test
+	public void testCancel() {
+		TimingWheel<String> wheel = new TimingWheel<>(100, 8, 0);
+		List<String> expired = new ArrayList<>();
+
+		TimingWheel.Entry<String> entry = wheel.schedule("a", 250);
+		wheel.schedule("b", 250);
+		wheel.cancel(entry);
+		assertEquals(1, wheel.size());
+
+		wheel.expire(1000, (item, e) -> expired.add(item));
+		assertEquals(Arrays.asList("b"), expired);
+		assertEquals(0, wheel.size());
+	}
+
+}
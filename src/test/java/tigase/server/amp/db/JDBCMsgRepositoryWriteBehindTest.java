@@ -0,0 +1,366 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.amp.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.db.DataRepository;
+import tigase.db.UserRepository;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class JDBCMsgRepositoryWriteBehindTest {
+
+	private final List<String> batched = Collections.synchronizedList(new ArrayList<>());
+	private final List<String> storedOneByOne = Collections.synchronizedList(new ArrayList<>());
+	private List<String> currentBatch = new ArrayList<>();
+	private String currentMsg;
+	private DataRepository.dbTypes dbType = DataRepository.dbTypes.mysql;
+	private BatchExecutor executor;
+	private JDBCMsgRepository repo;
+
+	private static void setField(Class<?> cls, Object obj, String name, Object value) throws Exception {
+		Field f = cls.getDeclaredField(name);
+		f.setAccessible(true);
+		f.set(obj, value);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		executor = batch -> {
+			batched.addAll(batch);
+			int[] result = new int[batch.size()];
+			Arrays.fill(result, 1);
+			return result;
+		};
+		repo = new JDBCMsgRepository();
+		setField(JDBCMsgRepository.class, repo, "writeBehind", true);
+		setField(JDBCMsgRepository.class, repo, "writeBehindFlushInterval", 10L);
+		setField(JDBCMsgRepository.class, repo, "MSGS_ADD_MESSAGE_BATCH", "add-message-batch");
+		setField(MsgRepository.class, repo, "userRepository", userRepository());
+	}
+
+	@After
+	public void tearDown() {
+		repo.beforeUnregister();
+	}
+
+	@Test
+	public void testNotStoredIndexes() {
+		// driver stopping at the first failure
+		Assert.assertEquals(Arrays.asList(2, 3), JDBCMsgRepository.notStoredIndexes(new int[]{1, 1}, 4, false));
+		// driver continuing after an error
+		Assert.assertEquals(Arrays.asList(1, 3), JDBCMsgRepository.notStoredIndexes(
+				new int[]{1, Statement.EXECUTE_FAILED, Statement.SUCCESS_NO_INFO, Statement.EXECUTE_FAILED}, 4,
+				false));
+		// batch rolled back as a whole
+		Assert.assertEquals(Arrays.asList(0, 1, 2), JDBCMsgRepository.notStoredIndexes(new int[]{1}, 3, true));
+		Assert.assertEquals(Arrays.asList(0, 1), JDBCMsgRepository.notStoredIndexes(null, 2, false));
+	}
+
+	@Test
+	public void testBatchStored() throws Exception {
+		setField(JDBCMsgRepository.class, repo, "writeBehindFlushInterval", 500L);
+		repo.setDataSource(dataRepository());
+
+		for (int i = 0; i < 5; i++) {
+			Assert.assertTrue(store("msg-" + i));
+		}
+		// shutdown stores all queued messages
+		repo.beforeUnregister();
+
+		Assert.assertEquals(Arrays.asList("msg-0", "msg-1", "msg-2", "msg-3", "msg-4"), batched);
+		Assert.assertTrue(storedOneByOne.isEmpty());
+		Assert.assertEquals(5, repo.getWriteBehindStored());
+	}
+
+	@Test
+	public void testBatchSizeLimit() throws Exception {
+		setField(JDBCMsgRepository.class, repo, "writeBehindBatchSize", 2);
+		List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+		executor = batch -> {
+			sizes.add(batch.size());
+			batched.addAll(batch);
+			return new int[batch.size()];
+		};
+		repo.setDataSource(dataRepository());
+
+		for (int i = 0; i < 5; i++) {
+			Assert.assertTrue(store("msg-" + i));
+		}
+		repo.beforeUnregister();
+
+		Assert.assertEquals(5, batched.size());
+		for (int size : sizes) {
+			Assert.assertTrue(size <= 2);
+		}
+	}
+
+	@Test
+	public void testFailedEntriesStoredOneByOne() throws Exception {
+		executor = batch -> {
+			int[] counts = new int[batch.size()];
+			Arrays.fill(counts, 1);
+			counts[1] = Statement.EXECUTE_FAILED;
+			throw new BatchUpdateException(counts);
+		};
+		List<String> result = storeBatch(4);
+
+		Assert.assertEquals(Collections.singletonList("msg-1"), result);
+		Assert.assertEquals(4, repo.getWriteBehindStored());
+	}
+
+	@Test
+	public void testRemainingEntriesStoredOneByOne() throws Exception {
+		executor = batch -> {
+			throw new BatchUpdateException(new int[]{1});
+		};
+		List<String> result = storeBatch(3);
+
+		Assert.assertEquals(Arrays.asList("msg-1", "msg-2"), result);
+
+		// failure of some entries does not disable batches
+		executor = batch -> {
+			batched.addAll(batch);
+			return new int[batch.size()];
+		};
+		storedOneByOne.clear();
+		repo.storeBatch(Collections.singletonList(pending("msg-3")));
+		Assert.assertEquals(Collections.singletonList("msg-3"), batched);
+		Assert.assertTrue(storedOneByOne.isEmpty());
+	}
+
+	@Test
+	public void testUnknownBatchFailureNotReplayed() throws Exception {
+		// error reported by the driver after the database executed the batch
+		executor = batch -> {
+			batched.addAll(batch);
+			throw new SQLException("A result was returned when none was expected.");
+		};
+		List<String> result = storeBatch(3);
+
+		// messages are not stored again, as that could duplicate them
+		Assert.assertTrue(result.isEmpty());
+		Assert.assertEquals(Arrays.asList("msg-0", "msg-1", "msg-2"), batched);
+		Assert.assertEquals(0, repo.getWriteBehindStored());
+
+		// batches are still used
+		repo.storeBatch(Collections.singletonList(pending("msg-3")));
+		Assert.assertEquals(Arrays.asList("msg-0", "msg-1", "msg-2", "msg-3"), batched);
+		Assert.assertTrue(storedOneByOne.isEmpty());
+	}
+
+	@Test
+	public void testBatchNotSupported() throws Exception {
+		executor = batch -> {
+			throw new SQLFeatureNotSupportedException();
+		};
+		List<String> result = storeBatch(2);
+
+		Assert.assertEquals(Arrays.asList("msg-0", "msg-1"), result);
+		Assert.assertEquals(2, repo.getWriteBehindStored());
+
+		// batches are not used anymore
+		storedOneByOne.clear();
+		repo.storeBatch(Collections.singletonList(pending("msg-2")));
+		Assert.assertEquals(Collections.singletonList("msg-2"), storedOneByOne);
+	}
+
+	@Test
+	public void testBatchQueryNotSet() throws Exception {
+		setField(JDBCMsgRepository.class, repo, "MSGS_ADD_MESSAGE_BATCH", null);
+		List<String> result = storeBatch(3);
+
+		// procedure returning result is never executed in a batch
+		Assert.assertEquals(Arrays.asList("msg-0", "msg-1", "msg-2"), result);
+		Assert.assertTrue(batched.isEmpty());
+		Assert.assertEquals(3, repo.getWriteBehindStored());
+	}
+
+	@Test
+	public void testRolledBackBatchStoredOneByOne() throws Exception {
+		dbType = DataRepository.dbTypes.postgresql;
+		executor = batch -> {
+			throw new BatchUpdateException(new int[]{1});
+		};
+		List<String> result = storeBatch(3);
+
+		Assert.assertEquals(Arrays.asList("msg-0", "msg-1", "msg-2"), result);
+	}
+
+	@Test
+	public void testFullQueueRejectsMessages() throws Exception {
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		setField(JDBCMsgRepository.class, repo, "writeBehindQueueSize", 1);
+		setField(JDBCMsgRepository.class, repo, "writeBehindOfferTimeout", 10L);
+		executor = batch -> {
+			blocked.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				throw new SQLException(ex);
+			}
+			batched.addAll(batch);
+			return new int[batch.size()];
+		};
+		repo.setDataSource(dataRepository());
+
+		Assert.assertTrue(store("msg-0"));
+		Assert.assertTrue(blocked.await(10, TimeUnit.SECONDS));
+		Assert.assertTrue(store("msg-1"));
+		Assert.assertFalse(store("msg-2"));
+
+		release.countDown();
+		repo.beforeUnregister();
+
+		Assert.assertEquals(Arrays.asList("msg-0", "msg-1"), batched);
+	}
+
+	private List<String> storeBatch(int size) throws Exception {
+		repo.setDataSource(dataRepository());
+		// writer thread is not needed, batch is stored directly
+		repo.beforeUnregister();
+
+		List<JDBCMsgRepository.PendingMessage> batch = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			batch.add(pending("msg-" + i));
+		}
+		repo.storeBatch(batch);
+
+		return new ArrayList<>(storedOneByOne);
+	}
+
+	private boolean store(String body) throws Exception {
+		return repo.storeMessage(JID.jidInstance("sender@example.com/res"), JID.jidInstance("user@example.com"), null,
+								 message(body), null);
+	}
+
+	private JDBCMsgRepository.PendingMessage pending(String body) throws Exception {
+		return new JDBCMsgRepository.PendingMessage(JID.jidInstance("sender@example.com").getBareJID(),
+													JID.jidInstance("user@example.com").getBareJID(), null,
+													message(body), 0);
+	}
+
+	private Element message(String body) {
+		Element msg = new Element("message", new String[]{"type"}, new String[]{"chat"});
+		msg.addChild(new Element("body", body));
+		return msg;
+	}
+
+	private String bodyOf(String msg) {
+		return msg.substring(msg.indexOf("<body>") + 6, msg.indexOf("</body>"));
+	}
+
+	private DataRepository dataRepository() {
+		PreparedStatement stmt = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+																			 new Class[]{PreparedStatement.class},
+																			 (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "setString":
+					if ((Integer) args[0] == 5) {
+						currentMsg = bodyOf((String) args[1]);
+					}
+					return null;
+				case "addBatch":
+					currentBatch.add(currentMsg);
+					return null;
+				case "clearBatch":
+					currentBatch = new ArrayList<>();
+					return null;
+				case "executeBatch":
+					List<String> batch = currentBatch;
+					currentBatch = new ArrayList<>();
+					return executor.execute(batch);
+				case "executeQuery":
+					storedOneByOne.add(currentMsg);
+					return resultSet();
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				default:
+					return null;
+			}
+		});
+
+		return (DataRepository) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{DataRepository.class},
+													   (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getPreparedStatement":
+					return stmt;
+				case "takeRepoHandle":
+					return proxy;
+				case "getDatabaseType":
+					return dbType;
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				default:
+					return null;
+			}
+		});
+	}
+
+	private UserRepository userRepository() {
+		return (UserRepository) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{UserRepository.class},
+													   (proxy, method, args) -> "userExists".equals(method.getName())
+																				? Boolean.TRUE
+																				: null);
+	}
+
+	private ResultSet resultSet() {
+		boolean[] read = new boolean[1];
+		return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{ResultSet.class},
+												  (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "next":
+					boolean result = !read[0];
+					read[0] = true;
+					return result;
+				case "getLong":
+					return 1L;
+				default:
+					return null;
+			}
+		});
+	}
+
+	@FunctionalInterface
+	private interface BatchExecutor {
+
+		int[] execute(List<String> batch) throws SQLException;
+
+	}
+
+}
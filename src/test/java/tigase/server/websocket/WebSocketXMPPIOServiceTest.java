@@ -19,8 +19,11 @@ package tigase.server.websocket;
 
 import junit.framework.TestCase;
 import org.junit.Test;
+import tigase.net.ReadBufferPool;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -52,6 +55,32 @@ public class WebSocketXMPPIOServiceTest
 		assertMaps(prepareExpectedParsedHeaders(headers), parsedHeaders);
 	}
 
+	@Test
+	public void testDecodeWithReadBufferPool() throws Exception {
+		service.setReadBufferPool(new ReadBufferPool(1024 * 1024));
+
+		String data = "<message to='test@example.com'><body>Zażółć gęślą jaźń</body></message>";
+		assertEquals(data, new String(service.decode(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)))));
+
+		// data filling whole leased buffer
+		char[] chars = new char[ReadBufferPool.MIN_SIZE];
+		Arrays.fill(chars, 'a');
+		String full = new String(chars);
+		assertEquals(full, new String(service.decode(ByteBuffer.wrap(full.getBytes(StandardCharsets.UTF_8)))));
+	}
+
+	@Test
+	public void testDecodeSplitCharacterWithReadBufferPool() throws Exception {
+		service.setReadBufferPool(new ReadBufferPool(1024 * 1024));
+
+		byte[] bytes = "<body>ż</body>".getBytes(StandardCharsets.UTF_8);
+		int split = "<body>".length() + 1;
+
+		assertEquals("<body>", new String(service.decode(ByteBuffer.wrap(Arrays.copyOfRange(bytes, 0, split)))));
+		assertEquals("ż</body>",
+					 new String(service.decode(ByteBuffer.wrap(Arrays.copyOfRange(bytes, split, bytes.length)))));
+	}
+
 	@Override
 	protected void setUp() throws Exception {
 		service = new WebSocketXMPPIOService(new WebSocketProtocolIfc[0]);
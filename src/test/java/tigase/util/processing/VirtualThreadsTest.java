@@ -0,0 +1,55 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.processing;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class VirtualThreadsTest {
+
+	@Test
+	public void testStart() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(1);
+		AtomicBoolean virtual = new AtomicBoolean(false);
+
+		if (!VirtualThreads.isSupported()) {
+			try {
+				VirtualThreads.start("test", latch::countDown);
+				fail("Virtual threads should not be supported");
+			} catch (UnsupportedOperationException ex) {
+				// expected on JVM older than 21
+			}
+			assertFalse(VirtualThreads.isVirtual(Thread.currentThread()));
+			return;
+		}
+
+		Thread thread = VirtualThreads.start("test-virtual", () -> {
+			virtual.set(VirtualThreads.isVirtual(Thread.currentThread()));
+			latch.countDown();
+		});
+		assertEquals("test-virtual", thread.getName());
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(virtual.get());
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.workqueue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class PriorityQueueLockFreeTest {
+
+	private static final int[] PRODUCERS = new int[]{1, 4, 16, 64};
+	private static final int PRIORITIES = 3;
+
+	@Test
+	public void testPriorityOrder() throws InterruptedException {
+		PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(PRIORITIES, 100,
+																						 PriorityQueueLockFree.class);
+		queue.offer(20, 2);
+		queue.offer(10, 1);
+		queue.offer(21, 2);
+		queue.offer(0, 0);
+		queue.offer(11, 1);
+
+		assertArrayEquals(new int[]{1, 2, 2}, queue.size());
+		assertEquals(5, queue.totalSize());
+		assertEquals(Integer.valueOf(0), queue.take());
+		assertEquals(Integer.valueOf(10), queue.take());
+		assertEquals(Integer.valueOf(11), queue.take());
+		assertEquals(Integer.valueOf(20), queue.take());
+		assertEquals(Integer.valueOf(21), queue.take());
+		assertEquals(0, queue.totalSize());
+	}
+
+	@Test
+	public void testDrainTo() throws InterruptedException {
+		List<Class<? extends PriorityQueueAbstract>> classes = new ArrayList<>();
+		classes.add(PriorityQueueRelaxed.class);
+		classes.add(PriorityQueueStrict.class);
+		classes.add(PriorityQueueLockFree.class);
+
+		for (Class<? extends PriorityQueueAbstract> cls : classes) {
+			PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(PRIORITIES, 100, cls);
+			queue.offer(20, 2);
+			queue.offer(10, 1);
+			queue.offer(0, 0);
+			queue.offer(11, 1);
+			queue.offer(21, 2);
+
+			List<Integer> batch = new ArrayList<>();
+			assertEquals(cls.getSimpleName(), 3, queue.drainTo(batch, 3));
+			assertArrayEquals(cls.getSimpleName(), new Integer[]{0, 10, 11}, batch.toArray(new Integer[0]));
+			batch.clear();
+			assertEquals(cls.getSimpleName(), 2, queue.drainTo(batch, 3));
+			assertArrayEquals(cls.getSimpleName(), new Integer[]{20, 21}, batch.toArray(new Integer[0]));
+			assertEquals(cls.getSimpleName(), 0, queue.totalSize());
+		}
+	}
+
+	@Test
+	public void testOverflow() {
+		PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(2, 16,
+																						 PriorityQueueLockFree.class);
+		for (int i = 0; i < 16; i++) {
+			assertTrue(queue.offer(i, 0));
+		}
+		// full higher priority queue overflows to the lower priority one
+		assertTrue(queue.offer(16, 0));
+		assertArrayEquals(new int[]{16, 1}, queue.size());
+		for (int i = 1; i < 16; i++) {
+			assertTrue(queue.offer(i, 1));
+		}
+		assertFalse(queue.offer(16, 1));
+		assertFalse(queue.offer(17, 0));
+		assertEquals(32, queue.totalSize());
+
+		queue.setMaxSize(8);
+		assertFalse(queue.offer(18, 0));
+	}
+
+	@Test
+	public void testConcurrentProducers() throws InterruptedException {
+		PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(PRIORITIES, 64,
+																						 PriorityQueueLockFree.class);
+		int producers = 8;
+		int perProducer = 10000;
+		long sum = runProducers(queue, producers, perProducer);
+
+		assertEquals((long) producers * perProducer * (perProducer - 1) / 2, sum);
+		assertEquals(0, queue.totalSize());
+	}
+
+	@Test
+	public void testInterruptedTake() throws InterruptedException {
+		PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(PRIORITIES, 16,
+																						 PriorityQueueLockFree.class);
+		CountDownLatch latch = new CountDownLatch(1);
+		Thread consumer = new Thread(() -> {
+			try {
+				queue.take();
+			} catch (InterruptedException ex) {
+				latch.countDown();
+			}
+		});
+		consumer.start();
+		Thread.sleep(50);
+		consumer.interrupt();
+		consumer.join(1000);
+		assertEquals(0, latch.getCount());
+	}
+
+	@Category(tigase.tests.SlowTest.class)
+	@Test
+	public void testContention() throws InterruptedException {
+		List<Class<? extends PriorityQueueAbstract>> classes = new ArrayList<>();
+		classes.add(PriorityQueueRelaxed.class);
+		classes.add(PriorityQueueStrict.class);
+		classes.add(PriorityQueueLockFree.class);
+
+		int total = 2_000_000;
+		for (int producers : PRODUCERS) {
+			for (Class<? extends PriorityQueueAbstract> cls : classes) {
+				PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(PRIORITIES, 10000,
+																								 cls);
+				// warm up
+				runProducers(queue, producers, 10000 / producers);
+
+				long start = System.nanoTime();
+				runProducers(queue, producers, total / producers);
+				long time = System.nanoTime() - start;
+
+				System.out.println(
+						String.format("%-25s producers: %2d, time: %6d ms, throughput: %10.0f ops/s", cls.getSimpleName(),
+									  producers, time / 1000_000, (total * 1_000_000_000d) / time));
+			}
+		}
+	}
+
+	private long runProducers(PriorityQueueAbstract<Integer> queue, int producers, int perProducer)
+			throws InterruptedException {
+		List<Thread> threads = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			Thread producer = new Thread(() -> {
+				try {
+					for (int i = 0; i < perProducer; i++) {
+						queue.put(i, i % PRIORITIES);
+					}
+				} catch (InterruptedException ex) {
+					fail(ex.getMessage());
+				}
+			});
+			threads.add(producer);
+			producer.start();
+		}
+
+		long sum = 0;
+		for (int i = 0; i < producers * perProducer; i++) {
+			sum += queue.take();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.vhosts;
+
+import org.junit.Assert;
+import org.junit.Test;
+import tigase.server.ServerComponent;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+public class VHostIndexTest {
+
+	@Test
+	public void testLocalDomains() throws Exception {
+		VHostListener sm = listener(true, false);
+		VHostListener muc = listener(false, true);
+		VHostListener pubsub = listener(false, false);
+		Map<String, VHostListener> components = new HashMap<>();
+		components.put("sess-man", sm);
+		components.put("muc", muc);
+		components.put("pubsub", pubsub);
+
+		VHostItemImpl example = new VHostItemImpl("example.com");
+		example.setAnonymousEnabled(false);
+		VHostItemImpl bound = new VHostItemImpl("bound.com");
+		bound.setComps(new String[]{"pubsub", "missing"});
+
+		VHostIndex index = VHostIndex.build(1, Arrays.asList(example, bound), components,
+											Collections.singletonList(sm));
+
+		Assert.assertEquals(1, index.getVersion());
+		Assert.assertEquals(2, index.size());
+		Assert.assertTrue(index.contains("example.com"));
+		Assert.assertTrue(index.contains("EXAMPLE.com"));
+		Assert.assertFalse(index.contains("other.com"));
+		Assert.assertFalse(index.get("example.com").isAnonymousEnabled());
+		Assert.assertTrue(index.get("bound.com").isAnonymousEnabled());
+
+		Assert.assertArrayEquals(new ServerComponent[]{sm}, index.get("example.com").getComponents());
+		Assert.assertArrayEquals(new ServerComponent[]{pubsub}, index.get("bound.com").getComponents());
+	}
+
+	@Test
+	public void testNameSubdomains() throws Exception {
+		VHostListener muc = listener(false, true);
+		Map<String, VHostListener> components = new HashMap<>();
+		components.put("muc", muc);
+
+		VHostIndex index = VHostIndex.build(1, Collections.singletonList(new VHostItemImpl("example.com")),
+											components, Collections.emptyList());
+
+		Assert.assertNull(index.get("example.com").getComponents());
+		Assert.assertArrayEquals(new ServerComponent[]{muc}, index.getNameSubdomainComponents("muc.example.com"));
+		Assert.assertNull(index.getNameSubdomainComponents("muc.other.com"));
+		Assert.assertNull(index.getNameSubdomainComponents("mucx.example.com"));
+		Assert.assertNull(index.getNameSubdomainComponents("pubsub.example.com"));
+		Assert.assertNull(index.getNameSubdomainComponents("muc"));
+	}
+
+	private static VHostListener listener(boolean localDomains, boolean nameSubdomains) {
+		return (VHostListener) Proxy.newProxyInstance(VHostIndexTest.class.getClassLoader(),
+													  new Class[]{VHostListener.class}, (proxy, method, args) -> {
+					switch (method.getName()) {
+						case "handlesLocalDomains":
+							return localDomains;
+						case "handlesNameSubdomains":
+							return nameSubdomains;
+						case "handlesNonLocalDomains":
+							return false;
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						default:
+							return null;
+					}
+				});
+	}
+
+}
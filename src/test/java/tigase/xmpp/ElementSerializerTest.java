@@ -0,0 +1,132 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Test;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ElementSerializerTest {
+
+	private final SimpleParser parser = SingletonFactory.getParserInstance();
+
+	@Test
+	public void testSerializeToAppendable() throws Exception {
+		Element elem = createMessage();
+		StringBuilder sb = new StringBuilder();
+
+		ElementSerializer.serialize(elem, sb);
+
+		assertSameElement(elem, parse(sb.toString()));
+	}
+
+	@Test
+	public void testWrite() {
+		Element elem = createMessage();
+		ElementSerializer serializer = new ElementSerializer(16, 1024);
+
+		serializer.write(elem);
+
+		assertSameElement(elem, parse(decode(serializer.buffer())));
+	}
+
+	@Test
+	public void testWriteMany() {
+		Element first = createMessage();
+		Element second = new Element("presence", new String[]{"to"}, new String[]{"bob@example.com"});
+		ElementSerializer serializer = new ElementSerializer(16, 1024);
+
+		serializer.write(first);
+		int mark = serializer.size();
+		serializer.write(second);
+
+		assertSameElement(first, parse(decode(serializer.buffer(0, mark))));
+		ByteBuffer copy = serializer.copy();
+		serializer.discard(mark);
+		assertSameElement(second, parse(decode(serializer.buffer())));
+
+		serializer.reset();
+		assertEquals(0, serializer.size());
+		assertEquals("", decode(serializer.buffer()));
+		assertSameElement(first, parse(decode((ByteBuffer) copy.limit(mark))));
+	}
+
+	@Test
+	public void testAcquire() {
+		ElementSerializer serializer = ElementSerializer.acquire();
+		assertNotNull(serializer);
+		assertNull(ElementSerializer.acquire());
+		serializer.write(createMessage());
+		serializer.release();
+
+		ElementSerializer next = ElementSerializer.acquire();
+		assertSame(serializer, next);
+		assertEquals(0, next.size());
+		next.release();
+	}
+
+	private static Element createMessage() {
+		Element message = new Element("message", new String[]{"from", "to", "type", "id", "xmlns"},
+									  new String[]{"alice@example.com/mobile", "bob@example.com", "chat", "msg-1",
+												   "jabber:client"});
+		message.addChild(new Element("body", "Za\u017c\u00f3\u0142\u0107 &amp; \uD83D\uDE00 &lt;test&gt;"));
+		message.addChild(new Element("active", new String[]{"xmlns"},
+									 new String[]{"http://jabber.org/protocol/chatstates"}));
+		return message;
+	}
+
+	private static String decode(ByteBuffer data) {
+		return StandardCharsets.UTF_8.decode(data).toString();
+	}
+
+	private Element parse(String data) {
+		char[] chars = data.toCharArray();
+		DomBuilderHandler handler = new DomBuilderHandler();
+		parser.parse(handler, chars, 0, chars.length);
+		assertFalse(handler.parseError());
+		Element result = handler.getParsedElements().poll();
+		assertNotNull(result);
+		assertTrue(handler.getParsedElements().isEmpty());
+		return result;
+	}
+
+	private static void assertSameElement(Element expected, Element actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getAttributes(), actual.getAttributes());
+		assertEquals(expected.getCData(), actual.getCData());
+
+		List<Element> expectedChildren = expected.getChildren();
+		List<Element> actualChildren = actual.getChildren();
+		int expectedSize = expectedChildren == null ? 0 : expectedChildren.size();
+		int actualSize = actualChildren == null ? 0 : actualChildren.size();
+
+		assertEquals(expectedSize, actualSize);
+		for (int i = 0; i < expectedSize; i++) {
+			assertSameElement(expectedChildren.get(i), actualChildren.get(i));
+		}
+	}
+
+}
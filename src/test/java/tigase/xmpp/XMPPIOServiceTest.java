@@ -0,0 +1,124 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.xml.Element;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class XMPPIOServiceTest {
+
+	@Test
+	public void testProcessWaitingPackets() throws Exception {
+		TestXMPPIOService service = new TestXMPPIOService();
+		addPackets(service, 3);
+
+		service.processWaitingPackets();
+
+		assertEquals(3, service.written.size());
+		assertTrue(service.getWaitingPackets().isEmpty());
+		assertEquals(1, service.getFlushes(false));
+		assertEquals(3, service.getFlushedRecords(false));
+	}
+
+	@Test
+	public void testProcessWaitingPacketsCoalesced() throws Exception {
+		TestXMPPIOService service = new TestXMPPIOService();
+		service.setCoalesceFlush(true);
+		List<String> expected = addPackets(service, 3);
+
+		service.processWaitingPackets();
+
+		assertEquals(1, service.written.size());
+		assertEquals(String.join("", expected), service.written.get(0));
+		// packets are written as a single batch
+		assertEquals(1, service.batches.size());
+		assertEquals(expected, service.batches.get(0));
+		assertTrue(service.getWaitingPackets().isEmpty());
+		assertEquals(1, service.getFlushes(true));
+		assertEquals(3, service.getFlushedRecords(true));
+		assertEquals(0, service.getFlushes(false));
+	}
+
+	@Test
+	public void testProcessWaitingPacketsCoalescedWithLimit() throws Exception {
+		TestXMPPIOService service = new TestXMPPIOService();
+		service.setCoalesceFlush(true);
+		List<String> expected = addPackets(service, 5);
+		service.setMaxFlushSize(expected.get(0).length() * 2);
+
+		service.processWaitingPackets();
+
+		assertEquals(3, service.written.size());
+		assertEquals(expected.get(0) + expected.get(1), service.written.get(0));
+		assertEquals(expected.get(2) + expected.get(3), service.written.get(1));
+		assertEquals(expected.get(4), service.written.get(2));
+		assertTrue(service.getWaitingPackets().isEmpty());
+		assertEquals(3, service.getFlushes(false));
+		assertEquals(5, service.getFlushedRecords(false));
+	}
+
+	@Test
+	public void testProcessWaitingPacketsCoalescedOversized() throws Exception {
+		TestXMPPIOService service = new TestXMPPIOService();
+		service.setCoalesceFlush(true);
+		service.setMaxFlushSize(1);
+		List<String> expected = addPackets(service, 2);
+
+		service.processWaitingPackets();
+
+		assertEquals(expected, service.written);
+		assertTrue(service.getWaitingPackets().isEmpty());
+	}
+
+	private static List<String> addPackets(XMPPIOService<?> service, int count) throws Exception {
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Element el = new Element("message", new String[]{"id", "to"}, new String[]{"msg-" + i, "user@example.com"});
+			Packet packet = Packet.packetInstance(el);
+			service.addPacketToSend(packet);
+			result.add(packet.getElement().toString());
+		}
+		return result;
+	}
+
+	private static class TestXMPPIOService
+			extends XMPPIOService<Object> {
+
+		private final List<List<String>> batches = new ArrayList<>();
+		private final List<String> written = new ArrayList<>();
+
+		@Override
+		public void writeRawData(String data) throws IOException {
+			written.add(data);
+		}
+
+		@Override
+		protected void writeDataBatch(List<String> data) {
+			batches.add(new ArrayList<>(data));
+			written.add(String.join("", data));
+		}
+	}
+
+}
@@ -21,16 +21,22 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import tigase.db.DBInitException;
+import tigase.db.DataSource;
+import tigase.db.MsgRepositoryIfc;
 import tigase.db.NonAuthUserRepository;
 import tigase.db.UserNotFoundException;
 import tigase.kernel.core.Kernel;
 import tigase.server.Packet;
+import tigase.server.amp.db.MsgRepository;
+import tigase.util.common.TimerTask;
 import tigase.xml.Element;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
 import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static org.junit.Assert.*;
 
@@ -251,6 +257,39 @@ public class OfflineMessagesTest
 		assertTrue(offlineProcessor.isAllowedForOfflineStorage(packet));
 	}
 
+	@Test
+	public void testPagedDelivery() throws Exception {
+		BareJID userJid = BareJID.bareJIDInstance("user1@example.com");
+		XMPPResourceConnection session = getSession(JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString()),
+													JID.jidInstance(userJid, "res1"));
+		PagedMsgRepository pagedRepo = new PagedMsgRepository();
+
+		for (int i = 0; i < 25; i++) {
+			Element msg = new Element("message", new String[]{"type", "from", "to", "id"},
+									  new String[]{"chat", "remote-user@test.com/res1", userJid.toString(), "msg-" + i});
+			msg.addChild(new Element("body", "Test message " + i));
+			pagedRepo.messages.put(String.valueOf(i), msg);
+		}
+
+		offlineProcessor.setDeliveryChunkSize(10);
+
+		Queue<Packet> results = offlineProcessor.restorePacketForOffLineUser(session, pagedRepo);
+		assertEquals(10, results.size());
+		assertEquals("msg-0", results.peek().getStanzaId());
+		assertEquals(15, pagedRepo.messages.size());
+		assertEquals(1, offlineProcessor.scheduled.size());
+
+		offlineProcessor.scheduled.poll().run();
+		assertEquals(10, offlineProcessor.sent.size());
+		assertEquals(5, pagedRepo.messages.size());
+
+		// last chunk loads all remaining messages
+		offlineProcessor.scheduled.poll().run();
+		assertEquals(15, offlineProcessor.sent.size());
+		assertTrue(pagedRepo.messages.isEmpty());
+		assertTrue(offlineProcessor.scheduled.isEmpty());
+	}
+
 	@Override
 	protected void registerBeans(Kernel kernel) {
 		super.registerBeans(kernel);
@@ -302,11 +341,94 @@ public class OfflineMessagesTest
 		}
 	}
 
+	private static class PagedMsgRepository
+			implements MsgRepositoryIfc<DataSource> {
+
+		private final Map<String, Element> messages = new LinkedHashMap<>();
+
+		@Override
+		public Map<Enum, Long> getMessagesCount(JID to) {
+			throw new UnsupportedOperationException("Not supported yet.");
+		}
+
+		@Override
+		public List<Element> getMessagesList(JID to) {
+			List<Element> items = new ArrayList<>();
+			for (String id : messages.keySet()) {
+				items.add(new Element("item", new String[]{"jid", "node"}, new String[]{to.getBareJID().toString(), id}));
+			}
+			return items;
+		}
+
+		@Override
+		public void setCondition(ReentrantLock lock, Condition condition) {
+		}
+
+		@Override
+		public Queue<Element> loadMessagesToJID(List<String> db_ids, XMPPResourceConnection session, boolean delete,
+												MsgRepository.OfflineMessagesProcessor proc) {
+			Queue<Element> result = new LinkedList<>();
+			for (String id : db_ids) {
+				result.add(messages.get(id).clone());
+			}
+			return result;
+		}
+
+		@Override
+		public int deleteMessagesToJID(List<String> db_ids, XMPPResourceConnection session) {
+			int deleted = 0;
+			for (String id : db_ids) {
+				if (messages.remove(id) != null) {
+					deleted++;
+				}
+			}
+			return deleted;
+		}
+
+		@Override
+		public Element getMessageExpired(long time, boolean delete) {
+			throw new UnsupportedOperationException("Not supported yet.");
+		}
+
+		@Override
+		public Queue<Element> loadMessagesToJID(XMPPResourceConnection session, boolean delete) {
+			Queue<Element> result = new LinkedList<>();
+			for (Element msg : messages.values()) {
+				result.add(msg.clone());
+			}
+			if (delete) {
+				messages.clear();
+			}
+			return result;
+		}
+
+		@Override
+		public boolean storeMessage(JID from, JID to, Date expired, Element msg, NonAuthUserRepository userRepo) {
+			throw new UnsupportedOperationException("Not supported yet.");
+		}
+
+		@Override
+		public void setDataSource(DataSource dataSource) {
+		}
+	}
+
 	public static class OfflineMessagesTestImpl
 			extends OfflineMessages {
 
+		private final Queue<TimerTask> scheduled = new ArrayDeque<>();
+		private final Queue<Packet> sent = new ArrayDeque<>();
 		private MsgRepositoryIfcImpl msgRepo;
 
+		@Override
+		protected void scheduleNextChunk(TimerTask task, long delay) {
+			scheduled.offer(task);
+		}
+
+		@Override
+		protected void sendPackets(Queue<Packet> packets) {
+			sent.addAll(packets);
+		}
+
 		@Override
 		protected OfflineMessages.OfflineMsgRepositoryIfc getMsgRepoImpl(NonAuthUserRepository repo,
 																		 XMPPResourceConnection conn) {
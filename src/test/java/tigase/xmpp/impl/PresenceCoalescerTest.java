@@ -0,0 +1,124 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.xml.Element;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PresenceCoalescerTest {
+
+	private List<Element> broadcast;
+	private PresenceCoalescer coalescer;
+	private PresenceCoalescer.State state;
+
+	private static Element presence(String id, String show) {
+		Element presence = new Element("presence", new String[]{"id", "from"},
+									   new String[]{id, "user@example.com/mobile"});
+
+		if (show != null) {
+			presence.addChild(new Element("show", show));
+		}
+
+		return presence;
+	}
+
+	@Before
+	public void setUp() {
+		broadcast = new ArrayList<>();
+		coalescer = new PresenceCoalescer((session, presence, results) -> broadcast.add(presence));
+		state = new PresenceCoalescer.State(coalescer);
+	}
+
+	@Test
+	public void testDisabled() {
+		Assert.assertFalse(coalescer.isEnabled());
+		Assert.assertEquals(PresenceCoalescer.Decision.SEND, coalescer.offer(state, presence("1", null), 1000));
+		Assert.assertEquals(PresenceCoalescer.Decision.SEND, coalescer.offer(state, presence("2", null), 1001));
+	}
+
+	@Test
+	public void testDuplicatesSuppression() {
+		coalescer.setSuppressDuplicates(true);
+
+		Assert.assertEquals(PresenceCoalescer.Decision.SEND, coalescer.offer(state, presence("1", "away"), 1000));
+		// only id differs
+		Assert.assertEquals(PresenceCoalescer.Decision.SKIP, coalescer.offer(state, presence("2", "away"), 1001));
+		Assert.assertEquals(PresenceCoalescer.Decision.SEND, coalescer.offer(state, presence("3", null), 1002));
+		Assert.assertEquals(1, coalescer.getDuplicates());
+		Assert.assertEquals(0, coalescer.getCoalesced());
+	}
+
+	@Test
+	public void testCoalescingWindow() throws Exception {
+		coalescer.setWindow(500);
+
+		Assert.assertEquals(PresenceCoalescer.Decision.SEND, coalescer.offer(state, presence("1", null), 1000));
+		Assert.assertEquals(PresenceCoalescer.Decision.SCHEDULE, coalescer.offer(state, presence("2", "away"), 1100));
+		Assert.assertEquals(400, coalescer.getFlushDelay(state, 1100));
+		Assert.assertEquals(PresenceCoalescer.Decision.SKIP, coalescer.offer(state, presence("3", "xa"), 1200));
+		Assert.assertEquals(PresenceCoalescer.Decision.SKIP, coalescer.offer(state, presence("4", "dnd"), 1300));
+
+		Assert.assertTrue(coalescer.flush(null, state, new ArrayDeque<>(), 1500));
+		Assert.assertEquals(1, broadcast.size());
+		Assert.assertEquals("dnd", broadcast.get(0).getChildCData(new String[]{"presence", "show"}));
+		Assert.assertEquals(2, coalescer.getCoalesced());
+		Assert.assertFalse(state.isFlushScheduled());
+
+		// window starts again after the flush
+		Assert.assertEquals(PresenceCoalescer.Decision.SCHEDULE, coalescer.offer(state, presence("5", null), 1600));
+		Assert.assertEquals(PresenceCoalescer.Decision.SEND, coalescer.offer(new PresenceCoalescer.State(coalescer),
+																			 presence("6", null), 1600));
+	}
+
+	@Test
+	public void testFlappingPresence() throws Exception {
+		coalescer.setWindow(500);
+
+		Assert.assertEquals(PresenceCoalescer.Decision.SEND, coalescer.offer(state, presence("1", null), 1000));
+		Assert.assertEquals(PresenceCoalescer.Decision.SCHEDULE, coalescer.offer(state, presence("2", "away"), 1100));
+		// back to the presence which contacts already received
+		Assert.assertEquals(PresenceCoalescer.Decision.SKIP, coalescer.offer(state, presence("3", null), 1200));
+		Assert.assertNull(state.getPending());
+
+		Assert.assertFalse(coalescer.flush(null, state, new ArrayDeque<>(), 1500));
+		Assert.assertTrue(broadcast.isEmpty());
+		Assert.assertEquals(1, coalescer.getCoalesced());
+	}
+
+	@Test
+	public void testDiscardAndRebroadcast() throws Exception {
+		coalescer.setWindow(500);
+
+		Assert.assertEquals(PresenceCoalescer.Decision.SEND, coalescer.offer(state, presence("1", null), 1000));
+		Assert.assertEquals(PresenceCoalescer.Decision.SCHEDULE, coalescer.offer(state, presence("2", "away"), 1100));
+		Assert.assertTrue(coalescer.discardPending(state));
+		Assert.assertFalse(coalescer.discardPending(state));
+		Assert.assertFalse(coalescer.flush(null, state, new ArrayDeque<>(), 1500));
+
+		coalescer.sent(state, presence("3", "chat"), 2000);
+		Assert.assertEquals(PresenceCoalescer.Decision.SCHEDULE, coalescer.offer(state, presence("4", "away"), 2100));
+		Assert.assertEquals(400, coalescer.getFlushDelay(state, 2100));
+	}
+
+}
@@ -20,8 +20,17 @@ package tigase.xmpp.impl;
 import org.junit.Ignore;
 import org.junit.Test;
 import tigase.xml.Element;
+import tigase.xmpp.impl.roster.RosterAbstract;
+import tigase.xmpp.impl.roster.RosterElement;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class PrivacyListTest {
 
@@ -64,4 +73,49 @@ public class PrivacyListTest {
 
 //		System.out.println(privacyList.toString());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testItemsOrder() {
+		Map<BareJID, RosterElement> roster = new HashMap<>();
+		RosterElement friend = new RosterElement(JID.jidInstanceNS("friend@example.com"), null,
+												 new String[]{"Friends"});
+		friend.setSubscription(RosterAbstract.SubscriptionType.both);
+		roster.put(friend.getJid().getBareJID(), friend);
+		RosterElement coworker = new RosterElement(JID.jidInstanceNS("coworker@example.com"), null,
+												   new String[]{"Work"});
+		coworker.setSubscription(RosterAbstract.SubscriptionType.both);
+		roster.put(coworker.getJid().getBareJID(), coworker);
+
+		Element list = new Element("list", new String[]{"name"}, new String[]{"test"});
+		list.addChild(new Element("item", new String[]{"type", "value", "action", "order"},
+								  new String[]{"jid", "friend@example.com/phone", "deny", "1"}));
+		list.addChild(new Element("item", new String[]{"type", "value", "action", "order"},
+								  new String[]{"group", "Work", "deny", "2"}));
+		Element item = new Element("item", new String[]{"type", "value", "action", "order"},
+								   new String[]{"jid", "spam.example.com", "deny", "3"});
+		item.addChild(new Element("message"));
+		list.addChild(item);
+		list.addChild(new Element("item", new String[]{"type", "value", "action", "order"},
+								  new String[]{"subscription", "both", "allow", "4"}));
+		list.addChild(new Element("item", new String[]{"type", "value", "action", "order"},
+								  new String[]{"jid", "coworker@example.com", "allow", "5"}));
+		list.addChild(new Element("item", new String[]{"type", "value", "action", "order"},
+								  new String[]{"jid", "friend@example.com", "deny", "6"}));
+		list.addChild(new Element("item", new String[]{"action", "order"}, new String[]{"deny", "7"}));
+
+		PrivacyList privacyList = PrivacyList.create(roster, list);
+
+		assertFalse(privacyList.isAllowed(JID.jidInstanceNS("friend@example.com/phone"), PrivacyList.Item.Type.message));
+		// subscription item is placed before item for the bare JID
+		assertTrue(privacyList.isAllowed(JID.jidInstanceNS("friend@example.com/pc"), PrivacyList.Item.Type.message));
+		// group item is placed before item for the bare JID
+		assertFalse(privacyList.isAllowed(JID.jidInstanceNS("coworker@example.com/pc"), PrivacyList.Item.Type.iq));
+		assertFalse(privacyList.isAllowed(JID.jidInstanceNS("bot@spam.example.com"), PrivacyList.Item.Type.message));
+		assertFalse(privacyList.isAllowed(JID.jidInstanceNS("bot@spam.example.com"), PrivacyList.Item.Type.iq));
+		assertFalse(privacyList.isAllowed(JID.jidInstanceNS("stranger@example.com"), PrivacyList.Item.Type.presenceIn));
+
+		// roster changes are visible without compiling list again
+		friend.setGroups(new String[]{"Work"});
+		assertFalse(privacyList.isAllowed(JID.jidInstanceNS("friend@example.com/pc"), PrivacyList.Item.Type.message));
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl.roster;
+
+import org.junit.Test;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.impl.ProcessorTestCase;
+import tigase.xmpp.jid.JID;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RosterFlatIncrementalTest
+		extends ProcessorTestCase {
+
+	@Test
+	public void testIncrementalChanges() throws Exception {
+		JID buddy1 = JID.jidInstanceNS("buddy-1@example.com");
+		JID buddy2 = JID.jidInstanceNS("buddy-2@example.com");
+		XMPPResourceConnection session = getSession(JID.jidInstanceNS("c2s@example.com/test-111"),
+													JID.jidInstanceNS("user-1@example.com/res-1"));
+
+		// roster stored by RosterFlat
+		String roster_str = new RosterElement(buddy1, "Buddy 1", null).getRosterElement().toString() +
+				new RosterElement(buddy2, "Buddy 2", new String[]{"Friends"}).getRosterElement().toString();
+		session.setData(null, RosterAbstract.ROSTER, roster_str);
+
+		RosterFlatIncremental roster = new RosterFlatIncremental();
+
+		assertEquals(2, roster.getRosterItems(session).size());
+		assertEquals("v1", roster.getRosterVersion(session));
+		assertNull(session.getData(null, RosterAbstract.ROSTER, null));
+		assertNotNull(session.getData(RosterFlatIncremental.ITEMS_NODE, buddy1.toString(), null));
+		assertNotNull(session.getData(RosterFlatIncremental.ITEMS_NODE, buddy2.toString(), null));
+
+		roster.setBuddyName(session, buddy1, "New name");
+		assertEquals("v2", roster.getRosterVersion(session));
+
+		List<Element> changes = roster.getRosterItemsChangedSince(session, "v1");
+		assertEquals(1, changes.size());
+		assertEquals("v2", changes.get(0).getAttributeStaticStr(RosterAbstract.VER_ATT));
+		assertEquals("New name", changes.get(0).getChild("item").getAttributeStaticStr("name"));
+
+		// changes not visible to the client do not change roster version
+		roster.getRosterElement(session, buddy2).setLastSeen(System.currentTimeMillis());
+		roster.setBuddySubscription(session, RosterAbstract.SubscriptionType.none, buddy2);
+		assertEquals("v2", roster.getRosterVersion(session));
+
+		roster.removeBuddy(session, buddy2);
+		assertEquals("v3", roster.getRosterVersion(session));
+		assertNull(session.getData(RosterFlatIncremental.ITEMS_NODE, buddy2.toString(), null));
+
+		// nothing changed or client has unknown version
+		assertTrue(roster.getRosterItemsChangedSince(session, "v3").isEmpty());
+		assertNull(roster.getRosterItemsChangedSince(session, "v0"));
+		assertNull(roster.getRosterItemsChangedSince(session, "v4"));
+		assertNull(roster.getRosterItemsChangedSince(session, "d41d8cd98f00b204e9800998ecf8427e"));
+
+		// versions are restored after the roster is loaded again
+		roster.loadUserRoster(session);
+		assertEquals("v3", roster.getRosterVersion(session));
+		assertEquals(1, roster.getRosterItems(session).size());
+
+		changes = roster.getRosterItemsChangedSince(session, "v2");
+		assertEquals(1, changes.size());
+		assertEquals("v3", changes.get(0).getAttributeStaticStr(RosterAbstract.VER_ATT));
+		assertEquals(buddy2.toString(), changes.get(0).getChild("item").getAttributeStaticStr("jid"));
+		assertEquals("remove", changes.get(0).getChild("item").getAttributeStaticStr("subscription"));
+	}
+
+}
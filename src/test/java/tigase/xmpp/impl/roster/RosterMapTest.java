@@ -0,0 +1,108 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl.roster;
+
+import org.junit.Test;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RosterMapTest {
+
+	@Test
+	public void testPutGetRemove() {
+		RosterMap roster = new RosterMap();
+		Map<BareJID, RosterElement> expected = new HashMap<>();
+
+		for (int i = 0; i < 1000; i++) {
+			RosterElement elem = element("buddy-" + i + "@example.com");
+
+			assertNull(roster.put(elem.getJid().getBareJID(), elem));
+			expected.put(elem.getJid().getBareJID(), elem);
+		}
+		assertEquals(expected, roster);
+
+		// removing every third element moves other elements in the table
+		for (int i = 0; i < 1000; i += 3) {
+			BareJID jid = BareJID.bareJIDInstanceNS("buddy-" + i + "@example.com");
+
+			assertSame(expected.remove(jid), roster.remove(jid));
+			assertNull(roster.remove(jid));
+		}
+		assertEquals(expected.size(), roster.size());
+		for (Map.Entry<BareJID, RosterElement> e : expected.entrySet()) {
+			assertSame(e.getValue(), roster.get(e.getKey()));
+		}
+		assertNull(roster.get(BareJID.bareJIDInstanceNS("buddy-0@example.com")));
+
+		RosterElement replacement = element("buddy-1@example.com");
+
+		assertSame(expected.get(replacement.getJid().getBareJID()),
+				   roster.put(replacement.getJid().getBareJID(), replacement));
+		assertSame(replacement, roster.get(replacement.getJid().getBareJID()));
+		assertEquals(expected.size(), roster.size());
+	}
+
+	@Test
+	public void testIteratorRemove() {
+		RosterMap roster = new RosterMap();
+
+		for (int i = 0; i < 20; i++) {
+			RosterElement elem = element("buddy-" + i + "@example.com");
+
+			roster.put(elem.getJid().getBareJID(), elem);
+		}
+		for (Iterator<RosterElement> it = roster.values().iterator(); it.hasNext(); ) {
+			if (it.next().getJid().getLocalpart().endsWith("1")) {
+				it.remove();
+			}
+		}
+		assertEquals(18, roster.size());
+		assertFalse(roster.containsKey(BareJID.bareJIDInstanceNS("buddy-11@example.com")));
+		assertTrue(roster.containsKey(BareJID.bareJIDInstanceNS("buddy-12@example.com")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPutWithDifferentKey() {
+		new RosterMap().put(BareJID.bareJIDInstanceNS("buddy-2@example.com"), element("buddy-1@example.com"));
+	}
+
+	@Test
+	public void testOnlineResources() {
+		RosterElement elem = element("buddy-1@example.com");
+
+		assertFalse(elem.isOnline());
+		elem.setOnline("res-1", true);
+		elem.setOnline("res-2", true);
+		elem.setOnline("res-1", true);
+		elem.setOnline("res-1", false);
+		assertTrue(elem.isOnline());
+		elem.setOnline("res-2", false);
+		assertFalse(elem.isOnline());
+	}
+
+	private static RosterElement element(String jid) {
+		return new RosterElement(JID.jidInstanceNS(jid), null, new String[]{"Friends"});
+	}
+
+}